@@ -137,6 +137,8 @@ public class ExtraProperties {
 
     public static final String TIME_EVENT_GROUPS = "timeEventGroups";
 
+    public static final String TIME_EVENT_EPOCHS = "timeEventEpochs";
+
     public static final String DECODED_DATA = "isDecodedData";
 
     public static final String DOWNLOADED_DATA = "downloadedData";
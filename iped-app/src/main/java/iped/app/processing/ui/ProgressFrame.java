@@ -35,7 +35,9 @@
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.text.NumberFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -54,6 +56,7 @@
 import iped.data.IItem;
 import iped.engine.Version;
 import iped.engine.core.Statistics;
+import iped.engine.core.TaskMetrics;
 import iped.engine.core.Worker;
 import iped.engine.core.Worker.STATE;
 import iped.engine.localization.Messages;
@@ -291,7 +294,11 @@ private String getTaskTimes() {
         }
         StringBuilder msg = new StringBuilder();
         startTable(msg);
-        addTitle(msg, 3, Messages.getString("ProgressFrame.TaskTimes"));
+        addTitle(msg, 4, Messages.getString("ProgressFrame.TaskTimes"));
+
+        Map<String, TaskMetrics> metrics = Statistics.get() != null
+                ? Statistics.get().getMetricsRegistry().getByTask()
+                : Collections.emptyMap();
 
         long totalTime = 0;
         long[] taskTimes = new long[workers[0].tasks.size()];
@@ -312,12 +319,20 @@ private String getTaskTimes() {
                 long sec = time / (1000000 * workers.length);
                 int pct = (int) ((100 * time) / totalTime);
 
+                // mean time per item, read from lock free counters
+                TaskMetrics taskMetrics = metrics.get(task.getName());
+                String latency = taskMetrics != null && taskMetrics.getItems() > 0
+                        ? nf.format(taskMetrics.getMeanLatency() / 1000.0) + "ms" //$NON-NLS-1$
+                        : "-"; //$NON-NLS-1$
+
                 startRow(msg, task.getName(), pct);
                 addCell(msg, nf.format(sec) + "s", Align.RIGHT);
+                addCell(msg, latency, Align.RIGHT);
                 finishRow(msg, pct + "%", Align.RIGHT);
             } else {
                 startRow(msg, task.getName(), false);
                 addCell(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
                 finishRow(msg, "-", Align.CENTER);
             }
         }
@@ -2,6 +2,7 @@
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
@@ -22,6 +23,8 @@
 
 import iped.app.timelinegraph.DateUtil;
 import iped.app.timelinegraph.IpedChartsPanel;
+import iped.engine.search.TimelineIndex;
+import iped.engine.search.TimelineIndex.EventColumn;
 import iped.viewers.api.IMultiSearchResultProvider;
 
 public class EventTimestampCache implements Runnable {
@@ -46,7 +49,7 @@ public void run() {
         DocIdSetIterator timeStampValues;
         try {
             String eventField = ipedChartsPanel.getTimeEventColumnName(eventType);
-            if (eventField != null) {
+            if (eventField != null && !loadFromTimelineIndex(timeStampCache)) {
                 timeStampValues = reader.getSortedDocValues(eventField);
                 if (timeStampValues == null) {
                     SortedSetDocValues values = reader.getSortedSetDocValues(eventField);
@@ -169,6 +172,66 @@ public void run() {
         }
     }
 
+    /**
+     * Fills the cache from the sorted timestamps of the timeline index: docs of
+     * each period are contiguous, so each period is computed once and its docs
+     * are added in bulk.
+     *
+     * @return false if there is no up to date timeline index.
+     */
+    private boolean loadFromTimelineIndex(IndexTimeStampCache timeStampCache) {
+        List<TimelineIndex> indexes = timeStampCache.getTimelineIndexes();
+        if (indexes == null) {
+            return false;
+        }
+        int[] docs = new int[4096];
+        for (int s = 0; s < indexes.size(); s++) {
+            EventColumn column = indexes.get(s).getEvent(eventType);
+            if (column == null) {
+                continue;
+            }
+            int baseDoc = timeStampCache.getTimelineBaseDoc(s);
+            int size = column.size();
+            for (Class<? extends TimePeriod> timePeriodClass : timeStampCache.getPeriodClassesToCache()) {
+                int i = 0;
+                while (i < size) {
+                    TimePeriod t = ipedChartsPanel.getDomainAxis().getDateOnConfiguredTimePeriod(timePeriodClass, new Date(column.getTime(i)));
+                    if (t == null) {
+                        i++;
+                        continue;
+                    }
+                    long end = t.getEnd().getTime();
+                    int j = i + 1;
+                    while (j < size && column.getTime(j) <= end) {
+                        j++;
+                    }
+                    RoaringBitmap docs2;
+                    synchronized (timeStampCache) {
+                        docs2 = timeStampCache.get(timePeriodClass, t, eventType);
+                        if (docs2 == null) {
+                            docs2 = new RoaringBitmap();
+                            timeStampCache.add(timePeriodClass, t, eventType, docs2);
+                        }
+                    }
+                    synchronized (docs2) {
+                        for (int k = i; k < j; k += docs.length) {
+                            int n = Math.min(docs.length, j - k);
+                            column.getDocs(k, docs, 0, n);
+                            if (baseDoc != 0) {
+                                for (int d = 0; d < n; d++) {
+                                    docs[d] += baseDoc;
+                                }
+                            }
+                            docs2.addN(docs, 0, n);
+                        }
+                    }
+                    i = j;
+                }
+            }
+        }
+        return true;
+    }
+
     private static final boolean isPeriodToCache(Class<? extends TimePeriod> timePeriodClass) {
         return timePeriodClass == Year.class || timePeriodClass == Quarter.class || timePeriodClass == Month.class || timePeriodClass == Week.class || timePeriodClass == Day.class || timePeriodClass == Hour.class;
     }
@@ -1,5 +1,6 @@
 package iped.app.timelinegraph.cache;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -18,6 +19,7 @@
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.TermsEnum;
@@ -29,6 +31,9 @@
 import iped.app.timelinegraph.IpedChartsPanel;
 import iped.app.timelinegraph.cache.persistance.CachePersistance;
 import iped.engine.core.Manager;
+import iped.engine.data.IPEDMultiSource;
+import iped.engine.data.IPEDSource;
+import iped.engine.search.TimelineIndex;
 import iped.properties.ExtraProperties;
 import iped.viewers.api.IMultiSearchResultProvider;
 
@@ -61,6 +66,61 @@ public IndexTimeStampCache(IpedChartsPanel ipedChartsPanel, IMultiSearchResultPr
     SortedSet<String> eventTypes = new TreeSet<String>();
     final Object monitor = new Object();
 
+    private List<TimelineIndex> timelineIndexes;
+    private int[] timelineBaseDocs;
+    private boolean timelineIndexesLoaded = false;
+
+    /**
+     * Loads the timeline index created after processing of each case.
+     *
+     * @return the indexes or null if some case does not have an up to date index.
+     */
+    synchronized List<TimelineIndex> getTimelineIndexes() {
+        if (timelineIndexesLoaded) {
+            return timelineIndexes;
+        }
+        timelineIndexesLoaded = true;
+        List<IPEDSource> sources = new ArrayList<>();
+        Object source = resultsProvider.getIPEDSource();
+        if (source instanceof IPEDMultiSource) {
+            sources.addAll(((IPEDMultiSource) source).getAtomicSources());
+        } else if (source instanceof IPEDSource) {
+            sources.add((IPEDSource) source);
+        }
+        if (sources.isEmpty()) {
+            return null;
+        }
+        List<TimelineIndex> indexes = new ArrayList<>();
+        int[] baseDocs = new int[sources.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            IPEDSource atomicSource = sources.get(i);
+            if (!(atomicSource.getReader() instanceof DirectoryReader)) {
+                return null;
+            }
+            long version = ((DirectoryReader) atomicSource.getReader()).getVersion();
+            File file = new File(atomicSource.getModuleDir(), TimelineIndex.TIMELINE_INDEX_FILE);
+            TimelineIndex index = null;
+            try {
+                index = TimelineIndex.load(file, version);
+            } catch (IOException e) {
+                logger.warn("Error loading timeline index " + file.getAbsolutePath(), e);
+            }
+            if (index == null) {
+                logger.info("Timeline index not found or out of date, reading timestamps from index: {}", file.getAbsolutePath());
+                return null;
+            }
+            indexes.add(index);
+            baseDocs[i] = source instanceof IPEDMultiSource ? ((IPEDMultiSource) source).getBaseLuceneId(atomicSource) : 0;
+        }
+        timelineIndexes = indexes;
+        timelineBaseDocs = baseDocs;
+        return timelineIndexes;
+    }
+
+    int getTimelineBaseDoc(int index) {
+        return timelineBaseDocs[index];
+    }
+
     @Override
     public void run() {
         try {
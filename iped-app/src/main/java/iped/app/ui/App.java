@@ -231,6 +231,7 @@ public class App extends JFrame implements WindowListener, IMultiSearchResultPro
 
     public SimilarImagesFilterPanel similarImageFilterPanel;
     public IItem similarImagesQueryRefItem;
+    public int similarImagesTopN;
     public List<? extends SortKey> similarImagesPrevSortKeys;
 
     public SimilarFacesFilterPanel similarFacesFilterPanel;
@@ -521,6 +522,7 @@ public void createGUI() {
 
         gallery = new GalleryTable(galleryModel);
         galleryScroll = new JScrollPane(gallery);
+        galleryScroll.getViewport().addChangeListener(e -> galleryModel.visibleRowsChanged());
         gallery.setFillsViewportHeight(true);
         gallery.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
         gallery.setShowGrid(false);
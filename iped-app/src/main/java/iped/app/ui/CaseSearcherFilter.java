@@ -274,8 +274,15 @@ public MultiSearchResult doInBackground() {
                 if (App.get().similarImagesQueryRefItem != null) {
                     //LOGGER.info("Starting similar image search...");
                     long t = System.currentTimeMillis();
-                    new ImageSimilarityScorer(App.get().appCase, result, App.get().similarImagesQueryRefItem).score();
+                    ImageSimilarityScorer scorer = new ImageSimilarityScorer(App.get().appCase, result,
+                            App.get().similarImagesQueryRefItem);
+                    scorer.setCanceled(this::isCancelled);
+                    scorer.score();
                     result = ImageSimilarityLowScoreFilter.filter(result);
+                    if (App.get().similarImagesTopN > 0) {
+                        result = SimilarImagesSearch.filterTopSimilar(App.get().appCase, result,
+                                App.get().similarImagesQueryRefItem, App.get().similarImagesTopN);
+                    }
                     t = System.currentTimeMillis() - t;
                     //LOGGER.info("Similar image search took {}ms to find {} images", t, result.getLength());
                 }
@@ -284,6 +291,7 @@ public MultiSearchResult doInBackground() {
                     //LOGGER.info("Starting similar face search...");
                     long t = System.currentTimeMillis();
                     SimilarFacesSearch sfs = new SimilarFacesSearch(App.get().appCase, App.get().similarFacesRefItem);
+                    sfs.setCanceled(this::isCancelled);
                     result = sfs.filter(result);
                     numFilters++;
                     t = System.currentTimeMillis() - t;
@@ -1,14 +1,11 @@
 package iped.app.ui;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.BitSet;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
 
-import iped.data.IItemId;
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.lucene.DocValuesUtil;
 import iped.engine.search.MultiSearchResult;
@@ -32,9 +29,6 @@ public MultiSearchResult filter(IMultiSearchResult result) throws IOException {
         LeafReader reader = ipedCase.getLeafReader();
         SortedDocValues docValues = reader.getSortedDocValues(IndexItem.HASH);
 
-        ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
         boolean filterOrdZero = false;
         try {
             if (!docValues.lookupOrd(0).utf8ToString().isEmpty()) {
@@ -43,19 +37,18 @@ public MultiSearchResult filter(IMultiSearchResult result) throws IOException {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        for (IItemId item : result.getIterator()) {
-            int docId = ipedCase.getLuceneId(item);
+        MultiSearchResult multiResult = MultiSearchResult.of(result);
+        BitSet rows = new BitSet(multiResult.getLength());
+        for (int i = 0; i < multiResult.getLength(); i++) {
+            int docId = ipedCase.getLuceneId(multiResult.getSourceId(i), multiResult.getId(i));
             int ord = DocValuesUtil.getOrd(docValues, docId);
             if (ord < 0 || !ordSet.get(ord)) {
-                filteredItems.add(item);
-                scores.add(result.getScore(i));
+                rows.set(i);
                 if (ord > 0 || (ord == 0 && filterOrdZero))
                     ordSet.set(ord);
             }
-            i++;
         }
-        return new MultiSearchResult(filteredItems.toArray(new IItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+        return multiResult.select(rows);
     }
 
 }
@@ -0,0 +1,92 @@
+package iped.app.ui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import iped.data.IItemId;
+
+/**
+ * LRU cache of gallery values limited by the memory used by their decoded
+ * images, instead of by the number of entries, so small thumbnails and icons
+ * do not limit the cache of large thumbnails and vice versa.
+ */
+public class GalleryCache {
+
+    /**
+     * Estimated size of values without image, like icons of unsupported types.
+     */
+    private static final int VALUE_WITHOUT_IMAGE_BYTES = 256;
+
+    private final LinkedHashMap<IItemId, GalleryValue> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+
+    public GalleryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static long getBytes(GalleryValue value) {
+        BufferedImage image = value.image;
+        if (image == null) {
+            return VALUE_WITHOUT_IMAGE_BYTES;
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return VALUE_WITHOUT_IMAGE_BYTES
+                + (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    public synchronized GalleryValue get(IItemId id) {
+        return map.get(id);
+    }
+
+    public synchronized boolean containsKey(IItemId id) {
+        return map.containsKey(id);
+    }
+
+    /**
+     * Adds a value, evicting least recently used ones while the cache is over its
+     * budget. The last added value is always kept.
+     */
+    public synchronized void put(IItemId id, GalleryValue value) {
+        GalleryValue prev = map.put(id, value);
+        if (prev != null) {
+            bytes -= getBytes(prev);
+        }
+        bytes += getBytes(value);
+        Iterator<GalleryValue> it = map.values().iterator();
+        while (bytes > maxBytes && map.size() > 1) {
+            GalleryValue eldest = it.next();
+            bytes -= getBytes(eldest);
+            it.remove();
+        }
+    }
+
+    public synchronized void removeIf(Predicate<IItemId> filter) {
+        Iterator<Map.Entry<IItemId, GalleryValue>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<IItemId, GalleryValue> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                bytes -= getBytes(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+}
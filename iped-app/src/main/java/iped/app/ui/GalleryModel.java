@@ -18,17 +18,20 @@
  */
 package iped.app.ui;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -76,8 +79,14 @@ public class GalleryModel extends AbstractTableModel {
     private boolean logRendering = false;
     private ImageThumbTask imgThumbTask;
 
-    public Map<IItemId, GalleryValue> cache = Collections.synchronizedMap(new LinkedHashMap<IItemId, GalleryValue>());
-    private int maxCacheSize = 1000;
+    public GalleryCache cache;
+    private int prefetchRows;
+    private File diskCacheDir;
+
+    // thumbnails waiting to be loaded, cancelled if they go away from view
+    private Map<IItemId, PendingThumb> pending = new ConcurrentHashMap<>();
+    private volatile int firstVisibleRow = 0, lastVisibleRow = -1;
+    private volatile boolean scrollingUp = false;
     private ErrorIcon errorIcon = new ErrorIcon();
     private static final BufferedImage errorImg = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY);
     public static final ImageIcon unsupportedIcon = new ImageIcon();
@@ -97,12 +106,26 @@ public boolean getGrayFilter() {
 
     public void setBlurFilter(boolean newBlurFilter) {
         blurFilter = newBlurFilter;
-        cache.clear();
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     public void setGrayFilter(boolean newGrayFilter) {
         grayFilter = newGrayFilter;
-        cache.clear();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private static class PendingThumb {
+
+        private final int row;
+        private volatile Future<?> future;
+
+        private PendingThumb(int row) {
+            this.row = row;
+        }
     }
 
     @Override
@@ -140,9 +163,7 @@ public Class<?> getColumnClass(int c) {
         return GalleryCellRenderer.class;
     }
 
-    @Override
-    public Object getValueAt(final int row, final int col) {
-
+    private void init() {
         if (imgThumbTask == null) {
             try {
                 imgThumbTask = new ImageThumbTask();
@@ -150,11 +171,26 @@ public Object getValueAt(final int row, final int col) {
                 thumbSize = imgThumbTask.getImageThumbConfig().getThumbSize();
                 galleryThreads = Math.min(imgThumbTask.getImageThumbConfig().getGalleryThreads(), MAX_TSK_POOL_SIZE);
                 logRendering = imgThumbTask.getImageThumbConfig().isLogGalleryRendering();
+                prefetchRows = imgThumbTask.getImageThumbConfig().getGalleryPrefetchRows();
+                String diskCache = imgThumbTask.getImageThumbConfig().getGalleryDiskCacheDir();
+                if (diskCache != null) {
+                    diskCacheDir = new File(diskCache, String.valueOf(thumbSize));
+                }
 
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+        if (cache == null) {
+            long maxBytes = (long) (imgThumbTask != null ? imgThumbTask.getImageThumbConfig().getGalleryCacheMB() : 256) << 20;
+            cache = new GalleryCache(Math.min(maxBytes, Runtime.getRuntime().maxMemory() / 4));
+        }
+    }
+
+    @Override
+    public Object getValueAt(final int row, final int col) {
+
+        init();
 
         int idx = row * colCount + col;
         if (idx >= App.get().ipedResult.getLength()) {
@@ -165,10 +201,9 @@ public Object getValueAt(final int row, final int col) {
         final IItemId id = App.get().ipedResult.getItem(idx);
         final int docId = App.get().appCase.getLuceneId(id);
 
-        synchronized (cache) {
-            if (cache.containsKey(id)) {
-                return cache.get(id);
-            }
+        GalleryValue cachedValue = cache.get(id);
+        if (cachedValue != null) {
+            return cachedValue;
         }
 
         final Document doc;
@@ -179,7 +214,85 @@ public Object getValueAt(final int row, final int col) {
             return new GalleryValue("", errorIcon, id); //$NON-NLS-1$
         }
 
-        final String mediaType = doc.get(IndexItem.CONTENTTYPE);
+        loadThumb(row, col, id, docId, doc);
+
+        return new GalleryValue(doc.get(IndexItem.NAME), null, id);
+    }
+
+    /**
+     * Called when the gallery is scrolled or resized. Cancels loading of
+     * thumbnails that went away from view and prefetches thumbnails of the next
+     * rows in the scroll direction.
+     */
+    public void visibleRowsChanged() {
+        GalleryTable gallery = App.get().gallery;
+        Rectangle rect = gallery.getVisibleRect();
+        if (rect.isEmpty() || gallery.getRowCount() == 0) {
+            return;
+        }
+        int first = gallery.rowAtPoint(rect.getLocation());
+        int last = gallery.rowAtPoint(new Point(rect.x, rect.y + rect.height - 1));
+        if (first == -1) {
+            return;
+        }
+        if (last == -1) {
+            last = gallery.getRowCount() - 1;
+        }
+        if (first != firstVisibleRow) {
+            scrollingUp = first < firstVisibleRow;
+        }
+        firstVisibleRow = first;
+        lastVisibleRow = last;
+
+        pending.values().removeIf(thumb -> {
+            if (!isInLoadWindow(thumb.row)) {
+                Future<?> future = thumb.future;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return true;
+            }
+            return false;
+        });
+
+        if (imgThumbTask == null || prefetchRows <= 0) {
+            return;
+        }
+        int start = scrollingUp ? Math.max(0, first - prefetchRows) : last + 1;
+        int end = scrollingUp ? first : Math.min(gallery.getRowCount(), last + 1 + prefetchRows);
+        int length = App.get().ipedResult.getLength();
+        for (int row = start; row < end; row++) {
+            for (int col = 0; col < colCount; col++) {
+                int idx = row * colCount + col;
+                if (idx >= length) {
+                    return;
+                }
+                IItemId id = App.get().ipedResult.getItem(App.get().resultsTable.convertRowIndexToModel(idx));
+                if (!cache.containsKey(id)) {
+                    loadThumb(row, col, id, App.get().appCase.getLuceneId(id), null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the row is visible or will be prefetched
+     */
+    private boolean isInLoadWindow(int row) {
+        int first = firstVisibleRow, last = lastVisibleRow;
+        if (last == -1) {
+            // visible rows not known yet
+            return true;
+        }
+        if (scrollingUp) {
+            first -= prefetchRows;
+        } else {
+            last += prefetchRows;
+        }
+        return row >= first && row <= last;
+    }
+
+    private void loadThumb(final int row, final int col, final IItemId id, final int docId, final Document indexDoc) {
 
         if (executor == null) {
             executor = Executors.newFixedThreadPool(galleryThreads);
@@ -187,22 +300,33 @@ public Object getValueAt(final int row, final int col) {
             externalImageConverter = new ExternalImageConverter();
         }
 
-        executor.execute(new Runnable() {
+        PendingThumb pendingThumb = new PendingThumb(row);
+        if (pending.putIfAbsent(id, pendingThumb) != null) {
+            return;
+        }
+
+        pendingThumb.future = executor.submit(new Runnable() {
             public void run() {
 
                 BufferedImage image = null;
                 InputStream stream = null;
-                GalleryValue value = new GalleryValue(doc.get(IndexItem.NAME), null, id);
+                Document doc = indexDoc;
+                GalleryValue value = new GalleryValue("", null, id); //$NON-NLS-1$
                 try {
                     if (cache.containsKey(id)) {
                         return;
                     }
 
-                    if (!App.get().gallery.getVisibleRect()
-                            .intersects(App.get().gallery.getCellRect(row, col, false))) {
+                    if (!isInLoadWindow(row)) {
                         return;
                     }
 
+                    if (doc == null) {
+                        doc = App.get().appCase.getSearcher().doc(docId);
+                    }
+                    value.name = doc.get(IndexItem.NAME);
+                    String mediaType = doc.get(IndexItem.CONTENTTYPE);
+
                     if (logRendering) {
                         String path = doc.get(IndexItem.PATH);
                         LOGGER.info("Gallery rendering " + path); //$NON-NLS-1$
@@ -236,7 +360,13 @@ public void run() {
                         value.icon = IconManager.getFileIconGallery(contentType, type);
                     }
 
-                    if (image == null && value.icon == null && stream == null && isSupportedImage(mediaType)) {
+                    boolean fromOriginal = image == null && value.icon == null && isSupportedImage(mediaType);
+                    if (fromOriginal) {
+                        image = getDiskCacheImage(hash);
+                        fromOriginal = image == null;
+                    }
+
+                    if (fromOriginal) {
                         stream = App.get().appCase.getItemByLuceneID(docId).getBufferedInputStream();
                     }
 
@@ -270,6 +400,10 @@ public void run() {
                             image = ImageUtil.resizeImage(image, thumbSize, thumbSize);
                         }
 
+                        if (stream != null) {
+                            putDiskCacheImage(hash, image);
+                        }
+
                         if (blurFilter) {
                             image = ImageUtil.blur(image, thumbSize, blurIntensity);
                         }
@@ -283,6 +417,7 @@ public void run() {
                     value.icon = errorIcon;
 
                 } finally {
+                    pending.remove(id, pendingThumb);
                     try {
                         if (stream != null) {
                             stream.close();
@@ -304,39 +439,65 @@ public void run() {
                         App.get().galleryModel.fireTableCellUpdated(row, col);
                     }
                 });
-
-                synchronized (cache) {
-                    Iterator<IItemId> i = cache.keySet().iterator();
-                    while (cache.size() > maxCacheSize) {
-                        i.next();
-                        i.remove();
-                    }
-
-                }
             }
         });
+    }
 
-        return new GalleryValue(doc.get(IndexItem.NAME), null, id);
+    private File getDiskCacheFile(String hash) {
+        if (diskCacheDir == null || hash == null || hash.isEmpty()) {
+            return null;
+        }
+        return Util.getFileFromHash(diskCacheDir, hash, "jpg"); //$NON-NLS-1$
     }
 
-    public void clearVideoThumbsInCache() {
-        synchronized (cache) {
-            Iterator<IItemId> it = cache.keySet().iterator();
-            while (it.hasNext()) {
-                IItemId id = it.next();
-                int docId = App.get().appCase.getLuceneId(id);
-                try {
-                    Document doc = App.get().appCase.getSearcher().doc(docId);
-                    String mediaType = doc.get(IndexItem.CONTENTTYPE);
-                    if (isSupportedVideo(mediaType) || isAnimationImage(doc, mediaType)) {
-                        it.remove();
-                    }
-                } catch (Exception e) {
-                }
+    private BufferedImage getDiskCacheImage(String hash) {
+        File file = getDiskCacheFile(hash);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try {
+            return ImageIO.read(file);
+        } catch (IOException e) {
+            LOGGER.warn("Error reading gallery disk cache {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private void putDiskCacheImage(String hash, BufferedImage image) {
+        File file = getDiskCacheFile(hash);
+        if (file == null || file.exists()) {
+            return;
+        }
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile("thumb", ".tmp", file.getParentFile()); //$NON-NLS-1$ //$NON-NLS-2$
+            try {
+                ImageIO.write(ImageUtil.getOpaqueImage(image), "jpg", tmp); //$NON-NLS-1$
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete();
             }
+        } catch (IOException e) {
+            LOGGER.warn("Error writing gallery disk cache {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
         }
     }
 
+    public void clearVideoThumbsInCache() {
+        if (cache == null) {
+            return;
+        }
+        cache.removeIf(id -> {
+            int docId = App.get().appCase.getLuceneId(id);
+            try {
+                Document doc = App.get().appCase.getSearcher().doc(docId);
+                String mediaType = doc.get(IndexItem.CONTENTTYPE);
+                return isSupportedVideo(mediaType) || isAnimationImage(doc, mediaType);
+            } catch (Exception e) {
+                return false;
+            }
+        });
+    }
+
     private BufferedImage getViewImage(int docID, String hash, boolean isVideo) throws IOException {
         File baseFolder = App.get().appCase.getAtomicSource(docID).getModuleDir();
         if (isVideo) {
@@ -52,7 +52,7 @@ public class MenuClass extends JPopupMenu {
             exportTerms, manageFilters, manageColumns, exportCheckedToZip,
             exportCheckedTreeToZip, exportTree, exportTreeChecked, similarDocs, openViewfile, createReport,
             resetColLayout, lastColLayout, saveColLayout, addToGraph, navigateToParentChat, pinFirstColumns,
-            similarImagesCurrent, similarImagesExternal, similarFacesCurrent, similarFacesExternal, toggleTimelineView,
+            similarImagesCurrent, similarImagesTopN, similarImagesExternal, similarFacesCurrent, similarFacesExternal, toggleTimelineView,
             uiZoom, catIconSize, savePanelsLayout, loadPanelsLayout;
 
     MenuListener menuListener = new MenuListener(this);
@@ -276,6 +276,11 @@ public void actionPerformed(ActionEvent e) {
         similarImagesCurrent.setEnabled(item != null && item.getExtraAttribute(ImageSimilarityTask.IMAGE_FEATURES) != null);
         submenu.add(similarImagesCurrent);
 
+        similarImagesTopN = new JMenuItem(Messages.getString("MenuClass.FindSimilarImages.TopN")); //$NON-NLS-1$
+        similarImagesTopN.addActionListener(menuListener);
+        similarImagesTopN.setEnabled(similarImagesCurrent.isEnabled());
+        submenu.add(similarImagesTopN);
+
         similarImagesExternal = new JMenuItem(Messages.getString("MenuClass.FindSimilarImages.External")); //$NON-NLS-1$
         similarImagesExternal.addActionListener(menuListener);
         similarImagesExternal.setEnabled(submenu.isEnabled());
@@ -341,6 +341,9 @@ public void actionPerformed(ActionEvent e) {
         } else if (e.getSource() == menu.similarImagesCurrent) {
             SimilarImagesFilterActions.searchSimilarImages(false);
 
+        } else if (e.getSource() == menu.similarImagesTopN) {
+            SimilarImagesFilterActions.searchTopSimilarImages();
+
         } else if (e.getSource() == menu.similarImagesExternal) {
             SimilarImagesFilterActions.searchSimilarImages(true);
 
@@ -21,9 +21,14 @@
 import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.LeafReader;
@@ -34,6 +39,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import iped.app.ui.parallelsorter.SortKeyComparator;
 import iped.data.IItemId;
 import iped.engine.localization.CategoryLocalization;
 import iped.engine.search.TimelineResults.TimeItemId;
@@ -42,7 +48,13 @@
 import iped.properties.BasicProps;
 import iped.properties.ExtraProperties;
 
-public class RowComparator implements Comparator<Integer> {
+/**
+ * Compares result rows by a column. Values of indexed fields are loaded into a
+ * primitive sort key per doc: the ord or value of single valued fields, or the
+ * first values of multivalued fields. Docs with more values than fit in the
+ * key keep all of them to break ties.
+ */
+public class RowComparator implements SortKeyComparator<Integer> {
 
     private static Logger LOGGER = LoggerFactory.getLogger(RowComparator.class);
 
@@ -65,10 +77,13 @@ public class RowComparator implements Comparator<Integer> {
 
     private int[] localizedCategoryOrds;
 
-    private int[] sdvOrds;
-    private long[] ndvOrds;
-    private int[][] ssdvOrds;
-    private long[][] sndvOrds;
+    private long[] docSortKeys;
+    private boolean exactSortKeys = true;
+    private boolean stringValues = false;
+
+    // all values of docs with more values than the sort key holds
+    private int[][] ssdvExtraOrds;
+    private long[][] sndvExtraValues;
 
     public static void setLoadDocValues(boolean load) {
         loadDocValues = load;
@@ -152,58 +167,74 @@ private void loadOrds(SortedDocValues sdv, SortedSetDocValues ssdv, NumericDocVa
             SortedNumericDocValues sndv) throws IOException {
         int maxDoc = App.get().appCase.getLeafReader().maxDoc();
         if (sdv != null) {
-            sdvOrds = new int[maxDoc];
+            stringValues = true;
+            docSortKeys = new long[maxDoc];
             for (int i = 0; i < maxDoc; i++) {
                 if (sdv.advanceExact(i)) {
-                    sdvOrds[i] = sdv.ordValue();
+                    docSortKeys[i] = sdv.ordValue();
                 } else {
-                    sdvOrds[i] = -1;
+                    docSortKeys[i] = -1;
                 }
             }
         }
         if (ndv != null) {
-            ndvOrds = new long[maxDoc];
+            docSortKeys = new long[maxDoc];
             for (int i = 0; i < maxDoc; i++) {
                 if (ndv.advanceExact(i)) {
-                    ndvOrds[i] = ndv.longValue();
+                    docSortKeys[i] = ndv.longValue();
                 } else {
-                    ndvOrds[i] = Long.MIN_VALUE;
+                    docSortKeys[i] = Long.MIN_VALUE;
                 }
             }
         }
         if (ssdv != null) {
-            int[] empty = new int[0];
-            ssdvOrds = new int[maxDoc][];
+            // first two ords + 1, so missing values come first
+            stringValues = true;
+            docSortKeys = new long[maxDoc];
+            int[] ords = new int[16];
             for (int i = 0; i < maxDoc; i++) {
                 if (ssdv.advanceExact(i)) {
-                    ArrayList<Integer> ords = new ArrayList<>();
-                    int ord;
+                    int count = 0, ord;
                     while ((ord = (int) ssdv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
-                        ords.add(ord);
+                        if (count == ords.length) {
+                            ords = Arrays.copyOf(ords, count * 2);
+                        }
+                        ords[count++] = isCategory ? localizedCategoryOrds[ord] : ord;
                     }
-                    ssdvOrds[i] = new int[ords.size()];
-                    for (int j = 0; j < ords.size(); j++) {
-                        ssdvOrds[i][j] = ords.get(j);
+                    long first = count > 0 ? ords[0] + 1 : 0;
+                    long second = count > 1 ? ords[1] + 1 : 0;
+                    docSortKeys[i] = (first << 32) | second;
+                    if (count > 2) {
+                        if (ssdvExtraOrds == null) {
+                            ssdvExtraOrds = new int[maxDoc][];
+                        }
+                        ssdvExtraOrds[i] = Arrays.copyOf(ords, count);
                     }
-                } else {
-                    ssdvOrds[i] = empty;
                 }
             }
         }
         if (sndv != null) {
-            long[] empty = new long[0];
-            sndvOrds = new long[maxDoc][];
+            docSortKeys = new long[maxDoc];
             for (int i = 0; i < maxDoc; i++) {
                 if (sndv.advanceExact(i)) {
-                    sndvOrds[i] = new long[sndv.docValueCount()];
-                    for (int j = 0; j < sndv.docValueCount(); j++) {
-                        sndvOrds[i][j] = sndv.nextValue();
+                    int count = sndv.docValueCount();
+                    long[] values = new long[count];
+                    for (int j = 0; j < count; j++) {
+                        values[j] = sndv.nextValue();
+                    }
+                    docSortKeys[i] = count > 0 ? values[0] : Long.MIN_VALUE;
+                    if (count > 1) {
+                        if (sndvExtraValues == null) {
+                            sndvExtraValues = new long[maxDoc][];
+                        }
+                        sndvExtraValues[i] = values;
                     }
                 } else {
-                    sndvOrds[i] = empty;
+                    docSortKeys[i] = Long.MIN_VALUE;
                 }
             }
         }
+        exactSortKeys = ssdvExtraOrds == null && sndvExtraValues == null;
     }
 
     public static int[] getLocalizedCategoryOrd(SortedSetDocValues ssdv) throws IOException {
@@ -229,7 +260,110 @@ public static boolean isNewIndexReader() {
     }
 
     public boolean isStringComparator() {
-        return sdvOrds != null || ssdvOrds != null || bookmarkCol;
+        return stringValues || bookmarkCol;
+    }
+
+    private int[] getSsdvOrds(int doc) {
+        if (ssdvExtraOrds != null && ssdvExtraOrds[doc] != null) {
+            return ssdvExtraOrds[doc];
+        }
+        int first = (int) (docSortKeys[doc] >>> 32) - 1;
+        int second = (int) docSortKeys[doc] - 1;
+        if (first == -1) {
+            return new int[0];
+        }
+        return second == -1 ? new int[] { first } : new int[] { first, second };
+    }
+
+    private long[] getSndvValues(int doc) {
+        if (sndvExtraValues != null && sndvExtraValues[doc] != null) {
+            return sndvExtraValues[doc];
+        }
+        return new long[] { docSortKeys[doc] };
+    }
+
+    @Override
+    public boolean isSortKeyExact() {
+        return exactSortKeys;
+    }
+
+    @Override
+    public long[] getSortKeys(int count, IntFunction<? extends Integer> rows) {
+        if (!scoreCol && col != 1 && !bookmarkCol && docSortKeys == null) {
+            boolean timeItems = count > 0 && app.ipedResult.getItem(rows.apply(0)) instanceof TimeItemId;
+            if (!(timeItems && (isTimeStamp || isTimeEvent))) {
+                // values loaded on demand
+                return null;
+            }
+        }
+        long[] keys = new long[count];
+        if (bookmarkCol) {
+            loadBookmarkRanks(keys, rows);
+            return keys;
+        }
+        Thread sortThread = Thread.currentThread();
+        IntStream.range(0, count).parallel().forEach(i -> {
+            if ((i & 0xFFF) == 0 && sortThread.isInterrupted())
+                throw new RuntimeException(Messages.getString("RowComparator.SortCanceled")); //$NON-NLS-1$
+            int row = rows.apply(i);
+            if (scoreCol) {
+                // float bits ordered like Float.compare()
+                int bits = Float.floatToIntBits(app.ipedResult.getScore(row));
+                keys[i] = bits ^ ((bits >> 31) & 0x7fffffff);
+                return;
+            }
+            IItemId item = app.ipedResult.getItem(row);
+            if (col == 1) {
+                keys[i] = app.appCase.getMultiBookmarks().isChecked(item) ? 0 : 1;
+            } else if (isTimeStamp && item instanceof TimeItemId) {
+                keys[i] = ((TimeItemId) item).getTimeStampOrd();
+            } else if (isTimeEvent && item instanceof TimeItemId) {
+                keys[i] = ((TimeItemId) item).getTimeEventOrd();
+            } else if (docSortKeys != null) {
+                keys[i] = docSortKeys[app.appCase.getLuceneId(item)];
+            } else {
+                throw new IllegalStateException("Sort keys not loaded for " + field); //$NON-NLS-1$
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Ranks the distinct bookmark sets of rows, so each set is converted to a
+     * string just once.
+     */
+    private void loadBookmarkRanks(long[] keys, IntFunction<? extends Integer> rows) {
+        Map<List<String>, Integer> bookmarkSets = new HashMap<>();
+        int[] setIds = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if ((i & 0xFFF) == 0 && Thread.currentThread().isInterrupted())
+                throw new RuntimeException(Messages.getString("RowComparator.SortCanceled")); //$NON-NLS-1$
+            List<String> bookmarks = app.appCase.getMultiBookmarks().getBookmarkList(app.ipedResult.getItem(rows.apply(i)));
+            Integer setId = bookmarkSets.get(bookmarks);
+            if (setId == null) {
+                setId = bookmarkSets.size();
+                bookmarkSets.put(bookmarks, setId);
+            }
+            setIds[i] = setId;
+        }
+        String[] setStrings = new String[bookmarkSets.size()];
+        for (Map.Entry<List<String>, Integer> entry : bookmarkSets.entrySet()) {
+            setStrings[entry.getValue()] = Util.concatStrings(entry.getKey());
+        }
+        Integer[] sortedSets = new Integer[setStrings.length];
+        for (int i = 0; i < sortedSets.length; i++) {
+            sortedSets[i] = i;
+        }
+        Arrays.sort(sortedSets, (a, b) -> setStrings[a].compareTo(setStrings[b]));
+        int[] ranks = new int[sortedSets.length];
+        for (int i = 0; i < sortedSets.length; i++) {
+            // equal strings get the same rank
+            boolean sameAsPrev = i > 0 && setStrings[sortedSets[i]].equals(setStrings[sortedSets[i - 1]]);
+            ranks[sortedSets[i]] = sameAsPrev ? ranks[sortedSets[i - 1]] : i;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ranks[setIds[i]];
+        }
     }
 
     @Override
@@ -270,44 +404,16 @@ else if (app.appCase.getMultiBookmarks().isChecked(itemA) == true)
             int ordB = ((TimeItemId) itemB).getTimeEventOrd();
             return Integer.compare(ordA, ordB);
 
-        } else if (sdvOrds != null) {
-            return sdvOrds[a] - sdvOrds[b];
-
-        } else if (ssdvOrds != null) {
-            int result, k = 0, ordA = -1, ordB = -1;
-            do {
-                ordA = k < ssdvOrds[a].length ? ssdvOrds[a][k] : -1;
-                ordB = k < ssdvOrds[b].length ? ssdvOrds[b][k] : -1;
-
-                if (isCategory) {
-                    if (ordA > -1) {
-                        ordA = localizedCategoryOrds[ordA];
-                    }
-                    if (ordB > -1) {
-                        ordB = localizedCategoryOrds[ordB];
-                    }
-                }
-                result = ordA - ordB;
-                k++;
-
-            } while (result == 0 && ordA != -1 && ordB != -1);
-
-            return result;
-
-        } else if (sndvOrds != null) {
-            int result, k = 0, countA = sndvOrds[a].length, countB = sndvOrds[b].length;
-            do {
-                long ordA = k < countA ? sndvOrds[a][k] : Long.MIN_VALUE;
-                long ordB = k < countB ? sndvOrds[b][k] : Long.MIN_VALUE;
-                result = Long.compare(ordA, ordB);
-                k++;
-
-            } while (result == 0 && (k < countA || k < countB));
-
-            return result;
-
-        } else if (ndvOrds != null) {
-            return Long.compare(ndvOrds[a], ndvOrds[b]);
+        } else if (docSortKeys != null) {
+            int result = Long.compare(docSortKeys[a], docSortKeys[b]);
+            if (result != 0 || exactSortKeys) {
+                return result;
+            }
+            if (ssdvExtraOrds != null) {
+                return compareOrds(getSsdvOrds(a), getSsdvOrds(b));
+            } else {
+                return compareValues(getSndvValues(a), getSndvValues(b));
+            }
         }
 
         // On demand sorting if DocValues does not exist for this field (much slower)
@@ -346,4 +452,30 @@ else if (app.appCase.getMultiBookmarks().isChecked(itemA) == true)
 
     }
 
+    private static int compareOrds(int[] ordsA, int[] ordsB) {
+        int result, k = 0, ordA = -1, ordB = -1;
+        do {
+            ordA = k < ordsA.length ? ordsA[k] : -1;
+            ordB = k < ordsB.length ? ordsB[k] : -1;
+            result = ordA - ordB;
+            k++;
+
+        } while (result == 0 && ordA != -1 && ordB != -1);
+
+        return result;
+    }
+
+    private static int compareValues(long[] valuesA, long[] valuesB) {
+        int result, k = 0, countA = valuesA.length, countB = valuesB.length;
+        do {
+            long ordA = k < countA ? valuesA[k] : Long.MIN_VALUE;
+            long ordB = k < countB ? valuesB[k] : Long.MIN_VALUE;
+            result = Long.compare(ordA, ordB);
+            k++;
+
+        } while (result == 0 && (k < countA || k < countB));
+
+        return result;
+    }
+
 }
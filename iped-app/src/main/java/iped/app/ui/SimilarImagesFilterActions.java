@@ -28,6 +28,8 @@
 public class SimilarImagesFilterActions {
     private static final int sampleFactor = 3;
 
+    private static final int DEFAULT_TOP_N = 100;
+
     // do not instantiate here, makes external command adjustment fail, see #740
     private static ExternalImageConverter externalImageConverter;
 
@@ -39,6 +41,7 @@ public static void clear(boolean updateResults) {
         App app = App.get();
         if (app.similarImagesQueryRefItem != null) {
             app.similarImagesQueryRefItem = null;
+            app.similarImagesTopN = 0;
             app.similarImageFilterPanel.setVisible(false);
             List<? extends SortKey> sortKeys = app.resultsTable.getRowSorter().getSortKeys();
             if (sortKeys != null && !sortKeys.isEmpty() && sortKeys.get(0).getColumn() == 2 && app.similarImagesPrevSortKeys != null)
@@ -50,6 +53,34 @@ public static void clear(boolean updateResults) {
     }
 
     public static void searchSimilarImages(boolean external) {
+        searchSimilarImages(external, 0);
+    }
+
+    /**
+     * Asks the number of images and shows only the ones most similar to the
+     * highlighted item.
+     */
+    public static void searchTopSimilarImages() {
+        int topN = 0;
+        while (topN <= 0) {
+            String input = JOptionPane.showInputDialog(App.get(), Messages.getString("ImageSimilarity.TopN"),
+                    DEFAULT_TOP_N);
+            if (input == null) {
+                return;
+            }
+            try {
+                topN = Integer.parseInt(input.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        searchSimilarImages(false, topN);
+    }
+
+    /**
+     * @param topN
+     *            number of most similar images to show, 0 for all similar images
+     */
+    private static void searchSimilarImages(boolean external, int topN) {
         App app = App.get();
         if (external) {
             JFileChooser fileChooser = new JFileChooser();
@@ -129,6 +160,7 @@ public boolean accept(File f) {
             }
         }
 
+        app.similarImagesTopN = topN;
         if (app.similarImagesQueryRefItem != null) {
             List<? extends SortKey> sortKeys = app.resultsTable.getRowSorter().getSortKeys();
             if (sortKeys == null || sortKeys.isEmpty() || sortKeys.get(0).getColumn() != 2) {
@@ -21,14 +21,16 @@
 import java.awt.Dialog.ModalityType;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JOptionPane;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -63,6 +65,11 @@ public class UICaseSearcherFilter extends CancelableWorker<MultiSearchResult, Ob
     private static SoftReference<MultiSearchResult> allItemsCache;
     private static IPEDSource ipedCase;
 
+    private static final Object searchLock = new Object();
+
+    // last started search, canceled when a new one starts
+    private static UICaseSearcherFilter currentSearch;
+
     volatile int numFilters = 0;
     ProgressDialog progressDialog;
 
@@ -164,10 +171,35 @@ private Query getQueryWithUIFilter() throws ParseException, QueryNodeException {
         return result;
     }
 
+    /**
+     * Cancels a running search, without interrupting its thread, so the case
+     * readers do not need to be reopened. The search stops at the next filter
+     * step or when its lucene collector sees the cancellation.
+     */
+    private void cancelSuperseded() {
+        searcher.cancel();
+        cancel(false);
+    }
+
+    private void checkCancelled() {
+        if (this.isCancelled())
+            throw new CancellationException();
+    }
+
     @Override
     public MultiSearchResult doInBackground() {
 
-        synchronized (this.getClass()) {
+        UICaseSearcherFilter previous;
+        synchronized (UICaseSearcherFilter.class) {
+            previous = currentSearch;
+            currentSearch = this;
+        }
+        if (previous != null && !previous.isDone()) {
+            LOGGER.info("Canceling previous search"); //$NON-NLS-1$
+            previous.cancelSuperseded();
+        }
+
+        synchronized (searchLock) {
 
             if (this.isCancelled())
                 return null;
@@ -189,6 +221,7 @@ public MultiSearchResult doInBackground() {
 
                 if (result == null) {
                     result = searcher.multiSearch();
+                    checkCancelled();
                     if (q instanceof MatchAllDocsQuery && (allItemsCache == null || allItemsCache.get() == null))
                         allItemsCache = new SoftReference(result.clone());
                 }
@@ -227,48 +260,75 @@ public MultiSearchResult doInBackground() {
                     }
                 }
 
+                checkCancelled();
+
                 Set<IItemId> selectedEdges = FilterSelectedEdges.getInstance().getItemIdsOfSelectedEdges();
                 if (selectedEdges != null && !selectedEdges.isEmpty()) {
                     numFilters++;
-                    ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
-                    ArrayList<Float> scores = new ArrayList<Float>();
-                    int i = 0;
-                    for (IItemId item : result.getIterator()) {
-                        if (selectedEdges.contains(item)) {
-                            filteredItems.add(item);
-                            scores.add(result.getScore(i));
-                        }
-                        i++;
+                    // selected edges are few, so test ids against a bitset per source
+                    Map<Integer, BitSet> edgeIdsPerSource = new HashMap<>();
+                    for (IItemId item : selectedEdges) {
+                        edgeIdsPerSource.computeIfAbsent(item.getSourceId(), s -> new BitSet()).set(item.getId());
                     }
-                    result = new MultiSearchResult(filteredItems.toArray(new ItemId[0]),
-                            ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+                    result = result.filter((sourceId, id) -> {
+                        BitSet ids = edgeIdsPerSource.get(sourceId);
+                        return ids != null && ids.get(id);
+                    });
                 }
 
+                checkCancelled();
+
                 if (App.get().filterDuplicates.isSelected()) {
                     DynamicDuplicateFilter duplicateFilter = new DynamicDuplicateFilter(App.get().appCase);
                     result = duplicateFilter.filter(result);
                     numFilters++;
                 }
 
+                checkCancelled();
+
                 if (App.get().similarImagesQueryRefItem != null) {
                     LOGGER.info("Starting similar image search...");
                     long t = System.currentTimeMillis();
-                    new ImageSimilarityScorer(App.get().appCase, result, App.get().similarImagesQueryRefItem).score();
+                    ImageSimilarityScorer scorer = new ImageSimilarityScorer(App.get().appCase, result,
+                            App.get().similarImagesQueryRefItem);
+                    scorer.setCanceled(this::isCancelled);
+                    scorer.setProgressMonitor(progressDialog);
+                    progressDialog.setIndeterminate(false);
+                    try {
+                        scorer.score();
+                    } finally {
+                        progressDialog.setIndeterminate(true);
+                    }
                     result = ImageSimilarityLowScoreFilter.filter(result);
+                    if (App.get().similarImagesTopN > 0) {
+                        result = SimilarImagesSearch.filterTopSimilar(App.get().appCase, result,
+                                App.get().similarImagesQueryRefItem, App.get().similarImagesTopN);
+                    }
                     t = System.currentTimeMillis() - t;
                     LOGGER.info("Similar image search took {}ms to find {} images", t, result.getLength());
                 }
 
+                checkCancelled();
+
                 if (App.get().similarFacesRefItem != null) {
                     LOGGER.info("Starting similar face search...");
                     long t = System.currentTimeMillis();
                     SimilarFacesSearch sfs = new SimilarFacesSearch(App.get().appCase, App.get().similarFacesRefItem);
-                    result = sfs.filter(result);
+                    sfs.setCanceled(this::isCancelled);
+                    sfs.setProgressMonitor(progressDialog);
+                    progressDialog.setIndeterminate(false);
+                    try {
+                        result = sfs.filter(result);
+                    } finally {
+                        progressDialog.setIndeterminate(true);
+                    }
                     numFilters++;
                     t = System.currentTimeMillis() - t;
                     LOGGER.info("Similar face search took {}ms to find {} faces", t, result.getLength());
                 }
 
+                checkCancelled();
+
                 if (App.get().timelineListener.isTimelineViewEnabled()) {
                     long t = System.currentTimeMillis();
                     result = new TimelineResults(App.get().appCase).expandTimestamps(result);
@@ -276,6 +336,8 @@ public MultiSearchResult doInBackground() {
                     LOGGER.info("Toggle table timeline took {}ms", (System.currentTimeMillis() - t));
                 }
 
+                checkCancelled();
+
                 if (App.get().metadataPanel.isFiltering()) {
                     long t = System.currentTimeMillis();
                     result = App.get().metadataPanel.getFilteredItemIds(result);
@@ -283,8 +345,14 @@ public MultiSearchResult doInBackground() {
                     LOGGER.info("Metadata panel filtering took {}ms", (System.currentTimeMillis() - t));
                 }
 
+                checkCancelled();
+
                 saveHighlightTerms();
 
+            } catch (CancellationException e) {
+                LOGGER.info("Search canceled: " + queryText); //$NON-NLS-1$
+                return null;
+
             } catch (Throwable e) {
                 e.printStackTrace();
                 return new MultiSearchResult(new ItemId[0], new float[0]);
@@ -562,7 +562,7 @@ private synchronized void sortExistingData() {
         } else {
             // sort the data
             // patch
-            Arrays.parallelSort(viewToModel, new RowComparator(this));
+            sortViewToModel();
 
             // Update the modelToView array
             setModelToViewFromViewToModel(false);
@@ -615,7 +615,7 @@ public synchronized void sort() {
 
             // sort them
             // patch
-            Arrays.parallelSort(viewToModel, new RowComparator(this));
+            sortViewToModel();
 
             // Update the modelToView array
             setModelToViewFromViewToModel(false);
@@ -625,6 +625,95 @@ public synchronized void sort() {
         sortingUpdated = true;
     }
 
+    /**
+     * Sorts viewToModel. If the comparators of all sort keys are
+     * {@link SortKeyComparator}s, rows are radix sorted by their primitive keys,
+     * otherwise they are sorted comparing row values.
+     */
+    private void sortViewToModel() {
+        long[][] keys = new long[cachedSortKeys.length][];
+        int numExactKeys = -1;
+        int numKeys = 0;
+        for (; numKeys < cachedSortKeys.length; numKeys++) {
+            int column = cachedSortKeys[numKeys].getColumn();
+            SortOrder sortOrder = cachedSortKeys[numKeys].getSortOrder();
+            if (sortOrder == SortOrder.UNSORTED) {
+                // model order decides from here
+                break;
+            }
+            if (useToString[column] || !(sortComparators[numKeys] instanceof SortKeyComparator)) {
+                keys = null;
+                break;
+            }
+            SortKeyComparator comparator = (SortKeyComparator) sortComparators[numKeys];
+            keys[numKeys] = comparator.getSortKeys(getModelWrapper().getRowCount(),
+                    row -> getModelWrapper().getValueAt(row, column));
+            if (keys[numKeys] == null) {
+                keys = null;
+                break;
+            }
+            if (sortOrder == SortOrder.DESCENDING) {
+                long[] k = keys[numKeys];
+                for (int i = 0; i < k.length; i++) {
+                    k[i] = ~k[i];
+                }
+            }
+            if (numExactKeys == -1 && !comparator.isSortKeyExact()) {
+                numExactKeys = numKeys;
+            }
+        }
+        if (keys == null) {
+            Arrays.parallelSort(viewToModel, new RowComparator(this));
+            return;
+        }
+
+        int[] rows = getViewToModelAsInts(viewToModel);
+        // rows with equal keys are kept in model order
+        Arrays.parallelSort(rows);
+        for (int k = numKeys - 1; k >= 0; k--) {
+            RadixSort.sort(rows, keys[k]);
+        }
+        if (numExactKeys != -1) {
+            // later keys only matter after ties of the inexact key are broken
+            sortEqualKeys(rows, keys, numExactKeys + 1);
+        }
+        for (int i = 0; i < rows.length; i++) {
+            viewToModel[i].modelIndex = rows[i];
+        }
+    }
+
+    /**
+     * Sorts runs of rows with equal first keys comparing their values.
+     */
+    private void sortEqualKeys(int[] rows, long[][] keys, int numKeys) {
+        int start = 0;
+        for (int i = 1; i <= rows.length; i++) {
+            if (i < rows.length && equalKeys(rows[start], rows[i], keys, numKeys)) {
+                continue;
+            }
+            if (i - start > 1) {
+                Integer[] run = new Integer[i - start];
+                for (int j = 0; j < run.length; j++) {
+                    run[j] = rows[start + j];
+                }
+                Arrays.sort(run, (a, b) -> compare(a, b));
+                for (int j = 0; j < run.length; j++) {
+                    rows[start + j] = run[j];
+                }
+            }
+            start = i;
+        }
+    }
+
+    private static boolean equalKeys(int row1, int row2, long[][] keys, int numKeys) {
+        for (int k = 0; k < numKeys; k++) {
+            if (keys[k][row1] != keys[k][row2]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Updates the useToString mapping before a sort.
      */
@@ -0,0 +1,67 @@
+package iped.app.ui.parallelsorter;
+
+/**
+ * Stable LSD radix sort of row indexes by long keys. Sorting by several keys is
+ * done calling it from the least to the most significant key.
+ */
+public class RadixSort {
+
+    private static final int BITS = 8;
+    private static final int BUCKETS = 1 << BITS;
+    private static final int MASK = BUCKETS - 1;
+    private static final int PASSES = Long.SIZE / BITS;
+
+    /**
+     * Sorts rows by keys[row], keeping the current order of rows with equal keys.
+     */
+    public static void sort(int[] rows, long[] keys) {
+        int n = rows.length;
+        if (n < 2) {
+            return;
+        }
+        // flipping the sign bit makes the unsigned order equal to the signed one
+        int[] src = rows;
+        long[] srcKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            srcKeys[i] = keys[rows[i]] ^ Long.MIN_VALUE;
+        }
+        int[][] counts = new int[PASSES][BUCKETS];
+        for (int i = 0; i < n; i++) {
+            long key = srcKeys[i];
+            for (int p = 0; p < PASSES; p++) {
+                counts[p][(int) (key >>> (p * BITS)) & MASK]++;
+            }
+        }
+        int[] dst = new int[n];
+        long[] dstKeys = new long[n];
+        for (int p = 0; p < PASSES; p++) {
+            int shift = p * BITS;
+            int[] count = counts[p];
+            // skips bytes equal in all keys, like the high bytes of ords
+            if (count[(int) (srcKeys[0] >>> shift) & MASK] == n) {
+                continue;
+            }
+            int sum = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                int c = count[b];
+                count[b] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int pos = count[(int) (srcKeys[i] >>> shift) & MASK]++;
+                dst[pos] = src[i];
+                dstKeys[pos] = srcKeys[i];
+            }
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+            long[] tmpKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tmpKeys;
+        }
+        if (src != rows) {
+            System.arraycopy(src, 0, rows, 0, n);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package iped.app.ui.parallelsorter;
+
+import java.util.Comparator;
+import java.util.function.IntFunction;
+
+/**
+ * Comparator able to map values to primitive sort keys, so rows can be sorted
+ * by their keys without calling {@link #compare(Object, Object)} for each pair
+ * of rows.
+ */
+public interface SortKeyComparator<T> extends Comparator<T> {
+
+    /**
+     * Computes the sort keys of values, lower keys come first. If
+     * {@link #isSortKeyExact()} is false, values with equal keys must still be
+     * ordered by {@link #compare(Object, Object)}.
+     *
+     * @param count
+     *            number of values
+     * @param values
+     *            function returning the i-th value, never null
+     * @return the keys or null if this comparator can not compute them
+     */
+    long[] getSortKeys(int count, IntFunction<? extends T> values);
+
+    /**
+     * @return true if values with equal sort keys are equal
+     */
+    boolean isSortKeyExact();
+
+}
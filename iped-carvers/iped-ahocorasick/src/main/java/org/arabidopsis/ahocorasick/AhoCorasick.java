@@ -145,6 +145,18 @@ private void prepareRoot() {
                 this.root.put((byte) i, this.root);
     }
 
+    boolean isPrepared() {
+        return this.prepared;
+    }
+
+    /**
+     * Returns a compiled copy of this automaton, to scan data without
+     * allocations. Must be called after prepare().
+     */
+    public CompiledAhoCorasick compile() {
+        return CompiledAhoCorasick.compile(this);
+    }
+
     /**
      * Returns the root of the tree.
      */
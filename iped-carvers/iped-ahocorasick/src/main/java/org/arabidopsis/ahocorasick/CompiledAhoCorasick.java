@@ -0,0 +1,214 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, array based version of a prepared {@link AhoCorasick} automaton,
+ * to scan large amounts of data without allocating objects.
+ * <p>
+ * All transitions, including the ones resolved through fail links, are stored
+ * in a single int array indexed by state * 256 + byte, so each input byte costs
+ * one array access. States with outputs are numbered after all other states, so
+ * detecting a match is a single comparison. Outputs are identified by ints,
+ * assigned in the order they are first found, and can be mapped back with
+ * {@link #getOutput(int)}.
+ * </p>
+ * <p>
+ * The automaton can be shared by many threads, each one keeping its own
+ * current state and {@link HitQueue} between consecutive buffers.
+ * </p>
+ */
+public class CompiledAhoCorasick {
+
+    private final int[] delta;
+    private final int firstOutputState;
+    private final int[] outputStart;
+    private final int[] outputIds;
+    private final Object[] outputs;
+
+    private CompiledAhoCorasick(int[] delta, int firstOutputState, int[] outputStart, int[] outputIds,
+            Object[] outputs) {
+        this.delta = delta;
+        this.firstOutputState = firstOutputState;
+        this.outputStart = outputStart;
+        this.outputIds = outputIds;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Compiles a prepared automaton. The original automaton is not changed.
+     */
+    public static CompiledAhoCorasick compile(AhoCorasick tree) {
+        if (!tree.isPrepared()) {
+            throw new IllegalStateException("can't compile until prepare()");
+        }
+        State root = tree.getRoot();
+
+        // breadth first, so fail states are visited before the states pointing to them
+        List<State> states = new ArrayList<>();
+        Map<State, Integer> order = new IdentityHashMap<>();
+        states.add(root);
+        order.put(root, 0);
+        for (int i = 0; i < states.size(); i++) {
+            State state = states.get(i);
+            for (byte b : state.keys()) {
+                State next = state.get(b);
+                if (!order.containsKey(next)) {
+                    order.put(next, states.size());
+                    states.add(next);
+                }
+            }
+        }
+
+        // states without outputs first
+        int numStates = states.size();
+        int[] newId = new int[numStates];
+        int next = 0;
+        for (int i = 0; i < numStates; i++) {
+            if (states.get(i).getOutputs() == null) {
+                newId[i] = next++;
+            }
+        }
+        int firstOutputState = next;
+        for (int i = 0; i < numStates; i++) {
+            if (states.get(i).getOutputs() != null) {
+                newId[i] = next++;
+            }
+        }
+
+        int[] delta = new int[numStates << 8];
+        int[] outputStart = new int[numStates + 1];
+        List<Object> outputList = new ArrayList<>();
+        Map<Object, Integer> outputIdMap = new IdentityHashMap<>();
+        int[][] stateOutputs = new int[numStates][];
+        for (int i = 0; i < numStates; i++) {
+            State state = states.get(i);
+            int base = newId[i] << 8;
+            for (int b = 0; b < 256; b++) {
+                State target = state.get((byte) b);
+                if (target == null) {
+                    // already resolved for fail state, which has lower BFS order
+                    int failBase = newId[order.get(state.getFail())] << 8;
+                    delta[base + b] = delta[failBase + b];
+                } else {
+                    delta[base + b] = newId[order.get(target)] << 8;
+                }
+            }
+            List<Object> outs = state.getOutputs();
+            if (outs != null) {
+                int[] ids = new int[outs.size()];
+                for (int j = 0; j < ids.length; j++) {
+                    Object out = outs.get(j);
+                    Integer id = outputIdMap.get(out);
+                    if (id == null) {
+                        id = outputList.size();
+                        outputIdMap.put(out, id);
+                        outputList.add(out);
+                    }
+                    ids[j] = id;
+                }
+                stateOutputs[newId[i]] = ids;
+            }
+        }
+
+        int total = 0;
+        for (int s = 0; s < numStates; s++) {
+            outputStart[s] = total;
+            if (stateOutputs[s] != null) {
+                total += stateOutputs[s].length;
+            }
+        }
+        outputStart[numStates] = total;
+        int[] outputIds = new int[total];
+        for (int s = firstOutputState; s < numStates; s++) {
+            System.arraycopy(stateOutputs[s], 0, outputIds, outputStart[s], stateOutputs[s].length);
+        }
+
+        return new CompiledAhoCorasick(delta, firstOutputState << 8, outputStart, outputIds, outputList.toArray());
+    }
+
+    /**
+     * @return the initial state of a scan.
+     */
+    public int getInitialState() {
+        return 0;
+    }
+
+    public int getNumStates() {
+        return outputStart.length - 1;
+    }
+
+    public int getNumOutputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @return the output object added to the original automaton with the given
+     *         id.
+     */
+    public Object getOutput(int outputId) {
+        return outputs[outputId];
+    }
+
+    /**
+     * Scans bytes [off, off + len) of the buffer, starting from the given state,
+     * adding all matches to the hit queue. The hit end is the index in the
+     * buffer one byte after the last matching byte, like
+     * {@link SearchResult#getLastIndex()}.
+     *
+     * @return the state after the last byte, to continue the scan in the next
+     *         buffer.
+     */
+    public int scan(byte[] buf, int off, int len, int state, HitQueue hits) {
+        return scan(buf, off, len, state, hits, 0);
+    }
+
+    /**
+     * Scans the array reporting hit ends relative to the given base index.
+     */
+    private int scan(byte[] buf, int off, int len, int state, HitQueue hits, int base) {
+        final int[] delta = this.delta;
+        final int firstOutputState = this.firstOutputState;
+        for (int i = off, end = off + len; i < end; i++) {
+            state = delta[state + (buf[i] & 0xFF)];
+            if (state >= firstOutputState) {
+                addHits(state, i + 1 - base, hits);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Same as {@link #scan(byte[], int, int, int, HitQueue)}, but reading from a
+     * heap, direct or memory mapped buffer using absolute positions, so the
+     * buffer position is not changed.
+     */
+    public int scan(ByteBuffer buf, int off, int len, int state, HitQueue hits) {
+        if (buf.hasArray()) {
+            // hit ends are buffer indexes, not backing array ones
+            int base = buf.arrayOffset();
+            return scan(buf.array(), base + off, len, state, hits, base);
+        }
+        final int[] delta = this.delta;
+        final int firstOutputState = this.firstOutputState;
+        for (int i = off, end = off + len; i < end; i++) {
+            state = delta[state + (buf.get(i) & 0xFF)];
+            if (state >= firstOutputState) {
+                addHits(state, i + 1, hits);
+            }
+        }
+        return state;
+    }
+
+    private void addHits(int state, int end, HitQueue hits) {
+        int s = state >>> 8;
+        for (int j = outputStart[s], last = outputStart[s + 1]; j < last; j++) {
+            hits.add(end, outputIds[j]);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.Arrays;
+
+/**
+ * Growable queue of hits found by {@link CompiledAhoCorasick}, stored in
+ * primitive arrays so it can be cleared and reused between buffers without
+ * allocating.
+ */
+public class HitQueue {
+
+    private int[] ends;
+    private int[] outputIds;
+    private int size;
+
+    public HitQueue() {
+        this(64);
+    }
+
+    public HitQueue(int initialCapacity) {
+        ends = new int[Math.max(1, initialCapacity)];
+        outputIds = new int[ends.length];
+    }
+
+    void add(int end, int outputId) {
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, size * 2);
+            outputIds = Arrays.copyOf(outputIds, size * 2);
+        }
+        ends[size] = end;
+        outputIds[size++] = outputId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return index one byte after the last matching byte of hit i.
+     */
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getOutputId(int i) {
+        return outputIds[i];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the iterator based search, the compiled automaton scan and a java
+ * regex alternation, over 1 MB buffers like the ones used by the carver. The
+ * text data set uses the words of the old Benchmark class, the binary one
+ * uses random bytes and common file signatures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AhoCorasickBenchmark {
+
+    private static final String[] WORDS = { "Christmas", "Cains", "Marley", "spectre", "Ebenezer", "double-ironed",
+            "supernatural", "SPIRITS", "Ding", "Ali Baba" };
+
+    private static final String[] SIGNATURES = { "ÿØÿ", "ÿÙ", "\u0089PNG\r\n\u001a\n",
+            "IEND®B`\u0082", "GIF89a", "GIF87a", "%PDF-", "%%EOF", "PK\u0003\u0004", "PK\u0005\u0006",
+            "ÐÏ\u0011à¡±\u001aá", "RIFF", "BM", "MZ" };
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    @Param({ "text", "binary" })
+    private String data;
+
+    private byte[] buf;
+    private String text;
+    private AhoCorasick tree;
+    private CompiledAhoCorasick compiled;
+    private HitQueue hits = new HitQueue();
+    private Pattern pattern;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        String[] keywords = "text".equals(data) ? WORDS : SIGNATURES;
+        buf = new byte[BUFFER_SIZE];
+        if ("text".equals(data)) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < BUFFER_SIZE) {
+                sb.append(random.nextInt(20) == 0 ? keywords[random.nextInt(keywords.length)] : "said the ghost");
+                sb.append(random.nextBoolean() ? ' ' : '\n');
+            }
+            System.arraycopy(sb.toString().getBytes(StandardCharsets.ISO_8859_1), 0, buf, 0, BUFFER_SIZE);
+        } else {
+            random.nextBytes(buf);
+            for (int i = 0; i < 200; i++) {
+                byte[] sig = keywords[random.nextInt(keywords.length)].getBytes(StandardCharsets.ISO_8859_1);
+                System.arraycopy(sig, 0, buf, random.nextInt(BUFFER_SIZE - sig.length), sig.length);
+            }
+        }
+        text = new String(buf, StandardCharsets.ISO_8859_1);
+
+        tree = new AhoCorasick();
+        StringBuilder regex = new StringBuilder();
+        for (String keyword : keywords) {
+            byte[] bytes = keyword.getBytes(StandardCharsets.ISO_8859_1);
+            tree.add(bytes, bytes);
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(keyword));
+        }
+        tree.prepare();
+        compiled = tree.compile();
+        pattern = Pattern.compile(regex.toString());
+    }
+
+    @Benchmark
+    public int searcher() {
+        int count = 0;
+        Iterator<SearchResult> it = tree.search(buf);
+        while (it.hasNext()) {
+            count += it.next().getOutputs().size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int compiledScan() {
+        hits.clear();
+        compiled.scan(buf, 0, buf.length, compiled.getInitialState(), hits);
+        return hits.size();
+    }
+
+    @Benchmark
+    public int javaRegex() {
+        int count = 0;
+        Matcher m = pattern.matcher(text);
+        while (m.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(AhoCorasickBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
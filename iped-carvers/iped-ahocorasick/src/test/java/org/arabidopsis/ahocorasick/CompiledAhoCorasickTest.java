@@ -0,0 +1,146 @@
+package org.arabidopsis.ahocorasick;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompiledAhoCorasickTest {
+
+    private static AhoCorasick createTree(List<byte[]> keywords) {
+        AhoCorasick tree = new AhoCorasick();
+        for (byte[] keyword : keywords) {
+            tree.add(keyword, keyword);
+        }
+        tree.prepare();
+        return tree;
+    }
+
+    /**
+     * @return hits as "end:keyword" strings, found by the original searcher.
+     */
+    private static List<String> searchOriginal(AhoCorasick tree, byte[] data) {
+        List<String> hits = new ArrayList<>();
+        Iterator<SearchResult> searcher = tree.search(data);
+        while (searcher.hasNext()) {
+            SearchResult result = searcher.next();
+            for (Object out : result.getOutputs()) {
+                hits.add(result.getLastIndex() + ":" + new String((byte[]) out, StandardCharsets.ISO_8859_1));
+            }
+        }
+        return hits;
+    }
+
+    private static void addHits(CompiledAhoCorasick compiled, HitQueue queue, int offset, List<String> hits) {
+        for (int i = 0; i < queue.size(); i++) {
+            byte[] keyword = (byte[]) compiled.getOutput(queue.getOutputId(i));
+            hits.add((offset + queue.getEnd(i)) + ":" + new String(keyword, StandardCharsets.ISO_8859_1));
+        }
+        queue.clear();
+    }
+
+    @Test
+    public void testSameHitsAsSearcher() {
+        List<byte[]> keywords = new ArrayList<>();
+        for (String word : new String[] { "he", "she", "his", "hers", "h", "ushers", "ÿØÿ" }) {
+            keywords.add(word.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        AhoCorasick tree = createTree(keywords);
+        CompiledAhoCorasick compiled = tree.compile();
+        assertEquals(keywords.size(), compiled.getNumOutputs());
+
+        byte[] data = "ushers and hishe sheep ÿØÿØÿ".getBytes(StandardCharsets.ISO_8859_1);
+        HitQueue queue = new HitQueue(1);
+        compiled.scan(data, 0, data.length, compiled.getInitialState(), queue);
+        List<String> hits = new ArrayList<>();
+        addHits(compiled, queue, 0, hits);
+        assertEquals(searchOriginal(tree, data), hits);
+    }
+
+    @Test
+    public void testScanAcrossBuffers() {
+        Random random = new Random(0);
+        List<byte[]> keywords = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] keyword = new byte[2 + random.nextInt(6)];
+            for (int j = 0; j < keyword.length; j++) {
+                // small alphabet to have many overlapping hits
+                keyword[j] = (byte) (random.nextInt(4) * 85);
+            }
+            keywords.add(keyword);
+        }
+        AhoCorasick tree = createTree(keywords);
+        CompiledAhoCorasick compiled = tree.compile();
+
+        byte[] data = new byte[300_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (random.nextInt(5) * 85);
+        }
+        List<String> expected = searchOriginal(tree, data);
+
+        // scans in chunks of random sizes, from array and direct buffers
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        for (boolean useDirect : new boolean[] { false, true }) {
+            HitQueue queue = new HitQueue();
+            List<String> hits = new ArrayList<>();
+            int state = compiled.getInitialState();
+            for (int off = 0; off < data.length;) {
+                int len = Math.min(data.length - off, random.nextInt(10000));
+                if (useDirect) {
+                    state = compiled.scan(direct, off, len, state, queue);
+                    addHits(compiled, queue, 0, hits);
+                } else {
+                    byte[] chunk = new byte[len + 10];
+                    System.arraycopy(data, off, chunk, 10, len);
+                    state = compiled.scan(chunk, 10, len, state, queue);
+                    addHits(compiled, queue, off - 10, hits);
+                }
+                off += len;
+            }
+            assertEquals(expected, hits);
+        }
+    }
+
+    @Test
+    public void testSlicedBuffersSameHits() {
+        List<byte[]> keywords = new ArrayList<>();
+        for (String word : new String[] { "he", "she", "his", "hers" }) {
+            keywords.add(word.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        AhoCorasick tree = createTree(keywords);
+        CompiledAhoCorasick compiled = tree.compile();
+
+        byte[] data = "ushers and hishe sheep".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] padded = new byte[data.length + 7];
+        System.arraycopy(data, 0, padded, 7, data.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded);
+        heap.position(7);
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded);
+        direct.position(7);
+
+        List<String> expected = searchOriginal(tree, data);
+        for (ByteBuffer slice : new ByteBuffer[] { heap.slice(), direct.slice() }) {
+            HitQueue queue = new HitQueue();
+            compiled.scan(slice, 0, data.length, compiled.getInitialState(), queue);
+            List<String> hits = new ArrayList<>();
+            addHits(compiled, queue, 0, hits);
+            assertEquals(expected, hits);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompileBeforePrepare() {
+        AhoCorasick tree = new AhoCorasick();
+        tree.add(new byte[] { 1, 2 }, "x");
+        tree.compile();
+    }
+
+}
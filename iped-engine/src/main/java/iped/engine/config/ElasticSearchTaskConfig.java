@@ -21,6 +21,8 @@ public class ElasticSearchTaskConfig extends AbstractTaskPropertiesConfig {
     private static final String INDEX_POLICY_KEY = "index.lifecycle.name";
     private static final String MIN_BULK_SIZE_KEY = "min_bulk_size";
     private static final String MIN_BULK_ITEMS_KEY = "min_bulk_items";
+    private static final String MAX_BULK_SIZE_KEY = "max_bulk_size";
+    private static final String TARGET_BULK_LATENCY_KEY = "target_bulk_latency_millis";
     private static final String MAX_ASYNC_REQUESTS_KEY = "max_async_requests";
     private static final String TIMEOUT_MILLIS_KEY = "timeout_millis";
     private static final String CONNECT_TIMEOUT_KEY = "connect_timeout_millis";
@@ -37,6 +39,8 @@ public class ElasticSearchTaskConfig extends AbstractTaskPropertiesConfig {
     private int max_fields = 10000;
     private int min_bulk_size = 1 << 23;
     private int min_bulk_items = 1000;
+    private int max_bulk_size = 1 << 25;
+    private int target_bulk_latency_millis = 10000;
     private int connect_timeout = 5000;
     private int timeout_millis = 3600000;
     private int max_async_requests = 5;
@@ -72,6 +76,14 @@ public int getMin_bulk_items() {
         return min_bulk_items;
     }
 
+    public int getMax_bulk_size() {
+        return max_bulk_size;
+    }
+
+    public int getTarget_bulk_latency_millis() {
+        return target_bulk_latency_millis;
+    }
+
     public int getConnect_timeout() {
         return connect_timeout;
     }
@@ -132,6 +144,14 @@ public void processProperties(UTF8Properties props) {
         if (value != null) {
             termVector = Boolean.valueOf(value.trim());
         }
+        value = props.getProperty(MAX_BULK_SIZE_KEY);
+        if (value != null) {
+            max_bulk_size = Integer.valueOf(value.trim());
+        }
+        value = props.getProperty(TARGET_BULK_LATENCY_KEY);
+        if (value != null) {
+            target_bulk_latency_millis = Integer.valueOf(value.trim());
+        }
 
         retries = Integer.parseInt(properties.getProperty(RETRIES, Integer.toString(DEFAULT_RETRIES)).trim());
 
@@ -23,6 +23,9 @@ public class FileSystemConfig extends AbstractPropertiesConfigurable {
     private long minOrphanSizeToIgnore = -1;
     private boolean ignoreHardLinks = true;
     private String skipFolderRegex = "";
+    private long contentCacheMB = 256;
+    private long contentCacheMaxItemSize = 8 << 20;
+    private boolean contentCacheOffHeap = false;
 
     @Override
     public Filter<Path> getResourceLookupFilter() {
@@ -77,6 +80,21 @@ public void processProperties(UTF8Properties properties) {
             skipFolderRegex = value.trim();
         }
 
+        value = properties.getProperty("contentCacheMB"); //$NON-NLS-1$
+        if (value != null) {
+            contentCacheMB = Long.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("contentCacheMaxItemSize"); //$NON-NLS-1$
+        if (value != null) {
+            contentCacheMaxItemSize = Long.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("contentCacheOffHeap"); //$NON-NLS-1$
+        if (value != null) {
+            contentCacheOffHeap = Boolean.valueOf(value.trim());
+        }
+
     }
 
     public String getSkipFolderRegex() {
@@ -111,4 +129,16 @@ public boolean isIgnoreHardLinks() {
         return ignoreHardLinks;
     }
 
+    public long getContentCacheMB() {
+        return contentCacheMB;
+    }
+
+    public long getContentCacheMaxItemSize() {
+        return contentCacheMaxItemSize;
+    }
+
+    public boolean isContentCacheOffHeap() {
+        return contentCacheOffHeap;
+    }
+
 }
@@ -15,10 +15,22 @@ public class HashTaskConfig extends AbstractTaskPropertiesConfig {
 
     private ArrayList<String> algorithms = new ArrayList<>();
 
+    private boolean parallelHashing = false;
+
+    private long parallelHashingMinSize = 64 * 1024 * 1024;
+
     public ArrayList<String> getAlgorithms() {
         return algorithms;
     }
 
+    public boolean isParallelHashing() {
+        return parallelHashing;
+    }
+
+    public long getParallelHashingMinSize() {
+        return parallelHashingMinSize;
+    }
+
     @Override
     public String getTaskEnableProperty() {
         return ENABLE_PARAM;
@@ -40,6 +52,16 @@ public void processProperties(UTF8Properties properties) {
             }
         }
 
+        String value = properties.getProperty("parallelHashing");
+        if (value != null && !value.trim().isEmpty()) {
+            parallelHashing = Boolean.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("parallelHashingMinSizeMB");
+        if (value != null && !value.trim().isEmpty()) {
+            parallelHashingMinSize = Long.valueOf(value.trim()) * 1024 * 1024;
+        }
+
     }
 
 }
@@ -24,6 +24,9 @@ public class ImageThumbTaskConfig extends AbstractTaskPropertiesConfig {
     private int lowResDensity = 96;
     private int highResDensity = 250;
     private int maxMPixelsInMemory = 32;
+    private int galleryCacheMB = 256;
+    private int galleryPrefetchRows = 3;
+    private String galleryDiskCacheDir;
 
     public boolean isEnableExternalConv() {
         return enableExternalConv;
@@ -69,6 +72,18 @@ public int getMaxMPixelsInMemory() {
         return maxMPixelsInMemory;
     }
 
+    public int getGalleryCacheMB() {
+        return galleryCacheMB;
+    }
+
+    public int getGalleryPrefetchRows() {
+        return galleryPrefetchRows;
+    }
+
+    public String getGalleryDiskCacheDir() {
+        return galleryDiskCacheDir;
+    }
+
     @Override
     public String getTaskEnableProperty() {
         return ENABLE_PROP;
@@ -141,6 +156,21 @@ public void processProperties(UTF8Properties properties) {
             maxMPixelsInMemory = Integer.valueOf(value.trim());
         }
 
+        value = properties.getProperty("galleryCacheMB"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            galleryCacheMB = Integer.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("galleryPrefetchRows"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            galleryPrefetchRows = Integer.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("galleryDiskCacheDir"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            galleryDiskCacheDir = value.trim();
+        }
+
     }
 
 }
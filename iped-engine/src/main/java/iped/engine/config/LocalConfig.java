@@ -35,6 +35,8 @@ public class LocalConfig extends AbstractPropertiesConfigurable {
 
     private static final String OUTPUT_ON_SSD = "outputOnSSD";
 
+    private static final String PROCESSING_QUEUES = "processingQueues";
+
     private static final String DEFAULT_VAL = "default";
 
     public static final DirectoryStream.Filter<Path> filter = new Filter<Path>() {
@@ -49,6 +51,7 @@ public boolean accept(Path entry) throws IOException {
     private File ipedTemp, indexTemp;
     private int numThreads;
     private File hashDbFile;
+    private String processingQueuesEngine = DEFAULT_VAL;
 
     @Override
     public Filter<Path> getResourceLookupFilter() {
@@ -134,6 +137,11 @@ public void processProperties(UTF8Properties properties) {
             setHashDbFile(new File(value.trim()));
         }
 
+        value = properties.getProperty(PROCESSING_QUEUES);
+        if (value != null && !value.trim().isEmpty()) {
+            processingQueuesEngine = value.trim();
+        }
+
     }
 
     public void setIndexerTemp(File temp) {
@@ -169,6 +177,10 @@ public void setHashDbFile(File hashDbFile) {
         this.hashDbFile = hashDbFile;
     }
 
+    public String getProcessingQueuesEngine() {
+        return processingQueuesEngine;
+    }
+
     public static void clearLocalParameters(File localConfig) throws IOException {
         List<String> lines = Files.readAllLines(localConfig.toPath());
         ArrayList<String> newLines = new ArrayList<>();
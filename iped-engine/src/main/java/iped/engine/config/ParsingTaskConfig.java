@@ -23,6 +23,7 @@ public class ParsingTaskConfig extends AbstractTaskPropertiesConfig {
     private int timeOutPerMB = 2;
     private int minRawStringSize = 4;
     private boolean storeTextCacheOnDisk = true;
+    private int textCacheMemoryMB = 256;
     private boolean sortPDFChars;
     private boolean processImagesInPDFs = false;
     private String phoneParsersToUse;
@@ -93,6 +94,11 @@ public void processProperties(UTF8Properties properties) {
             storeTextCacheOnDisk = Boolean.valueOf(value.trim());
         }
 
+        value = properties.getProperty("textCacheMemoryMB"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            textCacheMemoryMB = Integer.valueOf(value.trim());
+        }
+
         value = properties.getProperty("sortPDFChars"); //$NON-NLS-1$
         if (value != null) {
             sortPDFChars = Boolean.valueOf(value.trim());
@@ -142,6 +148,10 @@ public boolean isStoreTextCacheOnDisk() {
         return storeTextCacheOnDisk;
     }
 
+    public int getTextCacheMemoryMB() {
+        return textCacheMemoryMB;
+    }
+
     public boolean isSortPDFChars() {
         return sortPDFChars;
     }
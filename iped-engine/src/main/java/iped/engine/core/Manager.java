@@ -68,6 +68,7 @@
 import iped.engine.graph.GraphService;
 import iped.engine.graph.GraphServiceFactoryImpl;
 import iped.engine.graph.GraphTask;
+import iped.engine.io.ItemContentCache;
 import iped.engine.io.ParsingReader;
 import iped.engine.localization.Messages;
 import iped.engine.lucene.ConfiguredFSDirectory;
@@ -77,14 +78,20 @@
 import iped.engine.search.IndexerSimilarity;
 import iped.engine.search.ItemSearcher;
 import iped.engine.search.LuceneSearchResult;
+import iped.engine.search.SimilarFacesSearch;
+import iped.engine.search.TimelineIndex;
 import iped.engine.sleuthkit.SleuthkitClient;
 import iped.engine.sleuthkit.SleuthkitInputStreamFactory;
+import iped.engine.task.DuplicateTask;
 import iped.engine.task.ExportCSVTask;
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.P2PBookmarker;
+import iped.engine.task.SkipCommitedTask;
 import iped.engine.task.index.ElasticSearchIndexTask;
 import iped.engine.task.index.IndexItem;
 import iped.engine.task.index.IndexTask;
+import iped.engine.task.similarity.ImageSimilarityTask;
+import iped.engine.task.similarity.NearDuplicateImagesBookmarker;
 import iped.engine.util.UIPropertyListenerProvider;
 import iped.engine.util.Util;
 import iped.exception.IPEDException;
@@ -123,6 +130,7 @@
 public class Manager {
 
     private static long commitIntervalMillis = 30 * 60 * 1000;
+    private static long metricsWriteIntervalMillis = 60 * 1000;
     private static Logger LOGGER = LogManager.getLogger(Manager.class);
     private static String FINISHED_FLAG = "data/processing_finished";
     private static Manager instance;
@@ -183,7 +191,7 @@ public Manager(List<File> sources, File output, File palavras) {
         this.palavrasChave = palavras;
 
         this.caseData = new CaseData();
-        this.processingQueues = new ProcessingQueues(caseData);
+        this.processingQueues = ProcessingQueues.create(caseData, localConfig);
 
         for (File source : sources) {
             if (source.getName().toLowerCase().endsWith(Bookmarks.EXT)) {
@@ -303,6 +311,16 @@ public void process() throws Exception {
 
         stats.logStatistics(this);
 
+        DuplicateTask.saveHashSet(caseData, output, finalIndexDir);
+
+        SimilarFacesSearch.createFaceIndex(output, finalIndexDir);
+
+        TimelineIndex.createTimelineIndex(output, finalIndexDir);
+
+        ImageSimilarityTask.createSimilarityIndex(output, finalIndexDir);
+
+        new NearDuplicateImagesBookmarker(caseData).createBookmarks(output.getParentFile());
+
         Files.createFile(getFinishedFileFlag(output).toPath());
 
     }
@@ -538,6 +556,10 @@ private void openIndex() throws IOException {
 
     private void initWorkers() throws Exception {
 
+        FileSystemConfig fsConfig = ConfigurationManager.get().findObject(FileSystemConfig.class);
+        ItemContentCache.enable(fsConfig.getContentCacheMB() << 20, fsConfig.getContentCacheMaxItemSize(),
+                fsConfig.isContentCacheOffHeap());
+
         workers = new Worker[localConfig.getNumThreads()];
         for (int k = 0; k < workers.length; k++) {
             workers[k] = new Worker(k, caseData, writer, output, this);
@@ -556,6 +578,7 @@ private void monitorProcessing() throws Exception {
 
         boolean someWorkerAlive = true;
         long start = System.currentTimeMillis();
+        long lastMetricsWrite = start;
 
         while (someWorkerAlive) {
             if (UIPropertyListenerProvider.getInstance().isCancelled()) {
@@ -577,6 +600,11 @@ private void monitorProcessing() throws Exception {
             UIPropertyListenerProvider.getInstance().firePropertyChange("processed", -1, stats.getProcessed()); //$NON-NLS-1$
             UIPropertyListenerProvider.getInstance().firePropertyChange("progresso", 0, (int) (stats.getVolume() / 1000000)); //$NON-NLS-1$
 
+            if (System.currentTimeMillis() - lastMetricsWrite > metricsWriteIntervalMillis) {
+                stats.writeMetrics();
+                lastMetricsWrite = System.currentTimeMillis();
+            }
+
             boolean changeToNextQueue = !producer.isAlive();
             for (int k = 0; k < workers.length; k++) {
                 if (workers[k].exception != null && exception == null) {
@@ -651,6 +679,19 @@ public void run() {
 
                     writer.commit();
 
+                    try {
+                        SkipCommitedTask.saveTrackIdTable(writer.getDirectory(), output, stats);
+                    } catch (Exception e) {
+                        // not fatal, it is rebuilt from index if processing is resumed
+                        LOGGER.warn("Error saving trackID table", e);
+                    }
+                    try {
+                        DuplicateTask.saveHashSet(writer.getDirectory(), output);
+                    } catch (Exception e) {
+                        // not fatal, it is rebuilt from index if processing is resumed
+                        LOGGER.warn("Error saving hashes of processed items", e);
+                    }
+
                     long end = System.currentTimeMillis() / 1000;
                     UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.CommitFinished"));
                     LOGGER.info("Commit finished in " + (end - start) + "s");
@@ -689,6 +730,7 @@ private void finishProcessing() throws Exception {
         for (int k = 0; k < workers.length; k++) {
             workers[k].finish();
         }
+        ItemContentCache.disable();
 
         if (indexConfig.isForceMerge()) {
             UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.Optimizing")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -0,0 +1,110 @@
+package iped.engine.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Registry of the metrics of each task in each worker. Metrics are registered
+ * once per task instance and then updated without locks, so they can be read
+ * at any time by the UI or dumped to a file while processing goes on.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, TaskMetrics> metricsByKey = new ConcurrentHashMap<>();
+
+    // keeps registration order, which follows the task pipeline order
+    private final List<TaskMetrics> metrics = new CopyOnWriteArrayList<>();
+
+    public TaskMetrics getTaskMetrics(String taskName, String workerName) {
+        return metricsByKey.computeIfAbsent(taskName + '\0' + workerName, key -> {
+            TaskMetrics taskMetrics = new TaskMetrics(taskName, workerName);
+            metrics.add(taskMetrics);
+            return taskMetrics;
+        });
+    }
+
+    /**
+     * @return metrics of each task in each worker
+     */
+    public List<TaskMetrics> getAll() {
+        return new ArrayList<>(metrics);
+    }
+
+    /**
+     * @return metrics of each task summed over all workers, by task name
+     */
+    public Map<String, TaskMetrics> getByTask() {
+        Map<String, TaskMetrics> result = new LinkedHashMap<>();
+        for (TaskMetrics taskMetrics : metrics) {
+            result.computeIfAbsent(taskMetrics.getTaskName(), name -> new TaskMetrics(name, null)).add(taskMetrics);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a snapshot of all metrics to a JSON file, with totals by task and
+     * values of each worker.
+     */
+    public void writeJson(File file) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        try (JsonGenerator json = new JsonFactory().createGenerator(tmp, JsonEncoding.UTF8)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeNumberField("timestamp", System.currentTimeMillis()); //$NON-NLS-1$
+            json.writeArrayFieldStart("tasks"); //$NON-NLS-1$
+            List<TaskMetrics> all = getAll();
+            for (TaskMetrics total : getByTask().values()) {
+                json.writeStartObject();
+                json.writeStringField("name", total.getTaskName()); //$NON-NLS-1$
+                writeFields(json, total);
+                json.writeArrayFieldStart("workers"); //$NON-NLS-1$
+                for (TaskMetrics taskMetrics : all) {
+                    if (taskMetrics.getTaskName().equals(total.getTaskName())) {
+                        json.writeStartObject();
+                        json.writeStringField("name", taskMetrics.getWorkerName()); //$NON-NLS-1$
+                        writeFields(json, taskMetrics);
+                        json.writeEndObject();
+                    }
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeFields(JsonGenerator json, TaskMetrics taskMetrics) throws IOException {
+        json.writeNumberField("items", taskMetrics.getItems()); //$NON-NLS-1$
+        json.writeNumberField("bytes", taskMetrics.getBytes()); //$NON-NLS-1$
+        json.writeNumberField("nanos", taskMetrics.getNanos()); //$NON-NLS-1$
+        json.writeNumberField("meanLatencyMicros", taskMetrics.getMeanLatency()); //$NON-NLS-1$
+        json.writeNumberField("p50LatencyMicros", taskMetrics.getLatencyPercentile(0.5)); //$NON-NLS-1$
+        json.writeNumberField("p99LatencyMicros", taskMetrics.getLatencyPercentile(0.99)); //$NON-NLS-1$
+        // trailing empty buckets are omitted
+        long[] histogram = taskMetrics.getLatencyHistogram();
+        int len = histogram.length;
+        while (len > 0 && histogram[len - 1] == 0) {
+            len--;
+        }
+        json.writeArrayFieldStart("latencyHistogram"); //$NON-NLS-1$
+        for (int i = 0; i < len; i++) {
+            json.writeNumber(histogram[i]);
+        }
+        json.writeEndArray();
+    }
+
+}
@@ -1,36 +1,44 @@
 package iped.engine.core;
 
-import java.util.LinkedList;
-import java.util.TreeMap;
-
 import iped.data.IItem;
+import iped.engine.config.LocalConfig;
 import iped.engine.data.CaseData;
 import iped.engine.util.Util;
 
-public class ProcessingQueues {
+/**
+ * Priority queues of items waiting to be processed by the workers. Queues are
+ * processed in the order defined by {@link QueuesProcessingOrder}, each one
+ * ended by a queue end marker item.
+ *
+ * Different engines can be selected through {@link LocalConfig}, see
+ * {@link #create(CaseData, LocalConfig)}.
+ */
+public abstract class ProcessingQueues {
+
+    protected static final int QUEUE_SIZE = 100000;
 
-    private static final int QUEUE_SIZE = 100000;
+    public static final String SYNCHRONIZED_ENGINE = "synchronized"; //$NON-NLS-1$
 
-    private TreeMap<Integer, LinkedList<IItem>> queues;
+    public static final String WORK_STEALING_ENGINE = "workStealing"; //$NON-NLS-1$
 
-    private volatile Integer currentQueuePriority = 0;
-    
-    private CaseData caseData;
+    protected volatile Integer currentQueuePriority = 0;
 
-    private int maxQueueSize = QUEUE_SIZE;
+    protected CaseData caseData;
 
-    private int totalItemsBeingProcessed = 0;
+    protected int maxQueueSize = QUEUE_SIZE;
 
-    public ProcessingQueues(CaseData caseData) {
+    protected ProcessingQueues(CaseData caseData) {
         this.caseData = caseData;
-        initQueues();
     }
 
-    private void initQueues() {
-        queues = new TreeMap<Integer, LinkedList<IItem>>();
-        queues.put(0, new LinkedList<IItem>());
-        for (Integer priority : QueuesProcessingOrder.getProcessingQueues())
-            queues.put(priority, new LinkedList<IItem>());
+    /**
+     * Creates the queues engine configured in LocalConfig.
+     */
+    public static ProcessingQueues create(CaseData caseData, LocalConfig localConfig) {
+        if (WORK_STEALING_ENGINE.equalsIgnoreCase(localConfig.getProcessingQueuesEngine())) {
+            return new WorkStealingProcessingQueues(caseData, localConfig.getNumThreads());
+        }
+        return new SynchronizedProcessingQueues(caseData);
     }
 
     public void addItem(IItem item) throws InterruptedException {
@@ -66,78 +74,44 @@ private void addItemToQueue(IItem item, int queuePriority, boolean addFirst, boo
 
         Util.calctrackIDAndUpdateID(caseData, item);
 
-        LinkedList<IItem> queue = queues.get(queuePriority);
-        boolean sleep = false;
-        while (true) {
-            if (sleep) {
-                sleep = false;
-                Thread.sleep(1000);
-            }
-            synchronized (this) {
-                if (blockIfFull && queuePriority == 0 && queue.size() >= maxQueueSize) {
-                    sleep = true;
-                    continue;
-                } else {
-                    if (addFirst) {
-                        queue.addFirst(item);
-                    } else {
-                        queue.addLast(item);
-                    }
-                    break;
-                }
-            }
-        }
-
+        enqueue(item, queuePriority, addFirst, blockIfFull);
     }
 
-    public synchronized int getItemsBeingProcessed() {
-        return totalItemsBeingProcessed;
-    }
+    /**
+     * Adds the item to the queue with the specified priority. If blockIfFull is
+     * true and the first queue is full, waits until there is free space.
+     */
+    protected abstract void enqueue(IItem item, int queuePriority, boolean addFirst, boolean blockIfFull)
+            throws InterruptedException;
 
-    public synchronized void incItemsBeingProcessed() {
-        totalItemsBeingProcessed++;
-    }
+    /**
+     * Retrieves and removes the next item from the current queue, waiting while it
+     * is empty. If the returned item is not a queue end, it is already accounted as
+     * being processed, so callers must call {@link #decItemsBeingProcessed()} after
+     * processing it.
+     */
+    public abstract IItem takeItem() throws InterruptedException;
 
-    public synchronized void decItemsBeingProcessed() {
-        totalItemsBeingProcessed--;
-    }
+    public abstract int getItemsBeingProcessed();
 
-    public synchronized boolean isNoItemInQueueOrBeingProcessed() {
-        return totalItemsBeingProcessed == 0 && getItemQueue().size() == 0;
-    }
+    public abstract void incItemsBeingProcessed();
 
-    public synchronized IItem pollFirstFromCurrentQueue() throws InterruptedException {
-        return getItemQueue().pollFirst();
-    }
+    public abstract void decItemsBeingProcessed();
 
-    public synchronized void addLastToCurrentQueue(IItem item) throws InterruptedException {
-        getItemQueue().addLast(item);
-    }
+    public abstract boolean isNoItemInQueueOrBeingProcessed();
 
-    public synchronized IItem peekItemFromCurrentQueue() {
-        return getItemQueue().peek();
-    }
+    public abstract IItem pollFirstFromCurrentQueue() throws InterruptedException;
 
-    public synchronized int getCurrentQueueSize() {
-        return getItemQueue().size();
-    }
+    public abstract void addLastToCurrentQueue(IItem item) throws InterruptedException;
 
-    public Integer changeToNextQueue() {
-        currentQueuePriority = queues.ceilingKey(currentQueuePriority + 1);
-        return currentQueuePriority;
-    }
+    public abstract IItem peekItemFromCurrentQueue();
+
+    public abstract int getCurrentQueueSize();
+
+    public abstract Integer changeToNextQueue();
 
     public Integer getCurrentQueuePriority() {
         return currentQueuePriority;
     }
 
-    /**
-     * Obtém fila de arquivos de evidência do caso.
-     *
-     * @return fila de arquivos.
-     */
-    private LinkedList<IItem> getItemQueue() {
-        return queues.get(currentQueuePriority);
-    }
-
 }
@@ -10,7 +10,10 @@
 import java.lang.management.RuntimeMXBean;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JOptionPane;
 
@@ -50,28 +53,32 @@ public class Statistics {
 
     private static final String CARVED_IGNORED_MAP_FILE = "data/carvedIgnoredMap.dat";
 
+    private static final String METRICS_FILE = "data/processingMetrics.json";
+
     private static Logger LOGGER = LoggerFactory.getLogger(Statistics.class);
     private static Statistics instance = null;
 
     private static final float IO_ERROR_RATE_TO_WARN = 0.05f;
 
-    private HashMap<HashValue, Integer> ignoredMap = new HashMap<>();
+    private Map<HashValue, Integer> ignoredMap = new ConcurrentHashMap<>();
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
 
     ICaseData caseData;
     File indexDir;
 
     // EstatÃ­sticas
     Date start = new Date();
-    int splits = 0;
-    int timeouts = 0;
-    int processed = 0;
-    int activeProcessed = 0;
-    long volumeIndexed = 0;
-    int lastId = -1;
-    int corruptCarveIgnored = 0;
-    int ignored = 0;
+    final LongAdder splits = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder processed = new LongAdder();
+    final LongAdder activeProcessed = new LongAdder();
+    final LongAdder volumeIndexed = new LongAdder();
+    final AtomicInteger lastId = new AtomicInteger(-1);
+    final LongAdder corruptCarveIgnored = new LongAdder();
+    final LongAdder ignored = new LongAdder();
     int previousIndexedFiles = 0;
-    int ioerrors = 0;
+    final LongAdder ioerrors = new LongAdder();
     AtomicInteger subitensDiscovered = new AtomicInteger();
 
     public static Statistics get(ICaseData caseData, File indexDir) {
@@ -86,9 +93,7 @@ public static Statistics get() {
     }
 
     public int getCarvedIgnoredNum(HashValue trackId) {
-        synchronized (ignoredMap) {
-            return ignoredMap.getOrDefault(trackId, 0);
-        }
+        return ignoredMap.getOrDefault(trackId, 0);
     }
 
     private Statistics(ICaseData caseData, File indexDir) {
@@ -105,7 +110,7 @@ private void loadPrevCarvedIgnoredMap() {
         File file = new File(indexDir.getParentFile(), CARVED_IGNORED_MAP_FILE);
         if (file.exists()) {
             try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                ignoredMap = (HashMap<HashValue, Integer>) ois.readObject();
+                ignoredMap.putAll((HashMap<HashValue, Integer>) ois.readObject());
 
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -116,105 +121,99 @@ private void loadPrevCarvedIgnoredMap() {
     public void incCarvedIgnored(IItem item) {
         this.incCorruptCarveIgnored();
         HashValue parentPersistId = new HashValue((String) item.getExtraAttribute(IndexItem.PARENT_TRACK_ID));
-        synchronized (ignoredMap) {
-            Integer ignored = ignoredMap.getOrDefault(parentPersistId, 0);
-            ignoredMap.put(parentPersistId, ++ignored);
-        }
+        ignoredMap.merge(parentPersistId, 1, Integer::sum);
     }
 
     public void resetCarvedIgnored(IItem item) {
         HashValue parentPersistId = new HashValue((String) item.getExtraAttribute(IndexItem.TRACK_ID));
-        synchronized (ignoredMap) {
-            ignoredMap.remove(parentPersistId);
-        }
+        ignoredMap.remove(parentPersistId);
     }
 
     public void commit() throws IOException {
         File file = new File(indexDir.getParentFile(), CARVED_IGNORED_MAP_FILE);
-        synchronized (ignoredMap) {
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                oos.writeObject(ignoredMap);
-            }
+        // same serialized type of previous versions
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+            oos.writeObject(new HashMap<>(ignoredMap));
         }
         Util.fsync(file.toPath());
     }
 
-    synchronized public int getSplits() {
-        return splits;
+    public int getSplits() {
+        return splits.intValue();
     }
 
-    synchronized public void incSplits() {
-        splits++;
+    public void incSplits() {
+        splits.increment();
     }
 
-    synchronized public int getTimeouts() {
-        return timeouts;
+    public int getTimeouts() {
+        return timeouts.intValue();
     }
 
-    synchronized public void incTimeouts() {
-        timeouts++;
+    public void incTimeouts() {
+        timeouts.increment();
     }
 
-    synchronized public void incProcessed() {
-        processed++;
+    public void incProcessed() {
+        processed.increment();
     }
 
-    synchronized public int getProcessed() {
-        return processed;
+    public int getProcessed() {
+        return processed.intValue();
     }
 
-    synchronized public void incIoErrors() {
-        ioerrors++;
+    public void incIoErrors() {
+        ioerrors.increment();
     }
 
-    synchronized public int getIoErrors() {
-        return ioerrors;
+    public int getIoErrors() {
+        return ioerrors.intValue();
     }
 
-    synchronized public void incActiveProcessed() {
-        activeProcessed++;
+    public void incActiveProcessed() {
+        activeProcessed.increment();
     }
 
-    synchronized public int getActiveProcessed() {
-        return activeProcessed;
+    public int getActiveProcessed() {
+        return activeProcessed.intValue();
     }
 
-    synchronized public void addVolume(long volume) {
-        volumeIndexed += volume;
+    public void addVolume(long volume) {
+        volumeIndexed.add(volume);
     }
 
-    synchronized public long getVolume() {
-        return volumeIndexed;
+    public long getVolume() {
+        return volumeIndexed.sum();
     }
 
-    synchronized public int getCorruptCarveIgnored() {
-        return corruptCarveIgnored;
+    public int getCorruptCarveIgnored() {
+        return corruptCarveIgnored.intValue();
     }
 
-    private synchronized void incCorruptCarveIgnored() {
-        corruptCarveIgnored++;
+    private void incCorruptCarveIgnored() {
+        corruptCarveIgnored.increment();
     }
 
-    synchronized public int getIgnored() {
-        return ignored;
+    public int getIgnored() {
+        return ignored.intValue();
     }
 
-    synchronized public void incIgnored() {
-        ignored++;
+    public void incIgnored() {
+        ignored.increment();
     }
 
-    synchronized public void updateLastId(int id) {
-        if (id > lastId) {
-            lastId = id;
+    public void updateLastId(int id) {
+        if (id > lastId.get()) {
+            lastId.accumulateAndGet(id, Math::max);
         }
     }
 
-    synchronized public int getLastId() {
-        return lastId;
+    public int getLastId() {
+        return lastId.get();
     }
 
-    synchronized public void setLastId(int id) {
-        lastId = id;
+    public void setLastId(int id) {
+        lastId.set(id);
     }
 
     public void incSubitemsDiscovered() {
@@ -225,6 +224,23 @@ public int getSubitemsDiscovered() {
         return this.subitensDiscovered.get();
     }
 
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Writes a snapshot of the processing metrics of each task to the case data
+     * folder.
+     */
+    public void writeMetrics() {
+        File file = new File(indexDir.getParentFile(), METRICS_FILE);
+        try {
+            metricsRegistry.writeJson(file);
+        } catch (IOException e) {
+            LOGGER.warn("Error writing processing metrics to " + file.getAbsolutePath(), e); //$NON-NLS-1$
+        }
+    }
+
     public void logStatistics(Manager manager) throws Exception {
 
         int processed = getProcessed();
@@ -302,6 +318,8 @@ public void logStatistics(Manager manager) throws Exception {
 
         if (this.getIoErrors() > processed * IO_ERROR_RATE_TO_WARN)
             LOGGER.error("Warning: IO Errors happened while reading {} items from {}!", getIoErrors(), processed); //$NON-NLS-1$
+
+        writeMetrics();
     }
 
     public void printSystemInfo() throws Exception {
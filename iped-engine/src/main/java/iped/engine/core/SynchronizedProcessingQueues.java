@@ -0,0 +1,131 @@
+package iped.engine.core;
+
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import iped.data.IItem;
+import iped.engine.data.CaseData;
+
+/**
+ * Default queues engine: one LinkedList per priority guarded by this object
+ * monitor.
+ */
+public class SynchronizedProcessingQueues extends ProcessingQueues {
+
+    private TreeMap<Integer, LinkedList<IItem>> queues;
+
+    private int totalItemsBeingProcessed = 0;
+
+    public SynchronizedProcessingQueues(CaseData caseData) {
+        super(caseData);
+        initQueues();
+    }
+
+    private void initQueues() {
+        queues = new TreeMap<Integer, LinkedList<IItem>>();
+        queues.put(0, new LinkedList<IItem>());
+        for (Integer priority : QueuesProcessingOrder.getProcessingQueues())
+            queues.put(priority, new LinkedList<IItem>());
+    }
+
+    @Override
+    protected void enqueue(IItem item, int queuePriority, boolean addFirst, boolean blockIfFull)
+            throws InterruptedException {
+
+        LinkedList<IItem> queue = queues.get(queuePriority);
+        boolean sleep = false;
+        while (true) {
+            if (sleep) {
+                sleep = false;
+                Thread.sleep(1000);
+            }
+            synchronized (this) {
+                if (blockIfFull && queuePriority == 0 && queue.size() >= maxQueueSize) {
+                    sleep = true;
+                    continue;
+                } else {
+                    if (addFirst) {
+                        queue.addFirst(item);
+                    } else {
+                        queue.addLast(item);
+                    }
+                    break;
+                }
+            }
+        }
+
+    }
+
+    @Override
+    public IItem takeItem() throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                IItem item = getItemQueue().pollFirst();
+                if (item != null) {
+                    if (!item.isQueueEnd()) {
+                        totalItemsBeingProcessed++;
+                    }
+                    return item;
+                }
+            }
+            // this should be very rare
+            Thread.sleep(100);
+        }
+    }
+
+    @Override
+    public synchronized int getItemsBeingProcessed() {
+        return totalItemsBeingProcessed;
+    }
+
+    @Override
+    public synchronized void incItemsBeingProcessed() {
+        totalItemsBeingProcessed++;
+    }
+
+    @Override
+    public synchronized void decItemsBeingProcessed() {
+        totalItemsBeingProcessed--;
+    }
+
+    @Override
+    public synchronized boolean isNoItemInQueueOrBeingProcessed() {
+        return totalItemsBeingProcessed == 0 && getItemQueue().size() == 0;
+    }
+
+    @Override
+    public synchronized IItem pollFirstFromCurrentQueue() throws InterruptedException {
+        return getItemQueue().pollFirst();
+    }
+
+    @Override
+    public synchronized void addLastToCurrentQueue(IItem item) throws InterruptedException {
+        getItemQueue().addLast(item);
+    }
+
+    @Override
+    public synchronized IItem peekItemFromCurrentQueue() {
+        return getItemQueue().peek();
+    }
+
+    @Override
+    public synchronized int getCurrentQueueSize() {
+        return getItemQueue().size();
+    }
+
+    @Override
+    public Integer changeToNextQueue() {
+        currentQueuePriority = queues.ceilingKey(currentQueuePriority + 1);
+        return currentQueuePriority;
+    }
+
+    /**
+     * Obtém fila de arquivos de evidência do caso.
+     *
+     * @return fila de arquivos.
+     */
+    private LinkedList<IItem> getItemQueue() {
+        return queues.get(currentQueuePriority);
+    }
+
+}
@@ -0,0 +1,121 @@
+package iped.engine.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processing metrics of a task, usually of the task instance of one worker:
+ * number of items, bytes of those items, processing time and a latency
+ * histogram. Updates do not lock and values can be read at any time by other
+ * threads, they may just not reflect updates being done concurrently.
+ */
+public class TaskMetrics {
+
+    /**
+     * Bucket i of the latency histogram counts items processed in
+     * [2^(i-1), 2^i) microseconds, the last one also counts slower items.
+     */
+    public static final int NUM_LATENCY_BUCKETS = 40;
+
+    private final String taskName;
+    private final String workerName;
+
+    private final LongAdder items = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(NUM_LATENCY_BUCKETS);
+
+    public TaskMetrics(String taskName, String workerName) {
+        this.taskName = taskName;
+        this.workerName = workerName;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * @return worker name or null if these are metrics of all workers
+     */
+    public String getWorkerName() {
+        return workerName;
+    }
+
+    public void record(long itemNanos, long itemBytes) {
+        items.increment();
+        bytes.add(itemBytes);
+        nanos.add(itemNanos);
+        latencyHistogram.incrementAndGet(getLatencyBucket(itemNanos / 1000));
+    }
+
+    static int getLatencyBucket(long micros) {
+        return Math.min(NUM_LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+    }
+
+    /**
+     * Adds the values of other metrics to these ones.
+     */
+    public void add(TaskMetrics other) {
+        items.add(other.getItems());
+        bytes.add(other.getBytes());
+        nanos.add(other.getNanos());
+        for (int i = 0; i < NUM_LATENCY_BUCKETS; i++) {
+            latencyHistogram.addAndGet(i, other.latencyHistogram.get(i));
+        }
+    }
+
+    public long getItems() {
+        return items.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[NUM_LATENCY_BUCKETS];
+        for (int i = 0; i < NUM_LATENCY_BUCKETS; i++) {
+            histogram[i] = latencyHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param percentile
+     *            value in [0, 1]
+     * @return upper limit, in microseconds, of the histogram bucket containing
+     *         the latency percentile, or 0 if there are no items yet.
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile));
+        long count = 0;
+        for (int i = 0; i < NUM_LATENCY_BUCKETS; i++) {
+            count += histogram[i];
+            if (count >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (NUM_LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * @return mean processing time per item in microseconds
+     */
+    public long getMeanLatency() {
+        long items = getItems();
+        return items == 0 ? 0 : getNanos() / (1000 * items);
+    }
+
+}
@@ -0,0 +1,290 @@
+package iped.engine.core;
+
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import iped.data.IItem;
+import iped.engine.data.CaseData;
+
+/**
+ * Queues engine without a global monitor. Each priority level has one deque per
+ * worker, where subitems created by that worker are pushed, plus a shared deque
+ * for items added by producers or re-enqueued. Workers take items from their
+ * own deque first, then steal from the tail of other workers deques and finally
+ * poll the shared deque, so the depth first processing order of the default
+ * engine is kept per worker.
+ *
+ * Queue end markers are kept apart and are only handed to workers when there is
+ * no other item in the current queue. Idle workers and blocked producers wait
+ * on conditions, which are only signaled when someone is waiting on them.
+ */
+public class WorkStealingProcessingQueues extends ProcessingQueues {
+
+    private static final long MAX_IDLE_WAIT_MILLIS = 100;
+
+    private static final long QUEUE_END_BACKOFF_MILLIS = 10;
+
+    private static final long MAX_PRODUCER_WAIT_MILLIS = 1000;
+
+    private static class Level {
+
+        private final ConcurrentLinkedDeque<IItem>[] local;
+        private final ConcurrentLinkedDeque<IItem> shared = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedQueue<IItem> queueEnds = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private Level(int numWorkers) {
+            local = new ConcurrentLinkedDeque[numWorkers];
+            for (int i = 0; i < numWorkers; i++) {
+                local[i] = new ConcurrentLinkedDeque<>();
+            }
+        }
+    }
+
+    private final TreeMap<Integer, Level> queues = new TreeMap<>();
+
+    private final int numWorkers;
+
+    private final AtomicInteger totalItemsBeingProcessed = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingWorkers = new AtomicInteger();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+
+    public WorkStealingProcessingQueues(CaseData caseData, int numWorkers) {
+        super(caseData);
+        this.numWorkers = numWorkers;
+        queues.put(0, new Level(numWorkers));
+        for (Integer priority : QueuesProcessingOrder.getProcessingQueues())
+            queues.put(priority, new Level(numWorkers));
+    }
+
+    private Level getLevel() {
+        return queues.get(currentQueuePriority);
+    }
+
+    /**
+     * @return the id of the calling worker, or -1 if the caller is not a worker
+     */
+    int getCurrentWorkerId() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            int id = ((Worker) thread).id;
+            if (id < numWorkers) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void enqueue(IItem item, int queuePriority, boolean addFirst, boolean blockIfFull)
+            throws InterruptedException {
+
+        Level level = queues.get(queuePriority);
+
+        if (item.isQueueEnd()) {
+            level.queueEnds.add(item);
+            signalNotEmpty();
+            return;
+        }
+
+        if (blockIfFull && queuePriority == 0) {
+            while (level.size.get() >= maxQueueSize) {
+                awaitNotFull(level);
+            }
+        }
+
+        level.size.incrementAndGet();
+        int workerId;
+        if (addFirst && level == getLevel() && (workerId = getCurrentWorkerId()) != -1) {
+            level.local[workerId].addFirst(item);
+        } else if (addFirst) {
+            level.shared.addFirst(item);
+        } else {
+            level.shared.addLast(item);
+        }
+        signalNotEmpty();
+    }
+
+    private IItem pollItem(Level level, int workerId, boolean countAsProcessing) {
+        IItem item = null;
+        if (workerId != -1) {
+            item = level.local[workerId].pollFirst();
+        }
+        if (item == null) {
+            for (int i = 1; i <= numWorkers && item == null; i++) {
+                int victim = (workerId + i + numWorkers) % numWorkers;
+                if (victim != workerId) {
+                    item = level.local[victim].pollLast();
+                }
+            }
+        }
+        if (item == null) {
+            item = level.shared.pollFirst();
+        }
+        if (item != null) {
+            // increment before decrementing queue size, so isNoItemInQueueOrBeingProcessed()
+            // never sees both counters at zero while this item is in flight
+            if (countAsProcessing) {
+                totalItemsBeingProcessed.incrementAndGet();
+            }
+            int size = level.size.decrementAndGet();
+            if (blockedProducers.get() > 0 && size < maxQueueSize) {
+                signalNotFull();
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public IItem takeItem() throws InterruptedException {
+        int workerId = getCurrentWorkerId();
+        while (true) {
+            Level level = getLevel();
+            IItem item = pollItem(level, workerId, true);
+            if (item != null) {
+                return item;
+            }
+            if (!level.queueEnds.isEmpty() && totalItemsBeingProcessed.get() > 0) {
+                // other workers may still create subitems, avoid spinning on the queue end
+                awaitItem(level, false, QUEUE_END_BACKOFF_MILLIS);
+                item = pollItem(level, workerId, true);
+                if (item != null) {
+                    return item;
+                }
+            }
+            item = level.queueEnds.poll();
+            if (item != null) {
+                return item;
+            }
+            awaitItem(level, true, MAX_IDLE_WAIT_MILLIS);
+        }
+    }
+
+    private void awaitItem(Level level, boolean acceptQueueEnd, long millis) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            waitingWorkers.incrementAndGet();
+            try {
+                // checked after registering as waiting, so a concurrent enqueue will signal us
+                if (level == getLevel() && level.size.get() == 0
+                        && (!acceptQueueEnd || level.queueEnds.isEmpty())) {
+                    notEmpty.await(millis, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waitingWorkers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNotEmpty() {
+        if (waitingWorkers.get() > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void awaitNotFull(Level level) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            blockedProducers.incrementAndGet();
+            try {
+                if (level.size.get() >= maxQueueSize) {
+                    notFull.await(MAX_PRODUCER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                blockedProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNotFull() {
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getItemsBeingProcessed() {
+        return totalItemsBeingProcessed.get();
+    }
+
+    @Override
+    public void incItemsBeingProcessed() {
+        totalItemsBeingProcessed.incrementAndGet();
+    }
+
+    @Override
+    public void decItemsBeingProcessed() {
+        totalItemsBeingProcessed.decrementAndGet();
+    }
+
+    @Override
+    public boolean isNoItemInQueueOrBeingProcessed() {
+        // queue size must be read first, see pollItem()
+        return getLevel().size.get() == 0 && totalItemsBeingProcessed.get() == 0;
+    }
+
+    @Override
+    public IItem pollFirstFromCurrentQueue() throws InterruptedException {
+        Level level = getLevel();
+        IItem item = pollItem(level, getCurrentWorkerId(), false);
+        if (item == null) {
+            item = level.queueEnds.poll();
+        }
+        return item;
+    }
+
+    @Override
+    public void addLastToCurrentQueue(IItem item) throws InterruptedException {
+        enqueue(item, currentQueuePriority, false, false);
+    }
+
+    @Override
+    public IItem peekItemFromCurrentQueue() {
+        Level level = getLevel();
+        for (ConcurrentLinkedDeque<IItem> deque : level.local) {
+            IItem item = deque.peekFirst();
+            if (item != null) {
+                return item;
+            }
+        }
+        IItem item = level.shared.peekFirst();
+        if (item == null) {
+            item = level.queueEnds.peek();
+        }
+        return item;
+    }
+
+    @Override
+    public int getCurrentQueueSize() {
+        return getLevel().size.get();
+    }
+
+    @Override
+    public Integer changeToNextQueue() {
+        currentQueuePriority = queues.ceilingKey(currentQueuePriority + 1);
+        return currentQueuePriority;
+    }
+
+}
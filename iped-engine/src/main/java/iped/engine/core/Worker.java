@@ -239,26 +239,12 @@ public void run() {
 
             try {
                 evidence = null;
-                boolean sleep = false;
-                while (evidence == null) {
-                    if (sleep) {
-                        // this should be very rare
-                        sleep = false;
-                        Thread.sleep(100);
-                    }
-                    synchronized (manager.getProcessingQueues()) {
-                        evidence = manager.getProcessingQueues().pollFirstFromCurrentQueue();
-                        if (evidence == null) {
-                            sleep = true;
-                            continue;
-                        }
-                        if (!evidence.isQueueEnd()) {
-                            incItemsBeingProcessed();
-                        }
-                    }
+                // already accounted as being processed in the queues
+                evidence = manager.getProcessingQueues().takeItem();
+                if (!evidence.isQueueEnd()) {
+                    itemsBeingProcessed++;
                 }
 
-
                 if (!evidence.isQueueEnd()) {
                     lastItemProcessingTime = System.currentTimeMillis();
 
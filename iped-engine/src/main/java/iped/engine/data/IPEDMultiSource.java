@@ -285,10 +285,13 @@ final public int getLuceneId(int id) {
     }
 
     final public int getLuceneId(IItemId id) {
-        int sourceid = id.getSourceId();
-        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceid);
-        int baseDoc = baseDocCache.get(sourceid);
-        return atomicCase.getLuceneId(id.getId()) + baseDoc;
+        return getLuceneId(id.getSourceId(), id.getId());
+    }
+
+    final public int getLuceneId(int sourceId, int id) {
+        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceId);
+        int baseDoc = baseDocCache.get(sourceId);
+        return atomicCase.getLuceneId(id) + baseDoc;
     }
     
     @SuppressWarnings("resource")
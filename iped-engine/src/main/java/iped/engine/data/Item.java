@@ -32,6 +32,7 @@
 import iped.data.IItem;
 import iped.datasource.IDataSource;
 import iped.engine.core.Statistics;
+import iped.engine.io.ItemContentCache;
 import iped.engine.lucene.analysis.CategoryTokenizer;
 import iped.engine.task.index.IndexItem;
 import iped.engine.tika.SyncMetadata;
@@ -44,6 +45,7 @@
 import iped.utils.HashValue;
 import iped.utils.IOUtil;
 import iped.utils.LimitedSeekableInputStream;
+import iped.utils.SeekableByteBufferInputStream;
 import iped.utils.SeekableByteChannelImpl;
 import iped.utils.SeekableFileInputStream;
 
@@ -196,6 +198,8 @@ public static void setStartID(int start) {
 
     private ISeekableInputStreamFactory inputStreamFactory;
 
+    private ItemContentCache.Content cachedContent;
+
     static final int BUF_LEN = 8 * 1024 * 1024;
 
     /**
@@ -246,6 +250,7 @@ public void dispose(boolean clearTextCache) {
         }
         tmpFile = null;
         tis = null;
+        releaseCachedContent();
         try {
             if (textCache != null && clearTextCache) {
                 textCache.close();
@@ -269,8 +274,11 @@ public Date getAccessDate() {
      */
     public BufferedInputStream getBufferedInputStream() throws IOException {
 
+        SeekableInputStream stream = getSeekableInputStream();
+
+        // content already in memory does not need a large buffer
         int len = 8192;
-        if (length != null && length > len) {
+        if (length != null && length > len && !(stream instanceof SeekableByteBufferInputStream)) {
             if (length < BUF_LEN) {
                 len = length.intValue();
             } else {
@@ -278,7 +286,7 @@ public BufferedInputStream getBufferedInputStream() throws IOException {
             }
         }
 
-        return new BufferedInputStream(getSeekableInputStream(), len);
+        return new BufferedInputStream(stream, len);
     }
 
     /**
@@ -556,6 +564,39 @@ public SeekableInputStream getSeekableInputStream() throws IOException {
             }
         }
 
+        ItemContentCache.Content content = getCachedContent();
+        if (content != null) {
+            return content.newStream();
+        }
+
+        SeekableInputStream stream = getDataSourceStream();
+
+        if (stream == null)
+            return new EmptyInputStream();
+
+        return stream;
+    }
+
+    /**
+     * Loads the content into memory on first call. Synchronized so concurrent
+     * readers do not load it twice, counting it twice against the cache budget.
+     */
+    private synchronized ItemContentCache.Content getCachedContent() {
+        if (cachedContent == null && length != null && ItemContentCache.isEnabled() && inputStreamFactory != null
+                && idInDataSource != null) {
+            cachedContent = ItemContentCache.load(this, length, this::getDataSourceStream);
+        }
+        return cachedContent;
+    }
+
+    private synchronized void releaseCachedContent() {
+        if (cachedContent != null) {
+            cachedContent.release();
+            cachedContent = null;
+        }
+    }
+
+    private SeekableInputStream getDataSourceStream() throws IOException {
         SeekableInputStream stream = null;
 
         if (inputStreamFactory != null && idInDataSource != null) {
@@ -566,9 +607,6 @@ public SeekableInputStream getSeekableInputStream() throws IOException {
             stream = new LimitedSeekableInputStream(stream, startOffset, length);
         }
 
-        if (stream == null)
-            return new EmptyInputStream();
-
         return stream;
     }
 
@@ -15,8 +15,6 @@
 
 import javax.swing.KeyStroke;
 
-import org.apache.commons.lang.ArrayUtils;
-
 import iped.data.IBookmarks;
 import iped.data.IIPEDSource;
 import iped.data.IItemId;
@@ -237,97 +235,56 @@ public TreeSet<String> getBookmarkSet() {
         return bookmarks;
     }
 
-    public IMultiSearchResult filterBookmarks(IMultiSearchResult result, Set<String> bookmarkNames) {
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        HashMap<Integer, byte[]> bookmarkBitsPerSource = new HashMap<Integer, byte[]>();
-        for (IItemId item : result.getIterator()) {
-            IBookmarks m = map.get(item.getSourceId());
-            byte[] bookmarkbits = bookmarkBitsPerSource.get(item.getSourceId());
-            if (bookmarkbits == null) {
-                int[] bookmarkIds = getBookmarkIds(m, bookmarkNames);
-                if (bookmarkIds != null)
-                    bookmarkbits = m.getBookmarkBits(bookmarkIds);
-                else
-                    bookmarkbits = new byte[0];
-                bookmarkBitsPerSource.put(item.getSourceId(), bookmarkbits);
-            }
-            if (bookmarkbits.length != 0 && m.hasBookmark(item.getId(), bookmarkbits)) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
+    private byte[][] getBookmarkBitsPerSource(Set<String> bookmarkNames) {
+        int maxSourceId = -1;
+        for (Integer sourceId : map.keySet()) {
+            maxSourceId = Math.max(maxSourceId, sourceId);
         }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        byte[][] bookmarkBitsPerSource = new byte[maxSourceId + 1][];
+        for (Map.Entry<Integer, IBookmarks> entry : map.entrySet()) {
+            int[] bookmarkIds = getBookmarkIds(entry.getValue(), bookmarkNames);
+            if (bookmarkIds != null)
+                bookmarkBitsPerSource[entry.getKey()] = entry.getValue().getBookmarkBits(bookmarkIds);
+            else
+                bookmarkBitsPerSource[entry.getKey()] = new byte[0];
+        }
+        return bookmarkBitsPerSource;
     }
 
-    public IMultiSearchResult filterBookmarksOrNoBookmarks(IMultiSearchResult result, Set<String> bookmarkNames) {
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        HashMap<Integer, byte[]> bookmarkBitsPerSource = new HashMap<Integer, byte[]>();
-        for (IItemId item : result.getIterator()) {
-            IBookmarks m = map.get(item.getSourceId());
-            byte[] bookmarkbits = bookmarkBitsPerSource.get(item.getSourceId());
-            if (bookmarkbits == null) {
-                int[] bookmarkIds = getBookmarkIds(m, bookmarkNames);
-                if (bookmarkIds != null)
-                    bookmarkbits = m.getBookmarkBits(bookmarkIds);
-                else
-                    bookmarkbits = new byte[0];
-                bookmarkBitsPerSource.put(item.getSourceId(), bookmarkbits);
-            }
-            if (!m.hasBookmark(item.getId())
-                    || (bookmarkbits.length != 0 && m.hasBookmark(item.getId(), bookmarkbits))) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
+    private IBookmarks[] getBookmarksPerSource() {
+        int maxSourceId = -1;
+        for (Integer sourceId : map.keySet()) {
+            maxSourceId = Math.max(maxSourceId, sourceId);
         }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        IBookmarks[] bookmarksPerSource = new IBookmarks[maxSourceId + 1];
+        for (Map.Entry<Integer, IBookmarks> entry : map.entrySet()) {
+            bookmarksPerSource[entry.getKey()] = entry.getValue();
+        }
+        return bookmarksPerSource;
     }
 
-    public IMultiSearchResult filterNoBookmarks(IMultiSearchResult result) {
+    public IMultiSearchResult filterBookmarks(IMultiSearchResult result, Set<String> bookmarkNames) {
+        IBookmarks[] bookmarks = getBookmarksPerSource();
+        byte[][] bookmarkBits = getBookmarkBitsPerSource(bookmarkNames);
+        return MultiSearchResult.of(result).filter((sourceId, id) -> bookmarkBits[sourceId].length != 0
+                && bookmarks[sourceId].hasBookmark(id, bookmarkBits[sourceId]));
+    }
 
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        for (IItemId item : result.getIterator()) {
-            if (!this.hasBookmark(item)) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
-        }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+    public IMultiSearchResult filterBookmarksOrNoBookmarks(IMultiSearchResult result, Set<String> bookmarkNames) {
+        IBookmarks[] bookmarks = getBookmarksPerSource();
+        byte[][] bookmarkBits = getBookmarkBitsPerSource(bookmarkNames);
+        return MultiSearchResult.of(result).filter((sourceId, id) -> !bookmarks[sourceId].hasBookmark(id)
+                || (bookmarkBits[sourceId].length != 0 && bookmarks[sourceId].hasBookmark(id, bookmarkBits[sourceId])));
+    }
 
-        return r;
+    public IMultiSearchResult filterNoBookmarks(IMultiSearchResult result) {
+        IBookmarks[] bookmarks = getBookmarksPerSource();
+        return MultiSearchResult.of(result).filter((sourceId, id) -> !bookmarks[sourceId].hasBookmark(id));
     }
 
     public IMultiSearchResult filterChecked(IMultiSearchResult result) {
-
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        for (IItemId item : result.getIterator()) {
-            if (map.get(item.getSourceId()).isChecked(item.getId())) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
-        }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        IBookmarks[] bookmarks = getBookmarksPerSource();
+        return MultiSearchResult.of(result).filter((sourceId, id) -> bookmarks[sourceId].isChecked(id));
     }
 
     public void loadState() {
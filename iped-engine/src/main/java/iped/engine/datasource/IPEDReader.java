@@ -24,7 +24,6 @@
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
@@ -349,19 +348,13 @@ private void insertEmailAttachs(LuceneSearchResult result) throws Exception {
 
     private void insertLinkedItems(LuceneSearchResult result) {
         long t = System.currentTimeMillis();
-        int[] luceneIds = result.getLuceneIds();
-        Arrays.sort(luceneIds);
         String queryText = ExtraProperties.LINKED_ITEMS + ":*"; //$NON-NLS-1$
         IIPEDSearcher searcher = new IPEDSearcher(ipedCase, queryText);
         try {
-            SearchResult itemsWithLinks = searcher.search();
+            LuceneSearchResult itemsWithLinks = LuceneSearchResult.get(ipedCase, searcher.search()).intersect(result);
             int numItems = 0;
             StringBuilder query = new StringBuilder();
-            for (int i = 0; i < itemsWithLinks.getLength(); i++) {
-                int luceneId = ipedCase.getLuceneId(itemsWithLinks.getId(i));
-                if (Arrays.binarySearch(luceneIds, luceneId) < 0)
-                    continue;
-
+            for (int luceneId : itemsWithLinks.getLuceneIds()) {
                 Document doc = ipedCase.getReader().document(luceneId);
                 String[] items = doc.getValues(ExtraProperties.LINKED_ITEMS);
                 if (items.length > 0) {
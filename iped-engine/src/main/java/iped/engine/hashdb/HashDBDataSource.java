@@ -300,6 +300,10 @@ public synchronized List<String> lookupSets(String algorithm, String hash) throw
         hashes[idx] = HashDB.hashStrToBytes(hash, HashDB.hashBytesLen[idx]);
         Map<String, String> properties = new HashMap<String, String>();
         lookup(hashes, properties);
+        return getPedoSets(properties);
+    }
+
+    static List<String> getPedoSets(Map<String, String> properties) {
         if (properties.isEmpty())
             return null;
 
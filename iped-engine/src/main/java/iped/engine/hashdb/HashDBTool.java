@@ -113,7 +113,7 @@ public class HashDBTool {
     private Map<Integer, String> nsrlProdCodeToName;
     private ProcessMode mode = ProcessMode.UNDEFINED;
     private int totIns, totRem, totUpd, totSkip, totComb, totIgn, totNoProd, totInvHash;
-    private boolean dbExists = true, skipOpt, inputFolderUsed;
+    private boolean dbExists = true, skipOpt, inputFolderUsed, exportMap, mapExported, exportFailed;
     private String delimiter;
     private final Set<String> skipCols = new HashSet<String>();
     private final Map<String, String> renameCols = new HashMap<String, String>();
@@ -123,7 +123,9 @@ public class HashDBTool {
     public static void main(String[] args) {
         HashDBTool tool = new HashDBTool();
         boolean success = tool.run(args);
-        tool.finish(success);
+        if (!tool.finish(success)) {
+            System.exit(1);
+        }
     }
 
     public HashDBTool() {
@@ -135,11 +137,16 @@ public boolean run(String[] args) {
             return false;
         if (!checkInputFiles())
             return false;
-        if (inputs.isEmpty())
+        if (inputs.isEmpty() && (!exportMap || !output.isFile()))
             System.exit(0);
         dbExists = output.exists();
         if (!connect())
             return false;
+        if (inputs.isEmpty()) {
+            // only exports the existing database
+            skipOpt = true;
+            return true;
+        }
         if (!dbExists && !createDatabase())
             return false;
         if (!prepare())
@@ -1848,7 +1855,10 @@ private String endTime(long start) {
         return time + " second" + (time == 1 ? "." : "s.");
     }
 
-    void finish(boolean success) {
+    /**
+     * @return false if the mapped database could not be exported
+     */
+    boolean finish(boolean success) {
         try {
             if (success) {
                 long t = System.currentTimeMillis();
@@ -1877,6 +1887,22 @@ void finish(boolean success) {
                     }
                     System.out.println("Optimization completed in " + endTime(t));
                 }
+
+                if (exportMap) {
+                    t = System.currentTimeMillis();
+                    File mapFile = MappedHashDB.getMappedFile(output);
+                    System.out.println("\nExporting mapped database to " + mapFile.getPath() + "...");
+                    try {
+                        MappedHashDB.export(connection, mapFile);
+                        mapExported = true;
+                        System.out.println("Export completed in " + endTime(t));
+                    } catch (Exception e) {
+                        // the partially written file was already deleted by export()
+                        System.out.println("ERROR: Mapped database export failed: " + e);
+                        e.printStackTrace();
+                        exportFailed = true;
+                    }
+                }
             } else {
                 if (connection != null) {
                     connection.rollback();
@@ -1919,6 +1945,12 @@ void finish(boolean success) {
             }
         } catch (Exception e) {
         }
+        if (mapExported) {
+            // the mapped file is only used if it is not older than the database
+            File mapFile = MappedHashDB.getMappedFile(output);
+            mapFile.setLastModified(Math.max(System.currentTimeMillis(), output.lastModified()));
+        }
+        return !exportFailed;
     }
 
     private boolean prepare() {
@@ -2113,12 +2145,14 @@ private boolean parseParameters(String[] args) {
                 mode = ProcessMode.REMOVE_ALL;
             } else if (arg.equalsIgnoreCase("-noOpt")) {
                 skipOpt = true;
+            } else if (arg.equalsIgnoreCase("-map")) {
+                exportMap = true;
             } else {
                 System.out.println("ERROR: unknown parameter '" + arg + "'.");
                 return false;
             }
         }
-        if (inputs.isEmpty()) {
+        if (inputs.isEmpty() && !exportMap) {
             System.out.println("ERROR: No input file/folder defined (-d <input file or folder>).");
             return false;
         }
@@ -2126,6 +2160,10 @@ private boolean parseParameters(String[] args) {
             System.out.println("ERROR: No output file defined (-o <output database file>).");
             return false;
         }
+        if (inputs.isEmpty() && !output.isFile()) {
+            System.out.println("ERROR: Database file '" + output + "' not found.");
+            return false;
+        }
         if (mode == ProcessMode.UNDEFINED)
             mode = ProcessMode.MERGE;
         return true;
@@ -2142,7 +2180,7 @@ private void usage() {
         System.out.println("    imported directly.");
         System.out.println();
         System.out.println("Usage: java -jar iped-hashdb.jar -d <input file or folder> -o <output DB file>");
-        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt]");
+        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt] [-map]");
         System.out.println("            [-delimiter <char>] [-addCol <column name> <fixed value>]");
         System.out.println("            [-renameCol <current name> <new name>] [-skipCol <column name>]");
         System.out.println("            [-mapValue <column name> <current value> <new value>]");
@@ -2177,6 +2215,10 @@ private void usage() {
         System.out.println("  -noOpt");
         System.out.println("    Skip optimizations (reclaim empty space and database analisys) executed");
         System.out.println("    after processing input file(s).");
+        System.out.println("  -map");
+        System.out.println("    Export the database to a read-only memory mapped file (<output DB file>.map)");
+        System.out.println("    after processing input file(s), used to speed up hash lookups during case");
+        System.out.println("    processing. Can be used without -d to export an existing database.");
         System.out.println("  -delimiter <char>");
         System.out.println("    Specify the column delimiter used in the CSV files to be imported. Default");
         System.out.println("    delimiter is comma (,).");
@@ -0,0 +1,509 @@
+package iped.engine.hashdb;
+
+import static iped.engine.hashdb.HashDB.hashBytesLen;
+import static iped.engine.hashdb.HashDB.hashTypes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped version of the hashes database, used to look up
+ * hashes without JDBC and without locks. It is exported from the SQLite
+ * database by HashDBTool (-map option) to a file next to it, see
+ * {@link #getMappedFile(File)}.
+ *
+ * The file has one section per hash type, with fixed width entries (hash bytes
+ * followed by a property set id) sorted by hash, so lookups are interpolation
+ * searches. A hash present in several rows of the database has one adjacent
+ * entry per distinct property set, and lookups merge all of them. Property sets
+ * (property name/value pairs associated to hashes) are deduplicated, because
+ * many hashes share the same properties, and stored in a variable length
+ * section indexed by an offsets section.
+ */
+public class MappedHashDB {
+
+    public static final String MAPPED_FILE_SUFFIX = ".map"; //$NON-NLS-1$
+
+    private static final long MAGIC = 0x495045444D484442L; // IPEDMHDB
+    private static final int VERSION = 1;
+
+    // sections are mapped in chunks of up to this size
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private static final int MAX_INTERPOLATION_STEPS = 4;
+
+    private static final int MAX_DEDUP_SETS = 1 << 20;
+
+    private final String[] propertyNames;
+    private final MappedSection[] hashSections = new MappedSection[hashTypes.length];
+    private final long[] hashCounts = new long[hashTypes.length];
+    private final MappedSection setOffsets;
+    private final MappedSection setData;
+
+    private MappedHashDB(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                FileChannel channel = raf.getChannel()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(raf.getFD()));
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid mapped hash database: " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            propertyNames = new String[in.readInt()];
+            for (int i = 0; i < propertyNames.length; i++) {
+                propertyNames[i] = in.readUTF();
+            }
+            int numTypes = in.readInt();
+            if (numTypes != hashTypes.length) {
+                throw new IOException("Incompatible mapped hash database: " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            for (int i = 0; i < numTypes; i++) {
+                long offset = in.readLong();
+                hashCounts[i] = in.readLong();
+                int entrySize = hashBytesLen[i] + 4;
+                hashSections[i] = new MappedSection(channel, offset, hashCounts[i] * entrySize, entrySize);
+            }
+            long numSets = in.readLong();
+            long setOffsetsPos = in.readLong();
+            long setDataPos = in.readLong();
+            long setDataLen = in.readLong();
+            setOffsets = new MappedSection(channel, setOffsetsPos, numSets * 8, 8);
+            setData = new MappedSection(channel, setDataPos, setDataLen, 1);
+        }
+    }
+
+    public static File getMappedFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + MAPPED_FILE_SUFFIX);
+    }
+
+    /**
+     * Opens the mapped file associated to the database file, if it exists and is
+     * not older than the database.
+     *
+     * @return the mapped database or null if there is no up to date mapped file.
+     */
+    public static MappedHashDB open(File dbFile) throws IOException {
+        File file = getMappedFile(dbFile);
+        if (!file.isFile() || file.lastModified() < dbFile.lastModified()) {
+            return null;
+        }
+        return new MappedHashDB(file);
+    }
+
+    public long size(int hashType) {
+        return hashCounts[hashType];
+    }
+
+    /**
+     * Same as {@link HashDBDataSource#lookup(byte[][], Map)}, but thread safe and
+     * lock free.
+     */
+    public void lookup(byte[][] hashes, Map<String, String> properties) {
+        long[] foundSets = new long[hashes.length];
+        int numFound = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] hash = hashes[i];
+            if (hash == null || hash.length != hashBytesLen[i] || hashCounts[i] == 0) {
+                continue;
+            }
+            long idx = search(i, hash);
+            if (idx < 0) {
+                continue;
+            }
+            // the same hash may be in several HASHES rows, their entries are adjacent
+            MappedSection section = hashSections[i];
+            long first = idx, last = idx;
+            while (first > 0 && section.compare((first - 1) * section.entrySize, hash) == 0) {
+                first--;
+            }
+            while (last < hashCounts[i] - 1 && section.compare((last + 1) * section.entrySize, hash) == 0) {
+                last++;
+            }
+            NEXT_SET: for (long k = first; k <= last; k++) {
+                long setId = section.getInt(k * section.entrySize + hash.length);
+                for (int j = 0; j < numFound; j++) {
+                    if (foundSets[j] == setId) {
+                        continue NEXT_SET;
+                    }
+                }
+                if (numFound == foundSets.length) {
+                    foundSets = Arrays.copyOf(foundSets, numFound * 2);
+                }
+                foundSets[numFound++] = setId;
+                readProperties(setId, properties);
+            }
+        }
+    }
+
+    public List<String> lookupSets(String algorithm, String hash) {
+        int idx = HashDB.hashType(algorithm);
+        if (idx < 0)
+            return null;
+        byte[][] hashes = new byte[hashTypes.length][];
+        hashes[idx] = HashDB.hashStrToBytes(hash, hashBytesLen[idx]);
+        Map<String, String> properties = new HashMap<String, String>();
+        lookup(hashes, properties);
+        return HashDBDataSource.getPedoSets(properties);
+    }
+
+    private long search(int type, byte[] key) {
+        MappedSection section = hashSections[type];
+        long keyPrefix = getLong(key, 0);
+        long lo = 0, hi = hashCounts[type] - 1;
+        int steps = 0;
+        while (lo <= hi) {
+            long mid;
+            if (steps++ < MAX_INTERPOLATION_STEPS && hi > lo) {
+                // hashes are uniformly distributed, so guess the position from the first bytes
+                long loPrefix = section.getLong(lo * section.entrySize);
+                long hiPrefix = section.getLong(hi * section.entrySize);
+                if (Long.compareUnsigned(keyPrefix, loPrefix) < 0 || Long.compareUnsigned(keyPrefix, hiPrefix) > 0) {
+                    return -1;
+                }
+                double range = unsignedToDouble(hiPrefix) - unsignedToDouble(loPrefix);
+                if (range <= 0) {
+                    mid = (lo + hi) >>> 1;
+                } else {
+                    double fraction = (unsignedToDouble(keyPrefix) - unsignedToDouble(loPrefix)) / range;
+                    mid = lo + (long) (fraction * (hi - lo));
+                    mid = Math.max(lo, Math.min(hi, mid));
+                }
+            } else {
+                mid = (lo + hi) >>> 1;
+            }
+            int cmp = section.compare(mid * section.entrySize, key);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void readProperties(long setId, Map<String, String> properties) {
+        long pos = setOffsets.getLong(setId * 8);
+        int count = setData.getShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            String name = propertyNames[setData.getShort(pos)];
+            int len = setData.getInt(pos + 2);
+            byte[] bytes = new byte[len];
+            setData.get(pos + 6, bytes);
+            pos += 6 + len;
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            String prev = properties.get(name);
+            if (prev != null) {
+                value = HashDB.mergeProperties(value, prev);
+            }
+            properties.put(name, value);
+        }
+    }
+
+    private static double unsignedToDouble(long v) {
+        return (double) (v >>> 1) * 2.0 + (v & 1);
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * File region mapped in several buffers. Entries (or records) never cross
+     * buffer boundaries.
+     */
+    private static class MappedSection {
+
+        private final MappedByteBuffer[] chunks;
+        private final long chunkSize;
+        private final int entrySize;
+
+        private MappedSection(FileChannel channel, long offset, long length, int entrySize) throws IOException {
+            this.entrySize = entrySize;
+            this.chunkSize = (CHUNK_SIZE / entrySize) * entrySize;
+            int numChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = i * chunkSize;
+                chunks[i] = channel.map(MapMode.READ_ONLY, offset + start, Math.min(chunkSize, length - start));
+            }
+        }
+
+        private ByteBuffer chunk(long pos) {
+            return chunks[(int) (pos / chunkSize)];
+        }
+
+        private long getLong(long pos) {
+            return chunk(pos).getLong((int) (pos % chunkSize));
+        }
+
+        private int getInt(long pos) {
+            return chunk(pos).getInt((int) (pos % chunkSize));
+        }
+
+        private short getShort(long pos) {
+            return chunk(pos).getShort((int) (pos % chunkSize));
+        }
+
+        private void get(long pos, byte[] dst) {
+            ByteBuffer chunk = chunk(pos);
+            int off = (int) (pos % chunkSize);
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = chunk.get(off + i);
+            }
+        }
+
+        private int compare(long pos, byte[] key) {
+            ByteBuffer chunk = chunk(pos);
+            int off = (int) (pos % chunkSize);
+            for (int i = 0; i < key.length; i++) {
+                int cmp = Integer.compare(chunk.get(off + i) & 0xFF, key[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Exports the SQLite hashes database to a mapped database file. The file is
+     * written to a temporary file first, deleted if the export fails.
+     */
+    public static void export(Connection connection, File file) throws Exception {
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        try {
+            write(connection, tmp);
+        } catch (Exception | Error e) {
+            tmp.delete();
+            throw e;
+        }
+        if (file.exists() && !file.delete()) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file.getAbsolutePath()); //$NON-NLS-1$
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp.getAbsolutePath()); //$NON-NLS-1$
+        }
+    }
+
+    private static void write(Connection connection, File tmp) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); //$NON-NLS-1$
+                FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20));
+            DataOutputStream out = new DataOutputStream(counter);
+
+            Map<Integer, Integer> propertyIdToIndex = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("select PROPERTY_ID, PROPERTY_NAME from PROPERTIES")) { //$NON-NLS-1$
+                while (rs.next()) {
+                    propertyIdToIndex.put(rs.getInt(1), names.size());
+                    names.add(rs.getString(2));
+                }
+            }
+
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+            out.writeInt(hashTypes.length);
+            long tablePos = counter.count;
+            // placeholders for section offsets and sizes
+            for (int i = 0; i < hashTypes.length * 2 + 4; i++) {
+                out.writeLong(0);
+            }
+
+            int maxHashId = 0;
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("select max(HASH_ID) from HASHES")) { //$NON-NLS-1$
+                if (rs.next()) {
+                    maxHashId = rs.getInt(1);
+                }
+            }
+            int[] hashIdToSet = new int[maxHashId + 1];
+            Arrays.fill(hashIdToSet, -1);
+
+            // property sets
+            long setDataPos = counter.count;
+            long[] setOffsets = new long[1024];
+            int numSets = 0;
+            Map<ByteBuffer, Integer> dedup = new HashMap<>();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.setFetchSize(1024);
+                ResultSet rs = stmt.executeQuery(
+                        "select HASH_ID, PROPERTY_ID, VALUE from HASHES_PROPERTIES order by HASH_ID, PROPERTY_ID"); //$NON-NLS-1$
+                ByteArrayOutputStream setBytes = new ByteArrayOutputStream();
+                DataOutputStream setOut = new DataOutputStream(setBytes);
+                List<byte[]> values = new ArrayList<>();
+                List<Integer> props = new ArrayList<>();
+                int currHashId = -1;
+                boolean hasNext;
+                do {
+                    hasNext = rs.next();
+                    int hashId = hasNext ? rs.getInt(1) : -1;
+                    if (hashId != currHashId && !props.isEmpty()) {
+                        setBytes.reset();
+                        setOut.writeShort(props.size());
+                        for (int i = 0; i < props.size(); i++) {
+                            setOut.writeShort(props.get(i));
+                            setOut.writeInt(values.get(i).length);
+                            setOut.write(values.get(i));
+                        }
+                        byte[] set = setBytes.toByteArray();
+                        ByteBuffer key = ByteBuffer.wrap(set);
+                        Integer setId = dedup.get(key);
+                        if (setId == null) {
+                            if (set.length > CHUNK_SIZE) {
+                                throw new IOException("Properties too large for hash id " + currHashId); //$NON-NLS-1$
+                            }
+                            long relPos = counter.count - setDataPos;
+                            if (relPos % CHUNK_SIZE + set.length > CHUNK_SIZE) {
+                                // records must not cross mapped chunks
+                                long padding = CHUNK_SIZE - relPos % CHUNK_SIZE;
+                                for (long i = 0; i < padding; i++) {
+                                    out.write(0);
+                                }
+                                relPos += padding;
+                            }
+                            out.write(set);
+                            if (numSets == setOffsets.length) {
+                                setOffsets = Arrays.copyOf(setOffsets, numSets * 2);
+                            }
+                            setId = numSets++;
+                            setOffsets[setId] = relPos;
+                            if (dedup.size() < MAX_DEDUP_SETS) {
+                                dedup.put(key, setId);
+                            }
+                        }
+                        hashIdToSet[currHashId] = setId;
+                        props.clear();
+                        values.clear();
+                    }
+                    if (hasNext) {
+                        currHashId = hashId;
+                        Integer propIndex = propertyIdToIndex.get(rs.getInt(2));
+                        String value = rs.getString(3);
+                        if (propIndex != null && value != null) {
+                            props.add(propIndex);
+                            values.add(value.getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                } while (hasNext);
+                rs.close();
+            }
+            dedup = null;
+            long setDataLen = counter.count - setDataPos;
+
+            long setOffsetsPos = counter.count;
+            for (int i = 0; i < numSets; i++) {
+                out.writeLong(setOffsets[i]);
+            }
+            setOffsets = null;
+
+            long[] hashOffsets = new long[hashTypes.length];
+            long[] hashCounts = new long[hashTypes.length];
+            for (int type = 0; type < hashTypes.length; type++) {
+                hashOffsets[type] = counter.count;
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.setFetchSize(1024);
+                    ResultSet rs = stmt.executeQuery("select " + hashTypes[type] + ", HASH_ID from HASHES where " //$NON-NLS-1$ //$NON-NLS-2$
+                            + hashTypes[type] + " is not null order by " + hashTypes[type]); //$NON-NLS-1$
+                    byte[] prevHash = null;
+                    int prevSet = -1;
+                    while (rs.next()) {
+                        byte[] hash = rs.getBytes(1);
+                        int hashId = rs.getInt(2);
+                        if (hash == null || hash.length != hashBytesLen[type] || hashId < 0 || hashId > maxHashId
+                                || hashIdToSet[hashId] < 0) {
+                            continue;
+                        }
+                        // duplicated rows of a hash are all kept, lookup merges their properties
+                        int setId = hashIdToSet[hashId];
+                        if (setId == prevSet && Arrays.equals(hash, prevHash)) {
+                            continue;
+                        }
+                        out.write(hash);
+                        out.writeInt(setId);
+                        hashCounts[type]++;
+                        prevHash = hash;
+                        prevSet = setId;
+                    }
+                    rs.close();
+                }
+            }
+            out.flush();
+
+            ByteBuffer table = ByteBuffer.allocate((hashTypes.length * 2 + 4) * 8);
+            for (int type = 0; type < hashTypes.length; type++) {
+                table.putLong(hashOffsets[type]);
+                table.putLong(hashCounts[type]);
+            }
+            table.putLong(numSets);
+            table.putLong(setOffsetsPos);
+            table.putLong(setDataPos);
+            table.putLong(setDataLen);
+            table.flip();
+            channel.write(table, tablePos);
+            channel.force(true);
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+}
@@ -19,27 +19,39 @@
 package iped.engine.io;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipe between one writer thread, usually the parsing thread, and one reader
+ * thread. Chars are passed through a circular buffer without locks: the writer
+ * copies a batch of chars and then publishes its new position, the reader does
+ * the same to release space. A side waiting for data or space parks and is
+ * unparked by the other one after it publishes.
+ */
 public class FastPipedReader extends Reader {
 
+    private static final long WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     // utilizado para verificar se há comunicação entre reader e writer
-    private int timer = 0;
+    private long waitedNanos = 0;
     private int timeOutBySize = 0;
     private int minTimeout = 60;
-    private boolean timeoutPaused = false, timedOut = false;
+    private volatile boolean timeoutPaused = false, timedOut = false;
 
-    boolean closedByWriter = false;
-    boolean closedByReader = false;
-    boolean connected = false;
+    volatile boolean closedByWriter = false;
+    volatile boolean closedByReader = false;
+    volatile boolean connected = false;
 
     /*
      * REMIND: identification of the read and write sides needs to be more
      * sophisticated. Either using thread groups (but what about pipes within a
      * thread?) or using finalization (but it may be a long time until the next GC).
      */
-    Thread readSide;
-    Thread writeSide;
+    volatile Thread readSide;
+    volatile Thread writeSide;
 
     /**
      * The size of the pipe's circular input buffer.
@@ -49,21 +61,27 @@ public class FastPipedReader extends Reader {
     /**
      * The circular buffer into which incoming data is placed.
      */
-    char buffer[];
+    private char buffer[];
+
+    /**
+     * Total number of chars published by the writer. Only the writer updates it.
+     */
+    private volatile long writePos = 0;
 
     /**
-     * The index of the position in the circular buffer at which the next character
-     * of data will be stored when received from the connected piped writer.
-     * <code>in&lt;0</code> implies the buffer is empty, <code>in==out</code>
-     * implies the buffer is full
+     * Total number of chars consumed by the reader. Only the reader updates it.
      */
-    int in = -1;
+    private volatile long readPos = 0;
 
     /**
-     * The index of the position in the circular buffer at which the next character
-     * of data will be read by this piped reader.
+     * Last readPos seen by the writer and last writePos seen by the reader, to
+     * avoid reading the volatile positions while there is known space or data.
      */
-    int out = 0;
+    private long cachedReadPos = 0, cachedWritePos = 0;
+
+    private volatile boolean readerWaiting = false, writerWaiting = false;
+
+    private final char[] singleChar = new char[1];
 
     /**
      * Creates a <code>PipedReader</code> so that it is connected to the piped
@@ -119,6 +137,10 @@ public FastPipedReader() {
      *
      * @param pipeSize
      *            the size of the pipe's buffer.
+     * @param minTimeout
+     *            seconds the reader waits for data before timing out.
+     * @param timeOutBySize
+     *            additional seconds to wait, proportional to item size.
      * @exception IllegalArgumentException
      *                if <code>pipeSize less than 1</code>.
      * @since 1.6
@@ -129,7 +151,7 @@ public FastPipedReader(int pipeSize, int minTimeout, int timeOutBySize) {
         this.timeOutBySize = timeOutBySize;
     }
 
-    public synchronized boolean setTimeoutPaused(boolean paused) {
+    public boolean setTimeoutPaused(boolean paused) {
         this.timeoutPaused = paused;
         return !timedOut;
     }
@@ -179,44 +201,16 @@ public void connect(FastPipedWriter src) throws IOException {
     /**
      * Receives a char of data. This method will block if no input is available.
      */
-    synchronized void receive(int c) throws IOException {
-        if (!connected) {
-            throw new IOException("Pipe not connected"); //$NON-NLS-1$
-        } else if (closedByWriter || closedByReader) {
-            throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (readSide != null && !readSide.isAlive()) {
-            throw new IOException("Read end dead"); //$NON-NLS-1$
-        }
-
-        writeSide = Thread.currentThread();
-        while (in == out) {
-            if ((readSide != null) && !readSide.isAlive()) {
-                throw new IOException("Pipe broken"); //$NON-NLS-1$
-            }
-            /* full: kick any waiting readers */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
-            }
-        }
-        if (in < 0) {
-            in = 0;
-            out = 0;
-        }
-        buffer[in++] = (char) c;
-        if (in >= buffer.length) {
-            in = 0;
-        }
-        notifyAll();
+    void receive(int c) throws IOException {
+        singleChar[0] = (char) c;
+        receive(singleChar, 0, 1);
     }
 
     /**
-     * Receives data into an array of characters. This method will block until some
-     * input is available.
+     * Receives data into an array of characters. This method will block until all
+     * chars are copied to the pipe's buffer.
      */
-    synchronized void receive(char cbuf[], int off, int len) throws IOException {
+    void receive(char cbuf[], int off, int len) throws IOException {
 
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
@@ -228,38 +222,121 @@ synchronized void receive(char cbuf[], int off, int len) throws IOException {
 
         writeSide = Thread.currentThread();
 
-        while (--len >= 0) {
-            while (in == out) {
+        long pos = writePos;
+        while (len > 0) {
+            int free = (int) (buffer.length - (pos - cachedReadPos));
+            if (free == 0) {
+                cachedReadPos = readPos;
+                free = (int) (buffer.length - (pos - cachedReadPos));
+                if (free == 0) {
+                    awaitSpace(pos);
+                    continue;
+                }
+            }
+            int n = Math.min(len, free);
+            int idx = (int) (pos % buffer.length);
+            int first = Math.min(n, buffer.length - idx);
+            System.arraycopy(cbuf, off, buffer, idx, first);
+            if (first < n) {
+                System.arraycopy(cbuf, off + first, buffer, 0, n - first);
+            }
+            pos += n;
+            off += n;
+            len -= n;
+            // publishes the batch
+            writePos = pos;
+            wakeReader();
+        }
+    }
+
+    private void awaitSpace(long pos) throws IOException {
+        writerWaiting = true;
+        try {
+            // checks again after announcing the wait, so a concurrent read is not missed
+            while (pos - (cachedReadPos = readPos) == buffer.length) {
+                if (closedByReader) {
+                    throw new IOException("Pipe closed"); //$NON-NLS-1$
+                }
                 if ((readSide != null) && !readSide.isAlive()) {
                     throw new IOException("Pipe broken"); //$NON-NLS-1$
                 }
-                /* full: kick any waiting readers */
-                notifyAll();
-                try {
-                    wait(1000);
-                } catch (InterruptedException ex) {
-                    throw new java.io.InterruptedIOException();
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
                 }
             }
-            if (in < 0) {
-                in = 0;
-                out = 0;
+        } finally {
+            writerWaiting = false;
+        }
+    }
+
+    void wakeReader() {
+        if (readerWaiting) {
+            Thread reader = readSide;
+            if (reader != null) {
+                LockSupport.unpark(reader);
             }
-            buffer[in++] = cbuf[off++];
-            if (in >= buffer.length) {
-                in = 0;
+        }
+    }
+
+    private void wakeWriter() {
+        if (writerWaiting) {
+            Thread writer = writeSide;
+            if (writer != null) {
+                LockSupport.unpark(writer);
             }
         }
-        notifyAll();
     }
 
     /**
      * Notifies all waiting threads that the last character of data has been
      * received.
      */
-    synchronized void receivedLast() {
+    void receivedLast() {
         closedByWriter = true;
-        notifyAll();
+        wakeReader();
+    }
+
+    /**
+     * Waits until there is data to read or the writer is closed.
+     *
+     * @return false if the pipe is empty and closed by the writer.
+     */
+    private boolean awaitData() throws IOException {
+        readerWaiting = true;
+        try {
+            int trials = 10;
+            // checks again after announcing the wait, so a concurrent write is not missed
+            while ((cachedWritePos = writePos) == readPos) {
+                if (closedByWriter) {
+                    /* closed by writer, data published before closing was seen above */
+                    if ((cachedWritePos = writePos) == readPos) {
+                        return false;
+                    }
+                    break;
+                }
+                if ((writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
+                    // throw new IOException("Pipe broken");
+                    System.out.println("Pipe broken, writer thread is dead?"); //$NON-NLS-1$
+                    closedByWriter = true;
+                }
+                long start = System.nanoTime();
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+                if (!timeoutPaused) {
+                    waitedNanos += System.nanoTime() - start;
+                    if (waitedNanos >= getTotalTimeout() * WAIT_NANOS) {
+                        timedOut = true;
+                        throw new TimeoutException();
+                    }
+                }
+            }
+        } finally {
+            readerWaiting = false;
+        }
+        return true;
     }
 
     /**
@@ -276,48 +353,16 @@ synchronized void receivedLast() {
      *                unconnected}, closed, or an I/O error occurs.
      */
     @Override
-    public synchronized int read() throws IOException {
-
-        /*
-         * if (!connected) { throw new IOException("Pipe not connected"); } else if
-         * (closedByReader) { throw new IOException("Pipe closed"); } else if (writeSide
-         * != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) { throw new
-         * IOException("Write end dead"); }
-         */
-        // readSide = Thread.currentThread();
-        int trials = 10;
-        while (in < 0) {
-            if (closedByWriter) {
-                /* closed by writer, return EOF */
-                return -1;
-            }
-            if ((writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
-                // throw new IOException("Pipe broken");
-                System.out.println("Pipe broken, writer thread is dead?"); //$NON-NLS-1$
-                closedByWriter = true;
-            }
-            /* might be a writer waiting */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
-            }
-            if (!timeoutPaused && timer++ == getTotalTimeout()) {
-                timedOut = true;
-                throw new TimeoutException();
-            }
-        }
-        timer = 0;
-        int ret = buffer[out++];
-        if (out >= buffer.length) {
-            out = 0;
-        }
-        if (in == out) {
-            /* now empty */
-            in = -1;
+    public int read() throws IOException {
+        readSide = Thread.currentThread();
+        long pos = readPos;
+        if (pos == cachedWritePos && pos == (cachedWritePos = writePos) && !awaitData()) {
+            return -1;
         }
-        notifyAll();
+        waitedNanos = 0;
+        int ret = buffer[(int) (pos % buffer.length)];
+        readPos = pos + 1;
+        wakeWriter();
         return ret;
     }
 
@@ -343,13 +388,14 @@ public synchronized int read() throws IOException {
      *                unconnected}, closed, or an I/O error occurs.
      */
     @Override
-    public synchronized int read(char cbuf[], int off, int len) throws IOException {
+    public int read(char cbuf[], int off, int len) throws IOException {
 
+        long pos = readPos;
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
         } else if (closedByReader) {
             throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) {
+        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && writePos == pos) {
             throw new IOException("Write end dead"); //$NON-NLS-1$
         }
 
@@ -362,25 +408,22 @@ public synchronized int read(char cbuf[], int off, int len) throws IOException {
         readSide = Thread.currentThread();
 
         /* possibly wait on the first character */
-        int c = read();
-        if (c < 0) {
+        if (pos == cachedWritePos && pos == (cachedWritePos = writePos) && !awaitData()) {
             return -1;
         }
-        cbuf[off] = (char) c;
-        int rlen = 1;
-        while ((in >= 0) && (--len > 0)) {
-            cbuf[off + rlen] = buffer[out++];
-            rlen++;
-            if (out >= buffer.length) {
-                out = 0;
-            }
-            if (in == out) {
-                /* now empty */
-                in = -1;
-            }
+        waitedNanos = 0;
+
+        // consumes all published data that fits, in one batch
+        int n = (int) Math.min(len, cachedWritePos - pos);
+        int idx = (int) (pos % buffer.length);
+        int first = Math.min(n, buffer.length - idx);
+        System.arraycopy(buffer, idx, cbuf, off, first);
+        if (first < n) {
+            System.arraycopy(buffer, 0, cbuf, off + first, n - first);
         }
-        notifyAll();
-        return rlen;
+        readPos = pos + n;
+        wakeWriter();
+        return n;
     }
 
     /**
@@ -393,19 +436,16 @@ public synchronized int read(char cbuf[], int off, int len) throws IOException {
      *                unconnected}, or closed.
      */
     @Override
-    public synchronized boolean ready() throws IOException {
+    public boolean ready() throws IOException {
+        boolean empty = writePos == readPos;
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
         } else if (closedByReader) {
             throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) {
+        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && empty) {
             throw new IOException("Write end dead"); //$NON-NLS-1$
         }
-        if (in < 0) {
-            return false;
-        } else {
-            return true;
-        }
+        return !empty;
     }
 
     /**
@@ -416,8 +456,8 @@ public synchronized boolean ready() throws IOException {
      *                if an I/O error occurs.
      */
     @Override
-    public synchronized void close() throws IOException {
-        in = -1;
+    public void close() throws IOException {
         closedByReader = true;
+        wakeWriter();
     }
 }
@@ -0,0 +1,181 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import iped.io.SeekableInputStream;
+import iped.utils.SeekableByteBufferInputStream;
+
+/**
+ * Keeps the content of small and medium items in memory while they are
+ * processed, so the tasks reading the same item one after another (signature,
+ * hash, parsing, carving, thumbnails...) do not read it again from the
+ * evidence. The memory used by all items is limited by a global budget, items
+ * not fitting into it are read from the evidence as usual.
+ *
+ * It is disabled until {@link #enable(long, long, boolean)} is called, so items
+ * opened outside processing, like in the analysis app, are not cached.
+ */
+public class ItemContentCache {
+
+    private static final int COPY_BUF_LEN = 64 * 1024;
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static final AtomicLong usedBytes = new AtomicLong();
+
+    private static volatile long maxBytes = 0;
+    private static volatile long maxItemSize = 0;
+    private static volatile boolean offHeap = false;
+
+    @FunctionalInterface
+    public interface StreamOpener {
+        SeekableInputStream open() throws IOException;
+    }
+
+    /**
+     * Content of one item. Buffers are not reused after released, streams still
+     * open keep reading valid data.
+     */
+    public static class Content {
+
+        private final ByteBuffer buffer;
+        private final Cleaner.Cleanable cleanable;
+
+        private Content(Object owner, ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.cleanable = cleaner.register(owner, new Release(buffer.capacity()));
+        }
+
+        public SeekableInputStream newStream() {
+            return new SeekableByteBufferInputStream(buffer);
+        }
+
+        public int size() {
+            return buffer.limit();
+        }
+
+        /**
+         * Gives the memory back to the global budget. Also done when the owner is
+         * garbage collected without being released.
+         */
+        public void release() {
+            cleanable.clean();
+        }
+    }
+
+    private static class Release implements Runnable {
+
+        private final long bytes;
+
+        private Release(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            usedBytes.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * @param maxBytes
+     *            memory used by all cached items, 0 disables the cache
+     * @param maxItemSize
+     *            items bigger than this are not cached
+     * @param offHeap
+     *            allocates buffers outside the java heap
+     */
+    public static void enable(long maxBytes, long maxItemSize, boolean offHeap) {
+        ItemContentCache.maxItemSize = Math.min(maxItemSize, Integer.MAX_VALUE);
+        ItemContentCache.offHeap = offHeap;
+        ItemContentCache.maxBytes = maxBytes;
+    }
+
+    public static void disable() {
+        maxBytes = 0;
+    }
+
+    public static boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public static long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Reads the whole content of an item into memory, if it fits the item and
+     * global limits.
+     *
+     * @param owner
+     *            object holding the content, its memory is released if it is
+     *            garbage collected without calling {@link Content#release()}
+     * @param length
+     *            length of the item
+     * @param opener
+     *            opens the item stream
+     * @return the content or null if it was not cached, then the item must be read
+     *         from the evidence. Reading errors also return null, so they are
+     *         seen again by the caller with its own error handling.
+     */
+    public static Content load(Object owner, long length, StreamOpener opener) {
+        if (length <= 0 || length > maxItemSize || !reserve(length)) {
+            return null;
+        }
+        ByteBuffer buffer = null;
+        try {
+            buffer = offHeap ? ByteBuffer.allocateDirect((int) length) : ByteBuffer.allocate((int) length);
+            try (SeekableInputStream in = opener.open()) {
+                if (in == null || !readFully(in, buffer)) {
+                    // no content or content bigger than item length
+                    buffer = null;
+                }
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            buffer = null;
+        }
+        if (buffer == null) {
+            usedBytes.addAndGet(-length);
+            return null;
+        }
+        buffer.flip();
+        // the reserved budget is given back by the content release
+        return new Content(owner, buffer);
+    }
+
+    private static boolean reserve(long bytes) {
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used + bytes > maxBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    /**
+     * @return false if the stream has more bytes than the buffer capacity
+     */
+    private static boolean readFully(InputStream in, ByteBuffer buffer) throws IOException {
+        int read = 0;
+        if (buffer.hasArray()) {
+            while (buffer.hasRemaining() && (read = in.read(buffer.array(), buffer.position(),
+                    buffer.remaining())) != -1) {
+                buffer.position(buffer.position() + read);
+            }
+        } else {
+            byte[] buf = new byte[Math.min(COPY_BUF_LEN, buffer.capacity())];
+            while (buffer.hasRemaining()
+                    && (read = in.read(buf, 0, Math.min(buf.length, buffer.remaining()))) != -1) {
+                buffer.put(buf, 0, read);
+            }
+        }
+        return read == -1 || in.read() == -1;
+    }
+
+}
@@ -0,0 +1,924 @@
+package iped.engine.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import iped.data.IHashValue;
+import iped.io.SeekableInputStream;
+import iped.utils.HashValue;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Append only store of item contents identified by their hashes. Each content
+ * is split into chunks compressed independently, so any position can be read
+ * decompressing just the chunks around it.
+ *
+ * Contents are appended to the pack file, with records like:
+ *
+ * <pre>
+ * int magic, long length, int numChunks, int[numChunks] chunkLengths, chunks
+ * </pre>
+ *
+ * where negative chunk lengths mean chunks stored without compression.
+ *
+ * The hash and offset of records are kept in fixed width entries of a sorted
+ * index file, memory mapped and binary searched, so opening a store does not
+ * load the whole index in the heap. Entries of records added after the last
+ * sort are appended to a journal file and kept in a small map, until they are
+ * merged into a new generation of the sorted index. The journal header tells
+ * the current generation.
+ *
+ * Compactions write the new pack beside the current one and only replace it
+ * after the journal header tells the new generation, so a compaction
+ * interrupted after that is finished when the store is opened again.
+ */
+public class PackFileStore implements Closeable {
+
+    public static final String PACK_EXT = ".pack";
+    public static final String INDEX_EXT = ".idx";
+    public static final String SORTED_INDEX_EXT = ".sidx";
+    public static final String PENDING_PACK_EXT = ".tmp";
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int RECORD_MAGIC = 0x49504B31; // IPK1
+    private static final int RECORD_HEADER_LEN = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final int INDEX_MAGIC = 0x49504A31; // IPJ1
+    private static final int SORTED_INDEX_MAGIC = 0x49505831; // IPX1
+
+    // magic, unused int and generation
+    private static final int INDEX_HEADER_LEN = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    // magic, unused int, number of entries and pack size covered by the entries
+    private static final int SORTED_INDEX_HEADER_LEN = Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+
+    private static final int HASH_LEN = 16;
+    private static final int INDEX_ENTRY_LEN = HASH_LEN + Long.BYTES;
+
+    // sorted index is mapped in buffers of up to this number of entries
+    private static final int ENTRIES_PER_MAP = Integer.MAX_VALUE / INDEX_ENTRY_LEN;
+
+    // appended entries are merged into the sorted index when reaching this
+    static int maxAppendedEntries = 1 << 18;
+
+    private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    // stores opened by this process, shared by writers and readers
+    private static final Map<File, PackFileStore> openStores = new HashMap<>();
+
+    private final File packFile;
+    private final File indexFile;
+    private final boolean writable;
+
+    private PackChannel pack;
+    private FileChannel index;
+    private long generation;
+    private MappedByteBuffer[] sorted = new MappedByteBuffer[0];
+    private long numSorted;
+    private HashMap<IHashValue, Long> appended = new HashMap<>();
+    private long packSize;
+    private boolean closed;
+
+    /**
+     * Opens a store for writing, creating it if it does not exist.
+     *
+     * @param packFile
+     *            pack file, the index files are created beside it
+     */
+    public static PackFileStore openForWriting(File packFile) throws IOException {
+        synchronized (openStores) {
+            File key = packFile.getAbsoluteFile();
+            PackFileStore store = openStores.get(key);
+            if (store != null && !store.writable) {
+                store.close();
+                store = null;
+            }
+            if (store == null) {
+                store = new PackFileStore(key, true);
+                openStores.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * @return the store already opened by this process or the store opened just
+     *         for reading.
+     */
+    public static PackFileStore get(File packFile) throws IOException {
+        synchronized (openStores) {
+            File key = packFile.getAbsoluteFile();
+            PackFileStore store = openStores.get(key);
+            if (store == null) {
+                store = new PackFileStore(key, false);
+                openStores.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    private PackFileStore(File packFile, boolean writable) throws IOException {
+        this.packFile = packFile;
+        this.indexFile = new File(packFile.getParentFile(), getBaseName(packFile) + INDEX_EXT);
+        this.writable = writable;
+        if (writable) {
+            packFile.getParentFile().mkdirs();
+            index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } else {
+            index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        }
+        try {
+            File currentPack = recoverPendingPack();
+            if (writable) {
+                pack = new PackChannel(FileChannel.open(currentPack.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE));
+            } else {
+                pack = new PackChannel(FileChannel.open(currentPack.toPath(), StandardOpenOption.READ));
+            }
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+        try {
+            loadIndex();
+            if (writable) {
+                deleteStaleFiles();
+            }
+        } catch (IOException | RuntimeException e) {
+            pack.release();
+            index.close();
+            throw e;
+        }
+    }
+
+    private static String getBaseName(File packFile) {
+        String name = packFile.getName();
+        if (name.endsWith(PACK_EXT)) {
+            name = name.substring(0, name.length() - PACK_EXT.length());
+        }
+        return name;
+    }
+
+    private File getSortedIndexFile(long generation) {
+        return new File(packFile.getParentFile(), getBaseName(packFile) + "." + generation + SORTED_INDEX_EXT);
+    }
+
+    /**
+     * @return the compacted pack of the given generation, before it replaces the
+     *         pack file
+     */
+    private File getPendingPackFile(long generation) {
+        return new File(packFile.getParentFile(), packFile.getName() + "." + generation + PENDING_PACK_EXT);
+    }
+
+    /**
+     * @return the generation in the journal header or -1 if there is no header
+     *         yet
+     */
+    private long readGeneration() throws IOException {
+        if (index.size() < INDEX_HEADER_LEN) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LEN);
+        readFully(index, header, 0);
+        header.flip();
+        if (header.getInt() != INDEX_MAGIC) {
+            throw new IOException("Invalid pack index " + indexFile.getAbsolutePath());
+        }
+        header.getInt();
+        return header.getLong();
+    }
+
+    /**
+     * Finishes a compaction interrupted after the journal header was switched to
+     * its generation but before its pack replaced the old one. Readers just read
+     * the compacted pack where it is.
+     *
+     * @return the pack file with the records of the current generation
+     */
+    private File recoverPendingPack() throws IOException {
+        long current = readGeneration();
+        File pending = getPendingPackFile(current);
+        if (current <= 0 || !pending.exists()) {
+            return packFile;
+        }
+        if (!writable) {
+            return pending;
+        }
+        Files.move(pending.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return packFile;
+    }
+
+    /**
+     * Maps the sorted index and loads the journal, ignoring entries pointing to
+     * records not fully written, like after an abrupt shutdown.
+     */
+    private void loadIndex() throws IOException {
+        long fileSize = pack.channel.size();
+        long end = 0;
+        long current = readGeneration();
+        generation = Math.max(0, current);
+        if (current != -1) {
+            end = mapSortedIndex(getSortedIndexFile(generation), fileSize);
+        } else if (writable) {
+            writeIndexHeader(0);
+        }
+
+        long numEntries = Math.max(0, (index.size() - INDEX_HEADER_LEN) / INDEX_ENTRY_LEN);
+        ByteBuffer entries = ByteBuffer.allocate((int) numEntries * INDEX_ENTRY_LEN);
+        if (numEntries > 0) {
+            readFully(index, entries, INDEX_HEADER_LEN);
+        }
+        entries.flip();
+        long sortedEnd = end;
+        int validEntries = 0;
+        byte[] hash = new byte[HASH_LEN];
+        for (int i = 0; i < numEntries; i++) {
+            entries.get(hash);
+            long offset = entries.getLong();
+            validEntries++;
+            if (offset < sortedEnd) {
+                // already merged, the journal was not truncated after the last sort
+                continue;
+            }
+            long recordEnd = offset < end ? -1 : getRecordEnd(offset, fileSize);
+            if (recordEnd == -1) {
+                validEntries--;
+                break;
+            }
+            end = recordEnd;
+            appended.put(new HashValue(hash.clone()), offset);
+        }
+        packSize = end;
+        if (writable) {
+            index.truncate(INDEX_HEADER_LEN + (long) validEntries * INDEX_ENTRY_LEN);
+            pack.channel.truncate(packSize);
+        }
+    }
+
+    /**
+     * @return pack size covered by the sorted index entries
+     */
+    private long mapSortedIndex(File file, long packFileSize) throws IOException {
+        sorted = new MappedByteBuffer[0];
+        numSorted = 0;
+        if (!file.exists()) {
+            if (generation != 0) {
+                throw new IOException("Missing sorted pack index " + file.getAbsolutePath());
+            }
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SORTED_INDEX_HEADER_LEN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != SORTED_INDEX_MAGIC) {
+                throw new IOException("Invalid sorted pack index " + file.getAbsolutePath());
+            }
+            header.getInt();
+            long count = header.getLong();
+            long end = header.getLong();
+            if (count < 0 || end > packFileSize
+                    || channel.size() < SORTED_INDEX_HEADER_LEN + count * INDEX_ENTRY_LEN) {
+                throw new IOException("Corrupted sorted pack index " + file.getAbsolutePath());
+            }
+            MappedByteBuffer[] maps = new MappedByteBuffer[(int) ((count + ENTRIES_PER_MAP - 1) / ENTRIES_PER_MAP)];
+            for (int i = 0; i < maps.length; i++) {
+                long first = (long) i * ENTRIES_PER_MAP;
+                long len = Math.min(ENTRIES_PER_MAP, count - first) * INDEX_ENTRY_LEN;
+                maps[i] = channel.map(MapMode.READ_ONLY, SORTED_INDEX_HEADER_LEN + first * INDEX_ENTRY_LEN, len);
+            }
+            sorted = maps;
+            numSorted = count;
+            return end;
+        }
+    }
+
+    private void writeIndexHeader(long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LEN);
+        header.putInt(INDEX_MAGIC).putInt(0).putLong(generation).flip();
+        writeFully(index, header, 0);
+    }
+
+    /**
+     * Deletes sorted indexes of other generations and compacted packs left by
+     * compactions interrupted before their generation was made current.
+     */
+    private void deleteStaleFiles() {
+        String prefix = getBaseName(packFile) + ".";
+        String pendingPrefix = packFile.getName() + ".";
+        File current = getSortedIndexFile(generation);
+        File[] files = packFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(SORTED_INDEX_EXT) && !file.equals(current)) {
+                // mapped files may not be deleted in some platforms, tried again next time
+                file.delete();
+            } else if (name.startsWith(pendingPrefix) && name.endsWith(PENDING_PACK_EXT)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return end of the record at offset or -1 if it is not valid
+     */
+    private long getRecordEnd(long offset, long fileSize) throws IOException {
+        if (offset + RECORD_HEADER_LEN > fileSize) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+        readFully(pack.channel, header, offset);
+        header.flip();
+        if (header.getInt() != RECORD_MAGIC) {
+            return -1;
+        }
+        long length = header.getLong();
+        int numChunks = header.getInt();
+        if (length < 0 || numChunks != getNumChunks(length)) {
+            return -1;
+        }
+        long end = offset + RECORD_HEADER_LEN + (long) numChunks * Integer.BYTES;
+        if (end > fileSize) {
+            return -1;
+        }
+        int[] chunkLengths = readChunkLengths(pack.channel, offset, numChunks);
+        for (int len : chunkLengths) {
+            end += Math.abs(len);
+        }
+        return end <= fileSize ? end : -1;
+    }
+
+    private static int getNumChunks(long length) {
+        return (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static int[] readChunkLengths(FileChannel channel, long offset, int numChunks) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(numChunks * Integer.BYTES);
+        readFully(channel, buf, offset + RECORD_HEADER_LEN);
+        buf.flip();
+        int[] chunkLengths = new int[numChunks];
+        buf.asIntBuffer().get(chunkLengths);
+        return chunkLengths;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    public File getPackFile() {
+        return packFile;
+    }
+
+    private ByteBuffer sortedEntries(long i) {
+        return sorted[(int) (i / ENTRIES_PER_MAP)];
+    }
+
+    private static int sortedEntryPos(long i) {
+        return (int) (i % ENTRIES_PER_MAP) * INDEX_ENTRY_LEN;
+    }
+
+    /**
+     * Compares sorted index entry i with the hash given as two unsigned longs.
+     */
+    private int compareSortedEntry(long i, long hashHigh, long hashLow) {
+        ByteBuffer entries = sortedEntries(i);
+        int pos = sortedEntryPos(i);
+        int cmp = Long.compareUnsigned(entries.getLong(pos), hashHigh);
+        return cmp != 0 ? cmp : Long.compareUnsigned(entries.getLong(pos + Long.BYTES), hashLow);
+    }
+
+    /**
+     * @return offset of the record with the hash or -1 if not found
+     */
+    private long findOffset(IHashValue hash) {
+        Long offset = appended.get(hash);
+        if (offset != null) {
+            return offset;
+        }
+        ByteBuffer key = ByteBuffer.wrap(hash.getBytes());
+        long hashHigh = key.getLong(0);
+        long hashLow = key.getLong(Long.BYTES);
+        long lo = 0, hi = numSorted - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int cmp = compareSortedEntry(mid, hashHigh, hashLow);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return sortedEntries(mid).getLong(sortedEntryPos(mid) + HASH_LEN);
+            }
+        }
+        return -1;
+    }
+
+    public synchronized boolean contains(IHashValue hash) {
+        return findOffset(hash) != -1;
+    }
+
+    public synchronized long size() {
+        return numSorted + appended.size();
+    }
+
+    /**
+     * Adds a content if there is no content with the same hash yet. Compression is
+     * done outside the store lock, so many threads can add contents at once.
+     *
+     * @return false if the content was already stored
+     */
+    public boolean put(IHashValue hash, byte[] buf, int off, int len) throws IOException {
+        if (contains(hash)) {
+            return false;
+        }
+        ByteBuffer record = encode(buf, off, len);
+        synchronized (this) {
+            checkWritable();
+            if (findOffset(hash) != -1) {
+                return false;
+            }
+            long offset = packSize;
+            writeFully(pack.channel, record, offset);
+            packSize += record.limit();
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LEN);
+            entry.put(hash.getBytes(), 0, HASH_LEN).putLong(offset).flip();
+            writeFully(index, entry, index.size());
+            appended.put(hash, offset);
+            if (appended.size() >= maxAppendedEntries) {
+                sortIndex();
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer encode(byte[] buf, int off, int len) {
+        int numChunks = getNumChunks(len);
+        int maxLen = RECORD_HEADER_LEN + numChunks * Integer.BYTES;
+        for (int i = 0; i < numChunks; i++) {
+            maxLen += compressor.maxCompressedLength(Math.min(CHUNK_SIZE, len - i * CHUNK_SIZE));
+        }
+        byte[] record = new byte[maxLen];
+        ByteBuffer bb = ByteBuffer.wrap(record);
+        bb.putInt(RECORD_MAGIC).putLong(len).putInt(numChunks);
+        int tablePos = bb.position();
+        int pos = tablePos + numChunks * Integer.BYTES;
+        for (int i = 0; i < numChunks; i++) {
+            int chunkOff = off + i * CHUNK_SIZE;
+            int chunkLen = Math.min(CHUNK_SIZE, len - i * CHUNK_SIZE);
+            int compressedLen = compressor.compress(buf, chunkOff, chunkLen, record, pos, maxLen - pos);
+            if (compressedLen >= chunkLen) {
+                // not compressible
+                System.arraycopy(buf, chunkOff, record, pos, chunkLen);
+                compressedLen = -chunkLen;
+            }
+            bb.putInt(tablePos + i * Integer.BYTES, compressedLen);
+            pos += Math.abs(compressedLen);
+        }
+        bb.position(0).limit(pos);
+        return bb;
+    }
+
+    /**
+     * @return stream to read the content with the hash or null if not found
+     */
+    public SeekableInputStream openStream(IHashValue hash) throws IOException {
+        long offset;
+        PackChannel channel;
+        synchronized (this) {
+            checkOpen();
+            offset = findOffset(hash);
+            if (offset == -1) {
+                return null;
+            }
+            // the stream keeps reading this pack even if it is replaced by a compaction
+            channel = pack;
+            channel.acquire();
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+            readFully(channel.channel, header, offset);
+            header.flip();
+            header.getInt();
+            long length = header.getLong();
+            int numChunks = header.getInt();
+            int[] chunkLengths = readChunkLengths(channel.channel, offset, numChunks);
+            return new ChunkedInputStream(channel, offset + RECORD_HEADER_LEN + (long) numChunks * Integer.BYTES,
+                    length, chunkLengths);
+
+        } catch (IOException | RuntimeException e) {
+            channel.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a new generation of the sorted index with the entries of the journal
+     * and makes it current. Pack data is flushed first, so sorted entries always
+     * point to complete records.
+     */
+    private void sortIndex() throws IOException {
+        if (appended.isEmpty()) {
+            return;
+        }
+        int n = appended.size();
+        long[][] entries = new long[n][];
+        int i = 0;
+        for (Map.Entry<IHashValue, Long> entry : appended.entrySet()) {
+            ByteBuffer key = ByteBuffer.wrap(entry.getKey().getBytes());
+            entries[i++] = new long[] { key.getLong(0), key.getLong(Long.BYTES), entry.getValue() };
+        }
+        Arrays.sort(entries, (a, b) -> {
+            int cmp = Long.compareUnsigned(a[0], b[0]);
+            return cmp != 0 ? cmp : Long.compareUnsigned(a[1], b[1]);
+        });
+        pack.channel.force(false);
+
+        long newGeneration = generation + 1;
+        File file = getSortedIndexFile(newGeneration);
+        try (FileOutputStream fos = new FileOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 20))) {
+            out.writeInt(SORTED_INDEX_MAGIC);
+            out.writeInt(0);
+            out.writeLong(numSorted + n);
+            out.writeLong(packSize);
+            long j = 0;
+            i = 0;
+            while (j < numSorted || i < n) {
+                if (i == n || (j < numSorted && compareSortedEntry(j, entries[i][0], entries[i][1]) < 0)) {
+                    ByteBuffer sortedEntries = sortedEntries(j);
+                    int pos = sortedEntryPos(j++);
+                    out.writeLong(sortedEntries.getLong(pos));
+                    out.writeLong(sortedEntries.getLong(pos + Long.BYTES));
+                    out.writeLong(sortedEntries.getLong(pos + HASH_LEN));
+                } else {
+                    long[] entry = entries[i++];
+                    out.writeLong(entry[0]);
+                    out.writeLong(entry[1]);
+                    out.writeLong(entry[2]);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        switchGeneration(newGeneration, packSize);
+    }
+
+    /**
+     * Makes the sorted index of the given generation current and clears the
+     * journal. The journal is truncated after its header is updated, so a crash
+     * in between just leaves entries already merged, ignored when loading.
+     */
+    private void switchGeneration(long newGeneration, long sortedPackSize) throws IOException {
+        File oldFile = getSortedIndexFile(generation);
+        writeIndexHeader(newGeneration);
+        index.force(false);
+        index.truncate(INDEX_HEADER_LEN);
+        index.force(false);
+        generation = newGeneration;
+        appended = new HashMap<>();
+        mapSortedIndex(getSortedIndexFile(newGeneration), sortedPackSize);
+        // mapped files may not be deleted in some platforms, tried again next time
+        oldFile.delete();
+    }
+
+    /**
+     * Keeps just the contents accepted by the filter, rewriting the store without
+     * the removed ones. Streams already open keep reading the old pack file, which
+     * is closed when the last of them is closed.
+     *
+     * The compacted pack and its sorted index are written as a new generation and
+     * switching the journal header to it is the commit point: before that the old
+     * pack is untouched, after that the compacted pack replaces it, here or when
+     * the store is opened again.
+     *
+     * @return the number of contents removed
+     */
+    public synchronized int retain(Predicate<IHashValue> filter) throws IOException {
+        checkWritable();
+        sortIndex();
+        if (numSorted > Integer.MAX_VALUE) {
+            throw new IOException("Too many contents to compact " + packFile.getAbsolutePath());
+        }
+        // kept entries in hash order
+        long[] hashHigh = new long[(int) numSorted];
+        long[] hashLow = new long[(int) numSorted];
+        long[] offsets = new long[(int) numSorted];
+        int kept = 0;
+        byte[] hash = new byte[HASH_LEN];
+        for (long i = 0; i < numSorted; i++) {
+            ByteBuffer entries = sortedEntries(i);
+            int pos = sortedEntryPos(i);
+            for (int b = 0; b < HASH_LEN; b++) {
+                hash[b] = entries.get(pos + b);
+            }
+            if (filter.test(new HashValue(hash.clone()))) {
+                hashHigh[kept] = entries.getLong(pos);
+                hashLow[kept] = entries.getLong(pos + Long.BYTES);
+                offsets[kept++] = entries.getLong(pos + HASH_LEN);
+            }
+        }
+        int removed = (int) numSorted - kept;
+        if (removed == 0) {
+            return 0;
+        }
+        // records are copied in pack order
+        long[] oldOffsets = Arrays.copyOf(offsets, kept);
+        Arrays.sort(oldOffsets);
+        long[] newOffsets = new long[kept];
+        long newGeneration = generation + 1;
+        File newPackFile = getPendingPackFile(newGeneration);
+        long newPackSize = 0;
+        try (FileChannel newPack = FileChannel.open(newPackFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < kept; i++) {
+                long offset = oldOffsets[i];
+                long recordLen = getRecordEnd(offset, packSize) - offset;
+                long copied = 0;
+                while (copied < recordLen) {
+                    copied += pack.channel.transferTo(offset + copied, recordLen - copied, newPack);
+                }
+                newOffsets[i] = newPackSize;
+                newPackSize += recordLen;
+            }
+            newPack.force(false);
+        }
+
+        File file = getSortedIndexFile(newGeneration);
+        try (FileOutputStream fos = new FileOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 20))) {
+            out.writeInt(SORTED_INDEX_MAGIC);
+            out.writeInt(0);
+            out.writeLong(kept);
+            out.writeLong(newPackSize);
+            for (int i = 0; i < kept; i++) {
+                out.writeLong(hashHigh[i]);
+                out.writeLong(hashLow[i]);
+                out.writeLong(newOffsets[Arrays.binarySearch(oldOffsets, offsets[i])]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        writeIndexHeader(newGeneration);
+        index.force(false);
+
+        // open streams keep a reference to the old pack channel
+        pack.release();
+        pack = null;
+        try {
+            Files.move(newPackFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            // still using the old pack, so roll back to its generation
+            writeIndexHeader(generation);
+            index.force(false);
+            newPackFile.delete();
+            file.delete();
+            throw e;
+        } finally {
+            pack = new PackChannel(FileChannel.open(packFile.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE));
+        }
+        packSize = newPackSize;
+        switchGeneration(newGeneration, newPackSize);
+        return removed;
+    }
+
+    /**
+     * Flushes written contents to disk.
+     */
+    public synchronized void commit() throws IOException {
+        if (writable && !closed) {
+            pack.channel.force(false);
+            index.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (openStores) {
+            openStores.remove(packFile, this);
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (writable) {
+                    sortIndex();
+                }
+                commit();
+            } finally {
+                closed = true;
+                // open streams keep the pack channel open until they are closed
+                pack.release();
+                index.close();
+                sorted = new MappedByteBuffer[0];
+                numSorted = 0;
+                appended = new HashMap<>();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Store already closed: " + packFile.getAbsolutePath());
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        checkOpen();
+        if (!writable) {
+            throw new IOException("Store opened just for reading: " + packFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Pack file channel shared by the store and its streams, closed when all of
+     * them released it.
+     */
+    private static class PackChannel {
+
+        private final FileChannel channel;
+        private int refs = 1;
+
+        private PackChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private synchronized void acquire() {
+            refs++;
+        }
+
+        private synchronized void release() throws IOException {
+            if (--refs == 0) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a content decompressing one chunk at a time.
+     */
+    private static class ChunkedInputStream extends SeekableInputStream {
+
+        private final PackChannel channel;
+        private final long dataOffset;
+        private final long length;
+        private final int[] chunkLengths;
+        private final long[] chunkOffsets;
+
+        private byte[] chunk = new byte[0];
+        private byte[] compressed;
+        private int chunkIdx = -1;
+        private long position = 0;
+        private boolean streamClosed;
+
+        private ChunkedInputStream(PackChannel channel, long dataOffset, long length, int[] chunkLengths) {
+            this.channel = channel;
+            this.dataOffset = dataOffset;
+            this.length = length;
+            this.chunkLengths = chunkLengths;
+            this.chunkOffsets = new long[chunkLengths.length];
+            long offset = 0;
+            for (int i = 0; i < chunkLengths.length; i++) {
+                chunkOffsets[i] = offset;
+                offset += Math.abs(chunkLengths[i]);
+            }
+        }
+
+        private void loadChunk(int idx) throws IOException {
+            if (idx == chunkIdx) {
+                return;
+            }
+            int rawLen = (int) Math.min(CHUNK_SIZE, length - (long) idx * CHUNK_SIZE);
+            if (chunk.length < rawLen) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            int storedLen = chunkLengths[idx];
+            long pos = dataOffset + chunkOffsets[idx];
+            if (storedLen < 0) {
+                readFully(channel.channel, ByteBuffer.wrap(chunk, 0, rawLen), pos);
+            } else {
+                if (compressed == null || compressed.length < storedLen) {
+                    compressed = new byte[compressor.maxCompressedLength(CHUNK_SIZE)];
+                }
+                readFully(channel.channel, ByteBuffer.wrap(compressed, 0, storedLen), pos);
+                decompressor.decompress(compressed, 0, chunk, 0, rawLen);
+            }
+            chunkIdx = idx;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkIfClosed();
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int idx = (int) (position / CHUNK_SIZE);
+            loadChunk(idx);
+            int chunkPos = (int) (position - (long) idx * CHUNK_SIZE);
+            int rawLen = (int) Math.min(CHUNK_SIZE, length - (long) idx * CHUNK_SIZE);
+            len = Math.min(len, rawLen - chunkPos);
+            System.arraycopy(chunk, chunkPos, b, off, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkIfClosed();
+            long newPos = Math.max(0, Math.min(position + n, length));
+            long skipped = newPos - position;
+            position = newPos;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkIfClosed();
+            return (int) Math.min(length - position, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            checkIfClosed();
+            position = Math.min(pos, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            checkIfClosed();
+            return position;
+        }
+
+        @Override
+        public long size() throws IOException {
+            checkIfClosed();
+            return length;
+        }
+
+        private void checkIfClosed() throws IOException {
+            if (streamClosed) {
+                throw new IOException("Stream already closed.");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (streamClosed) {
+                return;
+            }
+            streamClosed = true;
+            chunk = null;
+            compressed = null;
+            channel.release();
+        }
+    }
+
+}
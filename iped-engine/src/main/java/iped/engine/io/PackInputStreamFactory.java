@@ -0,0 +1,38 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import iped.io.SeekableInputStream;
+import iped.utils.HashValue;
+import iped.utils.SeekableInputStreamFactory;
+
+/**
+ * Reads item contents kept in a {@link PackFileStore}, identified by their
+ * hashes.
+ */
+public class PackInputStreamFactory extends SeekableInputStreamFactory {
+
+    public PackInputStreamFactory(Path datasource) {
+        super(datasource.toUri());
+    }
+
+    @Override
+    public boolean checkIfDataSourceExists() {
+        // it is always into case folder, so do not ask for the datasource path
+        return false;
+    }
+
+    @Override
+    public SeekableInputStream getSeekableInputStream(String identifier) throws IOException {
+        // the store is looked up each time, it may be reopened after a compaction
+        PackFileStore store = PackFileStore.get(Paths.get(getDataSourceURI()).toFile());
+        SeekableInputStream is = store.openStream(new HashValue(identifier));
+        if (is == null) {
+            throw new IOException("Content " + identifier + " not found in " + store.getPackFile().getAbsolutePath());
+        }
+        return is;
+    }
+
+}
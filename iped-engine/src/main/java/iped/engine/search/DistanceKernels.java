@@ -0,0 +1,120 @@
+package iped.engine.search;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Squared euclidean distance kernels used by image and face similarity
+ * searches. Vectors are processed in fixed blocks with independent
+ * accumulators and no branches, a shape the JIT compiles to SIMD instructions,
+ * and the cut, used to stop early if vectors are already too far, is checked
+ * once per block. Stored face vectors are read directly from index bytes,
+ * without decoding them to a new array.
+ *
+ * Distances returned are exact if lower than or equal to the cut, otherwise
+ * they are some value greater than the cut, like the previous scalar loops.
+ */
+public class DistanceKernels {
+
+    private static final int BLOCK = 16;
+
+    private static final VarHandle FLOAT_BE = MethodHandles.byteArrayViewVarHandle(float[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Distance between byte vectors a[aOff, aOff + len) and b[bOff, bOff + len).
+     * Stops when the distance is greater than or equal to cut.
+     */
+    public static int squaredDistance(byte[] a, int aOff, byte[] b, int bOff, int len, int cut) {
+        int dist = 0;
+        int i = 0;
+        for (int end = len - BLOCK + 1; i < end && dist < cut; i += BLOCK) {
+            dist += blockDistance(a, aOff + i, b, bOff + i);
+        }
+        for (; i < len; i++) {
+            int d = a[aOff + i] - b[bOff + i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private static int blockDistance(byte[] a, int aOff, byte[] b, int bOff) {
+        int sum = 0;
+        for (int j = 0; j < BLOCK; j++) {
+            int d = a[aOff + j] - b[bOff + j];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * Distance between float vectors a and b. Stops when the distance is greater
+     * than cut.
+     */
+    public static float squaredDistance(float[] a, float[] b, float cut) {
+        float dist = 0;
+        int len = a.length;
+        int i = 0;
+        for (int end = len - BLOCK + 1; i < end && dist <= cut; i += BLOCK) {
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for (int j = i; j < i + BLOCK; j += 4) {
+                float d0 = a[j] - b[j];
+                float d1 = a[j + 1] - b[j + 1];
+                float d2 = a[j + 2] - b[j + 2];
+                float d3 = a[j + 3] - b[j + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            dist += (s0 + s1) + (s2 + s3);
+        }
+        for (; i < len; i++) {
+            float d = a[i] - b[i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    /**
+     * Distance between float vector a and the vector of a.length big endian
+     * floats stored in b from offset bOff. Stops when the distance is greater
+     * than cut.
+     */
+    public static float squaredDistance(float[] a, byte[] b, int bOff, float cut) {
+        float dist = 0;
+        int len = a.length;
+        int i = 0;
+        for (int end = len - BLOCK + 1; i < end && dist <= cut; i += BLOCK) {
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for (int j = i; j < i + BLOCK; j += 4) {
+                int p = bOff + j * 4;
+                float d0 = a[j] - (float) FLOAT_BE.get(b, p);
+                float d1 = a[j + 1] - (float) FLOAT_BE.get(b, p + 4);
+                float d2 = a[j + 2] - (float) FLOAT_BE.get(b, p + 8);
+                float d3 = a[j + 3] - (float) FLOAT_BE.get(b, p + 12);
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            dist += (s0 + s1) + (s2 + s3);
+        }
+        for (; i < len; i++) {
+            float d = a[i] - (float) FLOAT_BE.get(b, bOff + i * 4);
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    /**
+     * Decodes dst.length big endian floats stored in bytes from offset into dst.
+     */
+    public static void toFloatVector(byte[] bytes, int offset, float[] dst) {
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = (float) FLOAT_BE.get(bytes, offset + i * 4);
+        }
+    }
+
+}
@@ -0,0 +1,443 @@
+package iped.engine.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted file index of float vectors, persisted to disk. Vectors are grouped
+ * by their nearest centroid, computed by k-means over a sample, and sorted by
+ * their distance to the centroid inside each cluster. Searches compute the
+ * distance from the query to the centroids first and use the triangle
+ * inequality to skip clusters, and vectors inside clusters, that can not be
+ * results. So results are the same of a brute force search, but usually only a
+ * small part of the vectors is compared.
+ *
+ * Vectors are memory mapped when the index is loaded, only centroids, ids and
+ * distances to centroids are kept in heap. Searches are thread safe.
+ */
+public class IVFVectorIndex {
+
+    private static final long MAGIC = 0x4950454449564649L; // IPEDIVFI
+    private static final int VERSION = 1;
+
+    private static final int MAX_CLUSTERS = 2048;
+    private static final int CLUSTERS_PER_SQRT_SIZE = 4;
+    private static final int TRAINING_SAMPLES_PER_CLUSTER = 32;
+    private static final int MAX_TRAINING_SAMPLES = 65536;
+    private static final int KMEANS_ITERATIONS = 8;
+    private static final int BUILD_BATCH_SIZE = 8192;
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    // tolerance for rounding errors when skipping clusters or vectors
+    private static final float PRUNING_SLACK = 1.0001f;
+
+    /**
+     * Provides the vectors to be indexed, each one associated to an id. The same
+     * id may be associated to several vectors. Called from a single thread.
+     */
+    public interface VectorSource {
+
+        int size();
+
+        int getId(int i);
+
+        void getVector(int i, float[] dst) throws IOException;
+    }
+
+    public interface HitCollector {
+        void hit(int id, float squaredDist);
+    }
+
+    private final int dim;
+    private final int numVectors;
+    private final float[][] centroids;
+    private final int[] clusterStart;
+    private final int[] ids;
+    private final float[] centroidDists;
+    private final FloatBuffer[] vectorChunks;
+    private final int vectorsPerChunk;
+
+    private IVFVectorIndex(File file, DataInputStream in, long vectorsOffset, int dim, int numVectors, int numClusters)
+            throws IOException {
+        this.dim = dim;
+        this.numVectors = numVectors;
+        centroids = new float[numClusters][dim];
+        for (float[] centroid : centroids) {
+            for (int j = 0; j < dim; j++) {
+                centroid[j] = in.readFloat();
+            }
+        }
+        clusterStart = new int[numClusters + 1];
+        for (int i = 0; i <= numClusters; i++) {
+            clusterStart[i] = in.readInt();
+        }
+        ids = new int[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            ids[i] = in.readInt();
+        }
+        centroidDists = new float[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            centroidDists[i] = in.readFloat();
+        }
+        vectorsPerChunk = (int) (CHUNK_SIZE / (dim * 4));
+        vectorChunks = new FloatBuffer[(numVectors + vectorsPerChunk - 1) / vectorsPerChunk];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                FileChannel channel = raf.getChannel()) {
+            for (int i = 0; i < vectorChunks.length; i++) {
+                long start = (long) i * vectorsPerChunk;
+                long count = Math.min(vectorsPerChunk, numVectors - start);
+                vectorChunks[i] = channel.map(MapMode.READ_ONLY, vectorsOffset + start * dim * 4, count * dim * 4)
+                        .asFloatBuffer();
+            }
+        }
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    public int size() {
+        return numVectors;
+    }
+
+    /**
+     * Loads an index previously written with {@link #write(VectorSource, int, long, File)}.
+     *
+     * @return the index or null if the file does not exist, is invalid or has a
+     *         different stamp.
+     */
+    public static IVFVectorIndex load(File file, long stamp) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || in.readLong() != stamp) {
+                return null;
+            }
+            int dim = in.readInt();
+            int numVectors = in.readInt();
+            int numClusters = in.readInt();
+            long vectorsOffset = 32 + 4L * ((long) numClusters * dim + numClusters + 1 + 2L * numVectors);
+            return new IVFVectorIndex(file, in, vectorsOffset, dim, numVectors, numClusters);
+        }
+    }
+
+    /**
+     * Builds the index of the vectors and writes it to file.
+     *
+     * @param stamp
+     *            value that must be passed to {@link #load(File, long)} to read
+     *            the file back.
+     */
+    public static void write(VectorSource source, int dim, long stamp, File file) throws IOException {
+        int n = source.size();
+        int numClusters = Math.max(1, Math.min(MAX_CLUSTERS, (int) (CLUSTERS_PER_SQRT_SIZE * Math.sqrt(n))));
+        float[][] centroids = train(source, dim, numClusters);
+        int k = centroids.length;
+
+        // assign vectors to clusters, reading them sequentially and computing distances in parallel
+        int[] cluster = new int[n];
+        float[] centroidDist = new float[n];
+        int[] counts = new int[k];
+        float[][] centroidPairDists = pairDistances(centroids);
+        float[][] batch = new float[Math.min(n, BUILD_BATCH_SIZE)][dim];
+        for (int start = 0; start < n; start += batch.length) {
+            int batchStart = start;
+            int batchLen = Math.min(batch.length, n - start);
+            for (int i = 0; i < batchLen; i++) {
+                source.getVector(start + i, batch[i]);
+            }
+            IntStream.range(0, batchLen).parallel().forEach(i -> {
+                int c = nearest(centroids, centroidPairDists, batch[i], 0);
+                cluster[batchStart + i] = c;
+                centroidDist[batchStart + i] = (float) Math.sqrt(squaredDistance(centroids[c], batch[i]));
+            });
+            for (int i = 0; i < batchLen; i++) {
+                counts[cluster[start + i]]++;
+            }
+        }
+        int[] clusterStart = new int[k + 1];
+        for (int c = 0; c < k; c++) {
+            clusterStart[c + 1] = clusterStart[c] + counts[c];
+        }
+
+        // order by cluster and by distance to centroid, distances are not negative so their bits sort like them
+        long[] keys = new long[n];
+        int[] pos = Arrays.copyOf(clusterStart, k);
+        for (int i = 0; i < n; i++) {
+            keys[pos[cluster[i]]++] = ((long) Float.floatToIntBits(centroidDist[i]) << 32) | i;
+        }
+        for (int c = 0; c < k; c++) {
+            Arrays.sort(keys, clusterStart[c], clusterStart[c + 1]);
+        }
+
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(dim);
+            out.writeInt(n);
+            out.writeInt(k);
+            for (float[] centroid : centroids) {
+                for (float f : centroid) {
+                    out.writeFloat(f);
+                }
+            }
+            for (int start : clusterStart) {
+                out.writeInt(start);
+            }
+            for (long key : keys) {
+                out.writeInt(source.getId((int) key));
+            }
+            for (long key : keys) {
+                out.writeFloat(centroidDist[(int) key]);
+            }
+            float[] vector = new float[dim];
+            for (long key : keys) {
+                source.getVector((int) key, vector);
+                for (float f : vector) {
+                    out.writeFloat(f);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Computes up to k centroids of the vectors with k-means over a sample.
+     */
+    static float[][] train(VectorSource source, int dim, int k) throws IOException {
+        int n = source.size();
+        Random random = new Random(0);
+
+        int numSamples = Math.min(n, Math.min(MAX_TRAINING_SAMPLES, k * TRAINING_SAMPLES_PER_CLUSTER));
+        int[] sampleIdx = new int[numSamples];
+        for (int i = 0; i < n; i++) {
+            // reservoir sampling
+            if (i < numSamples) {
+                sampleIdx[i] = i;
+            } else {
+                int j = random.nextInt(i + 1);
+                if (j < numSamples) {
+                    sampleIdx[j] = i;
+                }
+            }
+        }
+        if (numSamples == 0) {
+            return new float[][] { new float[dim] };
+        }
+        // read in index order
+        Arrays.sort(sampleIdx);
+        float[][] samples = new float[numSamples][dim];
+        for (int i = 0; i < numSamples; i++) {
+            source.getVector(sampleIdx[i], samples[i]);
+        }
+
+        k = Math.min(k, numSamples);
+        float[][] centroids = new float[k][];
+        for (int c = 0; c < k; c++) {
+            centroids[c] = samples[random.nextInt(numSamples)].clone();
+        }
+        int[] assignment = new int[numSamples];
+        for (int iter = 0; iter < KMEANS_ITERATIONS; iter++) {
+            float[][] centroidPairDists = pairDistances(centroids);
+            IntStream.range(0, numSamples).parallel()
+                    .forEach(i -> assignment[i] = nearest(centroids, centroidPairDists, samples[i], assignment[i]));
+            float[][] sums = new float[k][dim];
+            int[] counts = new int[k];
+            for (int i = 0; i < numSamples; i++) {
+                float[] sum = sums[assignment[i]];
+                for (int j = 0; j < dim; j++) {
+                    sum[j] += samples[i][j];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                // empty clusters keep their previous centroid
+                if (counts[c] > 0) {
+                    for (int j = 0; j < dim; j++) {
+                        centroids[c][j] = sums[c][j] / counts[c];
+                    }
+                }
+            }
+        }
+        return centroids;
+    }
+
+    static float[][] pairDistances(float[][] centroids) {
+        float[][] dists = new float[centroids.length][centroids.length];
+        IntStream.range(0, centroids.length).parallel().forEach(i -> {
+            for (int j = 0; j < centroids.length; j++) {
+                dists[i][j] = (float) Math.sqrt(squaredDistance(centroids[i], centroids[j]));
+            }
+        });
+        return dists;
+    }
+
+    /**
+     * Finds the nearest centroid, skipping centroids c with d(best, c) &ge; 2
+     * d(vector, best), which can not be nearer than the current best one.
+     */
+    static int nearest(float[][] centroids, float[][] pairDists, float[] vector, int guess) {
+        int best = guess;
+        float bestSquaredDist = squaredDistance(centroids[best], vector);
+        float bestDist2 = 2 * (float) Math.sqrt(bestSquaredDist);
+        for (int c = 0; c < centroids.length; c++) {
+            if (c == best || pairDists[best][c] >= bestDist2) {
+                continue;
+            }
+            float dist = squaredDistance(centroids[c], vector);
+            if (dist < bestSquaredDist) {
+                bestSquaredDist = dist;
+                bestDist2 = 2 * (float) Math.sqrt(dist);
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    static float squaredDistance(float[] a, float[] b) {
+        return DistanceKernels.squaredDistance(a, b, Float.POSITIVE_INFINITY);
+    }
+
+    private float squaredDistance(float[] query, int vectorIdx, float cut) {
+        FloatBuffer chunk = vectorChunks[vectorIdx / vectorsPerChunk];
+        int base = (vectorIdx % vectorsPerChunk) * dim;
+        float dist = 0;
+        for (int i = 0; i < dim && dist <= cut; i++) {
+            float d = query[i] - chunk.get(base + i);
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private float[] centroidDistances(float[] query) {
+        float[] dists = new float[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            dists[c] = (float) Math.sqrt(squaredDistance(centroids[c], query));
+        }
+        return dists;
+    }
+
+    private float getRadius(int cluster) {
+        int end = clusterStart[cluster + 1];
+        return end > clusterStart[cluster] ? centroidDists[end - 1] : 0;
+    }
+
+    /**
+     * Finds all vectors with squared distance to the query not greater than
+     * maxSquaredDist.
+     */
+    public void search(float[] query, float maxSquaredDist, HitCollector collector) {
+        float maxDist = (float) Math.sqrt(maxSquaredDist) * PRUNING_SLACK;
+        float[] queryCentroidDists = centroidDistances(query);
+        for (int c = 0; c < centroids.length; c++) {
+            float queryDist = queryCentroidDists[c];
+            if (queryDist - getRadius(c) > maxDist) {
+                continue;
+            }
+            // only vectors whose distance to centroid is near the query one can be hits
+            int start = Arrays.binarySearch(centroidDists, clusterStart[c], clusterStart[c + 1], queryDist - maxDist);
+            if (start < 0) {
+                start = -start - 1;
+            }
+            while (start > clusterStart[c] && centroidDists[start - 1] >= queryDist - maxDist) {
+                start--;
+            }
+            for (int i = start; i < clusterStart[c + 1] && centroidDists[i] <= queryDist + maxDist; i++) {
+                float dist = squaredDistance(query, i, maxSquaredDist);
+                if (dist <= maxSquaredDist) {
+                    collector.hit(ids[i], dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the k nearest vectors to the query and reports them in increasing
+     * distance order.
+     */
+    public void search(float[] query, int k, HitCollector collector) {
+        if (k <= 0) {
+            return;
+        }
+        float[] queryCentroidDists = centroidDistances(query);
+        Integer[] clusters = new Integer[centroids.length];
+        float[] lowerBounds = new float[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            clusters[c] = c;
+            lowerBounds[c] = Math.max(0, queryCentroidDists[c] - getRadius(c)) / PRUNING_SLACK;
+        }
+        Arrays.sort(clusters, (c1, c2) -> Float.compare(lowerBounds[c1], lowerBounds[c2]));
+
+        // max heap of best hits
+        PriorityQueue<Candidate> best = new PriorityQueue<>((a, b) -> Float.compare(b.dist, a.dist));
+        float cut = Float.MAX_VALUE;
+        float maxDist = Float.MAX_VALUE;
+        for (int c : clusters) {
+            if (best.size() == k && lowerBounds[c] > maxDist) {
+                break;
+            }
+            float queryDist = queryCentroidDists[c];
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++) {
+                if (Math.abs(queryDist - centroidDists[i]) > maxDist) {
+                    continue;
+                }
+                float dist = squaredDistance(query, i, cut);
+                if (best.size() < k) {
+                    best.add(new Candidate(i, dist));
+                } else if (dist < cut) {
+                    best.poll();
+                    best.add(new Candidate(i, dist));
+                }
+                if (best.size() == k) {
+                    cut = best.peek().dist;
+                    maxDist = (float) Math.sqrt(cut) * PRUNING_SLACK;
+                }
+            }
+        }
+        Candidate[] hits = best.toArray(new Candidate[0]);
+        Arrays.sort(hits, (a, b) -> Float.compare(a.dist, b.dist));
+        for (Candidate hit : hits) {
+            collector.hit(ids[hit.idx], hit.dist);
+        }
+    }
+
+    private static class Candidate {
+
+        private final int idx;
+        private final float dist;
+
+        private Candidate(int idx, float dist) {
+            this.idx = idx;
+            this.dist = dist;
+        }
+    }
+
+    /**
+     * Reads a big endian float vector, like stored in index doc values.
+     */
+    public static void toFloatVector(byte[] bytes, int offset, float[] dst) {
+        DistanceKernels.toFloatVector(bytes, offset, dst);
+    }
+
+}
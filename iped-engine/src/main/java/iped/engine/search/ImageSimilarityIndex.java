@@ -0,0 +1,714 @@
+package iped.engine.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import iped.engine.task.similarity.ImageSimilarity;
+
+/**
+ * Index of image similarity features, persisted to disk. Features are grouped
+ * by their nearest coarse centroid, like in {@link IVFVectorIndex}, and each
+ * one is also encoded with product quantization: the vector is split in
+ * subspaces of {@link #SUB_DIM} features and each part is replaced by the
+ * index of its nearest codeword, so a code has 1 byte per subspace. The
+ * quantization error of each vector is stored too.
+ *
+ * Searches use the triangle inequality with the coarse centroids to skip
+ * clusters and vectors, then the distance to the quantized vector, computed
+ * with table lookups, minus the quantization error, to skip vectors before
+ * computing the exact distance. So results are the same of
+ * {@link ImageSimilarity#distance(byte[], byte[])} over all images, but only a
+ * small part of the raw features is read.
+ *
+ * Codes and raw features are memory mapped when the index is loaded. Searches
+ * are thread safe.
+ */
+public class ImageSimilarityIndex {
+
+    private static final long MAGIC = 0x4950454449534958L; // IPEDISIX
+    private static final int VERSION = 1;
+
+    /**
+     * First features (median values of the whole image) are not used by
+     * ImageSimilarity.distance().
+     */
+    private static final int SKIPPED_FEATURES = 4;
+
+    private static final int DIM = ImageSimilarity.numFeatures - SKIPPED_FEATURES;
+
+    private static final int SUB_DIM = 8;
+    private static final int NUM_SUBSPACES = DIM / SUB_DIM;
+    private static final int NUM_CODES = 256;
+
+    private static final int MAX_CLUSTERS = 512;
+    private static final int PQ_TRAINING_SAMPLES = 8192;
+    private static final int PQ_KMEANS_ITERATIONS = 6;
+    private static final int BUILD_BATCH_SIZE = 8192;
+
+    /**
+     * Computing the distance table of a query costs about the same of computing
+     * this number of exact distances, so it is only used above that.
+     */
+    private static final int MIN_CANDIDATES_FOR_TABLE = NUM_CODES;
+
+    private static final int HEADER_SIZE = 36;
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    // tolerance for rounding errors when skipping clusters or vectors
+    private static final float PRUNING_SLACK = 1.0001f;
+
+    /**
+     * Provides the features to be indexed, each one associated to an id, in a
+     * single sequential pass.
+     */
+    public interface FeatureSource {
+
+        /**
+         * Moves to the next features.
+         *
+         * @return false if there are no more features.
+         */
+        boolean next() throws IOException;
+
+        int getId();
+
+        /**
+         * @return current features, as returned by
+         *         {@link ImageSimilarity#extractFeatures(java.awt.image.BufferedImage)}
+         */
+        byte[] getFeatures();
+    }
+
+    public interface HitCollector {
+        void hit(int id, int distance);
+    }
+
+    private final int numVectors;
+    private final float[][] centroids;
+    private final float[][][] codebooks;
+    private final int[] clusterStart;
+    private final int[] ids;
+    private final float[] centroidDists;
+    private final float[] quantizationErrors;
+    private final MappedVectors codes;
+    private final MappedVectors vectors;
+
+    private ImageSimilarityIndex(File file, DataInputStream in, int numVectors, int numClusters) throws IOException {
+        this.numVectors = numVectors;
+        centroids = new float[numClusters][DIM];
+        for (float[] centroid : centroids) {
+            for (int j = 0; j < DIM; j++) {
+                centroid[j] = in.readFloat();
+            }
+        }
+        codebooks = new float[NUM_SUBSPACES][NUM_CODES][SUB_DIM];
+        for (float[][] codebook : codebooks) {
+            for (float[] codeword : codebook) {
+                for (int j = 0; j < SUB_DIM; j++) {
+                    codeword[j] = in.readFloat();
+                }
+            }
+        }
+        clusterStart = new int[numClusters + 1];
+        for (int i = 0; i <= numClusters; i++) {
+            clusterStart[i] = in.readInt();
+        }
+        ids = new int[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            ids[i] = in.readInt();
+        }
+        centroidDists = new float[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            centroidDists[i] = in.readFloat();
+        }
+        quantizationErrors = new float[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            quantizationErrors[i] = in.readFloat();
+        }
+        long codesOffset = HEADER_SIZE + 4L * ((long) numClusters * DIM + NUM_SUBSPACES * NUM_CODES * SUB_DIM
+                + numClusters + 1 + 3L * numVectors);
+        codes = new MappedVectors(file, codesOffset, NUM_SUBSPACES, numVectors);
+        vectors = new MappedVectors(file, codesOffset + (long) numVectors * NUM_SUBSPACES, DIM, numVectors);
+    }
+
+    /**
+     * Fixed length byte vectors memory mapped from a file region.
+     */
+    private static class MappedVectors {
+
+        private final int dim;
+        private final int vectorsPerChunk;
+        private final ByteBuffer[] chunks;
+
+        private MappedVectors(File file, long offset, int dim, int numVectors) throws IOException {
+            this.dim = dim;
+            vectorsPerChunk = (int) (CHUNK_SIZE / dim);
+            chunks = new ByteBuffer[(numVectors + vectorsPerChunk - 1) / vectorsPerChunk];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                    FileChannel channel = raf.getChannel()) {
+                for (int i = 0; i < chunks.length; i++) {
+                    long start = (long) i * vectorsPerChunk;
+                    long count = Math.min(vectorsPerChunk, numVectors - start);
+                    chunks[i] = channel.map(MapMode.READ_ONLY, offset + start * dim, count * dim);
+                }
+            }
+        }
+
+        private ByteBuffer chunk(int idx) {
+            return chunks[idx / vectorsPerChunk];
+        }
+
+        private int base(int idx) {
+            return (idx % vectorsPerChunk) * dim;
+        }
+
+        private void get(int idx, byte[] dst) {
+            ByteBuffer chunk = chunk(idx);
+            int base = base(idx);
+            for (int j = 0; j < dim; j++) {
+                dst[j] = chunk.get(base + j);
+            }
+        }
+
+        private void get(int idx, float[] dst) {
+            ByteBuffer chunk = chunk(idx);
+            int base = base(idx);
+            for (int j = 0; j < dim; j++) {
+                dst[j] = chunk.get(base + j);
+            }
+        }
+    }
+
+    public int size() {
+        return numVectors;
+    }
+
+    /**
+     * Loads an index previously written with
+     * {@link #write(FeatureSource, long, File)}.
+     *
+     * @return the index or null if the file does not exist, is invalid or has a
+     *         different stamp.
+     */
+    public static ImageSimilarityIndex load(File file, long stamp) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || in.readLong() != stamp || in.readInt() != DIM) {
+                return null;
+            }
+            int numVectors = in.readInt();
+            int numClusters = in.readInt();
+            if (in.readInt() != NUM_SUBSPACES) {
+                return null;
+            }
+            return new ImageSimilarityIndex(file, in, numVectors, numClusters);
+        }
+    }
+
+    /**
+     * Builds the index of the features and writes it to file. Features with an
+     * unexpected length are ignored.
+     *
+     * @param stamp
+     *            value that must be passed to {@link #load(File, long)} to read
+     *            the file back.
+     * @return number of indexed features
+     */
+    public static int write(FeatureSource source, long stamp, File file) throws IOException {
+        // copy features to a temp file, so they can be read in any order
+        File rawFile = new File(file.getAbsolutePath() + ".raw"); //$NON-NLS-1$
+        int n = 0;
+        int[] sourceIds = new int[1024];
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(rawFile), 1 << 20)) {
+            while (source.next()) {
+                byte[] features = source.getFeatures();
+                if (features == null || features.length != ImageSimilarity.numFeatures) {
+                    continue;
+                }
+                if (n == sourceIds.length) {
+                    sourceIds = Arrays.copyOf(sourceIds, n * 2);
+                }
+                sourceIds[n++] = source.getId();
+                out.write(features, SKIPPED_FEATURES, DIM);
+            }
+        }
+        try {
+            if (n > 0) {
+                write(new MappedVectors(rawFile, 0, DIM, n), sourceIds, n, stamp, file);
+            }
+        } finally {
+            if (!rawFile.delete()) {
+                // still mapped in some platforms
+                rawFile.deleteOnExit();
+            }
+        }
+        return n;
+    }
+
+    private static void write(MappedVectors raw, int[] sourceIds, int n, long stamp, File file) throws IOException {
+        int numClusters = Math.max(1, Math.min(MAX_CLUSTERS, (int) Math.sqrt(n)));
+        float[][] centroids = IVFVectorIndex.train(new IVFVectorIndex.VectorSource() {
+            @Override
+            public int size() {
+                return n;
+            }
+
+            @Override
+            public int getId(int i) {
+                return sourceIds[i];
+            }
+
+            @Override
+            public void getVector(int i, float[] dst) {
+                raw.get(i, dst);
+            }
+        }, DIM, numClusters);
+        int k = centroids.length;
+        float[][][] codebooks = trainCodebooks(raw, n);
+
+        // assign vectors to clusters and encode them, in parallel batches
+        int[] cluster = new int[n];
+        float[] centroidDist = new float[n];
+        float[] quantizationError = new float[n];
+        byte[] vectorCodes = new byte[n * NUM_SUBSPACES];
+        float[][] centroidPairDists = IVFVectorIndex.pairDistances(centroids);
+        float[][] batch = new float[Math.min(n, BUILD_BATCH_SIZE)][DIM];
+        for (int start = 0; start < n; start += batch.length) {
+            int batchStart = start;
+            int batchLen = Math.min(batch.length, n - start);
+            for (int i = 0; i < batchLen; i++) {
+                raw.get(start + i, batch[i]);
+            }
+            IntStream.range(0, batchLen).parallel().forEach(i -> {
+                float[] vector = batch[i];
+                int c = IVFVectorIndex.nearest(centroids, centroidPairDists, vector, 0);
+                cluster[batchStart + i] = c;
+                centroidDist[batchStart + i] = (float) Math.sqrt(IVFVectorIndex.squaredDistance(centroids[c], vector));
+                quantizationError[batchStart + i] = (float) Math.sqrt(encode(codebooks, vector, vectorCodes,
+                        (batchStart + i) * NUM_SUBSPACES));
+            });
+        }
+        int[] counts = new int[k];
+        for (int i = 0; i < n; i++) {
+            counts[cluster[i]]++;
+        }
+        int[] clusterStart = new int[k + 1];
+        for (int c = 0; c < k; c++) {
+            clusterStart[c + 1] = clusterStart[c] + counts[c];
+        }
+
+        // order by cluster and by distance to centroid, distances are not negative so their bits sort like them
+        long[] keys = new long[n];
+        int[] pos = Arrays.copyOf(clusterStart, k);
+        for (int i = 0; i < n; i++) {
+            keys[pos[cluster[i]]++] = ((long) Float.floatToIntBits(centroidDist[i]) << 32) | i;
+        }
+        for (int c = 0; c < k; c++) {
+            Arrays.sort(keys, clusterStart[c], clusterStart[c + 1]);
+        }
+
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(DIM);
+            out.writeInt(n);
+            out.writeInt(k);
+            out.writeInt(NUM_SUBSPACES);
+            for (float[] centroid : centroids) {
+                for (float f : centroid) {
+                    out.writeFloat(f);
+                }
+            }
+            for (float[][] codebook : codebooks) {
+                for (float[] codeword : codebook) {
+                    for (float f : codeword) {
+                        out.writeFloat(f);
+                    }
+                }
+            }
+            for (int start : clusterStart) {
+                out.writeInt(start);
+            }
+            for (long key : keys) {
+                out.writeInt(sourceIds[(int) key]);
+            }
+            for (long key : keys) {
+                out.writeFloat(centroidDist[(int) key]);
+            }
+            for (long key : keys) {
+                out.writeFloat(quantizationError[(int) key]);
+            }
+            for (long key : keys) {
+                out.write(vectorCodes, (int) key * NUM_SUBSPACES, NUM_SUBSPACES);
+            }
+            byte[] vector = new byte[DIM];
+            for (long key : keys) {
+                raw.get((int) key, vector);
+                out.write(vector);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Computes the codewords of each subspace with k-means over a sample.
+     */
+    private static float[][][] trainCodebooks(MappedVectors raw, int n) {
+        Random random = new Random(0);
+        int numSamples = Math.min(n, PQ_TRAINING_SAMPLES);
+        int[] sampleIdx = new int[numSamples];
+        for (int i = 0; i < n; i++) {
+            // reservoir sampling
+            if (i < numSamples) {
+                sampleIdx[i] = i;
+            } else {
+                int j = random.nextInt(i + 1);
+                if (j < numSamples) {
+                    sampleIdx[j] = i;
+                }
+            }
+        }
+        Arrays.sort(sampleIdx);
+        byte[][] samples = new byte[numSamples][DIM];
+        for (int i = 0; i < numSamples; i++) {
+            raw.get(sampleIdx[i], samples[i]);
+        }
+        int[] initial = new int[NUM_CODES];
+        for (int c = 0; c < NUM_CODES; c++) {
+            initial[c] = random.nextInt(numSamples);
+        }
+
+        float[][][] codebooks = new float[NUM_SUBSPACES][NUM_CODES][SUB_DIM];
+        IntStream.range(0, NUM_SUBSPACES).parallel().forEach(m -> {
+            float[][] codebook = codebooks[m];
+            int off = m * SUB_DIM;
+            float[][] subSamples = new float[numSamples][SUB_DIM];
+            for (int i = 0; i < numSamples; i++) {
+                for (int j = 0; j < SUB_DIM; j++) {
+                    subSamples[i][j] = samples[i][off + j];
+                }
+            }
+            for (int c = 0; c < NUM_CODES; c++) {
+                codebook[c] = subSamples[initial[c]].clone();
+            }
+            for (int iter = 0; iter < PQ_KMEANS_ITERATIONS; iter++) {
+                float[][] sums = new float[NUM_CODES][SUB_DIM];
+                int[] counts = new int[NUM_CODES];
+                for (float[] sample : subSamples) {
+                    int c = nearestCodeword(codebook, sample, 0);
+                    for (int j = 0; j < SUB_DIM; j++) {
+                        sums[c][j] += sample[j];
+                    }
+                    counts[c]++;
+                }
+                for (int c = 0; c < NUM_CODES; c++) {
+                    // empty cells keep their previous codeword
+                    if (counts[c] > 0) {
+                        for (int j = 0; j < SUB_DIM; j++) {
+                            codebook[c][j] = sums[c][j] / counts[c];
+                        }
+                    }
+                }
+            }
+        });
+        return codebooks;
+    }
+
+    private static int nearestCodeword(float[][] codebook, float[] vector, int off) {
+        int best = 0;
+        float bestDist = Float.MAX_VALUE;
+        for (int c = 0; c < codebook.length; c++) {
+            float[] codeword = codebook[c];
+            float dist = 0;
+            for (int j = 0; j < SUB_DIM; j++) {
+                float d = vector[off + j] - codeword[j];
+                dist += d * d;
+            }
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return squared distance from the vector to its quantized version
+     */
+    private static float encode(float[][][] codebooks, float[] vector, byte[] codes, int codeOffset) {
+        float error = 0;
+        for (int m = 0; m < NUM_SUBSPACES; m++) {
+            int c = nearestCodeword(codebooks[m], vector, m * SUB_DIM);
+            codes[codeOffset + m] = (byte) c;
+            float[] codeword = codebooks[m][c];
+            for (int j = 0; j < SUB_DIM; j++) {
+                float d = vector[m * SUB_DIM + j] - codeword[j];
+                error += d * d;
+            }
+        }
+        return error;
+    }
+
+    /**
+     * @return squared distances from each part of the query to each codeword
+     */
+    private float[] distanceTable(float[] query) {
+        float[] table = new float[NUM_SUBSPACES * NUM_CODES];
+        for (int m = 0; m < NUM_SUBSPACES; m++) {
+            int off = m * SUB_DIM;
+            for (int c = 0; c < NUM_CODES; c++) {
+                float[] codeword = codebooks[m][c];
+                float dist = 0;
+                for (int j = 0; j < SUB_DIM; j++) {
+                    float d = query[off + j] - codeword[j];
+                    dist += d * d;
+                }
+                table[m * NUM_CODES + c] = dist;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return lower bound of the distance (not squared) from the query to the
+     *         vector, using the distance to its quantized version.
+     */
+    private float lowerBound(float[] table, int vectorIdx) {
+        ByteBuffer chunk = codes.chunk(vectorIdx);
+        int base = codes.base(vectorIdx);
+        float dist = 0;
+        for (int m = 0; m < NUM_SUBSPACES; m++) {
+            dist += table[m * NUM_CODES + (chunk.get(base + m) & 0xFF)];
+        }
+        return (float) Math.sqrt(dist) - quantizationErrors[vectorIdx];
+    }
+
+    /**
+     * Same as {@link ImageSimilarity#distance(byte[], byte[], int)}.
+     */
+    private int distance(byte[] query, int vectorIdx, int cut) {
+        ByteBuffer chunk = vectors.chunk(vectorIdx);
+        int base = vectors.base(vectorIdx);
+        int dist = 0;
+        for (int j = 0; j < DIM && dist < cut; j++) {
+            int d = query[j] - chunk.get(base + j);
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private float[] centroidDistances(float[] query) {
+        float[] dists = new float[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            dists[c] = (float) Math.sqrt(IVFVectorIndex.squaredDistance(centroids[c], query));
+        }
+        return dists;
+    }
+
+    private float getRadius(int cluster) {
+        int end = clusterStart[cluster + 1];
+        return end > clusterStart[cluster] ? centroidDists[end - 1] : 0;
+    }
+
+    private static byte[] toQuery(byte[] features) {
+        return Arrays.copyOfRange(features, SKIPPED_FEATURES, ImageSimilarity.numFeatures);
+    }
+
+    private static float[] toFloatQuery(byte[] query) {
+        float[] floatQuery = new float[DIM];
+        for (int j = 0; j < DIM; j++) {
+            floatQuery[j] = query[j];
+        }
+        return floatQuery;
+    }
+
+    /**
+     * Finds all images with distance to the reference features not greater than
+     * maxDistance.
+     */
+    public void search(byte[] features, int maxDistance, HitCollector collector) {
+        byte[] query = toQuery(features);
+        search(query, toFloatQuery(query), maxDistance, (idx, dist) -> collector.hit(ids[idx], dist));
+    }
+
+    /**
+     * Same as the public method, but reports vector positions instead of ids.
+     */
+    private void search(byte[] query, float[] floatQuery, int maxDistance, HitCollector collector) {
+        float maxDist = (float) Math.sqrt(maxDistance) * PRUNING_SLACK;
+        float[] queryCentroidDists = centroidDistances(floatQuery);
+        // only vectors whose distance to centroid is near the query one can be hits
+        int[] starts = new int[centroids.length];
+        int[] ends = new int[centroids.length];
+        int numCandidates = 0;
+        for (int c = 0; c < centroids.length; c++) {
+            float queryDist = queryCentroidDists[c];
+            if (queryDist - getRadius(c) > maxDist) {
+                continue;
+            }
+            starts[c] = lowerIndex(clusterStart[c], clusterStart[c + 1], queryDist - maxDist);
+            ends[c] = lowerIndex(starts[c], clusterStart[c + 1], Math.nextUp(queryDist + maxDist));
+            numCandidates += ends[c] - starts[c];
+        }
+        float[] table = numCandidates >= MIN_CANDIDATES_FOR_TABLE ? distanceTable(floatQuery) : null;
+        for (int c = 0; c < centroids.length; c++) {
+            for (int i = starts[c]; i < ends[c]; i++) {
+                if (table != null && lowerBound(table, i) > maxDist) {
+                    continue;
+                }
+                int dist = distance(query, i, maxDistance + 1);
+                if (dist <= maxDistance) {
+                    collector.hit(i, dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return first index in the range with distance to centroid not lower than
+     *         value
+     */
+    private int lowerIndex(int from, int to, float value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (centroidDists[mid] < value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Finds the k nearest images to the reference features and reports them in
+     * increasing distance order.
+     */
+    public void searchNearest(byte[] features, int k, HitCollector collector) {
+        byte[] query = toQuery(features);
+        float[] floatQuery = toFloatQuery(query);
+        float[] table = distanceTable(floatQuery);
+        float[] queryCentroidDists = centroidDistances(floatQuery);
+        Integer[] clusters = new Integer[centroids.length];
+        float[] lowerBounds = new float[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            clusters[c] = c;
+            lowerBounds[c] = Math.max(0, queryCentroidDists[c] - getRadius(c)) / PRUNING_SLACK;
+        }
+        Arrays.sort(clusters, (c1, c2) -> Float.compare(lowerBounds[c1], lowerBounds[c2]));
+
+        // max heap of best hits
+        PriorityQueue<int[]> best = new PriorityQueue<>((a, b) -> Integer.compare(b[1], a[1]));
+        int cut = Integer.MAX_VALUE;
+        float maxDist = Float.MAX_VALUE;
+        for (int c : clusters) {
+            if (best.size() == k && lowerBounds[c] > maxDist) {
+                break;
+            }
+            float queryDist = queryCentroidDists[c];
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++) {
+                if (Math.abs(queryDist - centroidDists[i]) > maxDist || lowerBound(table, i) > maxDist) {
+                    continue;
+                }
+                int dist = distance(query, i, cut);
+                if (best.size() < k) {
+                    best.add(new int[] { i, dist });
+                } else if (dist < cut) {
+                    best.poll();
+                    best.add(new int[] { i, dist });
+                }
+                if (best.size() == k) {
+                    cut = best.peek()[1];
+                    maxDist = (float) Math.sqrt(cut) * PRUNING_SLACK;
+                }
+            }
+        }
+        int[][] hits = best.toArray(new int[0][]);
+        Arrays.sort(hits, (a, b) -> Integer.compare(a[1], b[1]));
+        for (int[] hit : hits) {
+            collector.hit(ids[hit[0]], hit[1]);
+        }
+    }
+
+    /**
+     * Groups all indexed images in clusters of near duplicates, where each image
+     * has distance not greater than maxDistance to some other image of its
+     * cluster.
+     *
+     * @return ids of the images of each cluster with more than one image, larger
+     *         clusters first.
+     */
+    public List<int[]> findClusters(int maxDistance) {
+        int[] parent = new int[numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            parent[i] = i;
+        }
+        IntStream.range(0, numVectors).parallel().forEach(i -> {
+            byte[] query = new byte[DIM];
+            vectors.get(i, query);
+            search(query, toFloatQuery(query), maxDistance, (j, dist) -> {
+                if (j > i) {
+                    synchronized (parent) {
+                        union(parent, i, j);
+                    }
+                }
+            });
+        });
+        Map<Integer, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < numVectors; i++) {
+            groups.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).add(ids[i]);
+        }
+        List<int[]> clusters = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            if (group.size() > 1) {
+                clusters.add(group.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        clusters.sort((a, b) -> Integer.compare(b.length, a.length));
+        return clusters;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        if (ri != rj) {
+            // smaller root is kept, so roots are the first vector of each cluster
+            parent[Math.max(ri, rj)] = Math.min(ri, rj);
+        }
+    }
+
+}
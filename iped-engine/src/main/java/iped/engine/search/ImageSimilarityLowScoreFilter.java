@@ -1,9 +1,7 @@
 package iped.engine.search;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
-import iped.data.IItemId;
 import iped.search.IMultiSearchResult;
 
 public class ImageSimilarityLowScoreFilter {
@@ -13,27 +11,14 @@ public static MultiSearchResult filter(IMultiSearchResult result) {
     }
 
     public static MultiSearchResult filter(IMultiSearchResult result, float minScore) {
-        ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int len = result.getLength();
+        MultiSearchResult multiResult = MultiSearchResult.of(result);
+        int len = multiResult.getLength();
+        BitSet rows = new BitSet(len);
         for (int i = 0; i < len; i++) {
-            float score = result.getScore(i);
-            if (score > minScore) {
-                filteredItems.add(result.getItem(i));
-                scores.add(score);
+            if (multiResult.getScore(i) > minScore) {
+                rows.set(i);
             }
         }
-        return new MultiSearchResult(filteredItems.toArray(new IItemId[0]), toPrimitive(scores));
-    }
-
-    private static float[] toPrimitive(List<Float> list) {
-        if (list == null) {
-            return null;
-        }
-        final float[] result = new float[list.size()];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = list.get(i).floatValue();
-        }
-        return result;
+        return multiResult.select(rows);
     }
 }
@@ -7,6 +7,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 import org.apache.lucene.document.Document;
@@ -21,6 +22,7 @@
 import iped.engine.task.similarity.ImageSimilarity;
 import iped.engine.task.similarity.ImageSimilarityTask;
 import iped.properties.BasicProps;
+import iped.viewers.api.IProgressMonitor;
 
 public class ImageSimilarityScorer {
     /**
@@ -68,6 +70,9 @@ public class ImageSimilarityScorer {
     private final Map<Integer, byte[]> topFeatures = new HashMap<Integer, byte[]>();
     private final Map<Integer, Integer> refDist = new HashMap<Integer, Integer>();
 
+    private BooleanSupplier canceled = () -> false;
+    private IProgressMonitor progressMonitor;
+
     public ImageSimilarityScorer(IPEDSource ipedCase, MultiSearchResult result, IItem refItem) {
         this.ipedCase = ipedCase;
         this.result = result;
@@ -76,71 +81,103 @@ public ImageSimilarityScorer(IPEDSource ipedCase, MultiSearchResult result, IIte
         this.refSimilarityFeatures = (byte[]) refItem.getExtraAttribute(ImageSimilarityTask.IMAGE_FEATURES);
     }
 
+    /**
+     * Sets a function checked while scoring, so the search can be canceled.
+     */
+    public void setCanceled(BooleanSupplier canceled) {
+        this.canceled = canceled;
+    }
+
+    public void setProgressMonitor(IProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor;
+    }
+
+    static float distanceToScore(int distance, int numFeatures) {
+        return Math.max(0, 100 - distance * distToScoreMult / numFeatures);
+    }
+
+    static int scoreToDistance(float score, int numFeatures) {
+        return (int) ((100 - score) * numFeatures / distToScoreMult);
+    }
+
     public void score() throws IOException {
         if (len == 0 || refSimilarityFeatures == null) {
             return;
         }
-        LeafReader leafReader = ipedCase.getLeafReader();
-        int numThreads = Runtime.getRuntime().availableProcessors();
-        Thread[] threads = new Thread[numThreads];
-        int evalCut = (int) (100 * refSimilarityFeatures.length / distToScoreMult);
-        int itemsPerThread = (len + numThreads - 1) / numThreads;
-        for (int k = 0; k < numThreads; k++) {
-            int threadIdx = k;
-            (threads[k] = new Thread() {
-                public void run() {
-                    BinaryDocValues similarityFeaturesValues = null;
-                    try {
-                        similarityFeaturesValues = leafReader
-                                .getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return;
-                    }
-                    int i0 = Math.min(len, itemsPerThread * threadIdx);
-                    int i1 = Math.min(len, i0 + itemsPerThread);
-                    for (int i = i0; i < i1; i++) {
-                        IItemId itemId = result.getItem(i);
-                        int luceneId = ipedCase.getLuceneId(itemId);
-                        BytesRef bytesRef = DocValuesUtil.getBytesRef(similarityFeaturesValues, luceneId);
-                        if (bytesRef == null || bytesRef.length == 0) {
-                            result.setScore(i, 0);
-                        } else {
-                            byte[] currSimilarityFeatures = bytesRef.bytes;
-                            int distance = ImageSimilarity.distance(refSimilarityFeatures, currSimilarityFeatures,
-                                    evalCut);
-                            float score = Math.max(0, 100 - distance * distToScoreMult / refSimilarityFeatures.length);
-                            if (distance == 0) {
-                                String refHash = refItem.getHash();
-                                if (refHash != null) {
-                                    try {
-                                        Document doc = leafReader.document(luceneId);
-                                        String currHash = doc.get(BasicProps.HASH);
-                                        if (refHash.equals(currHash)) {
-                                            score = identicalScore;
-                                        }
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                        break;
-                                    }
-                                }
-                            }
-                            result.setScore(i, score);
-                        }
-                    }
-                }
-            }).start();
+        if (!scoreWithIndex()) {
+            scoreAll();
+        }
+        organizeTopResults();
+    }
+
+    /**
+     * Scores using the image similarity index of each case, only images near the
+     * reference one are evaluated.
+     *
+     * @return false if some index is missing, so all images must be evaluated.
+     */
+    private boolean scoreWithIndex() throws IOException {
+        Map<Integer, ImageSimilarityIndex> indexes = SimilarImagesSearch.getIndexes(ipedCase);
+        if (indexes == null) {
+            return false;
+        }
+        int evalCut = scoreToDistance(0, refSimilarityFeatures.length);
+        Map<Integer, Map<Integer, Integer>> distsBySource = new HashMap<>();
+        for (Map.Entry<Integer, ImageSimilarityIndex> entry : indexes.entrySet()) {
+            Map<Integer, Integer> dists = new HashMap<>();
+            entry.getValue().search(refSimilarityFeatures, evalCut - 1, dists::put);
+            distsBySource.put(entry.getKey(), dists);
         }
-        for (Thread thread : threads) {
-            try {
-                if (thread != null) {
-                    thread.join();
+        LeafReader leafReader = ipedCase.getLeafReader();
+        for (int i = 0; i < len; i++) {
+            IItemId itemId = result.getItem(i);
+            Map<Integer, Integer> dists = distsBySource.get(itemId.getSourceId());
+            Integer distance = dists != null ? dists.get(itemId.getId()) : null;
+            float score = 0;
+            if (distance != null) {
+                score = distanceToScore(distance, refSimilarityFeatures.length);
+                if (distance == 0 && isIdentical(leafReader, ipedCase.getLuceneId(itemId))) {
+                    score = identicalScore;
                 }
-            } catch (InterruptedException e) {
             }
+            result.setScore(i, score);
         }
+        return true;
+    }
 
-        organizeTopResults();
+    private boolean isIdentical(LeafReader leafReader, int luceneId) throws IOException {
+        String refHash = refItem.getHash();
+        if (refHash == null) {
+            return false;
+        }
+        Document doc = leafReader.document(luceneId);
+        return refHash.equals(doc.get(BasicProps.HASH));
+    }
+
+    private void scoreAll() throws IOException {
+        int evalCut = scoreToDistance(0, refSimilarityFeatures.length);
+        SimilarityScoringService.score(ipedCase, result, leafReader -> {
+            BinaryDocValues similarityFeaturesValues = leafReader
+                    .getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
+            if (similarityFeaturesValues == null) {
+                return doc -> 0;
+            }
+            return doc -> {
+                if (!similarityFeaturesValues.advanceExact(doc)) {
+                    return 0;
+                }
+                BytesRef bytesRef = similarityFeaturesValues.binaryValue();
+                if (bytesRef.length == 0) {
+                    return 0;
+                }
+                int distance = ImageSimilarity.distance(refSimilarityFeatures, bytesRef.bytes, bytesRef.offset,
+                        evalCut);
+                if (distance == 0 && isIdentical(leafReader, doc)) {
+                    return identicalScore;
+                }
+                return distanceToScore(distance, refSimilarityFeatures.length);
+            };
+        }, canceled, progressMonitor);
     }
 
     private void organizeTopResults() {
@@ -19,7 +19,7 @@
 package iped.engine.search;
 
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.BitSet;
 
 import org.apache.lucene.search.ScoreDoc;
 
@@ -127,63 +127,193 @@ public void clearResults() {
         length -= blanks;
     }
 
-    public LuceneSearchResult intersect(LuceneSearchResult items) {
-
-        LuceneSearchResult result = this.clone();
+    /**
+     * @return true if docs are in strictly ascending order, as in results not
+     *         sorted by score.
+     */
+    public boolean isSortedByDoc() {
+        for (int i = 1; i < length; i++) {
+            if (docs[i] <= docs[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        int[] docs2 = items.docs.clone();
-        Arrays.sort(docs2);
+    private int getMaxDoc() {
+        int max = -1;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, docs[i]);
+        }
+        return max;
+    }
 
-        for (int i = 0; i < result.length; i++)
-            if (Arrays.binarySearch(docs2, result.docs[i]) < 0)
-                result.docs[i] = -1;
+    /**
+     * @return a bitset with the docs of this result
+     */
+    public BitSet getDocsBitSet() {
+        BitSet bits = new BitSet(getMaxDoc() + 1);
+        for (int i = 0; i < length; i++) {
+            bits.set(docs[i]);
+        }
+        return bits;
+    }
 
-        result.clearResults();
+    private LuceneSearchResult select(BitSet docsToSelect, boolean selected) {
+        LuceneSearchResult result = new LuceneSearchResult(length);
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            if (docsToSelect.get(docs[i]) == selected) {
+                result.docs[j] = docs[i];
+                result.scores[j++] = scores[i];
+            }
+        }
+        return result.truncate(j);
+    }
 
-        return result;
+    private LuceneSearchResult truncate(int newLength) {
+        if (newLength < length) {
+            docs = Arrays.copyOf(docs, newLength);
+            scores = Arrays.copyOf(scores, newLength);
+            length = newLength;
+        }
+        return this;
     }
 
     /**
-     * Interseção mais eficiente
+     * Intersection with other result. Linear merge if both results are sorted by
+     * doc, otherwise docs of the other result are put in a bitset.
      * 
-     * @param items
-     * @return
+     * @return docs of this result also in items, in the same order and with the
+     *         same scores of this result.
      */
-    private LuceneSearchResult intersect2(LuceneSearchResult items) {
-
-        LuceneSearchResult result = this.clone();
+    public LuceneSearchResult intersect(LuceneSearchResult items) {
+        if (!this.isSortedByDoc() || !items.isSortedByDoc()) {
+            return select(items.getDocsBitSet(), true);
+        }
+        LuceneSearchResult result = new LuceneSearchResult(Math.min(length, items.length));
+        int i = 0, j = 0, k = 0;
+        while (i < length && j < items.length) {
+            if (docs[i] < items.docs[j]) {
+                i++;
+            } else if (docs[i] > items.docs[j]) {
+                j++;
+            } else {
+                result.docs[k] = docs[i];
+                result.scores[k++] = scores[i++];
+                j++;
+            }
+        }
+        return result.truncate(k);
+    }
 
-        int[] docs2 = items.docs.clone();
-        Arrays.sort(docs2);
+    /**
+     * @return docs of this result not in items, in the same order and with the
+     *         same scores of this result.
+     */
+    public LuceneSearchResult difference(LuceneSearchResult items) {
+        if (!this.isSortedByDoc() || !items.isSortedByDoc()) {
+            return select(items.getDocsBitSet(), false);
+        }
+        LuceneSearchResult result = new LuceneSearchResult(length);
+        int i = 0, j = 0, k = 0;
+        while (i < length) {
+            if (j == items.length || docs[i] < items.docs[j]) {
+                result.docs[k] = docs[i];
+                result.scores[k++] = scores[i++];
+            } else if (docs[i] > items.docs[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return result.truncate(k);
+    }
 
-        Integer[] index = new Integer[result.length];
-        for (int i = 0; i < index.length; i++)
-            index[i] = i;
-        Arrays.sort(index, new IndexComparator(result.docs));
+    /**
+     * Union with other result, without duplicates. Docs in both results keep the
+     * higher score.
+     * 
+     * @return the union sorted by doc.
+     */
+    public LuceneSearchResult union(LuceneSearchResult items) {
+        LuceneSearchResult a = this.sortByDoc();
+        LuceneSearchResult b = items.sortByDoc();
+        LuceneSearchResult result = new LuceneSearchResult(a.length + b.length);
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a.docs[i] < b.docs[j])) {
+                result.docs[k] = a.docs[i];
+                result.scores[k++] = a.scores[i++];
+            } else if (i == a.length || a.docs[i] > b.docs[j]) {
+                result.docs[k] = b.docs[j];
+                result.scores[k++] = b.scores[j++];
+            } else {
+                result.docs[k] = a.docs[i];
+                result.scores[k++] = Math.max(a.scores[i++], b.scores[j++]);
+            }
+        }
+        return result.truncate(k);
+    }
 
-        int i = 0, j = 0;
-        while (i < result.length) {
-            if (j == docs2.length || result.docs[index[i]] < docs2[j])
-                result.docs[index[i++]] = -1;
-            else if (result.docs[index[i]] > docs2[j])
-                j++;
-            else {
+    /**
+     * Intersection keeping, for each doc, the higher score of both results.
+     * 
+     * @return the intersection sorted by doc.
+     */
+    public LuceneSearchResult intersectMaxScore(LuceneSearchResult items) {
+        LuceneSearchResult a = this.sortByDoc();
+        LuceneSearchResult b = items.sortByDoc();
+        LuceneSearchResult result = new LuceneSearchResult(Math.min(a.length, b.length));
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a.docs[i] < b.docs[j]) {
                 i++;
+            } else if (a.docs[i] > b.docs[j]) {
                 j++;
+            } else {
+                result.docs[k] = a.docs[i];
+                result.scores[k++] = Math.max(a.scores[i++], b.scores[j++]);
             }
         }
-        result.clearResults();
+        return result.truncate(k);
+    }
 
-        return result;
+    /**
+     * @return this result if already sorted by doc, otherwise a copy sorted by
+     *         doc, without duplicates, keeping the higher score of repeated docs.
+     */
+    public LuceneSearchResult sortByDoc() {
+        if (isSortedByDoc()) {
+            return this;
+        }
+        // packs doc and position to sort primitives, ascending docs are non negative
+        long[] packed = new long[length];
+        for (int i = 0; i < length; i++) {
+            packed[i] = ((long) docs[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+        LuceneSearchResult result = new LuceneSearchResult(length);
+        int k = 0;
+        for (int i = 0; i < length; i++) {
+            int doc = (int) (packed[i] >>> 32);
+            float score = scores[(int) packed[i]];
+            if (k > 0 && result.docs[k - 1] == doc) {
+                result.scores[k - 1] = Math.max(result.scores[k - 1], score);
+            } else {
+                result.docs[k] = doc;
+                result.scores[k++] = score;
+            }
+        }
+        return result.truncate(k);
     }
 
+    /**
+     * @return the union of both results, see {@link #union(LuceneSearchResult)}
+     */
     public LuceneSearchResult add(LuceneSearchResult items) {
-        LuceneSearchResult result = new LuceneSearchResult(this.length + items.length);
-        System.arraycopy(docs, 0, result.docs, 0, docs.length);
-        System.arraycopy(items.docs, 0, result.docs, docs.length, items.docs.length);
-        System.arraycopy(scores, 0, result.scores, 0, scores.length);
-        System.arraycopy(items.scores, 0, result.scores, scores.length, items.scores.length);
-        return result;
+        return union(items);
     }
 
     @Override
@@ -195,19 +325,4 @@ public LuceneSearchResult clone() {
         return result;
     }
 
-    class IndexComparator implements Comparator<Integer> {
-
-        int[] values;
-
-        IndexComparator(int[] values) {
-            this.values = values;
-        }
-
-        @Override
-        public int compare(Integer o1, Integer o2) {
-            return values[o1] - values[o2];
-        }
-
-    }
-
 }
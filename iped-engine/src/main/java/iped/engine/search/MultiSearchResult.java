@@ -9,27 +9,70 @@
 import iped.engine.data.ItemId;
 import iped.search.IMultiSearchResult;
 
+/**
+ * Result of a search in a multicase. Items are kept in primitive columns of
+ * source ids and item ids, so large results do not hold an object per item.
+ * ItemIds are created only when requested, usually for the rows being shown.
+ * Items of subclasses carrying more data, like timeline events, are kept as
+ * objects.
+ */
 public class MultiSearchResult implements IMultiSearchResult {
 
-    private IItemId[] ids;
+    private int[] sourceIds;
+    private int[] ids;
+    private IItemId[] items;
     private float[] scores;
     IPEDSearcher ipedSearcher;
     IIPEDSource ipedSource;
     BitSet docids;
 
+    /**
+     * Filter of result items, applied without creating ItemIds.
+     */
+    public interface ItemFilter {
+
+        boolean accept(int sourceId, int id);
+    }
+
     public MultiSearchResult() {
-        this.ids = new ItemId[0];
-        this.scores = new float[0];
+        this(new int[0], new int[0], new float[0]);
     }
 
-    public MultiSearchResult(IItemId[] ids, float[] scores) {
+    public MultiSearchResult(int[] sourceIds, int[] ids, float[] scores) {
+        this.sourceIds = sourceIds;
         this.ids = ids;
         this.scores = scores;
     }
 
-    public MultiSearchResult(IIPEDSource ipedSource, IItemId[] ids, float[] scores) {
-        this.ids = ids;
+    public MultiSearchResult(IItemId[] ids, float[] scores) {
+        this.sourceIds = new int[ids.length];
+        this.ids = new int[ids.length];
         this.scores = scores;
+        for (int i = 0; i < ids.length; i++) {
+            setItem(i, ids[i]);
+        }
+    }
+
+    public MultiSearchResult(IIPEDSource ipedSource, IItemId[] ids, float[] scores) {
+        this(ids, scores);
+    }
+
+    /**
+     * @return the result itself if it is a MultiSearchResult, otherwise a copy
+     */
+    public static MultiSearchResult of(IMultiSearchResult result) {
+        if (result instanceof MultiSearchResult) {
+            return (MultiSearchResult) result;
+        }
+        int len = result.getLength();
+        MultiSearchResult copy = new MultiSearchResult(new int[len], new int[len], new float[len]);
+        int i = 0;
+        for (IItemId item : result.getIterator()) {
+            copy.setItem(i, item);
+            copy.scores[i] = result.getScore(i);
+            i++;
+        }
+        return copy;
     }
 
     public final int getLength() {
@@ -37,6 +80,17 @@ public final int getLength() {
     }
 
     public final IItemId getItem(int i) {
+        if (items != null) {
+            return items[i];
+        }
+        return new ItemId(sourceIds[i], ids[i]);
+    }
+
+    public final int getSourceId(int i) {
+        return sourceIds[i];
+    }
+
+    public final int getId(int i) {
         return ids[i];
     }
 
@@ -49,7 +103,51 @@ public final void setScore(int i, float score) {
     }
 
     public final void setItem(int i, IItemId itemId) {
-        ids[i] = itemId;
+        sourceIds[i] = itemId.getSourceId();
+        ids[i] = itemId.getId();
+        if (items == null && itemId.getClass() != ItemId.class) {
+            items = new IItemId[ids.length];
+            for (int j = 0; j < ids.length; j++) {
+                items[j] = new ItemId(sourceIds[j], this.ids[j]);
+            }
+        }
+        if (items != null) {
+            items[i] = itemId;
+        }
+    }
+
+    /**
+     * @return a new result with the items accepted by the filter, in the same
+     *         order and with the same scores.
+     */
+    public MultiSearchResult filter(ItemFilter filter) {
+        BitSet accepted = new BitSet(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (filter.accept(sourceIds[i], ids[i])) {
+                accepted.set(i);
+            }
+        }
+        return select(accepted);
+    }
+
+    /**
+     * @return a new result with the rows set in the bitset, in the same order and
+     *         with the same scores.
+     */
+    public MultiSearchResult select(BitSet rows) {
+        int len = rows.cardinality();
+        MultiSearchResult result = new MultiSearchResult(new int[len], new int[len], new float[len]);
+        int j = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < ids.length; i = rows.nextSetBit(i + 1)) {
+            result.sourceIds[j] = sourceIds[i];
+            result.ids[j] = ids[i];
+            result.scores[j] = scores[i];
+            if (items != null) {
+                result.setItem(j, items[i]);
+            }
+            j++;
+        }
+        return result;
     }
 
     public Iterable<IItemId> getIterator() {
@@ -72,7 +170,7 @@ public final boolean hasNext() {
 
         @Override
         public final IItemId next() {
-            return ids[pos++];
+            return getItem(pos++);
         }
 
         @Override
@@ -91,69 +189,47 @@ public void setPos(int pos) {
 
     public static MultiSearchResult get(IPEDMultiSource iSource, LuceneSearchResult luceneResult) {
 
-        // System.out.println("multi Result");
-
-        MultiSearchResult result = new MultiSearchResult();
-        result.scores = luceneResult.getScores();
-        result.ids = new ItemId[luceneResult.getLength()];
-
-        if (luceneResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                result.ids[i] = iSource.getItemId(docs[i]);
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            int maxdoc = 0;
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                if (atomicSource == null || docs[i] >= baseDoc + maxdoc) {
-                    atomicSource = iSource.getAtomicSource(docs[i]);
-                    sourceId = atomicSource.getSourceId();
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                    maxdoc = atomicSource.getReader().maxDoc();
-                }
-                result.ids[i] = new ItemId(sourceId, atomicSource.getId(docs[i] - baseDoc));
+        int[] docs = luceneResult.getLuceneIds();
+        MultiSearchResult result = new MultiSearchResult(new int[docs.length], new int[docs.length],
+                luceneResult.getScores());
+
+        // docs are usually in ascending order (if not scored), so the atomic source is
+        // looked up only when changed
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        int maxdoc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (atomicSource == null || docs[i] < baseDoc || docs[i] >= baseDoc + maxdoc) {
+                atomicSource = iSource.getAtomicSource(docs[i]);
+                sourceId = atomicSource.getSourceId();
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
+                maxdoc = atomicSource.getReader().maxDoc();
             }
+            result.sourceIds[i] = sourceId;
+            result.ids[i] = atomicSource.getId(docs[i] - baseDoc);
         }
 
         return result;
     }
 
     public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSource iSource) {
-        LuceneSearchResult lResult = new LuceneSearchResult(ipedResult.getLength());
+        MultiSearchResult result = of(ipedResult);
+        LuceneSearchResult lResult = new LuceneSearchResult(result.getLength());
         float[] scores = lResult.getScores();
         int[] docs = lResult.getLuceneIds();
 
-        int i = 0;
-        if (ipedResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            for (IItemId item : ipedResult.getIterator()) {
-                scores[i] = ipedResult.getScore(i);
-                docs[i] = iSource.getLuceneId(item);
-                i++;
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            for (IItemId item : ipedResult.getIterator()) {
-                if (atomicSource == null || item.getSourceId() != sourceId) {
-                    sourceId = item.getSourceId();
-                    atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                }
-                docs[i] = atomicSource.getLuceneId(item.getId()) + baseDoc;
-                scores[i] = ipedResult.getScore(i);
-                i++;
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (atomicSource == null || result.sourceIds[i] != sourceId) {
+                sourceId = result.sourceIds[i];
+                atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
             }
+            docs[i] = atomicSource.getLuceneId(result.ids[i]) + baseDoc;
+            scores[i] = result.scores[i];
         }
 
         return lResult;
@@ -161,9 +237,10 @@ public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSou
 
     @Override
     public MultiSearchResult clone() {
-        MultiSearchResult result = new MultiSearchResult();
-        result.ids = this.ids.clone();
-        result.scores = this.scores.clone();
+        MultiSearchResult result = new MultiSearchResult(sourceIds.clone(), ids.clone(), scores.clone());
+        if (items != null) {
+            result.items = items.clone();
+        }
         return result;
     }
 
@@ -187,9 +264,13 @@ public IIPEDSource getIPEDSource() {
     public void setIPEDSource(IIPEDSource ipedSource) {
         if (this.ipedSource == null || this.docids == null) {
             this.ipedSource = ipedSource;
-            this.docids = new BitSet(ids.length);
-            for (int i = 0; i < ids.length; i++) {
-                docids.set(ipedSource.getLuceneId(ids[i]));
+            if (ipedSource instanceof IPEDMultiSource) {
+                this.docids = get(this, (IPEDMultiSource) ipedSource).getDocsBitSet();
+            } else {
+                this.docids = new BitSet(ids.length);
+                for (int i = 0; i < ids.length; i++) {
+                    docids.set(ipedSource.getLuceneId(getItem(i)));
+                }
             }
         }
     }
@@ -1,32 +1,56 @@
 package iped.engine.search;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
 
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import iped.data.IItem;
 import iped.data.IItemId;
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.data.IPEDSource;
+import iped.engine.task.index.IndexItem;
+import iped.viewers.api.IProgressMonitor;
 
 public class SimilarFacesSearch {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimilarFacesSearch.class);
+
     public static final String FACE_FEATURES = "face_encodings";
     public static final String FACE_LOCATIONS = "face_locations";
 
+    private static final String FACE_INDEX_FILE = "data/facesIndex.dat";
+
+    private static final Map<File, IVFVectorIndex> faceIndexes = new HashMap<>();
+    private static final Map<File, Long> faceIndexVersions = new HashMap<>();
+
     private static final float DEFAULT_MIN_DISTANCE = 0.5f;
 
     private static float minDistSquared = DEFAULT_MIN_DISTANCE * DEFAULT_MIN_DISTANCE;
 
     private IPEDMultiSource ipedCase;
     private float[] refSimilarityFeatures;
+    private BooleanSupplier canceled = () -> false;
+    private IProgressMonitor progressMonitor;
 
     public SimilarFacesSearch(IPEDSource ipedCase, IItem refImage) {
         this.ipedCase = ipedCase instanceof IPEDMultiSource ? (IPEDMultiSource) ipedCase
@@ -34,6 +58,17 @@ public SimilarFacesSearch(IPEDSource ipedCase, IItem refImage) {
         this.refSimilarityFeatures = getFirstFace(refImage);
     }
 
+    /**
+     * Sets a function checked while scoring, so the search can be canceled.
+     */
+    public void setCanceled(BooleanSupplier canceled) {
+        this.canceled = canceled;
+    }
+
+    public void setProgressMonitor(IProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor;
+    }
+
     public MultiSearchResult search() throws IOException {
         IPEDSearcher searcher = new IPEDSearcher(ipedCase, "*:*");
         MultiSearchResult result = searcher.multiSearch();
@@ -41,7 +76,9 @@ public MultiSearchResult search() throws IOException {
     }
 
     public MultiSearchResult filter(MultiSearchResult result) throws IOException {
-        score(result);
+        if (!scoreWithFaceIndex(result)) {
+            score(result);
+        }
         return ImageSimilarityLowScoreFilter.filter(result, squaredDistToScore(minDistSquared));
     }
 
@@ -58,88 +95,178 @@ private static final float squaredDistToScore(float squaredDist) {
         return Math.max(0, (1 - (float) Math.sqrt(squaredDist)) * 100);
     }
 
-    private void score(MultiSearchResult result) throws IOException {
+    /**
+     * Scores using the faces index of each case, if all of them have an up to
+     * date index.
+     *
+     * @return false if some index is missing, so brute force scoring must be used.
+     */
+    private boolean scoreWithFaceIndex(MultiSearchResult result) {
+        Map<Integer, Map<Integer, Float>> distsBySource = new HashMap<>();
+        for (IPEDSource source : ipedCase.getAtomicSources()) {
+            IVFVectorIndex index = getFaceIndex(source);
+            if (index == null || index.getDimension() != refSimilarityFeatures.length) {
+                return false;
+            }
+            Map<Integer, Float> bestDists = new HashMap<>();
+            index.search(refSimilarityFeatures, minDistSquared, (id, dist) -> bestDists.merge(id, dist, Math::min));
+            distsBySource.put(source.getSourceId(), bestDists);
+        }
+        for (int i = 0; i < result.getLength(); i++) {
+            IItemId itemId = result.getItem(i);
+            Map<Integer, Float> dists = distsBySource.get(itemId.getSourceId());
+            Float dist = dists != null ? dists.get(itemId.getId()) : null;
+            result.setScore(i, dist != null ? squaredDistToScore(dist) : 0);
+        }
+        return true;
+    }
+
+    private static synchronized IVFVectorIndex getFaceIndex(IPEDSource source) {
+        if (!(source.getReader() instanceof DirectoryReader)) {
+            return null;
+        }
+        long version = ((DirectoryReader) source.getReader()).getVersion();
+        File file = new File(source.getModuleDir(), FACE_INDEX_FILE);
+        Long cachedVersion = faceIndexVersions.get(file);
+        if (cachedVersion == null || cachedVersion != version) {
+            IVFVectorIndex index = null;
+            try {
+                index = IVFVectorIndex.load(file, version);
+            } catch (IOException e) {
+                LOGGER.warn("Error loading faces index " + file.getAbsolutePath(), e);
+            }
+            if (index == null) {
+                LOGGER.info("Faces index not found or out of date, using brute force search: {}", file.getAbsolutePath());
+            }
+            faceIndexes.put(file, index);
+            faceIndexVersions.put(file, version);
+        }
+        return faceIndexes.get(file);
+    }
+
+    /**
+     * Creates the faces index of a case, used to speed up similar faces searches.
+     * Must be called after the case index is closed.
+     */
+    public static void createFaceIndex(File moduleDir, File indexDir) {
+        File file = new File(moduleDir, FACE_INDEX_FILE);
+        try (Directory directory = FSDirectory.open(indexDir.toPath());
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            FaceVectorSource source = new FaceVectorSource(reader);
+            if (source.size() == 0) {
+                file.delete();
+                return;
+            }
+            LOGGER.info("Creating faces index with {} faces...", source.size());
+            long t = System.currentTimeMillis();
+            IVFVectorIndex.write(source, source.dim, reader.getVersion(), file);
+            LOGGER.info("Faces index created in {}ms", System.currentTimeMillis() - t);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error creating faces index", e);
+        }
+    }
+
+    private static class FaceVectorSource implements IVFVectorIndex.VectorSource {
+
+        private final List<SortedSetDocValues> leafValues = new ArrayList<>();
+        private int[] ids = new int[1024];
+        private int[] leaves = new int[1024];
+        private int[] ords = new int[1024];
+        private int size;
+        private int dim;
 
-        LeafReader leafReader = ipedCase.getLeafReader();
-        int numThreads = Runtime.getRuntime().availableProcessors();
-        Thread[] threads = new Thread[numThreads];
-        int len = result.getLength();
-        int itemsPerThread = (len + numThreads - 1) / numThreads;
-        for (int k = 0; k < numThreads; k++) {
-            int threadIdx = k;
-            (threads[k] = new Thread() {
-                public void run() {
-                    SortedSetDocValues similarityFeaturesValues = null;
-                    try {
-                        similarityFeaturesValues = leafReader.getSortedSetDocValues(FACE_FEATURES);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return;
+        private FaceVectorSource(DirectoryReader reader) throws IOException {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leafReader = context.reader();
+                SortedSetDocValues values = leafReader.getSortedSetDocValues(FACE_FEATURES);
+                NumericDocValues idValues = leafReader.getNumericDocValues(IndexItem.ID);
+                if (values == null || idValues == null) {
+                    continue;
+                }
+                // another instance for random access lookups
+                leafValues.add(leafReader.getSortedSetDocValues(FACE_FEATURES));
+                int leaf = leafValues.size() - 1;
+                Bits liveDocs = leafReader.getLiveDocs();
+                int doc;
+                while ((doc = values.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if ((liveDocs != null && !liveDocs.get(doc)) || !idValues.advanceExact(doc)) {
+                        continue;
                     }
-                    int i0 = Math.min(len, itemsPerThread * threadIdx);
-                    int i1 = Math.min(len, i0 + itemsPerThread);
-                    for (int i = i0; i < i1; i++) {
-                        if (i % 1000 == 0 && this.isInterrupted()) {
-                            return;
-                        }
-                        IItemId itemId = result.getItem(i);
-                        int luceneId = ipedCase.getLuceneId(itemId);
-                        long ordinal;
-                        float score = 0;
-                        try {
-                            boolean hasVal = similarityFeaturesValues.advanceExact(luceneId);
-                            while (hasVal && (ordinal = similarityFeaturesValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
-                                BytesRef bytesRef = similarityFeaturesValues.lookupOrd(ordinal);
-                                float[] currentFeatures = convToFloatVec(bytesRef.bytes);
-                                float squaredDist = distance(refSimilarityFeatures, currentFeatures, minDistSquared);
-                                if (squaredDist <= minDistSquared) {
-                                    score = squaredDistToScore(squaredDist);
-                                    break;
-                                }
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        } finally {
-                            result.setScore(i, score);
+                    int id = (int) idValues.longValue();
+                    long ord;
+                    while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                        if (dim == 0) {
+                            dim = values.lookupOrd(ord).length / 4;
                         }
+                        add(id, leaf, (int) ord);
                     }
                 }
-            }).start();
+            }
         }
-        boolean canceled = false;
-        for (Thread thread : threads) {
-            if (thread != null) {
-                if (!canceled) {
-                    try {
-                        thread.join();
-                    } catch (InterruptedException e) {
-                        canceled = true;
-                    }
-                }
-                if (canceled) {
-                    thread.interrupt();
-                }
+
+        private void add(int id, int leaf, int ord) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                leaves = Arrays.copyOf(leaves, size * 2);
+                ords = Arrays.copyOf(ords, size * 2);
             }
+            ids[size] = id;
+            leaves[size] = leaf;
+            ords[size] = ord;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
 
+        @Override
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        @Override
+        public void getVector(int i, float[] dst) throws IOException {
+            BytesRef bytesRef = leafValues.get(leaves[i]).lookupOrd(ords[i]);
+            IVFVectorIndex.toFloatVector(bytesRef.bytes, bytesRef.offset, dst);
+        }
+    }
+
+    private void score(MultiSearchResult result) throws IOException {
+        float cut = minDistSquared;
+        SimilarityScoringService.score(ipedCase, result, leafReader -> {
+            SortedSetDocValues similarityFeaturesValues = leafReader.getSortedSetDocValues(FACE_FEATURES);
+            if (similarityFeaturesValues == null) {
+                return doc -> 0;
+            }
+            return doc -> {
+                if (!similarityFeaturesValues.advanceExact(doc)) {
+                    return 0;
+                }
+                // the nearest face of the item, like searches using the faces index
+                float minDist = Float.MAX_VALUE;
+                long ordinal;
+                while ((ordinal = similarityFeaturesValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    BytesRef bytesRef = similarityFeaturesValues.lookupOrd(ordinal);
+                    float squaredDist = DistanceKernels.squaredDistance(refSimilarityFeatures, bytesRef.bytes,
+                            bytesRef.offset, Math.min(cut, minDist));
+                    minDist = Math.min(minDist, squaredDist);
+                }
+                return minDist <= cut ? squaredDistToScore(minDist) : 0;
+            };
+        }, canceled, progressMonitor);
     }
 
     private static float[] convToFloatVec(byte[] bytes) {
         float[] result = new float[bytes.length / 4];
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        for (int i = 0; i < result.length; i++) {
-            result[i] = bb.getFloat();
-        }
+        DistanceKernels.toFloatVector(bytes, 0, result);
         return result;
     }
 
     public static float distance(float[] a, float[] b, float cut) {
-        float distance = 0;
-        for (int i = 0; i < a.length && distance <= cut;) {
-            float d = a[i] - b[i++];
-            distance += d * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d;
-        }
-        return (float) distance;
+        return DistanceKernels.squaredDistance(a, b, cut);
     }
 
     private static float[] getFirstFace(IItem refImage) {
@@ -157,8 +284,7 @@ public static List<String> getMatchLocations(IItem refImage, IItem item){
             float[] ref = getFirstFace(refImage);
             List<byte[]> features = (List<byte[]>) item.getExtraAttribute(SimilarFacesSearch.FACE_FEATURES);
             for (int i = 0; i < ((List) location).size(); i++) {
-                float[] face = convToFloatVec(features.get(i));
-                if (distance(ref, face, minDistSquared) <= minDistSquared) {
+                if (DistanceKernels.squaredDistance(ref, features.get(i), 0, minDistSquared) <= minDistSquared) {
                     matchLocations.add((String) ((List) location).get(i));
                 }
             }
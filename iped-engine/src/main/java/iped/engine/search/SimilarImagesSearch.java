@@ -1,14 +1,36 @@
 package iped.engine.search;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import iped.data.IItem;
+import iped.data.IItemId;
+import iped.engine.data.IPEDMultiSource;
+import iped.engine.data.IPEDSource;
+import iped.engine.data.ItemId;
+import iped.engine.task.similarity.ImageSimilarity;
 import iped.engine.task.similarity.ImageSimilarityTask;
+import iped.search.IMultiSearchResult;
 
 public class SimilarImagesSearch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimilarImagesSearch.class);
+
     /**
      * This range is used in the query to filter images, based only in 4 features
      * (RGB and gray channels median values of the whole image). Higher values will
@@ -19,6 +41,9 @@ public class SimilarImagesSearch {
      */
     private static final int range = 64;
 
+    private static final Map<File, ImageSimilarityIndex> indexes = new HashMap<>();
+    private static final Map<File, Long> indexVersions = new HashMap<>();
+
     public Query getQueryForSimilarImages(IItem item) {
         byte[] similarityFeatures = (byte[]) item.getExtraAttribute(ImageSimilarityTask.IMAGE_FEATURES);
         if (similarityFeatures == null) {
@@ -38,4 +63,167 @@ public Query getQueryForSimilarImages(IItem item) {
 
         return similarImagesQuery.build();
     }
+
+    /**
+     * Returns the image similarity index of each atomic case, if all of them have
+     * an up to date index.
+     *
+     * @return null if some index is missing, so brute force scoring must be used.
+     */
+    static Map<Integer, ImageSimilarityIndex> getIndexes(IPEDSource ipedCase) {
+        List<IPEDSource> sources = ipedCase instanceof IPEDMultiSource
+                ? ((IPEDMultiSource) ipedCase).getAtomicSources()
+                : Collections.singletonList(ipedCase);
+        Map<Integer, ImageSimilarityIndex> result = new HashMap<>();
+        for (IPEDSource source : sources) {
+            ImageSimilarityIndex index = getIndex(source);
+            if (index == null) {
+                return null;
+            }
+            result.put(source.getSourceId(), index);
+        }
+        return result;
+    }
+
+    private static synchronized ImageSimilarityIndex getIndex(IPEDSource source) {
+        if (!(source.getReader() instanceof DirectoryReader)) {
+            return null;
+        }
+        long version = ((DirectoryReader) source.getReader()).getVersion();
+        File file = new File(source.getModuleDir(), ImageSimilarityTask.SIMILARITY_INDEX_FILE);
+        Long cachedVersion = indexVersions.get(file);
+        if (cachedVersion == null || cachedVersion != version) {
+            ImageSimilarityIndex index = null;
+            try {
+                index = ImageSimilarityIndex.load(file, version);
+            } catch (IOException e) {
+                LOGGER.warn("Error loading image similarity index " + file.getAbsolutePath(), e);
+            }
+            if (index == null) {
+                LOGGER.info("Image similarity index not found or out of date, using brute force search: {}",
+                        file.getAbsolutePath());
+            }
+            indexes.put(file, index);
+            indexVersions.put(file, version);
+        }
+        return indexes.get(file);
+    }
+
+    /**
+     * Finds the k images most similar to the reference image, using the image
+     * similarity index.
+     *
+     * @return images in decreasing similarity order, with the same scores of
+     *         {@link ImageSimilarityScorer}, or null if some case does not have
+     *         an up to date index.
+     */
+    public static MultiSearchResult findSimilar(IPEDSource ipedCase, IItem refItem, int k) {
+        byte[] refFeatures = (byte[]) refItem.getExtraAttribute(ImageSimilarityTask.IMAGE_FEATURES);
+        Map<Integer, ImageSimilarityIndex> indexes = getIndexes(ipedCase);
+        if (refFeatures == null || indexes == null) {
+            return null;
+        }
+        List<IItemId> items = new ArrayList<>();
+        List<Integer> dists = new ArrayList<>();
+        for (Map.Entry<Integer, ImageSimilarityIndex> entry : indexes.entrySet()) {
+            entry.getValue().searchNearest(refFeatures, k, (id, dist) -> {
+                items.add(new ItemId(entry.getKey(), id));
+                dists.add(dist);
+            });
+        }
+        // merge results of all cases
+        Integer[] order = new Integer[items.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(dists.get(a), dists.get(b)));
+        int len = Math.min(k, order.length);
+        IItemId[] ids = new IItemId[len];
+        float[] scores = new float[len];
+        for (int i = 0; i < len; i++) {
+            ids[i] = items.get(order[i]);
+            scores[i] = ImageSimilarityScorer.distanceToScore(dists.get(order[i]), refFeatures.length);
+        }
+        return new MultiSearchResult(ids, scores);
+    }
+
+    /**
+     * Groups the images of the whole case in clusters of near duplicates, using
+     * the image similarity index. Images of different atomic cases are not
+     * grouped together.
+     *
+     * @param minScore
+     *            minimum score, like computed by {@link ImageSimilarityScorer},
+     *            between an image and some other image of its cluster.
+     * @return clusters with more than one image, larger clusters first, or null if
+     *         some case does not have an up to date index.
+     */
+    public static List<List<IItemId>> findNearDuplicateClusters(IPEDSource ipedCase, float minScore) {
+        Map<Integer, ImageSimilarityIndex> indexes = getIndexes(ipedCase);
+        if (indexes == null) {
+            return null;
+        }
+        int maxDistance = ImageSimilarityScorer.scoreToDistance(minScore, ImageSimilarity.numFeatures);
+        List<List<IItemId>> result = new ArrayList<>();
+        for (Map.Entry<Integer, ImageSimilarityIndex> entry : indexes.entrySet()) {
+            for (int[] cluster : entry.getValue().findClusters(maxDistance)) {
+                List<IItemId> items = new ArrayList<>(cluster.length);
+                for (int id : cluster) {
+                    items.add(new ItemId(entry.getKey(), id));
+                }
+                result.add(items);
+            }
+        }
+        result.sort((a, b) -> Integer.compare(b.size(), a.size()));
+        return result;
+    }
+
+    /**
+     * Keeps only the k hits most similar to the reference image. Hits must be
+     * already scored by {@link ImageSimilarityScorer}. Top-K searches of the
+     * similarity index are used, asking for more neighbors while some of them are
+     * not in the hits, or hits are sorted by score if some case does not have an
+     * up to date index, so both ways return the same images.
+     */
+    public static MultiSearchResult filterTopSimilar(IPEDSource ipedCase, IMultiSearchResult hits, IItem refItem,
+            int k) {
+        MultiSearchResult result = MultiSearchResult.of(hits);
+        int len = result.getLength();
+        if (len <= k) {
+            return result;
+        }
+        BitSet rows = new BitSet(len);
+        MultiSearchResult similar = findSimilar(ipedCase, refItem, k);
+        if (similar != null) {
+            Map<IItemId, Integer> rowByItem = new HashMap<>(len * 2);
+            for (int i = 0; i < len; i++) {
+                rowByItem.put(result.getItem(i), i);
+            }
+            for (int nearest = k;; nearest *= 4) {
+                rows.clear();
+                int found = 0;
+                for (int i = 0; i < similar.getLength() && found < k; i++) {
+                    Integer row = rowByItem.get(similar.getItem(i));
+                    if (row != null) {
+                        rows.set(row);
+                        found++;
+                    }
+                }
+                if (found == k || similar.getLength() < nearest || nearest > Integer.MAX_VALUE / 4) {
+                    break;
+                }
+                similar = findSimilar(ipedCase, refItem, nearest * 4);
+            }
+        } else {
+            Integer[] order = new Integer[len];
+            for (int i = 0; i < len; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(result.getScore(b), result.getScore(a)));
+            for (int i = 0; i < k; i++) {
+                rows.set(order[i]);
+            }
+        }
+        return result.select(rows);
+    }
 }
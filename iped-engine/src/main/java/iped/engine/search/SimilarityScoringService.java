@@ -0,0 +1,169 @@
+package iped.engine.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+
+import iped.engine.data.IPEDSource;
+import iped.viewers.api.IProgressMonitor;
+
+/**
+ * Scores search results by similarity to a reference item using a pool shared
+ * by all searches, so quick re-queries do not pile up threads. Results are
+ * grouped by index segment and sorted by doc, then split into small chunks
+ * taken by pool threads as they get free, so a few slow segments do not leave
+ * the other threads idle.
+ */
+public class SimilarityScoringService {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Items scored between checks of the cancellation flag.
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        thread.setName("SimilarityScoring-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    /**
+     * Scores docs of one segment, docs are relative to the segment and passed in
+     * increasing order.
+     */
+    @FunctionalInterface
+    public interface DocScorer {
+        float score(int doc) throws IOException;
+    }
+
+    /**
+     * Creates the scorer of a chunk of docs. Each chunk gets its own scorer, so
+     * doc values iterators are not shared between threads.
+     */
+    @FunctionalInterface
+    public interface DocScorerFactory {
+        DocScorer create(LeafReader leafReader) throws IOException;
+    }
+
+    /**
+     * Sets the score of all items in result, blocking until they are scored.
+     *
+     * @param canceled
+     *            checked while scoring, scoring stops if it returns true
+     * @param progress
+     *            notified with the number of items scored, may be null
+     * @throws CancellationException
+     *             if canceled or if the calling thread is interrupted
+     */
+    public static void score(IPEDSource ipedCase, MultiSearchResult result, DocScorerFactory factory,
+            BooleanSupplier canceled, IProgressMonitor progress) throws IOException {
+
+        int len = result.getLength();
+        if (len == 0) {
+            return;
+        }
+        // lucene id in high bits, result index in low bits
+        long[] docsAndIdx = new long[len];
+        for (int i = 0; i < len; i++) {
+            docsAndIdx[i] = ((long) ipedCase.getLuceneId(result.getItem(i)) << 32) | i;
+        }
+        Arrays.parallelSort(docsAndIdx);
+
+        if (progress != null) {
+            progress.setMaximum(len);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger scored = new AtomicInteger();
+        AtomicReference<IOException> error = new AtomicReference<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        List<LeafReaderContext> leaves = ipedCase.getReader().leaves();
+        int leaf = 0;
+        for (int start = 0; start < len;) {
+            int doc = (int) (docsAndIdx[start] >>> 32);
+            while (leaves.get(leaf).docBase + leaves.get(leaf).reader().maxDoc() <= doc) {
+                leaf++;
+            }
+            LeafReaderContext context = leaves.get(leaf);
+            long leafEnd = (long) (context.docBase + context.reader().maxDoc()) << 32;
+            int end = start + 1;
+            while (end < len && end - start < CHUNK_SIZE && docsAndIdx[end] < leafEnd) {
+                end++;
+            }
+            int chunkStart = start, chunkEnd = end;
+            tasks.add(pool.submit(() -> {
+                try {
+                    scoreChunk(context, docsAndIdx, chunkStart, chunkEnd, result, factory, canceled, stop);
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                    // other chunks do not need to be scored
+                    stop.set(true);
+                    return;
+                } catch (RuntimeException e) {
+                    stop.set(true);
+                    throw e;
+                }
+                int total = scored.addAndGet(chunkEnd - chunkStart);
+                if (progress != null) {
+                    progress.setProgress(total);
+                }
+            }));
+            start = end;
+        }
+
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+
+        } catch (ExecutionException e) {
+            stop.set(true);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        if (stop.get()) {
+            throw new CancellationException();
+        }
+    }
+
+    private static void scoreChunk(LeafReaderContext context, long[] docsAndIdx, int start, int end,
+            MultiSearchResult result, DocScorerFactory factory, BooleanSupplier canceled, AtomicBoolean stop)
+            throws IOException {
+        if (stop.get()) {
+            return;
+        }
+        DocScorer scorer = factory.create(context.reader());
+        for (int k = start; k < end; k++) {
+            if ((k - start) % CANCEL_CHECK_INTERVAL == 0 && (stop.get() || canceled.getAsBoolean())) {
+                stop.set(true);
+                return;
+            }
+            int doc = (int) (docsAndIdx[k] >>> 32) - context.docBase;
+            result.setScore((int) docsAndIdx[k], scorer.score(doc));
+        }
+    }
+
+}
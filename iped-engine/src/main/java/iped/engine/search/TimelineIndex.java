@@ -0,0 +1,363 @@
+package iped.engine.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.lucene.SlowCompositeReaderWrapper;
+import iped.engine.task.index.IndexItem;
+import iped.properties.BasicProps;
+import iped.properties.ExtraProperties;
+import iped.utils.DateUtil;
+
+/**
+ * Timestamps of each time event of the case, built after processing so the
+ * timeline chart does not need to read and parse all timestamps of the index.
+ * For each event there is a column of epoch millis sorted in ascending order
+ * and a parallel column with the lucene doc of each timestamp, both memory
+ * mapped when loaded.
+ *
+ * Chart periods depend on the timezone chosen in the UI, so periods are not
+ * stored: the sorted columns allow building histograms and doc sets of any
+ * period in a single pass, because docs of each period are contiguous.
+ */
+public class TimelineIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimelineIndex.class);
+
+    public static final String TIMELINE_INDEX_FILE = "data/timelineIndex.dat"; //$NON-NLS-1$
+
+    private static final long MAGIC = 0x4950454454494d45L; // IPEDTIME
+    private static final int VERSION = 1;
+
+    /**
+     * Timestamps of an event, sorted by time.
+     */
+    public static class EventColumn {
+
+        private final LongBuffer times;
+        private final IntBuffer docs;
+
+        private EventColumn(LongBuffer times, IntBuffer docs) {
+            this.times = times;
+            this.docs = docs;
+        }
+
+        public int size() {
+            return docs.limit();
+        }
+
+        /**
+         * @return epoch millis of the i-th timestamp
+         */
+        public long getTime(int i) {
+            return times.get(i);
+        }
+
+        public int getDoc(int i) {
+            return docs.get(i);
+        }
+
+        /**
+         * Copies docs from position start to dst.
+         */
+        public void getDocs(int start, int[] dst, int off, int len) {
+            docs.duplicate().position(start).get(dst, off, len);
+        }
+    }
+
+    private final Map<String, EventColumn> events;
+
+    private TimelineIndex(Map<String, EventColumn> events) {
+        this.events = events;
+    }
+
+    public Set<String> getEvents() {
+        return Collections.unmodifiableSet(events.keySet());
+    }
+
+    /**
+     * @return the column of the event or null if the event does not exist.
+     */
+    public EventColumn getEvent(String event) {
+        return events.get(event);
+    }
+
+    /**
+     * Loads an index written by {@link #createTimelineIndex(File, File)}.
+     *
+     * @return the index or null if the file does not exist or was built from
+     *         another index version.
+     */
+    public static TimelineIndex load(File file, long stamp) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long dataOffset;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || in.readLong() != stamp) {
+                return null;
+            }
+            int numEvents = in.readInt();
+            for (int i = 0; i < numEvents; i++) {
+                names.add(in.readUTF());
+                sizes.add(in.readInt());
+            }
+            dataOffset = in.readLong();
+        }
+        Map<String, EventColumn> events = new LinkedHashMap<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                FileChannel channel = raf.getChannel()) {
+            long offset = dataOffset;
+            for (int i = 0; i < names.size(); i++) {
+                long size = sizes.get(i);
+                LongBuffer times = channel.map(MapMode.READ_ONLY, offset, size * 8).asLongBuffer();
+                offset += size * 8;
+                IntBuffer docs = channel.map(MapMode.READ_ONLY, offset, size * 4).asIntBuffer();
+                offset += size * 4;
+                events.put(names.get(i), new EventColumn(times, docs));
+            }
+        }
+        return new TimelineIndex(events);
+    }
+
+    /**
+     * Creates the timeline index of the case index, called after processing.
+     */
+    public static void createTimelineIndex(File moduleDir, File indexDir) {
+        File file = new File(moduleDir, TIMELINE_INDEX_FILE);
+        try (Directory directory = FSDirectory.open(indexDir.toPath());
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            LOGGER.info("Creating timeline index..."); //$NON-NLS-1$
+            long t = System.currentTimeMillis();
+            int size = write(SlowCompositeReaderWrapper.wrap(reader), reader.getVersion(), file);
+            LOGGER.info("Timeline index with {} timestamps created in {}ms", size, System.currentTimeMillis() - t); //$NON-NLS-1$
+
+        } catch (IOException e) {
+            LOGGER.warn("Error creating timeline index", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Timestamps of one event while building, packed as (timestamp ord, doc).
+     * Timestamps ords follow the chronological order, because all timestamps are
+     * indexed in the same ISO-8601 UTC format.
+     */
+    private static class EventBuilder {
+
+        private long[] entries = new long[1024];
+        private int size;
+
+        private void add(int timeStampOrd, int doc) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = ((long) timeStampOrd << 32) | doc;
+        }
+    }
+
+    static int write(LeafReader reader, long stamp, File file) throws IOException {
+        SortedSetDocValues timeStamps = reader.getSortedSetDocValues(BasicProps.TIMESTAMP);
+        SortedSetDocValues eventGroups = reader.getSortedSetDocValues(ExtraProperties.TIME_EVENT_GROUPS);
+        BinaryDocValues eventsInDocOrds = reader.getBinaryDocValues(ExtraProperties.TIME_EVENT_ORDS);
+        SortedNumericDocValues epochs = reader.getSortedNumericDocValues(ExtraProperties.TIME_EVENT_EPOCHS);
+
+        Map<String, EventBuilder> builders = new HashMap<>();
+        long[] ordEpochs = new long[0];
+        boolean[] ordParsed = new boolean[0];
+
+        if (timeStamps != null && eventGroups != null && eventsInDocOrds != null) {
+            ordEpochs = new long[(int) timeStamps.getValueCount()];
+            ordParsed = new boolean[ordEpochs.length];
+
+            // events of each group ord, e.g. "created | modified"
+            EventBuilder[][] groupEvents = new EventBuilder[(int) eventGroups.getValueCount()][];
+            for (int ord = 0; ord < groupEvents.length; ord++) {
+                StringTokenizer st = new StringTokenizer(eventGroups.lookupOrd(ord).utf8ToString(), "|"); //$NON-NLS-1$
+                List<EventBuilder> list = new ArrayList<>();
+                while (st.hasMoreTokens()) {
+                    String event = st.nextToken().trim();
+                    if (!event.isEmpty()) {
+                        list.add(builders.computeIfAbsent(event, e -> new EventBuilder()));
+                    }
+                }
+                groupEvents[ord] = list.toArray(new EventBuilder[0]);
+            }
+
+            Bits liveDocs = reader.getLiveDocs();
+            int[] docTimeStampOrds = new int[16];
+            int[] docGroupOrds = new int[16];
+            int[] timeStampGroup = new int[16];
+            long[] docEpochs = new long[16];
+            int doc;
+            while ((doc = timeStamps.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if ((liveDocs != null && !liveDocs.get(doc)) || !eventGroups.advanceExact(doc)
+                        || !eventsInDocOrds.advanceExact(doc)) {
+                    continue;
+                }
+                int numTimeStamps = 0;
+                long ord;
+                while ((ord = timeStamps.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    if (numTimeStamps == docTimeStampOrds.length) {
+                        docTimeStampOrds = Arrays.copyOf(docTimeStampOrds, numTimeStamps * 2);
+                    }
+                    docTimeStampOrds[numTimeStamps++] = (int) ord;
+                }
+                int numGroups = 0;
+                while ((ord = eventGroups.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    if (numGroups == docGroupOrds.length) {
+                        docGroupOrds = Arrays.copyOf(docGroupOrds, numGroups * 2);
+                    }
+                    docGroupOrds[numGroups++] = (int) ord;
+                }
+                if (timeStampGroup.length < numTimeStamps) {
+                    timeStampGroup = new int[docTimeStampOrds.length];
+                }
+                Arrays.fill(timeStampGroup, 0, numTimeStamps, -1);
+                mapTimeStampsToGroups(eventsInDocOrds.binaryValue(), docGroupOrds, numGroups, timeStampGroup,
+                        numTimeStamps);
+
+                // epochs of distinct timestamps, in the same order of timestamp ords
+                int numEpochs = 0;
+                if (epochs != null && epochs.advanceExact(doc)) {
+                    numEpochs = epochs.docValueCount();
+                    if (docEpochs.length < numEpochs) {
+                        docEpochs = new long[numEpochs];
+                    }
+                    for (int i = 0; i < numEpochs; i++) {
+                        docEpochs[i] = epochs.nextValue();
+                    }
+                }
+
+                for (int k = 0; k < numTimeStamps; k++) {
+                    int tsOrd = docTimeStampOrds[k];
+                    if (!ordParsed[tsOrd]) {
+                        if (numEpochs == numTimeStamps) {
+                            ordEpochs[tsOrd] = docEpochs[k];
+                            ordParsed[tsOrd] = true;
+                        } else {
+                            Date date = parseDate(timeStamps.lookupOrd(tsOrd));
+                            if (date == null) {
+                                continue;
+                            }
+                            ordEpochs[tsOrd] = date.getTime();
+                            ordParsed[tsOrd] = true;
+                        }
+                    }
+                    if (timeStampGroup[k] != -1) {
+                        for (EventBuilder builder : groupEvents[timeStampGroup[k]]) {
+                            builder.add(tsOrd, doc);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> names = new ArrayList<>(builders.keySet());
+        Collections.sort(names);
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        file.getParentFile().mkdirs();
+        int total = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(names.size());
+            long headerSize = 8 + 4 + 8 + 4 + 8;
+            for (String name : names) {
+                out.writeUTF(name);
+                out.writeInt(builders.get(name).size);
+                headerSize += 2 + name.getBytes("UTF-8").length + 4; //$NON-NLS-1$
+            }
+            out.writeLong(headerSize);
+            for (String name : names) {
+                EventBuilder builder = builders.get(name);
+                long[] entries = builder.entries;
+                Arrays.sort(entries, 0, builder.size);
+                for (int i = 0; i < builder.size; i++) {
+                    out.writeLong(ordEpochs[(int) (entries[i] >>> 32)]);
+                }
+                for (int i = 0; i < builder.size; i++) {
+                    out.writeInt((int) entries[i]);
+                }
+                total += builder.size;
+                builder.entries = null;
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return total;
+    }
+
+    private static Date parseDate(BytesRef timeStamp) {
+        String value = timeStamp.utf8ToString();
+        try {
+            return DateUtil.stringToDate(value);
+        } catch (java.text.ParseException e) {
+            return DateUtil.tryToParseDate(value);
+        }
+    }
+
+    /**
+     * Parses TIME_EVENT_ORDS value: for each event group of the doc, in ord order,
+     * the indexes of its timestamps, separated by
+     * {@link IndexItem#EVENT_IDX_SEPARATOR2}. Groups are separated by
+     * {@link IndexItem#EVENT_IDX_SEPARATOR}.
+     */
+    private static void mapTimeStampsToGroups(BytesRef value, int[] groupOrds, int numGroups, int[] timeStampGroup,
+            int numTimeStamps) {
+        int group = 0;
+        int index = -1;
+        for (int i = value.offset, end = value.offset + value.length; i <= end; i++) {
+            char c = i < end ? (char) value.bytes[i] : IndexItem.EVENT_IDX_SEPARATOR;
+            if (c >= '0' && c <= '9') {
+                index = (index == -1 ? 0 : index * 10) + (c - '0');
+            } else {
+                if (index != -1 && index < numTimeStamps && group < numGroups) {
+                    timeStampGroup[index] = groupOrds[group];
+                }
+                index = -1;
+                if (c == IndexItem.EVENT_IDX_SEPARATOR) {
+                    group++;
+                }
+            }
+        }
+    }
+
+}
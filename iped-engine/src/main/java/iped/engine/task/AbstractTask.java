@@ -13,6 +13,7 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.core.QueuesProcessingOrder;
 import iped.engine.core.Statistics;
+import iped.engine.core.TaskMetrics;
 import iped.engine.core.Worker;
 import iped.engine.core.Worker.STATE;
 import iped.engine.data.CaseData;
@@ -64,12 +65,22 @@ public abstract class AbstractTask {
 
     private long taskTime;
 
+    private TaskMetrics metrics;
+
     private HashMap<Integer, Long> subitemProcessingTime = new HashMap<Integer, Long>();
 
     public long getTaskTime() {
         return taskTime;
     }
 
+    /**
+     * @return metrics of this task instance, null if it did not process any item
+     *         yet.
+     */
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+
     public void addSubitemProcessingTime(long time) {
         Long prevTime = subitemProcessingTime.get(worker.evidence.getId());
         if (prevTime == null) {
@@ -187,7 +198,7 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
         boolean sendToNextTask = true;
 
         if (this.isEnabled() && (!evidence.isToIgnore() || processIgnoredItem())) {
-            long t = System.nanoTime() / 1000;
+            long t = System.nanoTime();
             try {
                 processMonitorTimeout(evidence);
 
@@ -198,7 +209,15 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
             if (subitensTime == null) {
                 subitensTime = 0L;
             }
-            taskTime += System.nanoTime() / 1000 - t - subitensTime;
+            long nanos = System.nanoTime() - t - subitensTime * 1000;
+            taskTime += nanos / 1000;
+            if (sendToNextTask && !evidence.isQueueEnd()) {
+                if (metrics == null) {
+                    metrics = stats.getMetricsRegistry().getTaskMetrics(getName(), worker.getName());
+                }
+                Long len = evidence.getLength();
+                metrics.record(nanos, len != null ? len : 0);
+            }
         }
 
         if (sendToNextTask) {
@@ -1,22 +1,29 @@
 package iped.engine.task;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexNotFoundException;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import iped.configuration.Configurable;
+import iped.data.ICaseData;
 import iped.data.IHashValue;
 import iped.data.IItem;
+import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
-import iped.engine.lucene.SlowCompositeReaderWrapper;
 import iped.engine.task.index.IndexItem;
+import iped.engine.util.FixedWidthHashSet;
 import iped.utils.HashValue;
 
 /**
@@ -26,11 +33,15 @@
  */
 public class DuplicateTask extends AbstractTask {
 
+    private static Logger LOGGER = LoggerFactory.getLogger(DuplicateTask.class);
+
     public static String HASH_MAP = HashTask.class.getSimpleName() + "HashMap"; //$NON-NLS-1$
 
+    private static final String HASH_SET_FILE = "data/hashSet.dat"; //$NON-NLS-1$
+
     private static final String ENABLE_PARAM = "ignoreDuplicates"; //$NON-NLS-1$
 
-    private HashMap<IHashValue, IHashValue> hashMap;
+    private FixedWidthHashSet hashSet;
 
     private static boolean ignoreDuplicates = false;
 
@@ -49,14 +60,7 @@ public void process(IItem evidence) {
         boolean isDuplicate = false;
         IHashValue hashValue = evidence.getHashValue();
         if (hashValue != null) {
-            synchronized (hashMap) {
-                if (!hashMap.containsKey(hashValue)) {
-                    hashMap.put(hashValue, hashValue);
-                } else {
-                    isDuplicate = true;
-                }
-
-            }
+            isDuplicate = !hashSet.add(hashValue);
         }
 
         if (ignoreDuplicates && isDuplicate && !evidence.isDir() && !evidence.isRoot()
@@ -71,33 +75,99 @@ public void init(ConfigurationManager configurationManager) throws Exception {
 
         ignoreDuplicates = configurationManager.getEnableTaskProperty(ENABLE_PARAM);
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(HASH_MAP);
-        if (hashMap == null) {
-            hashMap = new HashMap<IHashValue, IHashValue>();
-            caseData.putCaseObject(HASH_MAP, hashMap);
-
-            try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
-                LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
-                SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
-                if (sdv != null) {
-                    for (int ord = 0; ord < sdv.getValueCount(); ord++) {
-                        String hash = sdv.lookupOrd(ord).utf8ToString();
-                        if (hash != null && !hash.isEmpty()) {
-                            IHashValue hValue = new HashValue(hash);
-                            hashMap.put(hValue, hValue);
-                        }
+        synchronized (DuplicateTask.class) {
+            hashSet = (FixedWidthHashSet) caseData.getCaseObject(HASH_MAP);
+            if (hashSet == null) {
+                hashSet = loadHashSet();
+                caseData.putCaseObject(HASH_MAP, hashSet);
+            }
+        }
+
+    }
+
+    private FixedWidthHashSet loadHashSet() throws IOException {
+        CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
+        try (DirectoryReader reader = DirectoryReader.open(worker.writer, true, true)) {
+            // a saved set is discarded if it is not from the last commit, eg if
+            // processing was aborted after saving it. When restarting, the last commit
+            // on disk is not the one the index was reopened from.
+            File file = new File(output, HASH_SET_FILE);
+            if (args == null || !args.isRestart()) {
+                long generation = SegmentInfos.getLastCommitGeneration(worker.writer.getDirectory());
+                FixedWidthHashSet set = FixedWidthHashSet.load(file, generation);
+                if (set != null) {
+                    LOGGER.info("Loaded {} hashes from {}", set.size(), file.getAbsolutePath()); //$NON-NLS-1$
+                    return set;
+                }
+            }
+            LOGGER.info("Loading hashes of processed items from index..."); //$NON-NLS-1$
+            return readHashSet(reader);
+
+        } catch (IndexNotFoundException e) {
+            return new FixedWidthHashSet();
+        }
+    }
+
+    private static FixedWidthHashSet readHashSet(DirectoryReader reader) throws IOException {
+        FixedWidthHashSet set = new FixedWidthHashSet();
+        // values of each segment, no need to merge them, the set discards repeated ones
+        for (LeafReaderContext context : reader.leaves()) {
+            SortedDocValues sdv = context.reader().getSortedDocValues(IndexItem.HASH);
+            if (sdv != null) {
+                for (int ord = 0; ord < sdv.getValueCount(); ord++) {
+                    String hash = sdv.lookupOrd(ord).utf8ToString();
+                    if (hash != null && !hash.isEmpty()) {
+                        set.add(new HashValue(hash));
                     }
                 }
-            } catch (IndexNotFoundException e) {
-                // ignore
             }
         }
+        return set;
+    }
+
+    /**
+     * Saves the hashes of items of the last commit of the index, used if
+     * processing is resumed from that commit. Should be called just after
+     * committing. Items still being processed are not in the commit, so the set
+     * is read from the index instead of the set in memory.
+     */
+    public static void saveHashSet(Directory directory, File output) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            FixedWidthHashSet set = readHashSet(reader);
+            try {
+                set.save(new File(output, HASH_SET_FILE), reader.getIndexCommit().getGeneration());
+            } finally {
+                set.clear();
+            }
+        }
+    }
+
+    /**
+     * Saves the hashes of processed items, so they can be loaded instead of
+     * rebuilt from the index if more evidences are added to the case. Must be
+     * called after the last index modification.
+     */
+    public static void saveHashSet(ICaseData caseData, File output, File indexDir) {
+        FixedWidthHashSet hashSet = (FixedWidthHashSet) caseData.getCaseObject(HASH_MAP);
+        if (hashSet == null) {
+            return;
+        }
+        try (Directory directory = FSDirectory.open(indexDir.toPath());
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            hashSet.save(new File(output, HASH_SET_FILE), reader.getIndexCommit().getGeneration());
+
+        } catch (IOException e) {
+            LOGGER.warn("Error saving hashes of processed items", e); //$NON-NLS-1$
 
+        } finally {
+            hashSet.clear();
+            caseData.putCaseObject(HASH_MAP, null);
+        }
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
+        // hashSet is saved and cleared by Manager after the index is closed
     }
 
 }
@@ -25,7 +25,7 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -47,13 +47,9 @@
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.logging.log4j.Level;
@@ -83,6 +79,8 @@
 import iped.engine.config.HtmlReportTaskConfig;
 import iped.engine.data.Category;
 import iped.engine.data.IPEDSource;
+import iped.engine.io.PackFileStore;
+import iped.engine.io.PackInputStreamFactory;
 import iped.engine.localization.Messages;
 import iped.engine.task.index.IndexItem;
 import iped.engine.util.UIPropertyListenerProvider;
@@ -113,6 +111,7 @@ public class ExportFileTask extends AbstractTask {
     private static final String SUBITEM_DIR = "subitens"; //$NON-NLS-1$
 
     private static final String STORAGE_PREFIX = "storage";
+    private static final String PACK_PREFIX = "pack";
     public static final String STORAGE_CON_PREFIX = "storageConnection";
     private static final int MAX_BUFFER_SIZE = 1 << 24;
     private static final int SQLITE_CACHE_SIZE = 1 << 24;
@@ -122,10 +121,6 @@ public class ExportFileTask extends AbstractTask {
     private static final String CREATE_TABLE1 = "CREATE TABLE IF NOT EXISTS thumbs(id TEXT PRIMARY KEY, thumb BLOB);";
     private static final String CREATE_TABLE2 = "CREATE TABLE IF NOT EXISTS t1(id TEXT PRIMARY KEY, data BLOB);";
 
-    private static final String INSERT_DATA = "INSERT INTO t1(id, data) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET data=? WHERE data IS NULL;";
-
-    private static final String CHECK_HASH = "SELECT id FROM t1 WHERE id=? AND data IS NOT NULL;";
-    
     private static final String SELECT_IDS_WITH_DATA = "SELECT id FROM t1 WHERE data IS NOT NULL;";
 
     private static final String CLEAR_DATA = "DELETE FROM t1 WHERE id=?;";
@@ -133,6 +128,7 @@ public class ExportFileTask extends AbstractTask {
     // maps below are used to track different storages/connections in multicases
     private static HashMap<File, HashMap<Integer, File>> storage = new HashMap<>();
     private static HashMap<File, HashMap<Integer, Connection>> storageCon = new HashMap<>();
+    private static HashMap<File, HashMap<Integer, PackFileStore>> packStorage = new HashMap<>();
 
     private static AtomicInteger counter = new AtomicInteger();
     
@@ -146,7 +142,14 @@ public class ExportFileTask extends AbstractTask {
     private static boolean computeHash = false;
     private static File extractDir;
 
-    private HashMap<IHashValue, IHashValue> hashMap;
+    // locks files being exported or renamed with the same hash
+    private static final Object[] hashLocks = new Object[4096];
+
+    static {
+        for (int i = 0; i < hashLocks.length; i++) {
+            hashLocks[i] = new Object();
+        }
+    }
     private List<String> noContentLabels;
     private ExportByCategoriesConfig exportByCategories;
     private ExportByKeywordsConfig exportByKeywords;
@@ -157,6 +160,10 @@ public ExportFileTask() {
         ExportFolder.setExportPath(EXTRACT_DIR);
     }
 
+    private static Object getHashLock(IHashValue hash) {
+        return hashLocks[(hash.hashCode() & 0x7FFFFFFF) % hashLocks.length];
+    }
+
     public static synchronized void incItensExtracted() {
         itensExtracted++;
     }
@@ -179,6 +186,9 @@ private static void setExtractLocation(ICaseData caseData, File output) {
             if (storageCon.get(output) == null) {
                 configureSQLiteStorage(output);
             }
+            if (packStorage.get(output) == null) {
+                configurePackStorage(output);
+            }
         }
     }
 
@@ -233,6 +243,31 @@ private static synchronized void configureSQLiteStorage(File output) {
         storageCon.put(output, tempStorageCon);
     }
 
+    /**
+     * Item contents are kept in pack files, thumbnails are still kept in the
+     * sqlite storages. Contents stored in sqlite by older versions are still read
+     * by {@link SQLiteInputStreamFactory}.
+     */
+    private static synchronized void configurePackStorage(File output) {
+        if (packStorage.get(output) != null) {
+            return;
+        }
+        HashMap<Integer, PackFileStore> tempPackStorage = new HashMap<>();
+        for (int i = 0; i < Math.pow(2, DB_SUFFIX_BITS); i++) {
+            try {
+                tempPackStorage.put(i, PackFileStore.openForWriting(getPackFile(output, i)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        packStorage.put(output, tempPackStorage);
+    }
+
+    private static File getPackFile(File output, int suffix) {
+        String packName = PACK_PREFIX + "-" + suffix + PackFileStore.PACK_EXT;
+        return new File(output, STORAGE_PREFIX + File.separator + packName);
+    }
+
     private static Connection getSQLiteConnection(File storage) throws SQLException {
         SQLiteConfig config = new SQLiteConfig();
         config.setSynchronous(SynchronousMode.NORMAL);
@@ -304,9 +339,7 @@ public void process(IItem evidence) {
                 // store references to -nocontent items to be deleted from sqlite storages
                 IHashValue hashValue = evidence.getHashValue();
                 if (hashValue != null) {
-                    synchronized (hashMap) {
-                        // this uses less memory reusing a previous stored reference
-                        hashValue = hashMap.get(hashValue);
+                    synchronized (noContentHashes) {
                         noContentHashes.add(hashValue);
                     }
                 }
@@ -407,11 +440,7 @@ public void renameToHash(IItem evidence) {
             if (!hashFile.getParentFile().exists()) {
                 hashFile.getParentFile().mkdirs();
             }
-            IHashValue hashVal = new HashValue(hash);
-            IHashValue hashLock;
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            Object hashLock = getHashLock(new HashValue(hash));
 
             synchronized (hashLock) {
                 if (!hashFile.exists()) {
@@ -511,10 +540,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
             outputFile = new File(getSubDir(extractDir), Util.getValidFilename(counter.getAndIncrement() + ext));
         } else if ((hash = evidence.getHash()) != null && !hash.isEmpty()) {
             outputFile = getHashFile(hash, ext);
-            IHashValue hashVal = new HashValue(hash);
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            hashLock = getHashLock(new HashValue(hash));
 
         } else {
             outputFile = new File(extractDir, Util.getValidFilename("0" + counter.getAndIncrement() + ext)); //$NON-NLS-1$
@@ -545,7 +571,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
                             // catch exceptions here to extract some content, even runtime exceptions
                             exception = e;
                         }
-                        if ((i == -1 || exception != null) && storageCon.get(output) != null && total == 0) {
+                        if ((i == -1 || exception != null) && packStorage.get(output) != null && total == 0) {
                             if (baos.size() == 0) {
                                 evidence.setLength(0L);
                             } else {
@@ -606,8 +632,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
 
     }
 
-    private void insertIntoStorage(IItem evidence, byte[] buf, int len)
-            throws InterruptedException, IOException, SQLException, CompressorException {
+    private void insertIntoStorage(IItem evidence, byte[] buf, int len) throws IOException {
         byte[] hash = null;
         String hashString = (String) evidence.getExtraAttribute(HashTask.HASH.MD5.toString());
         if (hashString != null) {
@@ -616,43 +641,16 @@ private void insertIntoStorage(IItem evidence, byte[] buf, int len)
             hash = DigestUtils.md5(new ByteArrayInputStream(buf, 0, len));
         }
         int k = getStorageSuffix(hash);
-        boolean alreadyInDB = false;
         String id = hashString != null ? hashString : new HashValue(hash).toString();
-        try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(CHECK_HASH)) {
-            ps.setString(1, id);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                alreadyInDB = true;
-            }
-        }
-        if (!alreadyInDB) {
-            try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(INSERT_DATA)) {
-                ps.setString(1, id);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream gzippedOut = new GzipCompressorOutputStream(baos, getGzipParams());
-                // OutputStream gzippedOut = new LZ4BlockOutputStream(baos);
-                gzippedOut.write(buf, 0, len);
-                gzippedOut.close();
-                byte[] bytes = baos.toByteArray();
-                baos = null;
-                ps.setBytes(2, bytes);
-                ps.setBytes(3, bytes);
-                ps.executeUpdate();
-            }
-        }
+        PackFileStore store = packStorage.get(output).get(k);
+        store.put(new HashValue(hash), buf, 0, len);
+
         evidence.setIdInDataSource(id);
-        evidence.setInputStreamFactory(
-                new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), storageCon.get(output).get(k)));
+        evidence.setInputStreamFactory(new PackInputStreamFactory(store.getPackFile().toPath()));
         evidence.setFileOffset(-1);
         evidence.setLength((long) len);
     }
 
-    private GzipParameters getGzipParams() {
-        GzipParameters compression = new GzipParameters();
-        compression.setCompressionLevel(Deflater.BEST_SPEED);
-        return compression;
-    }
-
     public static class SQLiteInputStreamFactory extends SeekableInputStreamFactory {
 
         private static final String SELECT_DATA = "SELECT data FROM t1 WHERE id=?;";
@@ -738,13 +736,10 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         itensExtracted = 0;
         subDirCounter = 0;
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(DuplicateTask.HASH_MAP);
-
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
         if (storageCon.get(output) != null) {
             for (Entry<Integer, Connection> entry : storageCon.get(output).entrySet()) {
                 Connection con = entry.getValue();
@@ -756,9 +751,20 @@ public void finish() throws Exception {
             }
             storageCon.remove(output);
         }
+        closePackStorage(output);
     }
 
-    public static void commitStorage(File output) throws SQLException {
+    private static synchronized void closePackStorage(File output) throws IOException {
+        if (packStorage.get(output) != null) {
+            for (Entry<Integer, PackFileStore> entry : packStorage.get(output).entrySet()) {
+                entry.getValue().close();
+                LOGGER.info("Closed pack storage " + entry.getKey());
+            }
+            packStorage.remove(output);
+        }
+    }
+
+    public static void commitStorage(File output) throws SQLException, IOException {
         if (storageCon.get(output) != null) {
             for (Connection con : storageCon.get(output).values()) {
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
@@ -766,6 +772,11 @@ public static void commitStorage(File output) throws SQLException {
                 }
             }
         }
+        if (packStorage.get(output) != null) {
+            for (PackFileStore store : packStorage.get(output).values()) {
+                store.commit();
+            }
+        }
     }
 
     public static void deleteIgnoredItemData(ICaseData caseData, File output) throws Exception {
@@ -817,7 +828,7 @@ private static int deleteIgnoredSubitemsFromFS(SortedDocValues sdv, Path root, F
         return deleted;
     }
     
-    private static int deleteIgnoredSubitemsFromStorage(IPEDSource ipedCase, File output) throws SQLException {
+    private static int deleteIgnoredSubitemsFromStorage(IPEDSource ipedCase, File output) throws IOException {
         final AtomicInteger deleted = new AtomicInteger();
         ArrayList<Future<?>> futures = new ArrayList<>();
         ExecutorService executor = Executors.newFixedThreadPool(4);
@@ -851,6 +862,24 @@ public void run() {
                         ps3.executeUpdate("VACUUM");
                         LOGGER.info("Closing storage {}", storage);
                         con.close();
+
+                        File packFile = getPackFile(output, storage);
+                        if (packFile.exists()) {
+                            LOGGER.info("Deleting data from pack storage {}", storage);
+                            SortedDocValues packSdv = ipedCase.getAtomicReader()
+                                    .getSortedDocValues(IndexItem.ID_IN_SOURCE);
+                            try (PackFileStore store = PackFileStore.openForWriting(packFile)) {
+                                deleted.addAndGet(store.retain(hash -> {
+                                    try {
+                                        return packSdv != null
+                                                && packSdv.lookupTerm(new BytesRef(hash.toString())) >= 0
+                                                && Collections.binarySearch(noContentHashes, hash) < 0;
+                                    } catch (IOException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                }));
+                            }
+                        }
                     } catch (SQLException | IOException e1) {
                         throw new RuntimeException(e1);
                     }
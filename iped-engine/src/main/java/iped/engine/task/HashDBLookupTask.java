@@ -25,6 +25,7 @@
 import iped.engine.config.LocalConfig;
 import iped.engine.hashdb.HashDB;
 import iped.engine.hashdb.HashDBDataSource;
+import iped.engine.hashdb.MappedHashDB;
 import iped.parsers.util.ChildPornHashLookup;
 import iped.parsers.util.ChildPornHashLookup.LookupProvider;
 
@@ -53,6 +54,8 @@ public class HashDBLookupTask extends AbstractTask {
     private static File hashDBFile;
     private static String[] hashesAttributes;
 
+    private static MappedHashDB mappedHashDB;
+
     private HashDBDataSource hashDBDataSource;
 
     private byte[][] hashes;
@@ -104,8 +107,19 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                                 taskEnabled = false;
                             } else {
                                 excludeKnown = hashDBConfig.isExcludeKnown();
-                                hashDBDataSource = new HashDBDataSource(hashDBFile);
-                                addLookupProvider(hashDBDataSource);
+                                mappedHashDB = MappedHashDB.open(hashDBFile);
+                                if (mappedHashDB != null) {
+                                    logger.info("Using mapped hashes database: {}",
+                                            MappedHashDB.getMappedFile(hashDBFile).getAbsolutePath());
+                                    addLookupProvider(mappedHashDB::lookupSets);
+                                } else {
+                                    if (MappedHashDB.getMappedFile(hashDBFile).exists()) {
+                                        logger.warn("Ignoring mapped hashes database older than {}",
+                                                hashDBFile.getAbsolutePath());
+                                    }
+                                    hashDBDataSource = new HashDBDataSource(hashDBFile);
+                                    addLookupProvider(hashDBDataSource::lookupSets);
+                                }
                                 if (hashDBConfig.getNsrlConfig() != null) {
                                     loadNsrlConfig(hashDBConfig.getNsrlConfig());
                                     if (!nsrlStatusByProdName.isEmpty()) {
@@ -124,15 +138,19 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         }
         if (taskEnabled) {
             hashes = new byte[hashesAttributes.length][];
-            if (hashDBDataSource == null) hashDBDataSource = new HashDBDataSource(hashDBFile);
+            if (hashDBDataSource == null && mappedHashDB == null) hashDBDataSource = new HashDBDataSource(hashDBFile);
         }
     }
 
-    private void addLookupProvider(HashDBDataSource hashDBDataSource) {
+    private interface SetsLookup {
+        List<String> lookupSets(String algorithm, String hash) throws Exception;
+    }
+
+    private void addLookupProvider(SetsLookup setsLookup) {
         ChildPornHashLookup.addLookupProvider(new LookupProvider() {
             public List<String> lookupHash(String algorithm, String hash) {
                 try {
-                    return hashDBDataSource.lookupSets(algorithm, hash);
+                    return setsLookup.lookupSets(algorithm, hash);
                 } catch (Exception e) {
                     logger.warn("Error in lookupHash " + algorithm + " : " + hash, e);
                 }
@@ -206,7 +224,11 @@ protected void process(IItem evidence) throws Exception {
         if (hasHash) {
             properties.clear();
             try {
-                hashDBDataSource.lookup(hashes, properties);
+                if (mappedHashDB != null) {
+                    mappedHashDB.lookup(hashes, properties);
+                } else {
+                    hashDBDataSource.lookup(hashes, properties);
+                }
             } catch (Exception e) {
                 logger.warn("Error looking up evidence " + evidence, e);
                 return;
@@ -22,10 +22,12 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.slf4j.Logger;
@@ -35,6 +37,9 @@
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.HashTaskConfig;
+import iped.engine.config.LocalConfig;
+import iped.engine.util.ParallelDigester;
+import iped.engine.util.ParallelDigester.DigestUpdater;
 import iped.parsers.whatsapp.WhatsAppParser;
 import iped.utils.IOUtil;
 
@@ -45,6 +50,8 @@ public class HashTask extends AbstractTask {
 
     private static Logger LOGGER = LoggerFactory.getLogger(HashTask.class);
 
+    private static ExecutorService digestExecutor;
+
     public enum HASH {
         MD5("md5"), //$NON-NLS-1$
         SHA1("sha-1"), //$NON-NLS-1$
@@ -66,8 +73,14 @@ public String toString() {
 
     private HashMap<String, MessageDigest> digestMap = new LinkedHashMap<String, MessageDigest>();
 
+    private List<DigestUpdater> digestUpdaters = new ArrayList<>();
+
     private HashTaskConfig hashConfig;
 
+    private ParallelDigester parallelDigester;
+
+    private byte[] buf;
+
     @Override
     public boolean isEnabled() {
         return hashConfig.isEnabled();
@@ -90,11 +103,29 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 digest = MessageDigest.getInstance("MD4", new BouncyCastleProvider()); //$NON-NLS-1$
             }
             digestMap.put(algorithm, digest);
+            if (!algorithm.equals(HASH.EDONKEY.toString())) {
+                digestUpdaters.add(digest::update);
+            } else {
+                digestUpdaters.add((b, off, len) -> updateEd2k(b, len));
+            }
             if (HASH.SHA256.toString().equals(algorithm)) {
                 System.setProperty(WhatsAppParser.SHA256_ENABLED_SYSPROP, Boolean.TRUE.toString());
             }
         }
 
+        if (hashConfig.isParallelHashing() && digestMap.size() > 1) {
+            // each worker hashes one item at a time, using one thread per digest
+            int numWorkers = configurationManager.findObject(LocalConfig.class).getNumThreads();
+            parallelDigester = new ParallelDigester(getDigestExecutor(numWorkers * digestMap.size()));
+        }
+
+    }
+
+    private static synchronized ExecutorService getDigestExecutor(int numThreads) {
+        if (digestExecutor == null) {
+            digestExecutor = ParallelDigester.newExecutor(numThreads);
+        }
+        return digestExecutor;
     }
 
     @Override
@@ -122,16 +153,13 @@ public void process(IItem evidence) {
         InputStream in = null;
         try {
             in = evidence.getBufferedInputStream();
-            byte[] buf = new byte[1024 * 1024];
-            int len;
-            while ((len = in.read(buf)) >= 0 && !Thread.currentThread().isInterrupted()) {
-                for (String algo : digestMap.keySet()) {
-                    if (!algo.equals(HASH.EDONKEY.toString())) {
-                        digestMap.get(algo).update(buf, 0, len);
-                    } else {
-                        updateEd2k(buf, len);
-                    }
+            if (parallelDigester != null && evidence.getLength() >= hashConfig.getParallelHashingMinSize()) {
+                parallelDigester.digest(in, digestUpdaters);
+            } else {
+                if (buf == null) {
+                    buf = new byte[ParallelDigester.DEFAULT_BUFFER_SIZE];
                 }
+                ParallelDigester.digestSequentially(in, buf, digestUpdaters);
             }
 
             boolean defaultHash = true;
@@ -775,6 +775,8 @@ public void init(ConfigurationManager configurationManager) {
         parsingConfig = configurationManager.findObject(ParsingTaskConfig.class);
         expandConfig = configurationManager.findObject(CategoryToExpandConfig.class);
 
+        TextCache.setMemoryBudget(parsingConfig.getTextCacheMemoryMB() * (1L << 20));
+
         setupParsingOptions(configurationManager);
 
         this.autoParser = new StandardParser();
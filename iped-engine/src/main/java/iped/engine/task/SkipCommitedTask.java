@@ -1,14 +1,14 @@
 package iped.engine.task;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
@@ -19,19 +19,23 @@
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
 
 import iped.configuration.Configurable;
 import iped.data.IItem;
 import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.core.Statistics;
 import iped.engine.datasource.UfedXmlReader;
 import iped.engine.lucene.DocValuesUtil;
 import iped.engine.lucene.SlowCompositeReaderWrapper;
 import iped.engine.task.carver.BaseCarveTask;
 import iped.engine.task.index.IndexItem;
 import iped.engine.task.index.IndexTask;
+import iped.engine.util.TrackIdTable;
 import iped.engine.util.Util;
 import iped.exception.IPEDException;
 import iped.properties.BasicProps;
@@ -54,15 +58,15 @@ public class SkipCommitedTask extends AbstractTask {
 
     public static final String trackID_ID_MAP = "trackID_ID_MAP";
 
-    private static Logger logger = LogManager.getLogger(SkipCommitedTask.class);
+    public static final String TRACK_ID_TABLE_FILE = "data/trackIdTable.dat";
 
-    private static HashValue[] commitedtrackIDs;
+    private static Logger logger = LogManager.getLogger(SkipCommitedTask.class);
 
-    private static Set<HashValue> parentsWithLostSubitems = Collections.synchronizedSet(new TreeSet<>());
+    private static TrackIdTable commitedTrackIds;
 
-    private static Set<HashValue> removedParents = Collections.synchronizedSet(new TreeSet<>());
+    private static Set<HashValue> parentsWithLostSubitems = ConcurrentHashMap.newKeySet();
 
-    private static Map<HashValue, Integer> globalToIdMap = new HashMap<>();
+    private static Set<HashValue> removedParents = ConcurrentHashMap.newKeySet();
 
     private static HashMap<String, String> prevRootNameToEvidenceUUID = new HashMap<>();
 
@@ -71,11 +75,11 @@ public class SkipCommitedTask extends AbstractTask {
     private static AtomicBoolean inited = new AtomicBoolean();
 
     public static boolean isAlreadyCommited(IItem item) {
-        if (commitedtrackIDs == null) {
+        TrackIdTable table = commitedTrackIds;
+        if (table == null) {
             return false;
         }
-        HashValue trackID = new HashValue(Util.getTrackID(item));
-        return Arrays.binarySearch(commitedtrackIDs, trackID) >= 0;
+        return table.isCommitted(Util.getTrackID(item));
     }
 
     @Override
@@ -114,58 +118,120 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 return;
             }
 
-            SortedDocValues persistIds = aReader.getSortedDocValues(IndexItem.TRACK_ID);
-            int size = persistIds == null ? 0 : persistIds.getValueCount();
-            commitedtrackIDs = new HashValue[size];
-            for (int ord = 0; ord < commitedtrackIDs.length; ord++) {
-                String trackID = persistIds.lookupOrd(ord).utf8ToString();
-                commitedtrackIDs[ord] = new HashValue(trackID);
+            File tableFile = new File(output, TRACK_ID_TABLE_FILE);
+            long generation = SegmentInfos.getLastCommitGeneration(worker.writer.getDirectory());
+            commitedTrackIds = TrackIdTable.open(tableFile, generation, aReader.maxDoc(), aReader.numDocs());
+            if (commitedTrackIds == null) {
+                // not saved in last commit, maybe by a previous version
+                logger.info("Building trackID table from index...");
+                writeTrackIdTable(aReader, tableFile, generation, stats);
+                commitedTrackIds = TrackIdTable.open(tableFile, generation, aReader.maxDoc(), aReader.numDocs());
             }
-            // Arrays.sort(trackIDs);
-
-            SortedDocValues globalParents = aReader.getSortedDocValues(IndexItem.PARENT_TRACK_ID);
-            SortedDocValues hasChildValues = aReader.getSortedDocValues(IndexItem.HASCHILD);
-            SortedDocValues isDirValues = aReader.getSortedDocValues(IndexItem.ISDIR);
-            SortedDocValues isRootValues = aReader.getSortedDocValues(IndexItem.ISROOT);
-            SortedDocValues hasSplittedText = aReader.getSortedDocValues(IndexTask.TEXT_SPLITTED);
-            NumericDocValues prevParentIds = aReader.getNumericDocValues(IndexItem.PARENTID);
-            NumericDocValues prevIds = aReader.getNumericDocValues(IndexItem.ID);
-            for (int doc = 0; doc < aReader.maxDoc(); doc++) {
-                String hashVal = globalParents == null ? null : DocValuesUtil.getVal(globalParents, doc);
-                if (hashVal != null && !hashVal.isEmpty()) {
-                    HashValue persistParent = new HashValue(hashVal);
-                    if (prevParentIds != null && Arrays.binarySearch(commitedtrackIDs, persistParent) < 0) {
-                        globalToIdMap.put(persistParent, DocValuesUtil.get(prevParentIds, doc).intValue());
-                    }
-                }
-                boolean hasChild = hasChildValues != null && Boolean.valueOf(DocValuesUtil.getVal(hasChildValues, doc));
-                boolean isDir = isDirValues != null && Boolean.valueOf(DocValuesUtil.getVal(isDirValues, doc));
-                boolean isRoot = isRootValues != null && Boolean.valueOf(DocValuesUtil.getVal(isRootValues, doc));
-                boolean isTexSplitted = hasSplittedText != null && Boolean.valueOf(DocValuesUtil.getVal(hasSplittedText, doc));
-                if (prevIds != null && persistIds != null && (hasChild || isDir || isRoot || isTexSplitted)) {
-                    HashValue trackID = new HashValue(DocValuesUtil.getVal(persistIds, doc));
-                    globalToIdMap.put(trackID, DocValuesUtil.get(prevIds, doc).intValue());
-                }
-            }
-
-            caseData.putCaseObject(trackID_ID_MAP, globalToIdMap);
 
-            collectParentsWithoutAllSubitems(aReader, IndexItem.CONTAINER_TRACK_ID, ParsingTask.NUM_SUBITEMS);
-            collectParentsWithoutAllSubitems(aReader, IndexItem.PARENT_TRACK_ID, BaseCarveTask.NUM_CARVED_AND_FRAGS);
+            caseData.putCaseObject(trackID_ID_MAP, commitedTrackIds);
 
+            parentsWithLostSubitems.addAll(commitedTrackIds.getParentsWithLostSubitems());
             caseData.putCaseObject(PARENTS_WITH_LOST_SUBITEMS, parentsWithLostSubitems);
 
-            logger.info("Commited items: {}", commitedtrackIDs.length);
+            logger.info("TrackIDs of previous processing: {}", commitedTrackIds.size());
             logger.info("Parents with lost subitems: {}", parentsWithLostSubitems.size());
 
         } catch (IndexNotFoundException e) {
-            commitedtrackIDs = new HashValue[0];
+            commitedTrackIds = null;
         }
 
     }
 
-    private void collectParentsWithoutAllSubitems(LeafReader aReader, String parentIdField, String subitemCountField)
+    /**
+     * Saves the trackID table of the last commit of the index, used if processing
+     * is resumed from that commit. Should be called just after committing.
+     */
+    public static void saveTrackIdTable(Directory directory, File output, Statistics stats) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
+            writeTrackIdTable(aReader, new File(output, TRACK_ID_TABLE_FILE), reader.getIndexCommit().getGeneration(),
+                    stats);
+        }
+    }
+
+    /**
+     * Writes the table with all commited trackIDs, the previous ids that must be
+     * kept and the parents without all subitems commited. Previous ids are kept
+     * for containers, directories, roots and items with splitted text, and for
+     * not commited parents referenced by commited subitems.
+     */
+    private static void writeTrackIdTable(LeafReader aReader, File file, long commitGeneration, Statistics stats)
             throws IOException {
+
+        SortedDocValues persistIds = aReader.getSortedDocValues(IndexItem.TRACK_ID);
+        int size = persistIds == null ? 0 : persistIds.getValueCount();
+        int[] ids = new int[size];
+        Arrays.fill(ids, TrackIdTable.NO_ID);
+
+        SortedDocValues globalParents = aReader.getSortedDocValues(IndexItem.PARENT_TRACK_ID);
+        int numParents = globalParents == null ? 0 : globalParents.getValueCount();
+        int[] parentIds = new int[numParents];
+        Arrays.fill(parentIds, TrackIdTable.NO_ID);
+
+        SortedDocValues hasChildValues = aReader.getSortedDocValues(IndexItem.HASCHILD);
+        SortedDocValues isDirValues = aReader.getSortedDocValues(IndexItem.ISDIR);
+        SortedDocValues isRootValues = aReader.getSortedDocValues(IndexItem.ISROOT);
+        SortedDocValues hasSplittedText = aReader.getSortedDocValues(IndexTask.TEXT_SPLITTED);
+        NumericDocValues prevParentIds = aReader.getNumericDocValues(IndexItem.PARENTID);
+        NumericDocValues prevIds = aReader.getNumericDocValues(IndexItem.ID);
+        for (int doc = 0; doc < aReader.maxDoc(); doc++) {
+            int parentOrd = globalParents == null ? -1 : DocValuesUtil.getOrd(globalParents, doc);
+            if (parentOrd != -1 && prevParentIds != null) {
+                Long parentId = DocValuesUtil.get(prevParentIds, doc);
+                if (parentId != null) {
+                    parentIds[parentOrd] = parentId.intValue();
+                }
+            }
+            boolean hasChild = hasChildValues != null && Boolean.valueOf(DocValuesUtil.getVal(hasChildValues, doc));
+            boolean isDir = isDirValues != null && Boolean.valueOf(DocValuesUtil.getVal(isDirValues, doc));
+            boolean isRoot = isRootValues != null && Boolean.valueOf(DocValuesUtil.getVal(isRootValues, doc));
+            boolean isTexSplitted = hasSplittedText != null && Boolean.valueOf(DocValuesUtil.getVal(hasSplittedText, doc));
+            if (prevIds != null && persistIds != null && (hasChild || isDir || isRoot || isTexSplitted)) {
+                int ord = DocValuesUtil.getOrd(persistIds, doc);
+                Long id = DocValuesUtil.get(prevIds, doc);
+                if (ord != -1 && id != null) {
+                    ids[ord] = id.intValue();
+                }
+            }
+        }
+
+        BitSet lostSubitems = new BitSet(size);
+        collectParentsWithoutAllSubitems(aReader, IndexItem.CONTAINER_TRACK_ID, ParsingTask.NUM_SUBITEMS, stats,
+                lostSubitems);
+        collectParentsWithoutAllSubitems(aReader, IndexItem.PARENT_TRACK_ID, BaseCarveTask.NUM_CARVED_AND_FRAGS, stats,
+                lostSubitems);
+
+        // merges commited trackIDs and parent trackIDs, both sorted by ord
+        try (TrackIdTable.Builder builder = new TrackIdTable.Builder(file)) {
+            int i = 0, j = 0;
+            while (i < size || j < numParents) {
+                BytesRef trackID = i < size ? persistIds.lookupOrd(i) : null;
+                BytesRef parent = j < numParents ? globalParents.lookupOrd(j) : null;
+                int cmp = trackID == null ? 1 : parent == null ? -1 : trackID.compareTo(parent);
+                if (cmp <= 0) {
+                    builder.add(trackID.bytes, trackID.offset, trackID.length, ids[i], true, lostSubitems.get(i));
+                    i++;
+                    if (cmp == 0) {
+                        j++;
+                    }
+                } else {
+                    if (parent.length > 0 && parentIds[j] != TrackIdTable.NO_ID) {
+                        builder.add(parent.bytes, parent.offset, parent.length, parentIds[j], false, false);
+                    }
+                    j++;
+                }
+            }
+            builder.finish(commitGeneration, aReader.maxDoc(), aReader.numDocs());
+        }
+    }
+
+    private static void collectParentsWithoutAllSubitems(LeafReader aReader, String parentIdField,
+            String subitemCountField, Statistics stats, BitSet lostSubitems) throws IOException {
         // reset doc values to iterate again
         SortedDocValues persistIds = aReader.getSortedDocValues(IndexItem.TRACK_ID);
         NumericDocValues ids = aReader.getNumericDocValues(IndexItem.ID);
@@ -214,7 +280,7 @@ private void collectParentsWithoutAllSubitems(LeafReader aReader, String parentI
                 }
                 int references = ord < 0 ? 0 : referencingSubitems[ord];
                 if (subitemsCount != references + carvedIgnored) {
-                    parentsWithLostSubitems.add(new HashValue(persistId.utf8ToString()));
+                    lostSubitems.set(persistIds.ordValue());
                     // System.out.println("Parent with lost child " + persistId.utf8ToString() + "
                     // subitems " + subitemsCount +
                     // " carvedIgnored " + carvedIgnored + (ord >= 0 ? " references " +
@@ -226,16 +292,21 @@ private void collectParentsWithoutAllSubitems(LeafReader aReader, String parentI
 
     @Override
     public void finish() throws Exception {
-        commitedtrackIDs = null;
+        if (commitedTrackIds != null) {
+            commitedTrackIds.close();
+            commitedTrackIds = null;
+        }
         parentsWithLostSubitems.clear();
         removedParents.clear();
-        globalToIdMap.clear();
         prevRootNameToEvidenceUUID.clear();
     }
 
     // Check again parents that are going to be processed in later processing queues
     // to avoid ignoring them in a second pass in this task.
     public static void checkAgainLaterProcessedParents(IItem item) {
+        if (removedParents.isEmpty()) {
+            return;
+        }
         HashValue trackID = new HashValue(Util.getTrackID(item));
         if (removedParents.remove(trackID)) {
             parentsWithLostSubitems.add(trackID);
@@ -246,7 +317,7 @@ public static void checkAgainLaterProcessedParents(IItem item) {
     protected void process(IItem item) throws Exception {
 
         // must be calculated first, in all cases, to allow recovering in the future
-        HashValue trackID = new HashValue(Util.getTrackID(item));
+        String trackID = Util.getTrackID(item);
 
         if (item.getExtraAttribute(IndexItem.PARENT_TRACK_ID) == null && !item.isRoot()) {
             // this property is needed when resuming processing to get a previous parent id
@@ -262,16 +333,17 @@ protected void process(IItem item) throws Exception {
 
         // ignore already committed items. If they are containers without all their
         // subitems committed, process again
-        if (Arrays.binarySearch(commitedtrackIDs, trackID) >= 0) {
+        if (commitedTrackIds != null && commitedTrackIds.isCommitted(trackID)) {
             // we must "remove" seen containers from set below. It is possible for the same
             // container to be enqueued twice: if it is a subItem/carved of some allocated
             // parent being processed again, coming from some datasource reader, AND if it
             // was already committed, coming from the index.
-            if (!parentsWithLostSubitems.remove(trackID)) {
+            HashValue hashValue = new HashValue(trackID);
+            if (!parentsWithLostSubitems.remove(hashValue)) {
                 item.setToIgnore(true);
                 return;
             } else {
-                removedParents.add(trackID);
+                removedParents.add(hashValue);
             }
         }
 
@@ -3,16 +3,19 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
-import org.arabidopsis.ahocorasick.SearchResult;
-import org.arabidopsis.ahocorasick.Searcher;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.arabidopsis.ahocorasick.HitQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +30,7 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.FileSystemConfig;
 import iped.engine.data.Item;
+import iped.io.SeekableInputStream;
 import iped.properties.MediaTypes;
 import iped.utils.IOUtil;
 
@@ -46,14 +50,31 @@ public class CarverTask extends BaseCarveTask {
     private static Logger LOGGER = LoggerFactory.getLogger(CarverTask.class);
     private static int largestPatternLen = 100;
 
+    private static CompiledAhoCorasick compiledTree;
+
+    // signature, sequence and carver type index of each automaton output
+    private static Signature[] outputSigs;
+    private static int[] outputSeqs;
+    private static int[] outputTypes;
+    private static int maxPatternLen = 1;
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    private static long parallelCarvingMinSize;
+    private static int parallelCarvingThreads;
+    private static ExecutorService segmentExecutor;
+    private static final ThreadLocal<byte[]> segmentBuffer = ThreadLocal
+            .withInitial(() -> new byte[SCAN_BUFFER_SIZE]);
+
     protected HashMap<CarverType, Carver> registeredCarvers = new HashMap<CarverType, Carver>();
     private CarvedItemListener carvedItemListener = null;
     IItem evidence;
 
     long prevLen = 0;
     int len = 0, k = 0;
-    byte[] buf = new byte[1024 * 1024];
-    byte[] cBuf;
+    byte[] buf;
+    HitQueue hits;
 
     public static void setEnabled(boolean enabled) {
         enableCarving = enabled;
@@ -72,6 +93,13 @@ public void process(IItem evidence) {
         // Nova instancia pois o mesmo objeto é reusado e nao é imutável
         CarverTask carver = new CarverTask();
         carver.setWorker(worker);
+        // reuses scan buffers of this worker
+        if (buf == null) {
+            buf = new byte[1024 * 1024];
+            hits = new HitQueue();
+        }
+        carver.buf = buf;
+        carver.hits = hits;
         carver.safeProcess(evidence);
 
         // Ao terminar o tratamento do item, caso haja referência ao mesmo no mapa de
@@ -117,7 +145,12 @@ private void safeProcess(IItem evidence) {
 
             clearExtraAttributes(evidence);
 
-            findSig(tis);
+            Long length = evidence.getLength();
+            if (parallelCarvingMinSize > 0 && length != null && length >= parallelCarvingMinSize) {
+                findSigParallel(prevLen, length, SEGMENT_SIZE);
+            } else {
+                findSig(tis);
+            }
 
         } catch (Exception t) {
             LOGGER.warn("{} Error carving on {} {}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
@@ -137,76 +170,199 @@ private void fillBuf(InputStream in) throws IOException {
         while (k != -1 && (len += k) < buf.length) {
             k = in.read(buf, len, buf.length - len);
         }
-
-        cBuf = new byte[len];
-        System.arraycopy(buf, 0, cBuf, 0, len);
-
     }
 
-    private Hit findSig(InputStream in) throws Exception {
-        HashMap<CarverType, TreeMap<Long, Integer>> map = new HashMap<>();
-        for (int i = 0; i < carverTypes.length; i++) {
-            map.put(carverTypes[i], new TreeMap<Long, Integer>());
-        }
+    Hit findSig(InputStream in) throws Exception {
+        SplitSignatureHits[] splitHits = new SplitSignatureHits[carverTypes.length];
 
-        AhoCorasick tree = carverConfig.getPopulatedTree();
-        SearchResult lastResult = new SearchResult(tree.root, null, 0);
+        int state = compiledTree.getInitialState();
         do {
             fillBuf(in);
-            lastResult = new SearchResult(lastResult.lastMatchedState, cBuf, 0);
-            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
+            hits.clear();
+            state = compiledTree.scan(buf, 0, len, state, hits);
+
+            for (int h = 0; h < hits.size(); h++) {
+                int out = hits.getOutputId(h);
+                Signature sig = outputSigs[out];
+                int seq = outputSeqs[out];
+                int i = hits.getEnd(h) - sig.seqEndPos[seq];
+
+                // tratamento para assinaturas com ? (divididas)
+                if (sig.seqs.length > 1) {
+                    SplitSignatureHits pending = splitHits[outputTypes[out]];
+                    if (pending == null) {
+                        pending = splitHits[outputTypes[out]] = new SplitSignatureHits();
+                    }
+                    int seqHits = pending.addSequence(prevLen + i, seq);
+                    if (seqHits == -1 || seqHits < sig.seqs.length) {
+                        continue;
+                    }
+                }
+
+                notifyHit(sig, prevLen + i);
+            }
+
+        } while (k != -1);
+
+        notifyEnd();
+
+        return null;
+    }
+
+    void notifyHit(Signature sig, long offset) {
+        Hit hit = null;
+        hit = new Hit(sig, offset);
+
+        Carver carver = getCarver(sig.getCarverType());
+
+        try {
+            carver.notifyHit(this.evidence, hit);
+        } catch (Exception e) {
+            LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
+                    Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
+                    carver.getClass().getName());
+            e.printStackTrace();
+        }
+    }
 
-            while (searcher.hasNext()) {
-                lastResult = searcher.next();
+    void notifyEnd() throws IOException {
+        for (Carver carver : registeredCarvers.values()) {
+            carver.notifyEnd(this.evidence);
+        }
+    }
 
-                for (Object out : lastResult.getOutputs()) {
-                    Object[] oarray = (Object[]) out;
-                    Signature sig = (Signature) oarray[0];
-                    int seq = (int) oarray[1];
-                    int i = lastResult.getLastIndex() - sig.seqEndPos[seq];
+    /**
+     * Scans [start, end) of the item in segments by several threads. Each segment
+     * scan begins maxPatternLen - 1 bytes before the segment, so the automaton
+     * reaches the same state a sequential scan would have, and keeps only hits
+     * ending inside the segment. Hits are then passed to carvers segment by
+     * segment in offset order, by this thread, so carvers see exactly the same
+     * hits of a sequential scan, including the ones of split signatures.
+     */
+    void findSigParallel(long start, long end, int segmentSize) throws Exception {
+        SplitSignatureHits[] splitHits = new SplitSignatureHits[carverTypes.length];
+        ExecutorService executor = getSegmentExecutor();
+        int maxPendingSegments = 2 * parallelCarvingThreads;
+        ArrayDeque<Future<SegmentHits>> pending = new ArrayDeque<>();
+        try {
+            long next = start;
+            while (next < end || !pending.isEmpty()) {
+                while (next < end && pending.size() < maxPendingSegments) {
+                    long segStart = next;
+                    long segEnd = Math.min(end, segStart + segmentSize);
+                    pending.add(executor.submit(() -> scanSegment(start, segStart, segEnd)));
+                    next = segEnd;
+                }
+                SegmentHits hits;
+                try {
+                    hits = pending.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                for (int h = 0; h < hits.size; h++) {
+                    int out = hits.outputIds[h];
+                    Signature sig = outputSigs[out];
+                    int seq = outputSeqs[out];
+                    long off = hits.ends[h] - sig.seqEndPos[seq];
 
-                    // tratamento para assinaturas com ? (divididas)
                     if (sig.seqs.length > 1) {
-                        Integer hits = (Integer) map.get(sig.getCarverType()).get(prevLen + i);
-                        if (hits == null) {
-                            hits = 0;
-                        }
-                        if (hits != seq) {
-                            continue;
-                        }
-                        map.get(sig.getCarverType()).put(prevLen + i, ++hits);
-                        if (map.get(sig.getCarverType()).size() > largestPatternLen) {
-                            map.get(sig.getCarverType()).remove(map.get(sig.getCarverType()).firstKey());
+                        SplitSignatureHits splitSigHits = splitHits[outputTypes[out]];
+                        if (splitSigHits == null) {
+                            splitSigHits = splitHits[outputTypes[out]] = new SplitSignatureHits();
                         }
-
-                        if (hits < sig.seqs.length) {
+                        int seqHits = splitSigHits.addSequence(off, seq);
+                        if (seqHits == -1 || seqHits < sig.seqs.length) {
                             continue;
                         }
                     }
 
-                    Hit hit = null;
-                    hit = new Hit(sig, prevLen + i);
+                    notifyHit(sig, off);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        } finally {
+            for (Future<SegmentHits> future : pending) {
+                future.cancel(true);
+            }
+        }
 
-                    Carver carver = getCarver(sig.getCarverType());
+        notifyEnd();
+    }
 
-                    try {
-                        carver.notifyHit(this.evidence, hit);
-                    } catch (Exception e) {
-                        LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
-                                Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
-                                carver.getClass().getName());
-                        e.printStackTrace();
+    private SegmentHits scanSegment(long itemStart, long segStart, long segEnd) throws IOException {
+        SegmentHits segmentHits = new SegmentHits();
+        HitQueue hits = new HitQueue();
+        byte[] buf = segmentBuffer.get();
+        long pos = Math.max(itemStart, segStart - (maxPatternLen - 1));
+        int state = compiledTree.getInitialState();
+        try (SeekableInputStream in = openSegmentStream()) {
+            in.seek(pos);
+            while (pos < segEnd) {
+                int len = (int) Math.min(buf.length, segEnd - pos);
+                int read = 0, i = 0;
+                while (i != -1 && read < len) {
+                    i = in.read(buf, read, len - read);
+                    if (i > 0) {
+                        read += i;
+                    }
+                }
+                if (read == 0) {
+                    break;
+                }
+                hits.clear();
+                state = compiledTree.scan(buf, 0, read, state, hits);
+                for (int h = 0; h < hits.size(); h++) {
+                    long hitEnd = pos + hits.getEnd(h);
+                    if (hitEnd > segStart) {
+                        segmentHits.add(hitEnd, hits.getOutputId(h));
                     }
                 }
+                pos += read;
+                if (i == -1 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
             }
+        }
+        return segmentHits;
+    }
 
-        } while (k != -1);
+    SeekableInputStream openSegmentStream() throws IOException {
+        return evidence.getSeekableInputStream();
+    }
 
-        for (Carver carver : registeredCarvers.values()) {
-            carver.notifyEnd(this.evidence);
+    private static synchronized ExecutorService getSegmentExecutor() {
+        if (segmentExecutor == null) {
+            segmentExecutor = Executors.newFixedThreadPool(parallelCarvingThreads, r -> {
+                Thread t = new Thread(r, "CarvingSegmentScanner"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
         }
+        return segmentExecutor;
+    }
 
-        return null;
+    /**
+     * Hits found in a segment, with absolute end offsets in the item.
+     */
+    private static class SegmentHits {
+
+        private long[] ends = new long[64];
+        private int[] outputIds = new int[64];
+        private int size = 0;
+
+        private void add(long end, int outputId) {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+                outputIds = Arrays.copyOf(outputIds, size * 2);
+            }
+            ends[size] = end;
+            outputIds[size++] = outputId;
+        }
     }
 
     @Override
@@ -230,8 +386,80 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         if (carverConfig == null) {
             carverConfig = ctConfig.getConfiguration();
             carverConfig.configListener(carvedItemListener);
-            carverTypes = carverConfig.getCarverTypes();
             ignoreCorrupted = carverConfig.isToIgnoreCorrupted();
+            compileTree(carverConfig.getCarverTypes(), carverConfig.getPopulatedTree(),
+                    ctConfig.getConfiguration().getParallelCarvingThreads());
+            parallelCarvingMinSize = ctConfig.getConfiguration().getParallelCarvingMinSizeMB() * (1L << 20);
+        }
+    }
+
+    static void compileTree(CarverType[] types, AhoCorasick tree, int threads) {
+        carverTypes = types;
+        parallelCarvingThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        HashMap<CarverType, Integer> typeIndex = new HashMap<>();
+        for (int i = 0; i < carverTypes.length; i++) {
+            typeIndex.put(carverTypes[i], i);
+        }
+        CompiledAhoCorasick compiled = tree.compile();
+        int numOutputs = compiled.getNumOutputs();
+        outputSigs = new Signature[numOutputs];
+        outputSeqs = new int[numOutputs];
+        outputTypes = new int[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            Object[] oarray = (Object[]) compiled.getOutput(i);
+            outputSigs[i] = (Signature) oarray[0];
+            outputSeqs[i] = (int) oarray[1];
+            outputTypes[i] = typeIndex.get(outputSigs[i].getCarverType());
+            maxPatternLen = Math.max(maxPatternLen, outputSigs[i].seqs[outputSeqs[i]].length);
+        }
+        compiledTree = compiled;
+    }
+
+    /**
+     * Sequences of signatures with ? (split signatures) found at the most recent
+     * offsets of a carver type. Kept in small arrays, since the number of offsets
+     * is limited to largestPatternLen.
+     */
+    private static class SplitSignatureHits {
+
+        private final long[] offsets = new long[largestPatternLen + 1];
+        private final int[] counts = new int[largestPatternLen + 1];
+        private int size = 0;
+
+        /**
+         * @return number of sequences found at offset, including this one, or -1 if
+         *         seq is not the next expected sequence at offset.
+         */
+        private int addSequence(long offset, int seq) {
+            int idx = -1;
+            for (int j = 0; j < size; j++) {
+                if (offsets[j] == offset) {
+                    idx = j;
+                    break;
+                }
+            }
+            int hits = idx == -1 ? 0 : counts[idx];
+            if (hits != seq) {
+                return -1;
+            }
+            if (idx == -1) {
+                idx = size++;
+                offsets[idx] = offset;
+            }
+            counts[idx] = ++hits;
+            if (size > largestPatternLen) {
+                // removes the lowest offset
+                int min = 0;
+                for (int j = 1; j < size; j++) {
+                    if (offsets[j] < offsets[min]) {
+                        min = j;
+                    }
+                }
+                size--;
+                offsets[min] = offsets[size];
+                counts[min] = counts[size];
+            }
+            return hits;
         }
     }
 
@@ -39,6 +39,8 @@ public class XMLCarverConfiguration implements CarverConfiguration, Serializable
 
     private ArrayList<String> originalXmls = new ArrayList<>();
     private boolean ignoreCorrupted = true;
+    private int parallelCarvingMinSizeMB = 1024;
+    private int parallelCarvingThreads = 0;
     protected HashSet<MediaType> TYPES_TO_PROCESS;
     protected HashSet<String> TYPES_TO_NOT_PROCESS = new HashSet<String>();
     protected HashSet<MediaType> TYPES_TO_CARVE = new HashSet<MediaType>();
@@ -87,6 +89,16 @@ public void loadXMLConfigFile(File confFile) throws IOException {
             NodeList ignoreCorruptedEls = root.getElementsByTagName("ignoreCorrupted");
             ignoreCorrupted = Boolean.valueOf(ignoreCorruptedEls.item(0).getTextContent().trim());
 
+            NodeList minSizeEls = root.getElementsByTagName("parallelCarvingMinSizeMB");
+            if (minSizeEls.getLength() > 0) {
+                parallelCarvingMinSizeMB = Integer.parseInt(minSizeEls.item(0).getTextContent().trim());
+            }
+
+            NodeList threadsEls = root.getElementsByTagName("parallelCarvingThreads");
+            if (threadsEls.getLength() > 0) {
+                parallelCarvingThreads = Integer.parseInt(threadsEls.item(0).getTextContent().trim());
+            }
+
             NodeList carversEls = root.getElementsByTagName("carverTypes");
             for (int i = 0; i < carversEls.getLength(); i++) {
                 Element carverEls = (Element) carversEls.item(i);
@@ -295,6 +307,21 @@ public boolean isToIgnoreCorrupted() {
         return this.ignoreCorrupted;
     }
 
+    /**
+     * @return min size of items scanned in parallel segments, 0 if disabled
+     */
+    public int getParallelCarvingMinSizeMB() {
+        return parallelCarvingMinSizeMB;
+    }
+
+    /**
+     * @return number of threads scanning segments, 0 to use the number of
+     *         processors
+     */
+    public int getParallelCarvingThreads() {
+        return parallelCarvingThreads;
+    }
+
     @Override
     public String toString() {
         return originalXmls.toString().replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
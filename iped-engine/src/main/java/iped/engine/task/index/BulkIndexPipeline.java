@@ -0,0 +1,383 @@
+package iped.engine.task.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends documents to a remote index in bulk requests. Processing workers add
+ * documents already serialized to a queue bounded by size, so they block if the
+ * remote index is slower than processing. Sender threads take documents from
+ * the queue and send concurrent bulk requests.
+ *
+ * The bulk size is adapted to the observed latency: it grows while requests
+ * complete fast and shrinks when they get slower than the target latency, so
+ * the remote cluster is not overloaded by huge requests.
+ *
+ * @param <T>
+ *            document type
+ */
+public class BulkIndexPipeline<T> implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(BulkIndexPipeline.class);
+
+    /**
+     * Time to wait for more documents before sending an incomplete bulk.
+     */
+    private static final long LINGER_MILLIS = 100;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    @FunctionalInterface
+    public interface BulkSender<T> {
+
+        /**
+         * Sends one bulk request.
+         *
+         * @throws IOException
+         *             if the request or some document failed, then the whole bulk
+         *             is retried
+         */
+        void send(List<T> docs) throws IOException;
+    }
+
+    public static class Config {
+
+        int senderThreads = 4;
+        long minBulkBytes = 1 << 20;
+        long maxBulkBytes = 1 << 25;
+        int minBulkItems = 1000;
+        long targetLatencyMillis = 5000;
+        int retries = 1;
+
+        /**
+         * @param senderThreads
+         *            number of concurrent bulk requests
+         */
+        public Config setSenderThreads(int senderThreads) {
+            this.senderThreads = Math.max(1, senderThreads);
+            return this;
+        }
+
+        /**
+         * @param minBulkBytes
+         *            initial and minimum size of bulks
+         * @param maxBulkBytes
+         *            maximum size of bulks
+         */
+        public Config setBulkBytes(long minBulkBytes, long maxBulkBytes) {
+            this.minBulkBytes = Math.max(1, minBulkBytes);
+            this.maxBulkBytes = Math.max(this.minBulkBytes, maxBulkBytes);
+            return this;
+        }
+
+        /**
+         * @param minBulkItems
+         *            number of documents of bulks with the minimum size, it grows
+         *            in proportion to the bulk size
+         */
+        public Config setMinBulkItems(int minBulkItems) {
+            this.minBulkItems = Math.max(1, minBulkItems);
+            return this;
+        }
+
+        public Config setTargetLatencyMillis(long targetLatencyMillis) {
+            this.targetLatencyMillis = targetLatencyMillis;
+            return this;
+        }
+
+        /**
+         * @param retries
+         *            times a failed bulk is sent again, -1 retries forever
+         */
+        public Config setRetries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+    }
+
+    private static class Doc<T> {
+
+        private final T doc;
+        private final long bytes;
+
+        private Doc(T doc, long bytes) {
+            this.doc = doc;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Config config;
+    private final BulkSender<T> sender;
+    private final LinkedBlockingQueue<Doc<T>> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> senderThreads = new ArrayList<>();
+    private final long maxQueuedBytes;
+
+    // guarded by this
+    private long queuedBytes = 0;
+    private long pendingDocs = 0;
+    private int flushing = 0;
+    private IOException exception;
+    private volatile boolean closed = false;
+
+    private volatile long bulkBytes;
+
+    // metrics
+    private final long startTime = System.nanoTime();
+    private final AtomicLong sentDocs = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong sentBulks = new AtomicLong();
+    private final AtomicLong retriedBulks = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+    public BulkIndexPipeline(String name, Config config, BulkSender<T> sender) {
+        this.config = config;
+        this.sender = sender;
+        this.bulkBytes = config.minBulkBytes;
+        this.maxQueuedBytes = 2 * config.senderThreads * config.maxBulkBytes;
+        for (int i = 0; i < config.senderThreads; i++) {
+            Thread thread = new Thread(this::sendLoop, name + "-BulkSender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            senderThreads.add(thread);
+        }
+    }
+
+    /**
+     * Adds a document to be sent, blocking while the queue is full.
+     *
+     * @param bytes
+     *            serialized size of the document
+     * @throws IOException
+     *             if some previous bulk failed after all retries
+     */
+    public void add(T doc, long bytes) throws IOException, InterruptedException {
+        synchronized (this) {
+            checkException();
+            if (closed) {
+                throw new IOException("Bulk pipeline already closed.");
+            }
+            // a document bigger than the queue is accepted when it is empty
+            while (flushing > 0 || (queuedBytes > 0 && queuedBytes + bytes > maxQueuedBytes)) {
+                this.wait();
+                checkException();
+            }
+            queuedBytes += bytes;
+            pendingDocs++;
+        }
+        queue.add(new Doc<>(doc, bytes));
+    }
+
+    /**
+     * Blocks until all documents added are sent. New documents are not accepted
+     * meanwhile, so it does not wait forever while workers keep adding documents.
+     *
+     * @throws IOException
+     *             if some bulk failed after all retries
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        flushing++;
+        try {
+            while (pendingDocs > 0 && exception == null) {
+                this.wait();
+            }
+        } finally {
+            flushing--;
+            this.notifyAll();
+        }
+        checkException();
+    }
+
+    private void checkException() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void sendLoop() {
+        List<Doc<T>> bulk = new ArrayList<>();
+        try {
+            while (true) {
+                Doc<T> doc = queue.poll(LINGER_MILLIS, TimeUnit.MILLISECONDS);
+                if (doc == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                long bytes = doc.bytes;
+                long maxBytes = bulkBytes;
+                long maxItems = config.minBulkItems * maxBytes / config.minBulkBytes;
+                bulk.add(doc);
+                while (bytes < maxBytes && bulk.size() < maxItems
+                        && (doc = queue.poll(LINGER_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    bulk.add(doc);
+                    bytes += doc.bytes;
+                }
+                synchronized (this) {
+                    queuedBytes -= bytes;
+                    this.notifyAll();
+                }
+                boolean full = bytes >= maxBytes || bulk.size() >= maxItems;
+                try {
+                    send(bulk, bytes, full);
+                } finally {
+                    synchronized (this) {
+                        pendingDocs -= bulk.size();
+                        this.notifyAll();
+                    }
+                    bulk.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closing
+        }
+    }
+
+    private void send(List<Doc<T>> bulk, long bytes, boolean full) throws InterruptedException {
+        List<T> docs = new ArrayList<>(bulk.size());
+        for (Doc<T> doc : bulk) {
+            docs.add(doc.doc);
+        }
+        int retriesLeft = config.retries;
+        for (int attempt = 1;; attempt++) {
+            long start = System.currentTimeMillis();
+            try {
+                sender.send(docs);
+                long latency = System.currentTimeMillis() - start;
+                updateMetrics(docs.size(), bytes, latency);
+                adaptBulkSize(latency, full);
+                return;
+
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    throw new InterruptedException();
+                }
+                if (retriesLeft == 0 || closed) {
+                    setException(e);
+                    return;
+                }
+                if (retriesLeft > 0) {
+                    retriesLeft--;
+                }
+                retriedBulks.incrementAndGet();
+                LOGGER.warn("Error sending bulk with {} documents, retrying: {}", docs.size(), e.toString());
+                // slower requests after errors, they may be caused by overload
+                adaptBulkSize(Long.MAX_VALUE, false);
+                Thread.sleep(Math.min(MAX_RETRY_DELAY_MILLIS, 1000L * attempt));
+
+            } catch (Throwable e) {
+                // probably a bug, not retried, but the sender thread must not die
+                // silently, or flush() would not report the lost documents
+                LOGGER.error("Error sending bulk with " + docs.size() + " documents", e);
+                setException(new IOException(e));
+                return;
+            }
+        }
+    }
+
+    private synchronized void setException(IOException e) {
+        if (exception == null) {
+            exception = e;
+        }
+        this.notifyAll();
+    }
+
+    private void adaptBulkSize(long latencyMillis, boolean full) {
+        synchronized (senderThreads) {
+            if (latencyMillis > config.targetLatencyMillis) {
+                bulkBytes = Math.max(config.minBulkBytes, bulkBytes / 2);
+            } else if (full && latencyMillis < config.targetLatencyMillis / 2) {
+                bulkBytes = Math.min(config.maxBulkBytes, bulkBytes + bulkBytes / 4);
+            }
+        }
+    }
+
+    private void updateMetrics(int docs, long bytes, long latencyMillis) {
+        sentDocs.addAndGet(docs);
+        sentBytes.addAndGet(bytes);
+        sentBulks.incrementAndGet();
+        totalLatencyMillis.addAndGet(latencyMillis);
+        maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+    }
+
+    public long getSentDocs() {
+        return sentDocs.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getSentBulks() {
+        return sentBulks.get();
+    }
+
+    public long getRetriedBulks() {
+        return retriedBulks.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        long bulks = sentBulks.get();
+        return bulks == 0 ? 0 : totalLatencyMillis.get() / bulks;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    /**
+     * @return current bulk size in bytes, adapted to the latency
+     */
+    public long getBulkBytes() {
+        return bulkBytes;
+    }
+
+    public double getDocsPerSecond() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? sentDocs.get() / seconds : 0;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public String getStats() {
+        return String.format(
+                "%d docs in %d bulks (%d retried), %d MB, %.1f docs/s, latency avg %dms max %dms, bulk size %d KB",
+                getSentDocs(), getSentBulks(), getRetriedBulks(), getSentBytes() >> 20, getDocsPerSecond(),
+                getAverageLatencyMillis(), getMaxLatencyMillis(), getBulkBytes() >> 10);
+    }
+
+    /**
+     * Sends documents already added and stops the sender threads.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            try {
+                for (Thread thread : senderThreads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                senderThreads.forEach(Thread::interrupt);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -11,7 +11,6 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -21,7 +20,6 @@
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
-import org.opensearch.action.ActionListener;
 import org.opensearch.action.DocWriteRequest.OpType;
 import org.opensearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.opensearch.action.bulk.BulkItemResponse;
@@ -29,7 +27,6 @@
 import org.opensearch.action.bulk.BulkResponse;
 import org.opensearch.action.index.IndexRequest;
 import org.opensearch.action.support.master.AcknowledgedResponse;
-import org.opensearch.client.Cancellable;
 import org.opensearch.client.RequestOptions;
 import org.opensearch.client.Requests;
 import org.opensearch.client.RestClient;
@@ -101,19 +98,23 @@ public class ElasticSearchIndexTask extends AbstractTask {
 
     private static String user, password, indexName;
 
-    private BulkRequest bulkRequest = new BulkRequest();
+    private static BulkIndexPipeline<IndexDoc> pipeline;
 
-    private HashMap<String, String> idToPath = new HashMap<>();
-
-    private int numRequests = 0;
-
-    private int retries;
+    private char[] textBuf = new char[16 * 1024];
 
-    private AtomicBoolean onCommit = new AtomicBoolean();
+    /**
+     * Index request already serialized, with the item path for error messages.
+     */
+    private static class IndexDoc {
 
-    private char[] textBuf = new char[16 * 1024];
+        private final IndexRequest request;
+        private final String path;
 
-    private volatile IOException indexException = null;
+        private IndexDoc(IndexRequest request, String path) {
+            this.request = request;
+            this.path = path;
+        }
+    }
 
     @Override
     public boolean isEnabled() {
@@ -130,8 +131,6 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         taskInstances.add(this);
         elasticConfig = configurationManager.findObject(ElasticSearchTaskConfig.class);
 
-        retries = elasticConfig.getRetries();
-
         if (!(isEnabled = elasticConfig.isEnabled())) {
             return;
         }
@@ -198,6 +197,14 @@ public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpCli
             throw new IPEDException("ElasticSearch index does not exist: " + indexName);
         }
 
+        BulkIndexPipeline.Config pipelineConfig = new BulkIndexPipeline.Config()
+                .setSenderThreads(elasticConfig.getMax_async_requests())
+                .setBulkBytes(elasticConfig.getMin_bulk_size(), elasticConfig.getMax_bulk_size())
+                .setMinBulkItems(elasticConfig.getMin_bulk_items())
+                .setTargetLatencyMillis(elasticConfig.getTarget_bulk_latency_millis())
+                .setRetries(elasticConfig.getRetries());
+        pipeline = new BulkIndexPipeline<>("ElasticSearch", pipelineConfig, ElasticSearchIndexTask::sendBulkRequest);
+
     }
 
     private void parseCmdLineFields(String cmdFields) {
@@ -321,38 +328,34 @@ private void createFieldMappings(String indexName) throws IOException {
     }
 
     public static void commit() throws IOException, InterruptedException {
-        if (!isEnabled)
+        if (!isEnabled || pipeline == null)
             return;
         UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", "Commiting to ElasticSearch...");
-        for (ElasticSearchIndexTask instance : taskInstances) {
-            LOGGER.info("Commiting Worker-" + instance.worker.id + " ElasticSearchTask..."); //$NON-NLS-1$ //$NON-NLS-2$
-            instance.onCommit.set(true);
-            instance.sendBulkRequest();
-        }
-        for (ElasticSearchIndexTask instance : taskInstances) {
-            synchronized (instance) {
-                while (instance.numRequests > 0) {
-                    instance.wait();
-                }
-                instance.onCommit.set(false);
-                instance.notifyAll();
-                if (instance.indexException != null) {
-                    throw instance.indexException;
-                }
-            }
-        }
-
+        LOGGER.info("Commiting ElasticSearchTask..."); //$NON-NLS-1$
+        pipeline.flush();
+        LOGGER.info("ElasticSearch indexing: " + pipeline.getStats()); //$NON-NLS-1$
     }
 
     @Override
     public void finish() throws Exception {
-        if (indexException != null) {
-            throw indexException;
-        }
         if (!taskInstances.isEmpty()) {
-            commit();
             taskInstances.clear();
-            IOUtil.closeQuietly(client);
+            try {
+                commit();
+            } finally {
+                // closed even if commit failed, to stop its sender threads. Not using
+                // try-with-resources, close() rethrows the exception instance thrown by
+                // commit() and an exception can not suppress itself
+                try {
+                    if (pipeline != null) {
+                        pipeline.close();
+                    }
+                } finally {
+                    pipeline = null;
+                    IOUtil.closeQuietly(client);
+                    client = null;
+                }
+            }
         }
     }
 
@@ -376,14 +379,10 @@ private IndexRequest createIndexRequest(String id, String route, XContentBuilder
     }
 
     @Override
-    protected synchronized void process(IItem item) throws Exception {
+    protected void process(IItem item) throws Exception {
 
         Reader textReader = null;
 
-        if (indexException != null) {
-            throw indexException;
-        }
-
         if (!item.isToAddToCase()) {
             if (IndexTask.isTreeNodeOnly(item)) {
                 IndexTask.configureTreeNodeAttributes(item);
@@ -418,8 +417,7 @@ protected synchronized void process(IItem item) throws Exception {
             // creates the father;
             XContentBuilder jsonMetadata = getJsonMetadataBuilder(item);
             IndexRequest parentIndexRequest = createIndexRequest(parentId, parentId, jsonMetadata);
-            bulkRequest.add(parentIndexRequest);
-            idToPath.put(parentId, item.getPath());
+            addToPipeline(parentIndexRequest, item);
 
             do {
                 // used for children items in elastic to store text content
@@ -432,22 +430,10 @@ protected synchronized void process(IItem item) throws Exception {
                 // creates the request
                 IndexRequest contentRequest = createIndexRequest(contenttrackID, parentId, jsonContent);
 
-                bulkRequest.add(contentRequest);
-
-                idToPath.put(contenttrackID, item.getPath());
+                addToPipeline(contentRequest, item);
 
                 LOGGER.debug("Added to bulk request {}", item.getPath());
 
-                if (bulkRequest.estimatedSizeInBytes() >= elasticConfig.getMin_bulk_size()
-                        || bulkRequest.numberOfActions() >= elasticConfig.getMin_bulk_items()) {
-
-                    // do not send more requests while commit is going on
-                    while (this.onCommit.get()) {
-                        this.wait();
-                    }
-                    sendBulkRequest();
-                }
-
             } while (!Thread.currentThread().isInterrupted() && fragReader.nextFragment());
 
         } finally {
@@ -456,102 +442,50 @@ protected synchronized void process(IItem item) throws Exception {
 
     }
 
-    private synchronized void sendBulkRequest() throws IOException {
-        BulkRequest bulkRequest = this.bulkRequest;
-        HashMap<String, String> idToPath = this.idToPath;
-
-        this.bulkRequest = new BulkRequest();
-        this.idToPath = new HashMap<>();
+    /**
+     * Blocks while the pipeline queue is full, so processing does not get too
+     * ahead of ElasticSearch.
+     */
+    private void addToPipeline(IndexRequest request, IItem item) throws IOException, InterruptedException {
+        pipeline.add(new IndexDoc(request, item.getPath()), request.source().length());
+    }
 
-        if (bulkRequest.numberOfActions() == 0) {
-            return;
+    private static void sendBulkRequest(List<IndexDoc> docs) throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        HashMap<String, String> idToPath = new HashMap<>();
+        for (IndexDoc doc : docs) {
+            bulkRequest.add(doc.request);
+            idToPath.put(doc.request.id(), doc.path);
         }
+        BulkResponse response;
         try {
-            numRequests++;
-            while (numRequests > elasticConfig.getMax_async_requests()) {
-                this.wait();
-            }
-            Cancellable cancellable = client.bulkAsync(bulkRequest, RequestOptions.DEFAULT,
-                    new BulkResponseListener(idToPath, bulkRequest, retries));
+            response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
 
         } catch (Exception e) {
             LOGGER.error("Error indexing to ElasticSearch " + bulkRequest.getDescription(), e);
-            throw new IOException("Error indexing to ElasticSearch" + bulkRequest.getDescription());
-        }
-    }
-
-    private class BulkResponseListener implements ActionListener<BulkResponse> {
-
-        HashMap<String, String> idPathMap;
-        BulkRequest bulkRequest;
-        int retries_left;
-        private BulkResponseListener(HashMap<String, String> itemMap, BulkRequest bulkRequest, int retries) {
-            this.idPathMap = itemMap;
-            this.bulkRequest = bulkRequest;
-            this.retries_left = retries;
-        }
-
-        private void retryOrError(IOException temp) {
-            if (temp != null) {
-                if (retries_left > 0 | retries_left == -1) {
-                    if (retries_left > 0) {
-                        retries_left--;
-                    }
-                    Cancellable cancellable = client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, this);
-                } else {
-                    notifyWaitingRequests();
-                    indexException = temp;
+            throw new IOException("Error indexing to ElasticSearch " + bulkRequest.getDescription(), e);
+        }
+        for (BulkItemResponse bulkItemResponse : response) {
+            if (bulkItemResponse.isFailed()) {
+                BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
+                String path = idToPath.get(bulkItemResponse.getId());
+                String msg = failure.getMessage();
+
+                // Some documents probable have already been indexed in previous attempts
+                if (msg.contains("document already exists")) {
+                    LOGGER.warn("Elastic failure result {}: {}", path, msg);
+                    continue;
                 }
-            } else {
-                notifyWaitingRequests();
-            }
-        }
 
-        @Override
-        public void onResponse(BulkResponse response) {
-
-            IOException temp = null;
-            for (BulkItemResponse bulkItemResponse : response) {
-                if (bulkItemResponse.isFailed()) {
-                    BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
-                    String path = idPathMap.get(bulkItemResponse.getId());
-                    String msg = failure.getMessage();
-
-                    // Some documents probable have already been indexed in previous attempts
-                    if (msg.contains("document already exists")) {
-                        LOGGER.warn("Elastic failure result {}: {}", path, msg);
-                        continue;
-                    }
+                LOGGER.error("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
 
-                    LOGGER.error("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
+                throw new IOException(String.format("Elastic failure result %s: %s", path, msg));
 
-                    temp = new IOException(String.format("Elastic failure result {}: {}", path, msg));
-
-                    break;
-
-                } else {
-                    LOGGER.debug("Elastic result {} {}", bulkItemResponse.getResponse().getResult(),
-                            idPathMap.get(bulkItemResponse.getId()));
-                }
-            }
-
-            retryOrError(temp);
-
-        }
-
-        @Override
-        public void onFailure(Exception e) {
-            LOGGER.error("Error indexing to ElasticSearch ", e);
-            retryOrError(new IOException("Error indexing to ElasticSearch ", e));
-        }
-
-        private void notifyWaitingRequests() {
-            synchronized (ElasticSearchIndexTask.this) {
-                numRequests--;
-                ElasticSearchIndexTask.this.notifyAll();
+            } else {
+                LOGGER.debug("Elastic result {} {}", bulkItemResponse.getResponse().getResult(),
+                        idToPath.get(bulkItemResponse.getId()));
             }
         }
-
     }
 
     public static final int[] convArrayListLongToInt(ArrayList<Long> nd) {
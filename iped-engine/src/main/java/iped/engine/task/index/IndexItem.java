@@ -477,6 +477,13 @@ private static void storeTimeStamps(Document doc, Set<TimeStampEvent> timeEventS
             if (prevTimeStamp != null && !tse.timeStamp.equals(prevTimeStamp)) {
                 addTimeStampEventGroup(doc, eventsSet, eventsList);
             }
+            if (!tse.timeStamp.equals(prevTimeStamp)) {
+                // one epoch per distinct timestamp, in the same order of timestamp ords
+                Long epoch = parseEpoch(tse.timeStamp);
+                if (epoch != null) {
+                    doc.add(new SortedNumericDocValuesField(ExtraProperties.TIME_EVENT_EPOCHS, epoch));
+                }
+            }
             eventsSet.add(tse.timeEvent);
             if (i == timeEventSet.size()) {
                 addTimeStampEventGroup(doc, eventsSet, eventsList);
@@ -502,6 +509,15 @@ private static void storeTimeStamps(Document doc, Set<TimeStampEvent> timeEventS
         doc.add(new BinaryDocValuesField(ExtraProperties.TIME_EVENT_ORDS, new BytesRef(indexes.toString())));
     }
 
+    private static Long parseEpoch(String timeStamp) {
+        try {
+            return DateUtil.stringToDate(timeStamp).getTime();
+        } catch (ParseException e) {
+            Date date = DateUtil.tryToParseDate(timeStamp);
+            return date != null ? date.getTime() : null;
+        }
+    }
+
     private static int indexOfObject(List<String> list, String o) {
         for (int i = 0; i < list.size(); i++) {
             if (list.get(i) == o) {
@@ -0,0 +1,237 @@
+package iped.engine.task.regex;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+/**
+ * Deterministic automaton recognizing the union of several patterns, where each
+ * accepting state is tagged with the patterns it accepts. It finds hits with
+ * the same leftmost longest semantics of a matcher over the union automaton,
+ * but also reports which patterns matched each hit, so there is no need to run
+ * every pattern again on each hit. Text is scanned directly from a char array,
+ * without copying it to a String.
+ */
+public class MultiPatternAutomaton implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public interface HitHandler {
+        /**
+         * @param start
+         *            hit start offset in the array
+         * @param end
+         *            hit end offset (exclusive) in the array
+         * @param patterns
+         *            indexes of the patterns accepting the hit, in increasing
+         *            order. Must not be modified.
+         */
+        void hit(int start, int end, int[] patterns);
+    }
+
+    private final int numClasses;
+
+    private final int[] classmap;
+
+    private final int[] transitions;
+
+    private final int[][] accepts;
+
+    /**
+     * @param automata
+     *            patterns, the index of each one in the list is reported on hits.
+     */
+    public MultiPatternAutomaton(List<Automaton> automata) {
+
+        // number all states of all patterns and collect the alphabet partition
+        List<int[]> stateTransitions = new ArrayList<>();
+        List<Boolean> stateAccept = new ArrayList<>();
+        List<Integer> statePattern = new ArrayList<>();
+        int[] initialStates = new int[automata.size()];
+        TreeSet<Character> pointSet = new TreeSet<>();
+        pointSet.add(Character.MIN_VALUE);
+        for (int i = 0; i < automata.size(); i++) {
+            Automaton a = automata.get(i);
+            if (!a.isDeterministic()) {
+                a = a.clone();
+                a.determinize();
+            }
+            Map<State, Integer> stateIds = new HashMap<>();
+            List<State> states = new ArrayList<>();
+            stateIds.put(a.getInitialState(), statePattern.size());
+            states.add(a.getInitialState());
+            initialStates[i] = statePattern.size();
+            for (int j = 0; j < states.size(); j++) {
+                State s = states.get(j);
+                for (Transition t : s.getTransitions()) {
+                    if (!stateIds.containsKey(t.getDest())) {
+                        stateIds.put(t.getDest(), statePattern.size() + states.size());
+                        states.add(t.getDest());
+                    }
+                }
+            }
+            for (State s : states) {
+                int[] trans = new int[s.getTransitions().size() * 3];
+                int n = 0;
+                for (Transition t : s.getTransitions()) {
+                    pointSet.add(t.getMin());
+                    if (t.getMax() < Character.MAX_VALUE) {
+                        pointSet.add((char) (t.getMax() + 1));
+                    }
+                    trans[n++] = t.getMin();
+                    trans[n++] = t.getMax();
+                    trans[n++] = stateIds.get(t.getDest());
+                }
+                stateTransitions.add(trans);
+                stateAccept.add(s.isAccept());
+                statePattern.add(i);
+            }
+        }
+        int numStates = statePattern.size();
+        char[] points = new char[pointSet.size()];
+        int k = 0;
+        for (Character c : pointSet) {
+            points[k++] = c;
+        }
+        numClasses = points.length;
+        classmap = new int[Character.MAX_VALUE + 1];
+        for (int c = 0, cls = 0; c <= Character.MAX_VALUE; c++) {
+            if (cls + 1 < points.length && c == points[cls + 1]) {
+                cls++;
+            }
+            classmap[c] = cls;
+        }
+
+        // transitions of the individual patterns by character class
+        int[][] step = new int[numStates][numClasses];
+        for (int s = 0; s < numStates; s++) {
+            Arrays.fill(step[s], -1);
+            int[] trans = stateTransitions.get(s);
+            for (int t = 0; t < trans.length; t += 3) {
+                for (int cls = Arrays.binarySearch(points, (char) trans[t]); cls < numClasses
+                        && points[cls] <= trans[t + 1]; cls++) {
+                    step[s][cls] = trans[t + 2];
+                }
+            }
+        }
+        stateTransitions = null;
+
+        // subset construction, each tagged state is a sorted set of pattern states
+        Map<StateSet, Integer> dstates = new HashMap<>();
+        List<int[]> dstateList = new ArrayList<>();
+        StateSet initial = new StateSet(initialStates);
+        dstates.put(initial, 0);
+        dstateList.add(initialStates);
+        int[] trans = new int[numClasses * 16];
+        int[] buf = new int[numStates];
+        for (int d = 0; d < dstateList.size(); d++) {
+            int[] set = dstateList.get(d);
+            if ((d + 1) * numClasses > trans.length) {
+                trans = Arrays.copyOf(trans, trans.length * 2);
+            }
+            for (int cls = 0; cls < numClasses; cls++) {
+                int n = 0;
+                for (int s : set) {
+                    int dest = step[s][cls];
+                    if (dest != -1) {
+                        buf[n++] = dest;
+                    }
+                }
+                int target = -1;
+                if (n > 0) {
+                    // states of different patterns are disjoint and each pattern is deterministic
+                    int[] destSet = Arrays.copyOf(buf, n);
+                    Arrays.sort(destSet);
+                    StateSet key = new StateSet(destSet);
+                    Integer id = dstates.get(key);
+                    if (id == null) {
+                        id = dstateList.size();
+                        dstates.put(key, id);
+                        dstateList.add(destSet);
+                    }
+                    target = id;
+                }
+                trans[d * numClasses + cls] = target;
+            }
+        }
+        transitions = Arrays.copyOf(trans, dstateList.size() * numClasses);
+
+        accepts = new int[dstateList.size()][];
+        for (int d = 0; d < dstateList.size(); d++) {
+            int n = 0;
+            for (int s : dstateList.get(d)) {
+                if (stateAccept.get(s)) {
+                    buf[n++] = statePattern.get(s);
+                }
+            }
+            if (n > 0) {
+                accepts[d] = Arrays.copyOf(buf, n);
+                Arrays.sort(accepts[d]);
+            }
+        }
+    }
+
+    private static class StateSet {
+
+        private final int[] states;
+        private final int hash;
+
+        private StateSet(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StateSet && Arrays.equals(states, ((StateSet) obj).states);
+        }
+    }
+
+    public int getNumberOfStates() {
+        return accepts.length;
+    }
+
+    /**
+     * Finds non overlapping hits in the text, from left to right, choosing the
+     * longest hit starting at each position. Empty hits are not reported.
+     */
+    public void find(char[] text, int off, int len, HitHandler handler) {
+        int end = off + len;
+        int begin = off;
+        while (begin < end) {
+            int state = 0;
+            int matchEnd = -1;
+            int[] matchPatterns = null;
+            for (int i = begin; i < end; i++) {
+                state = transitions[state * numClasses + classmap[text[i]]];
+                if (state == -1) {
+                    break;
+                }
+                if (accepts[state] != null) {
+                    matchEnd = i + 1;
+                    matchPatterns = accepts[state];
+                }
+            }
+            if (matchEnd != -1) {
+                handler.hit(begin, matchEnd, matchPatterns);
+                begin = matchEnd;
+            } else {
+                begin++;
+            }
+        }
+    }
+
+}
@@ -28,11 +28,8 @@
 import org.slf4j.LoggerFactory;
 
 import dk.brics.automaton.Automaton;
-import dk.brics.automaton.AutomatonMatcher;
-import dk.brics.automaton.BasicOperations;
 import dk.brics.automaton.DatatypesAutomatonProvider;
 import dk.brics.automaton.RegExp;
-import dk.brics.automaton.RunAutomaton;
 import iped.configuration.Configurable;
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
@@ -51,13 +48,16 @@ public class RegexTask extends AbstractTask {
 
     private static final int MAX_RESULTS = 50000; // OOME protection for files with tons of hits
 
+    // change when the cached automata format changes
+    private static final int CACHE_VERSION = 2;
+
     private static Logger logger = LoggerFactory.getLogger(RegexTask.class);
 
     private static final File cacheFile = new File(System.getProperty("user.home"), ".iped/regexAutomata.cache");
 
     private static List<Regex> regexList;
 
-    private static Regex regexFull;
+    private static MultiPatternAutomaton multiPatternAutomaton;
 
     private static FSTConfiguration fastSerializer = FSTConfiguration.createDefaultConfiguration();
 
@@ -67,6 +67,11 @@ public class RegexTask extends AbstractTask {
 
     private RegexTaskConfig regexConfig;
 
+    // hits of the current item by regex index, reused between items
+    private List<Map<String, RegexHits>> hitMaps;
+
+    private boolean[] maxHitsReached;
+
     static class Regex implements Serializable {
 
         /**
@@ -77,7 +82,6 @@ static class Regex implements Serializable {
         String name;
         int prefix, sufix;
         Automaton automaton;
-        RunAutomaton pattern;
         boolean ignoreCases;
 
         public Regex(String name, int prefix, int sufix, boolean ignoreCases, boolean ignoreDiacritics, String regex) {
@@ -100,7 +104,6 @@ public Regex(String name, Automaton aut, boolean ignoreCases, boolean ignoreDiac
             this.ignoreCases = ignoreCases;
             this.name = name;
             this.automaton = aut;
-            this.pattern = new RunAutomaton(aut);
         }
     }
 
@@ -178,9 +181,9 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 for (Regex regex : regexList) {
                     automatonList.add(regex.automaton);
                 }
-                Automaton automata = BasicOperations.union(automatonList);
-                regexFull = new Regex("FULL", automata); //$NON-NLS-1$
-                logger.info("Created the unique automaton for all regexes.");
+                multiPatternAutomaton = new MultiPatternAutomaton(automatonList);
+                logger.info("Created the multi-pattern automaton for all regexes with {} states.",
+                        multiPatternAutomaton.getNumberOfStates());
 
                 writeCache(regexConfig, exportConfig);
                 logger.info("Regex cache saved to {}", cacheFile.getAbsolutePath());
@@ -189,6 +192,14 @@ public void init(ConfigurationManager configurationManager) throws Exception {
             initValidators(new File(output, "scripts"));
         }
 
+        if (regexConfig.isEnabled()) {
+            hitMaps = new ArrayList<>(regexList.size());
+            for (int i = 0; i < regexList.size(); i++) {
+                hitMaps.add(new HashMap<>());
+            }
+            maxHitsReached = new boolean[regexList.size()];
+        }
+
     }
 
     private void writeCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig exportConfig) throws IOException {
@@ -197,7 +208,7 @@ private void writeCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig expo
                 DataOutputStream dos = new DataOutputStream(bos)) {
             byte[] md5 = getMd5FromConfigs(regexConfig, exportConfig);
             byte[] list = fastSerializer.asByteArray(regexList);
-            byte[] full = fastSerializer.asByteArray(regexFull);
+            byte[] full = fastSerializer.asByteArray(multiPatternAutomaton);
             dos.write(md5);
             dos.writeInt(list.length);
             dos.write(list);
@@ -226,7 +237,7 @@ private boolean loadCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig ex
             int fullLen = dis.readInt();
             byte[] full = new byte[fullLen];
             dis.readFully(full);
-            regexFull = (Regex) fastSerializer.asObject(full);
+            multiPatternAutomaton = (MultiPatternAutomaton) fastSerializer.asObject(full);
             return true;
         }
     }
@@ -235,6 +246,7 @@ private byte[] getMd5FromConfigs(RegexTaskConfig regexConfig, ExportByKeywordsCo
             throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeInt(CACHE_VERSION);
             oos.writeObject(regexConfig);
             oos.writeObject(exportConfig);
         }
@@ -250,7 +262,7 @@ private synchronized void initValidators(File confDir) {
 
     @Override
     public void finish() throws Exception {
-        regexFull = null;
+        multiPatternAutomaton = null;
         regexList = null;
     }
 
@@ -261,13 +273,18 @@ protected void process(IItem item) throws Exception {
         if (evidence.getTextCache() == null || !evidence.isToAddToCase())
             return;
 
-        try (Reader reader = evidence.getTextReader()) {
-            processRegex(evidence, reader);
-        }
+        try {
+            try (Reader reader = evidence.getTextReader()) {
+                processRegex(evidence, reader);
+            }
 
-        processRegex(evidence, new StringReader(evidence.getName()));
-        
-        processRegex(evidence, getExtraAttributeReader(evidence));
+            processRegex(evidence, new StringReader(evidence.getName()));
+
+            processRegex(evidence, getExtraAttributeReader(evidence));
+
+        } finally {
+            setHitsAttributes(evidence);
+        }
     }
 
     private Reader getExtraAttributeReader(IItem item) {
@@ -281,7 +298,6 @@ private Reader getExtraAttributeReader(IItem item) {
         return new StringReader(sb.toString());
     }
 
-    @SuppressWarnings("unchecked")
     private void processRegex(IItem evidence, Reader reader) throws IOException {
 
         int k = 0;
@@ -292,68 +308,77 @@ private void processRegex(IItem evidence, Reader reader) throws IOException {
             while (k != -1 && (off += k) < cbuf.length)
                 k = reader.read(cbuf, off, cbuf.length - off);
 
-            String text = new String(cbuf, 0, off);
+            final long chunkOffset = totalOffset;
+            multiPatternAutomaton.find(cbuf, 0, off, (start, end, patterns) -> addHit(start, end, patterns, chunkOffset));
 
-            List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
-            for (int i = 0; i < regexList.size(); i++) {
-                hitList.add(new HashMap<>());
-            }
+            totalOffset += off;
+        }
+    }
 
-            AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
-            while (fullMatcher.find()) {
-                int start = fullMatcher.start();
-                int end = fullMatcher.end();
-                String hit = text.substring(start, end);
-                int i = 0;
-                for (Regex regex : regexList) {
-                    if (regex.pattern.run(hit)) {
-                        hit = hit.substring(regex.prefix, hit.length() - regex.sufix);
-                        if (regex.ignoreCases)
-                            hit = hit.toLowerCase();
-                        if (regexValidator.validate(regex, hit)) {
-                            if (regexConfig.isFormatRegexMatches()) {
-                                hit = regexValidator.format(regex, hit);
-                            }
-                            Map<String, RegexHits> hitMap = hitList.get(i);
-                            RegexHits hits = hitMap.get(hit);
-                            if (hits == null) {
-                                hits = new RegexHits(hit);
-                                hitMap.put(hit, hits);
-                            }
-                            hits.addOffset(totalOffset + start + regex.prefix);
-                        }
+    private void addHit(int start, int end, int[] patterns, long chunkOffset) {
+        String text = new String(cbuf, start, end - start);
+        for (int i : patterns) {
+            Regex regex = regexList.get(i);
+            if (text.length() < regex.prefix + regex.sufix) {
+                continue;
+            }
+            String hit = text.substring(regex.prefix, text.length() - regex.sufix);
+            if (regex.ignoreCases)
+                hit = hit.toLowerCase();
+            if (regexValidator.validate(regex, hit)) {
+                if (regexConfig.isFormatRegexMatches()) {
+                    hit = regexValidator.format(regex, hit);
+                }
+                Map<String, RegexHits> hitMap = hitMaps.get(i);
+                RegexHits hits = hitMap.get(hit);
+                if (hits == null) {
+                    if (hitMap.size() >= MAX_RESULTS) {
+                        maxHitsReached[i] = true;
+                        continue;
                     }
-                    i++;
+                    hits = new RegexHits(hit);
+                    hitMap.put(hit, hits);
                 }
+                hits.addOffset(chunkOffset + start + regex.prefix);
             }
-            for (int i = 0; i < regexList.size(); i++) {
-                if (hitList.get(i).size() > 0) {
-                    String key = REGEX_PREFIX + regexList.get(i).name;
-                    Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
-                    Map<String, RegexHits> hitsMap = hitList.get(i);
-                    if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
-                        evidence.setExtraAttribute(key, hitsMap.values());
-                    } else {
-                        if (prevHits.size() >= MAX_RESULTS) {
-                            evidence.setExtraAttribute("maxHitsReached" + key, "true");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setHitsAttributes(IItem evidence) {
+        for (int i = 0; i < regexList.size(); i++) {
+            Map<String, RegexHits> hitsMap = hitMaps.get(i);
+            String key = REGEX_PREFIX + regexList.get(i).name;
+            if (maxHitsReached[i]) {
+                evidence.setExtraAttribute("maxHitsReached" + key, "true");
+                maxHitsReached[i] = false;
+            }
+            if (hitsMap.isEmpty()) {
+                continue;
+            }
+            Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
+            if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
+                evidence.setExtraAttribute(key, new ArrayList<>(hitsMap.values()));
+            } else {
+                if (prevHits.size() >= MAX_RESULTS) {
+                    evidence.setExtraAttribute("maxHitsReached" + key, "true");
+                } else {
+                    for (RegexHits hits : prevHits) {
+                        RegexHits prev = hitsMap.get(hits.getHit());
+                        if (prev != null) {
+                            prev.addAll(hits.getOffsets());
                         } else {
-                            for (RegexHits hits : prevHits) {
-                                RegexHits prev = hitsMap.get(hits.getHit());
-                                if (prev != null) {
-                                    prev.addAll(hits.getOffsets());
-                                } else {
-                                    hitsMap.put(hits.getHit(), hits);
-                                }
-                            }
-                            evidence.setExtraAttribute(key, hitsMap.values());
+                            hitsMap.put(hits.getHit(), hits);
                         }
                     }
-
-                    if (regexList.get(i).name.equals(KEYWORDS_NAME))
-                        evidence.setToExtract(true);
+                    evidence.setExtraAttribute(key, new ArrayList<>(hitsMap.values()));
                 }
             }
-            totalOffset += off;
+
+            if (regexList.get(i).name.equals(KEYWORDS_NAME))
+                evidence.setToExtract(true);
+
+            hitsMap.clear();
         }
     }
 
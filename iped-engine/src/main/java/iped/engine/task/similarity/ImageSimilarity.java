@@ -7,6 +7,8 @@
 import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 
+import iped.engine.search.DistanceKernels;
+
 public class ImageSimilarity {
     public static final int maxDim = 256;
 
@@ -294,20 +296,17 @@ private void calcEdges() {
     }
 
     public static int distance(byte[] a, byte[] b) {
-        int distance = 0;
-        for (int i = 4; i < a.length; i++) {
-            int d = a[i] - b[i];
-            distance += d * d;
-        }
-        return distance;
+        return distance(a, b, 0, Integer.MAX_VALUE);
     }
 
     public static int distance(byte[] a, byte[] b, int cut) {
-        int distance = 0;
-        for (int i = 4; i < a.length && distance < cut;) {
-            int d = a[i] - b[i++];
-            distance += d * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d;
-        }
-        return distance;
+        return distance(a, b, 0, cut);
+    }
+
+    /**
+     * Distance between features a and features stored in b from offset bOffset.
+     */
+    public static int distance(byte[] a, byte[] b, int bOffset, int cut) {
+        return DistanceKernels.squaredDistance(a, 4, b, bOffset + 4, a.length - 4, cut);
     }
 }
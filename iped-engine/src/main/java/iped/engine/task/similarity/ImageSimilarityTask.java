@@ -2,6 +2,9 @@
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -9,6 +12,16 @@
 
 import javax.imageio.ImageIO;
 
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.tika.mime.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,7 +30,9 @@
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
+import iped.engine.search.ImageSimilarityIndex;
 import iped.engine.task.AbstractTask;
+import iped.engine.task.index.IndexItem;
 
 /**
  * Image Similarity task.
@@ -28,8 +43,12 @@ public class ImageSimilarityTask extends AbstractTask {
 
     public static final String enableParam = "enableImageSimilarity"; //$NON-NLS-1$
 
+    public static final String nearDuplicateBookmarksParam = "enableNearDuplicateImagesBookmarks"; //$NON-NLS-1$
+
     public static final String IMAGE_FEATURES = "imageFeatures"; //$NON-NLS-1$
 
+    public static final String SIMILARITY_INDEX_FILE = "data/imageSimilarityIndex.dat"; //$NON-NLS-1$
+
     private static boolean taskEnabled = false;
     private static final AtomicBoolean init = new AtomicBoolean(false);
     private static final AtomicBoolean finished = new AtomicBoolean(false);
@@ -52,7 +71,7 @@ public static void setEnabled(boolean enabled) {
 
     @Override
     public List<Configurable<?>> getConfigurables() {
-        return Arrays.asList(new EnableTaskProperty(enableParam));
+        return Arrays.asList(new EnableTaskProperty(enableParam), new EnableTaskProperty(nearDuplicateBookmarksParam));
     }
 
     public void init(ConfigurationManager configurationManager) throws Exception {
@@ -116,6 +135,87 @@ protected void process(IItem evidence) throws Exception {
         }
     }
 
+    /**
+     * Creates the image similarity index of a case, used to speed up similar
+     * images searches. Must be called after the case index is closed.
+     */
+    public static void createSimilarityIndex(File moduleDir, File indexDir) {
+        File file = new File(moduleDir, SIMILARITY_INDEX_FILE);
+        try (Directory directory = FSDirectory.open(indexDir.toPath());
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            long t = System.currentTimeMillis();
+            int size = ImageSimilarityIndex.write(new FeatureSource(reader), reader.getVersion(), file);
+            if (size == 0) {
+                file.delete();
+                return;
+            }
+            logger.info("Image similarity index created with {} images in {}ms", size, //$NON-NLS-1$
+                    System.currentTimeMillis() - t);
+
+        } catch (IOException e) {
+            logger.warn("Error creating image similarity index", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Iterates over the features of live documents of all index segments.
+     */
+    private static class FeatureSource implements ImageSimilarityIndex.FeatureSource {
+
+        private final List<LeafReaderContext> leaves;
+        private int leaf = -1;
+        private BinaryDocValues values;
+        private NumericDocValues idValues;
+        private Bits liveDocs;
+        private int id;
+        private byte[] features;
+
+        private FeatureSource(DirectoryReader reader) {
+            leaves = new ArrayList<>(reader.leaves());
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (true) {
+                if (values == null) {
+                    if (++leaf >= leaves.size()) {
+                        return false;
+                    }
+                    LeafReader leafReader = leaves.get(leaf).reader();
+                    values = leafReader.getBinaryDocValues(IMAGE_FEATURES);
+                    idValues = leafReader.getNumericDocValues(IndexItem.ID);
+                    liveDocs = leafReader.getLiveDocs();
+                    if (values == null || idValues == null) {
+                        values = null;
+                        continue;
+                    }
+                }
+                int doc = values.nextDoc();
+                if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                    values = null;
+                    continue;
+                }
+                if ((liveDocs != null && !liveDocs.get(doc)) || !idValues.advanceExact(doc)) {
+                    continue;
+                }
+                id = (int) idValues.longValue();
+                BytesRef bytesRef = values.binaryValue();
+                features = Arrays.copyOfRange(bytesRef.bytes, bytesRef.offset, bytesRef.offset + bytesRef.length);
+                return true;
+            }
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public byte[] getFeatures() {
+            return features;
+        }
+    }
+
     private static boolean isImageType(MediaType mediaType) {
         return mediaType.getType().equals("image"); //$NON-NLS-1$
     }
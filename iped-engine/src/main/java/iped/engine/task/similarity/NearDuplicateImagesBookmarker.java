@@ -0,0 +1,84 @@
+package iped.engine.task.similarity;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.data.IBookmarks;
+import iped.data.ICaseData;
+import iped.data.IItemId;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.data.IPEDSource;
+import iped.engine.localization.Messages;
+import iped.engine.search.SimilarImagesSearch;
+
+/**
+ * Bookmarks groups of near duplicate images of the whole case after processing,
+ * using the image similarity index. Each group gets its own bookmark, larger
+ * groups first.
+ */
+public class NearDuplicateImagesBookmarker {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(NearDuplicateImagesBookmarker.class);
+
+    /**
+     * Minimum similarity score between an image and some other image of its
+     * group, like shown in the similar images search.
+     */
+    private static final float MIN_SCORE = 95;
+
+    private boolean enabled = false;
+
+    public NearDuplicateImagesBookmarker(ICaseData caseData) {
+        ConfigurationManager configManager = ConfigurationManager.get();
+        enabled = !caseData.isIpedReport() && configManager.getEnableTaskProperty(ImageSimilarityTask.enableParam)
+                && configManager.getEnableTaskProperty(ImageSimilarityTask.nearDuplicateBookmarksParam);
+    }
+
+    /**
+     * Must be called after the image similarity index is created.
+     */
+    public void createBookmarks(File caseDir) {
+
+        if (!enabled)
+            return;
+
+        LOGGER.info("Searching near duplicate images..."); //$NON-NLS-1$
+
+        IPEDSource ipedSrc = new IPEDSource(caseDir);
+        try {
+            long t = System.currentTimeMillis();
+            List<List<IItemId>> clusters = SimilarImagesSearch.findNearDuplicateClusters(ipedSrc, MIN_SCORE);
+            if (clusters == null) {
+                LOGGER.warn("Image similarity index not found, near duplicate images not bookmarked"); //$NON-NLS-1$
+                return;
+            }
+            IBookmarks bookmarks = ipedSrc.getBookmarks();
+            String format = "%0" + Integer.toString(clusters.size()).length() + "d"; //$NON-NLS-1$ //$NON-NLS-2$
+            for (int i = 0; i < clusters.size(); i++) {
+                int labelId = bookmarks.newBookmark(Messages.getString("NearDuplicateImagesBookmarker.BookmarkPrefix") //$NON-NLS-1$
+                        + String.format(format, i + 1));
+                List<Integer> ids = new ArrayList<>(clusters.get(i).size());
+                for (IItemId item : clusters.get(i)) {
+                    ids.add(item.getId());
+                }
+                bookmarks.addBookmark(ids, labelId);
+            }
+            if (!clusters.isEmpty()) {
+                bookmarks.saveState(true);
+            }
+            LOGGER.info("Groups of near duplicate images found: {} in {}ms", clusters.size(), //$NON-NLS-1$
+                    System.currentTimeMillis() - t);
+
+        } catch (Exception e) {
+            LOGGER.error("Error bookmarking near duplicate images", e); //$NON-NLS-1$
+
+        } finally {
+            ipedSrc.close();
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package iped.engine.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import iped.data.IHashValue;
+import iped.utils.HashValue;
+
+/**
+ * Concurrent set of hash values with a fixed byte length. Values are stored in
+ * open addressing tables allocated off-heap, split in stripes each one with its
+ * own lock, so millions of hashes use a fraction of the memory of a
+ * HashMap&lt;IHashValue, IHashValue&gt; and threads adding different hashes
+ * rarely contend. The byte length is defined by the first value added, values
+ * with other lengths (should not happen in practice) are kept in a small
+ * on-heap fallback set.
+ *
+ * The set can be saved to and loaded from a file, with a caller defined stamp
+ * used to check if the file is still up to date.
+ */
+public class FixedWidthHashSet {
+
+    private static final int NUM_STRIPES = 256;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    private static final long FILE_MAGIC = 0x4950454448534554L; // IPEDHSET
+
+    private static final int FILE_VERSION = 1;
+
+    private volatile int width = -1;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+    private final Set<IHashValue> otherWidthValues = ConcurrentHashMap.newKeySet();
+
+    public FixedWidthHashSet() {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private class Stripe {
+
+        private ByteBuffer table;
+        private long[] used;
+        private int capacity;
+        private int size;
+
+        private void init(int newCapacity) {
+            capacity = newCapacity;
+            table = ByteBuffer.allocateDirect(capacity * width);
+            used = new long[(capacity + 63) >>> 6];
+        }
+
+        private boolean isUsed(int slot) {
+            return (used[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private boolean equalsAt(int slot, byte[] key) {
+            int pos = slot * width;
+            int i = 0;
+            for (; i + 8 <= width; i += 8) {
+                if (table.getLong(pos + i) != getLong(key, i)) {
+                    return false;
+                }
+            }
+            for (; i < width; i++) {
+                if (table.get(pos + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return slot containing the key or the free slot where it should be inserted
+         */
+        private int findSlot(byte[] key, long hash) {
+            int mask = capacity - 1;
+            int slot = (int) (hash >>> 16) & mask;
+            while (isUsed(slot) && !equalsAt(slot, key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void insertAt(int slot, byte[] key) {
+            int pos = slot * width;
+            for (int i = 0; i < width; i++) {
+                table.put(pos + i, key[i]);
+            }
+            used[slot >>> 6] |= 1L << slot;
+            size++;
+        }
+
+        private synchronized boolean add(byte[] key, long hash) {
+            if (table == null) {
+                init(INITIAL_STRIPE_CAPACITY);
+            } else if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+                grow();
+            }
+            int slot = findSlot(key, hash);
+            if (isUsed(slot)) {
+                return false;
+            }
+            insertAt(slot, key);
+            return true;
+        }
+
+        private synchronized boolean contains(byte[] key, long hash) {
+            if (table == null) {
+                return false;
+            }
+            return isUsed(findSlot(key, hash));
+        }
+
+        private void grow() {
+            ByteBuffer oldTable = table;
+            long[] oldUsed = used;
+            int oldCapacity = capacity;
+            init(capacity * 2);
+            size = 0;
+            byte[] key = new byte[width];
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                if ((oldUsed[slot >>> 6] & (1L << slot)) != 0) {
+                    readKey(oldTable, slot, key);
+                    insertAt(findSlot(key, hashOf(key)), key);
+                }
+            }
+        }
+
+        private void readKey(ByteBuffer src, int slot, byte[] key) {
+            int pos = slot * width;
+            for (int i = 0; i < width; i++) {
+                key[i] = src.get(pos + i);
+            }
+        }
+
+        private synchronized void write(DataOutputStream out) throws IOException {
+            byte[] key = new byte[width];
+            for (int slot = 0; slot < capacity; slot++) {
+                if (isUsed(slot)) {
+                    readKey(table, slot, key);
+                    out.write(key);
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            table = null;
+            used = null;
+            capacity = 0;
+            size = 0;
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return ((long) b[off] << 56) | ((long) (b[off + 1] & 0xFF) << 48) | ((long) (b[off + 2] & 0xFF) << 40)
+                | ((long) (b[off + 3] & 0xFF) << 32) | ((long) (b[off + 4] & 0xFF) << 24)
+                | ((b[off + 5] & 0xFF) << 16) | ((b[off + 6] & 0xFF) << 8) | (b[off + 7] & 0xFF);
+    }
+
+    private static long hashOf(byte[] key) {
+        long h = 0;
+        for (int i = 0; i < key.length && i < 8; i++) {
+            h = (h << 8) | (key[i] & 0xFF);
+        }
+        // murmur3 finalizer, hash values are already random but this is cheap
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private boolean hasWidth(byte[] key) {
+        if (width == -1) {
+            synchronized (this) {
+                if (width == -1) {
+                    width = key.length;
+                }
+            }
+        }
+        return key.length == width;
+    }
+
+    /**
+     * Adds the hash bytes to this set.
+     *
+     * @return true if the set did not contain the value yet
+     */
+    public boolean add(byte[] key) {
+        if (!hasWidth(key)) {
+            return otherWidthValues.add(new HashValue(key));
+        }
+        long hash = hashOf(key);
+        return stripes[(int) hash & (NUM_STRIPES - 1)].add(key, hash);
+    }
+
+    public boolean add(IHashValue value) {
+        return add(value.getBytes());
+    }
+
+    public boolean contains(byte[] key) {
+        if (width == -1) {
+            return false;
+        }
+        if (key.length != width) {
+            return otherWidthValues.contains(new HashValue(key));
+        }
+        long hash = hashOf(key);
+        return stripes[(int) hash & (NUM_STRIPES - 1)].contains(key, hash);
+    }
+
+    public boolean contains(IHashValue value) {
+        return contains(value.getBytes());
+    }
+
+    public long size() {
+        long size = otherWidthValues.size();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Releases the memory used by this set.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        otherWidthValues.clear();
+    }
+
+    /**
+     * Saves this set to file. Should not be called while values are being added.
+     *
+     * @param stamp
+     *            value that must be passed to {@link #load(File, long)} to read
+     *            the file back.
+     */
+    public void save(File file, long stamp) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeLong(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(stamp);
+            out.writeInt(width);
+            long size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.size;
+            }
+            out.writeLong(size);
+            if (width != -1) {
+                for (Stripe stripe : stripes) {
+                    stripe.write(out);
+                }
+            }
+            out.writeInt(otherWidthValues.size());
+            for (IHashValue value : otherWidthValues) {
+                out.writeInt(value.getBytes().length);
+                out.write(value.getBytes());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads a set previously saved with {@link #save(File, long)}.
+     *
+     * @return the set or null if the file does not exist, is invalid or has a
+     *         different stamp.
+     */
+    public static FixedWidthHashSet load(File file, long stamp) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (in.readLong() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readLong() != stamp) {
+                return null;
+            }
+            FixedWidthHashSet set = new FixedWidthHashSet();
+            int width = in.readInt();
+            long size = in.readLong();
+            if (width != -1) {
+                set.width = width;
+                int stripeCapacity = INITIAL_STRIPE_CAPACITY;
+                while (size / NUM_STRIPES > stripeCapacity * MAX_LOAD_FACTOR * 0.9) {
+                    stripeCapacity *= 2;
+                }
+                for (Stripe stripe : set.stripes) {
+                    stripe.init(stripeCapacity);
+                }
+                byte[] key = new byte[width];
+                for (long i = 0; i < size; i++) {
+                    in.readFully(key);
+                    set.add(key);
+                }
+            }
+            int others = in.readInt();
+            for (int i = 0; i < others; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                set.otherWidthValues.add(new HashValue(key));
+            }
+            return set;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[width=" + width + ", size=" + size() + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+}
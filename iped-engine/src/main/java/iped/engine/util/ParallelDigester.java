@@ -0,0 +1,198 @@
+package iped.engine.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Feeds the content of a stream to several digests. The stream is read only
+ * once by the calling thread into a ring of pooled buffers and each digest is
+ * updated on its own thread, so hashing a large file takes about the time of
+ * the slowest digest instead of the sum of all of them.
+ *
+ * Instances are not thread safe, each task instance should use its own.
+ */
+public class ParallelDigester {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int END_OF_STREAM = -1;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Receives the bytes read from the stream, like {@link java.security.MessageDigest#update(byte[], int, int)}.
+     */
+    public interface DigestUpdater {
+        void update(byte[] buf, int off, int len) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final AtomicIntegerArray pendingConsumers;
+    private final ArrayBlockingQueue<Integer> freeSlots;
+    private ArrayBlockingQueue<Integer>[] consumerQueues;
+
+    /**
+     * Creates a bounded executor to run the digest updaters. Each
+     * {@link #digest(InputStream, List)} call keeps one thread per updater busy
+     * until it returns, so the executor must have at least the number of
+     * concurrent calls times the number of updaters threads, otherwise updaters
+     * waiting for a thread would block the calls forever.
+     */
+    public static ExecutorService newExecutor(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "ParallelDigester-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param executor
+     *            executor running the updaters, see {@link #newExecutor(int)}
+     */
+    public ParallelDigester(ExecutorService executor) {
+        this(executor, 8, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ParallelDigester(ExecutorService executor, int numBuffers, int bufferSize) {
+        this.executor = executor;
+        buffers = new byte[numBuffers][bufferSize];
+        lengths = new int[numBuffers];
+        pendingConsumers = new AtomicIntegerArray(numBuffers);
+        freeSlots = new ArrayBlockingQueue<>(numBuffers);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void initConsumerQueues(int numConsumers) {
+        if (consumerQueues == null || consumerQueues.length != numConsumers) {
+            consumerQueues = new ArrayBlockingQueue[numConsumers];
+            for (int i = 0; i < numConsumers; i++) {
+                // room for all slots plus the end marker
+                consumerQueues[i] = new ArrayBlockingQueue<>(buffers.length + 1);
+            }
+        }
+    }
+
+    /**
+     * Reads the stream until its end, or until the current thread is interrupted,
+     * feeding all updaters in parallel. Returns after all updaters have consumed
+     * all data read.
+     */
+    public void digest(InputStream in, List<DigestUpdater> updaters) throws IOException {
+
+        initConsumerQueues(updaters.size());
+        freeSlots.clear();
+        for (int i = 0; i < buffers.length; i++) {
+            freeSlots.add(i);
+        }
+
+        int numConsumers = updaters.size();
+        CountDownLatch finished = new CountDownLatch(numConsumers);
+        IOException[] errors = new IOException[numConsumers];
+        AtomicInteger failed = new AtomicInteger();
+
+        for (int i = 0; i < numConsumers; i++) {
+            final int consumer = i;
+            executor.execute(() -> {
+                try {
+                    consume(updaters.get(consumer), consumerQueues[consumer], errors, consumer, failed);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        boolean interrupted = false;
+        try {
+            while (failed.get() == 0 && !Thread.currentThread().isInterrupted()) {
+                int slot = freeSlots.take();
+                int len = in.read(buffers[slot]);
+                if (len < 0) {
+                    break;
+                }
+                lengths[slot] = len;
+                pendingConsumers.set(slot, numConsumers);
+                for (ArrayBlockingQueue<Integer> queue : consumerQueues) {
+                    queue.add(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+
+        } finally {
+            for (ArrayBlockingQueue<Integer> queue : consumerQueues) {
+                queue.add(END_OF_STREAM);
+            }
+            // digests can not be reused while being updated, so wait even if interrupted
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (IOException e : errors) {
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume(DigestUpdater updater, ArrayBlockingQueue<Integer> queue, IOException[] errors,
+            int consumer, AtomicInteger failed) {
+        while (true) {
+            int slot;
+            try {
+                slot = queue.take();
+            } catch (InterruptedException e) {
+                // executor threads are never interrupted
+                continue;
+            }
+            if (slot == END_OF_STREAM) {
+                return;
+            }
+            try {
+                if (errors[consumer] == null) {
+                    updater.update(buffers[slot], 0, lengths[slot]);
+                }
+            } catch (Exception e) {
+                errors[consumer] = e instanceof IOException ? (IOException) e : new IOException(e);
+                failed.incrementAndGet();
+            } finally {
+                if (pendingConsumers.decrementAndGet(slot) == 0) {
+                    freeSlots.add(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the stream until its end, or until the current thread is interrupted,
+     * feeding all updaters one after another on the current thread.
+     */
+    public static void digestSequentially(InputStream in, byte[] buf, List<DigestUpdater> updaters)
+            throws IOException {
+        int len;
+        while ((len = in.read(buf)) >= 0 && !Thread.currentThread().isInterrupted()) {
+            for (DigestUpdater updater : updaters) {
+                updater.update(buf, 0, len);
+            }
+        }
+    }
+
+}
@@ -1,45 +1,210 @@
 package iped.engine.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystemException;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.input.BoundedReader;
-import org.apache.commons.io.input.RandomAccessFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped.data.IItem;
 import iped.utils.IOUtil;
-
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Parsed text of an item. Text is kept in segments of a fixed number of chars:
+ * full segments are compressed with LZ4 and stored off-heap while the global
+ * memory budget allows, otherwise they are appended to a temp file, which is
+ * memory mapped to be read. Only the last segment, not full yet, is kept in
+ * heap, so small texts are never compressed.
+ *
+ * Any number of readers, from this cache or from its clones, can read the text
+ * concurrently after it was written. They decompress segments directly from
+ * the off-heap or mapped buffers.
+ */
 public class TextCache implements Closeable, Cloneable {
 
     private static Logger logger = LoggerFactory.getLogger(TextCache.class);
 
+    /**
+     * Max chars kept if the disk cache is disabled.
+     */
     private static int MAX_MEMORY_CHARS = 10000000;
 
+    private static final int SEGMENT_CHARS = 1 << 18;
+
+    private static final int INITIAL_TAIL_CHARS = 1 << 10;
+
+    private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private static volatile long memoryBudget = 256L << 20;
+
+    private static final AtomicLong offHeapBytes = new AtomicLong();
+
     private IItem sourceItem;
-    private StringBuilder sb = new StringBuilder();
-    private File tmp;
-    private Writer writer;
+    private Storage storage = new Storage();
     private long size = 0;
     private boolean diskCacheEnabled = true;
-    private long offset = -1;
-    private AtomicInteger refCount = new AtomicInteger(1);
+    private long offset = 0;
+
+    /**
+     * Compressed segment of text, held in a direct or heap buffer, or in the
+     * temp file.
+     */
+    private static class Segment {
+
+        private ByteBuffer data;
+        private final int compressedLength;
+        private long fileOffset = -1;
+
+        private Segment(int compressedLength) {
+            this.compressedLength = compressedLength;
+        }
+    }
+
+    /**
+     * Text data shared by a cache and its clones.
+     */
+    private static class Storage {
+
+        private final List<Segment> segments = new ArrayList<>();
+        private char[] tail = new char[0];
+        private int tailLength;
+        private long offHeapUsed;
+        private File tmp;
+        private FileChannel tmpChannel;
+        private long tmpLength;
+        private byte[] rawBuf, compressedBuf;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private synchronized void append(char[] buf, int off, int len, boolean diskCacheEnabled) throws IOException {
+            while (len > 0) {
+                if (tailLength == tail.length) {
+                    if (tail.length == SEGMENT_CHARS) {
+                        flushTail(diskCacheEnabled);
+                    } else {
+                        tail = Arrays.copyOf(tail, Math.min(SEGMENT_CHARS, Math.max(INITIAL_TAIL_CHARS,
+                                Math.max(tail.length * 2, tailLength + len))));
+                    }
+                }
+                int n = Math.min(len, tail.length - tailLength);
+                System.arraycopy(buf, off, tail, tailLength, n);
+                tailLength += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushTail(boolean diskCacheEnabled) throws IOException {
+            if (rawBuf == null) {
+                rawBuf = new byte[SEGMENT_CHARS * 2];
+                compressedBuf = new byte[compressor.maxCompressedLength(rawBuf.length)];
+            }
+            ByteBuffer.wrap(rawBuf).asCharBuffer().put(tail, 0, tailLength);
+            int compressedLength = compressor.compress(rawBuf, 0, tailLength * 2, compressedBuf, 0,
+                    compressedBuf.length);
+            Segment segment = new Segment(compressedLength);
+            if (reserveOffHeap(compressedLength)) {
+                segment.data = ByteBuffer.allocateDirect(compressedLength);
+                segment.data.put(compressedBuf, 0, compressedLength).flip();
+                offHeapUsed += compressedLength;
+            } else if (diskCacheEnabled && writeToTmp(segment)) {
+                // mapped later when read
+            } else {
+                segment.data = ByteBuffer.wrap(Arrays.copyOf(compressedBuf, compressedLength));
+            }
+            segments.add(segment);
+            tailLength = 0;
+        }
+
+        private boolean writeToTmp(Segment segment) {
+            try {
+                if (tmpChannel == null) {
+                    tmp = File.createTempFile("text", null); //$NON-NLS-1$
+                    tmpChannel = new RandomAccessFile(tmp, "rw").getChannel(); //$NON-NLS-1$
+                }
+                ByteBuffer src = ByteBuffer.wrap(compressedBuf, 0, segment.compressedLength);
+                long pos = tmpLength;
+                while (src.hasRemaining()) {
+                    pos += tmpChannel.write(src, pos);
+                }
+                segment.fileOffset = tmpLength;
+                tmpLength = pos;
+                return true;
+
+            } catch (IOException e) {
+                // maybe no space left, keep the segment in heap
+                logger.warn("Error writing text cache to temp file: {}", e.toString()); //$NON-NLS-1$
+                return false;
+            }
+        }
+
+        private synchronized ByteBuffer getData(Segment segment) throws IOException {
+            if (segment.data == null) {
+                segment.data = tmpChannel.map(MapMode.READ_ONLY, segment.fileOffset, segment.compressedLength);
+            }
+            return segment.data;
+        }
+
+        private synchronized void release() {
+            offHeapBytes.addAndGet(-offHeapUsed);
+            offHeapUsed = 0;
+            segments.clear();
+            tail = null;
+            tailLength = 0;
+            rawBuf = null;
+            compressedBuf = null;
+            if (tmp != null) {
+                IOUtil.closeQuietly(tmpChannel);
+                if (!tmp.delete()) {
+                    // mapped segments may still be open in some platforms
+                    tmp.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private static boolean reserveOffHeap(int bytes) {
+        long used;
+        do {
+            used = offHeapBytes.get();
+            if (used + bytes > memoryBudget) {
+                return false;
+            }
+        } while (!offHeapBytes.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    /**
+     * Sets the max memory used by compressed texts of all caches, beyond that
+     * they are stored in temp files.
+     */
+    public static void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    /**
+     * @return memory currently used by compressed texts of all caches
+     */
+    public static long getOffHeapBytes() {
+        return offHeapBytes.get();
+    }
 
     public void setSourceItem(IItem sourceItem) {
         this.sourceItem = sourceItem;
@@ -54,31 +219,10 @@ public void write(String string) throws IOException {
     }
 
     public void write(char[] buf, int off, int len) throws IOException {
-        if (tmp == null && sb != null && sb.length() + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
-            tmp = File.createTempFile("text", null);
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
-            writer.write(sb.toString());
-            sb = null;
-        }
-
-        if (sb != null && sb.length() < MAX_MEMORY_CHARS) {
-            if (sb.length() + len > MAX_MEMORY_CHARS)
-                len = MAX_MEMORY_CHARS - sb.length();
-            sb.append(buf, off, len);
+        if (!diskCacheEnabled && size + len > MAX_MEMORY_CHARS) {
+            len = (int) Math.max(0, MAX_MEMORY_CHARS - size);
         }
-
-        if (writer != null)
-            try {
-                writer.write(buf, off, len);
-            } catch (IOException e) {
-                // maybe no space left
-                e.printStackTrace();
-                IOUtil.closeQuietly(writer);
-                writer = null;
-                tmp.delete();
-                tmp = null;
-            }
-
+        storage.append(buf, off, len, diskCacheEnabled);
         size += len;
     }
 
@@ -87,39 +231,22 @@ public long getSize() {
     }
 
     public Reader getTextReader() throws IOException {
-        if (writer != null) {
-            writer.close();
-            writer = null;
-        }
-
-        Reader reader = null;
-        if (sb != null)
-            reader = new StringReader(sb.toString());
-
-        if (tmp != null) {
-            try {
-                if (offset == -1) {
-                    reader = Files.newBufferedReader(tmp.toPath());
-                } else {
-                    RandomAccessFile raf = new RandomAccessFile(tmp, "r");
-                    raf.seek(offset);
-                    reader = new InputStreamReader(new RandomAccessFileInputStream(raf, true), StandardCharsets.UTF_8);
-                    reader = new BufferedReader(new BoundedReader(reader, (int) size));
+        try {
+            // map segments stored in temp file before returning the reader
+            synchronized (storage) {
+                for (Segment segment : storage.segments) {
+                    if (segment.fileOffset != -1) {
+                        storage.getData(segment);
+                    }
                 }
-
-            } catch (FileSystemException | FileNotFoundException e) {
-                logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
-                        sourceItem != null ? " from " + sourceItem.getPath() : "", e.toString());
-                e.printStackTrace();
-                return new StringReader("");
             }
+        } catch (FileSystemException | FileNotFoundException e) {
+            logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
+                    sourceItem != null ? " from " + sourceItem.getPath() : "", e.toString());
+            e.printStackTrace();
+            return new StringReader("");
         }
-
-        if (reader != null) {
-            return new KnownSizeReader(reader);
-        }
-
-        return null;
+        return new KnownSizeReader(new SegmentReader(offset, offset + size));
     }
 
     public void setTextBounds(long offset, int size) {
@@ -129,16 +256,92 @@ public void setTextBounds(long offset, int size) {
         if (offset + size > this.size) {
             throw new IllegalArgumentException("offset + size must be less than or equal to original text size.");
         }
-        this.offset = offset;
+        this.offset += offset;
         this.size = size;
     }
 
     @Override
     public void close() throws IOException {
-        if (writer != null)
-            writer.close();
-        if (tmp != null && refCount.decrementAndGet() == 0)
-            tmp.delete();
+        if (storage.refCount.decrementAndGet() == 0) {
+            storage.release();
+        }
+    }
+
+    /**
+     * Reads a range of the text, decompressing one segment at a time.
+     */
+    private class SegmentReader extends Reader {
+
+        private final Storage storage = TextCache.this.storage;
+        private long pos;
+        private final long end;
+        private int decodedSegment = -1;
+        private char[] decoded;
+        private byte[] decompressed;
+
+        private SegmentReader(long start, long end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int segIdx = (int) (pos / SEGMENT_CHARS);
+            int segOff = (int) (pos % SEGMENT_CHARS);
+            int n = (int) Math.min(len, end - pos);
+            Segment segment = null;
+            synchronized (storage) {
+                if (segIdx < storage.segments.size()) {
+                    segment = storage.segments.get(segIdx);
+                } else {
+                    n = Math.min(n, storage.tailLength - segOff);
+                    if (n <= 0 || storage.tail == null) {
+                        throw new IOException("Text cache already closed or truncated."); //$NON-NLS-1$
+                    }
+                    System.arraycopy(storage.tail, segOff, cbuf, off, n);
+                }
+            }
+            if (segment != null) {
+                if (decodedSegment != segIdx) {
+                    decode(segment);
+                    decodedSegment = segIdx;
+                }
+                n = Math.min(n, SEGMENT_CHARS - segOff);
+                System.arraycopy(decoded, segOff, cbuf, off, n);
+            }
+            pos += n;
+            return n;
+        }
+
+        private void decode(Segment segment) throws IOException {
+            if (decoded == null) {
+                decoded = new char[SEGMENT_CHARS];
+                decompressed = new byte[SEGMENT_CHARS * 2];
+            }
+            // absolute offsets do not change buffer positions, so buffers can be shared
+            ByteBuffer data = storage.getData(segment);
+            decompressor.decompress(data, 0, ByteBuffer.wrap(decompressed), 0, decompressed.length);
+            ByteBuffer.wrap(decompressed).asCharBuffer().get(decoded);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, end - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            decoded = null;
+            decompressed = null;
+        }
     }
 
     public class KnownSizeReader extends Reader {
@@ -169,15 +372,12 @@ public long getSize() {
     public TextCache clone() {
         TextCache o = new TextCache();
         o.sourceItem = sourceItem;
-        o.sb = sb;
-        o.tmp = tmp;
         // we just use clone for reading for now
-        // o.writer = writer;
+        o.storage = storage;
         o.size = size;
         o.diskCacheEnabled = diskCacheEnabled;
         o.offset = offset;
-        o.refCount = refCount;
-        refCount.incrementAndGet();
+        storage.refCount.incrementAndGet();
         return o;
     }
 
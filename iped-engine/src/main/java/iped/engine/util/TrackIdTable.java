@@ -0,0 +1,315 @@
+package iped.engine.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import iped.utils.HashValue;
+
+/**
+ * Table of trackIDs of a committed index, used to resume processing. Each
+ * record has the 16 bytes of a trackID (an MD5 hex string), the id the item
+ * had in the previous processing, if it must be kept, and flags telling if the
+ * item was committed and if it is a parent with lost subitems. Records are
+ * sorted by trackID and stored with a fixed width in a file, which is memory
+ * mapped, so the table opens instantly and lookups are binary searches done
+ * without allocating objects.
+ *
+ * The file header keeps the generation and doc counts of the index commit the
+ * table was built from, to detect outdated tables.
+ */
+public class TrackIdTable implements Closeable {
+
+    public static final int NO_ID = -1;
+
+    private static final long MAGIC = 0x4950454454524b49L; // IPEDTRKI
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 48;
+
+    private static final int KEY_SIZE = 16;
+
+    private static final int RECORD_SIZE = KEY_SIZE + 8;
+
+    // records per mapped chunk, keeps chunks under 2GB
+    private static final int CHUNK_BITS = 25;
+
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int COMMITTED = 1;
+
+    private static final int LOST_SUBITEMS = 2;
+
+    private final MappedByteBuffer[] chunks;
+    private final long numRecords;
+    private final List<HashValue> parentsWithLostSubitems;
+
+    private TrackIdTable(MappedByteBuffer[] chunks, long numRecords, List<HashValue> parentsWithLostSubitems) {
+        this.chunks = chunks;
+        this.numRecords = numRecords;
+        this.parentsWithLostSubitems = parentsWithLostSubitems;
+    }
+
+    /**
+     * Opens a table file, if it was built from the index commit with the given
+     * generation and doc counts.
+     *
+     * @return the table or null if the file does not exist or is outdated
+     */
+    public static TrackIdTable open(File file, long commitGeneration, int maxDoc, int numDocs) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) { //$NON-NLS-1$
+            if (fc.size() < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            fc.read(header, 0);
+            header.flip();
+            if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            header.getInt();
+            if (header.getLong() != commitGeneration || header.getInt() != maxDoc || header.getInt() != numDocs) {
+                return null;
+            }
+            long numRecords = header.getLong();
+            long numLost = header.getLong();
+            long lostStart = HEADER_SIZE + numRecords * RECORD_SIZE;
+            if (fc.size() != lostStart + numLost * 4) {
+                return null;
+            }
+
+            int numChunks = (int) ((numRecords + CHUNK_MASK) >>> CHUNK_BITS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long first = (long) i << CHUNK_BITS;
+                long records = Math.min(numRecords - first, 1L << CHUNK_BITS);
+                chunks[i] = fc.map(MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE, records * RECORD_SIZE);
+            }
+
+            TrackIdTable table = new TrackIdTable(chunks, numRecords, new ArrayList<>());
+            ByteBuffer lost = fc.map(MapMode.READ_ONLY, lostStart, numLost * 4);
+            for (long i = 0; i < numLost; i++) {
+                table.parentsWithLostSubitems.add(new HashValue(table.getKey(lost.getInt())));
+            }
+            return table;
+        }
+    }
+
+    private ByteBuffer getChunk(long record) {
+        return chunks[(int) (record >>> CHUNK_BITS)];
+    }
+
+    private int getOffset(long record) {
+        return (int) (record & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    private byte[] getKey(long record) {
+        byte[] key = new byte[KEY_SIZE];
+        ByteBuffer chunk = getChunk(record);
+        int off = getOffset(record);
+        for (int i = 0; i < KEY_SIZE; i++) {
+            key[i] = chunk.get(off + i);
+        }
+        return key;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static long parseHexLong(CharSequence hex, int start) {
+        long value = 0;
+        for (int i = start; i < start + 16; i++) {
+            int digit = hexValue(hex.charAt(i));
+            if (digit == -1) {
+                throw new NumberFormatException();
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the record index of the trackID or -1 if not found.
+     */
+    private long find(CharSequence trackID) {
+        if (trackID == null || trackID.length() != 2 * KEY_SIZE) {
+            return -1;
+        }
+        long hi, lo;
+        try {
+            hi = parseHexLong(trackID, 0);
+            lo = parseHexLong(trackID, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        long low = 0, high = numRecords - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            ByteBuffer chunk = getChunk(mid);
+            int off = getOffset(mid);
+            int cmp = Long.compareUnsigned(chunk.getLong(off), hi);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(chunk.getLong(off + 8), lo);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the item with this trackID was committed.
+     */
+    public boolean isCommitted(CharSequence trackID) {
+        long record = find(trackID);
+        return record != -1 && (getChunk(record).getInt(getOffset(record) + KEY_SIZE + 4) & COMMITTED) != 0;
+    }
+
+    /**
+     * @return previous id of the item with this trackID, or NO_ID if it does not
+     *         need to be kept.
+     */
+    public int getId(CharSequence trackID) {
+        long record = find(trackID);
+        return record == -1 ? NO_ID : getChunk(record).getInt(getOffset(record) + KEY_SIZE);
+    }
+
+    /**
+     * @return trackIDs of committed parents which subitems were not all
+     *         committed.
+     */
+    public List<HashValue> getParentsWithLostSubitems() {
+        return parentsWithLostSubitems;
+    }
+
+    public long size() {
+        return numRecords;
+    }
+
+    @Override
+    public void close() {
+        // mapped buffers are released by GC
+        Arrays.fill(chunks, null);
+    }
+
+    /**
+     * Writes a table file. Records must be added in ascending trackID order.
+     */
+    public static class Builder implements Closeable {
+
+        private final File file;
+        private final File tmp;
+        private final DataOutputStream out;
+        private final byte[] key = new byte[KEY_SIZE];
+        private final byte[] prevKey = new byte[KEY_SIZE];
+        private long numRecords = 0;
+        private int[] lost = new int[16];
+        private int numLost = 0;
+        private boolean finished = false;
+
+        public Builder(File file) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+            file.getParentFile().mkdirs();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        /**
+         * Adds a record.
+         *
+         * @param hexTrackID
+         *            array with the ascii hex chars of the trackID
+         */
+        public void add(byte[] hexTrackID, int off, int len, int id, boolean committed, boolean lostSubitems)
+                throws IOException {
+            if (len != 2 * KEY_SIZE) {
+                throw new IllegalArgumentException("Invalid trackID length " + len); //$NON-NLS-1$
+            }
+            for (int i = 0; i < KEY_SIZE; i++) {
+                int h = hexValue((char) hexTrackID[off + 2 * i]);
+                int l = hexValue((char) hexTrackID[off + 2 * i + 1]);
+                if (h == -1 || l == -1) {
+                    throw new IllegalArgumentException("Invalid trackID"); //$NON-NLS-1$
+                }
+                key[i] = (byte) ((h << 4) | l);
+            }
+            if (numRecords > 0 && Arrays.compareUnsigned(prevKey, key) >= 0) {
+                throw new IllegalArgumentException("TrackIDs must be added in ascending order"); //$NON-NLS-1$
+            }
+            System.arraycopy(key, 0, prevKey, 0, KEY_SIZE);
+
+            out.write(key);
+            out.writeInt(id);
+            out.writeInt((committed ? COMMITTED : 0) | (lostSubitems ? LOST_SUBITEMS : 0));
+            if (lostSubitems) {
+                if (numLost == lost.length) {
+                    lost = Arrays.copyOf(lost, numLost * 2);
+                }
+                lost[numLost++] = (int) numRecords;
+            }
+            numRecords++;
+        }
+
+        /**
+         * Writes the header and moves the table to its final file.
+         */
+        public void finish(long commitGeneration, int maxDoc, int numDocs) throws IOException {
+            for (int i = 0; i < numLost; i++) {
+                out.writeInt(lost[i]);
+            }
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) { //$NON-NLS-1$
+                raf.writeLong(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(0);
+                raf.writeLong(commitGeneration);
+                raf.writeInt(maxDoc);
+                raf.writeInt(numDocs);
+                raf.writeLong(numRecords);
+                raf.writeLong(numLost);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                tmp.delete();
+            }
+        }
+    }
+
+}
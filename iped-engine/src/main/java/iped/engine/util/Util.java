@@ -43,7 +43,6 @@
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
@@ -73,7 +72,6 @@
 import iped.engine.task.index.IndexItem;
 import iped.properties.BasicProps;
 import iped.properties.ExtraProperties;
-import iped.utils.HashValue;
 import iped.utils.IOUtil;
 
 public class Util {
@@ -160,13 +158,13 @@ public static String getTrackID(IItem item) {
      * @param item
      */
     public static void calctrackIDAndUpdateID(CaseData caseData, IItem item) {
-        HashValue trackID = new HashValue(Util.getTrackID(item));
-        Map<HashValue, Integer> globalToIdMap = (Map<HashValue, Integer>) caseData.getCaseObject(SkipCommitedTask.trackID_ID_MAP);
+        String trackID = Util.getTrackID(item);
+        TrackIdTable trackIdTable = (TrackIdTable) caseData.getCaseObject(SkipCommitedTask.trackID_ID_MAP);
         // changes id to previous processing id if using --continue
-        if (globalToIdMap != null) {
-            Integer previousId = globalToIdMap.get(trackID);
-            if (previousId != null) {
-                item.setId(previousId.intValue());
+        if (trackIdTable != null) {
+            int previousId = trackIdTable.getId(trackID);
+            if (previousId != TrackIdTable.NO_ID) {
+                item.setId(previousId);
             }
         }
         ((Item) item).setAllowGetId(true);
@@ -0,0 +1,85 @@
+package iped.engine.webapi;
+
+/**
+ * Single byte range of a Range header, like "bytes=0-99", "bytes=100-" or
+ * "bytes=-100". Multiple ranges are not supported, the whole content is sent
+ * for them as allowed by RFC 7233.
+ */
+class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * Returned when the range is valid but out of the content.
+     */
+    static final ByteRange NOT_SATISFIABLE = new ByteRange(-1, -1);
+
+    final long start;
+    final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param header
+     *            Range header value
+     * @param length
+     *            content length
+     * @return the range, {@link #NOT_SATISFIABLE} or null if the header is missing
+     *         or not supported, then the whole content should be sent
+     */
+    static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') != -1) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.isEmpty()) {
+                // suffix range with the last bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return NOT_SATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return null;
+                }
+                if (start >= length) {
+                    return NOT_SATISFIABLE;
+                }
+            }
+            return new ByteRange(start, end);
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    String toContentRange(long length) {
+        if (this == NOT_SATISFIABLE) {
+            return "bytes */" + length;
+        }
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
+}
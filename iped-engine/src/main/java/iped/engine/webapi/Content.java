@@ -6,11 +6,16 @@
 import java.net.URISyntaxException;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
@@ -19,30 +24,77 @@
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import iped.data.IIPEDSource;
 import iped.data.IItem;
+import iped.io.SeekableInputStream;
 
 @Api(value = "Documents")
 @Path("sources/{sourceID}/docs/{id}/content")
 public class Content {
 
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String IF_RANGE = "If-Range";
+    private static final String RANGE = "Range";
+
     @ApiOperation(value = "Get document's raw content")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
+    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @HeaderParam(RANGE) String range, @HeaderParam(IF_RANGE) String ifRange, @Context Request request)
             throws TskCoreException, IOException, URISyntaxException {
 
-        IIPEDSource source = Sources.getSource(sourceID);
-        final IItem item = source.getItemByID(id);
-        return Response.status(200).header("Content-Length", String.valueOf(item.getLength()))
-                .header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\"")
-                .entity(new StreamingOutput() {
-                    @Override
-                    public void write(OutputStream arg0) throws IOException, WebApplicationException {
-                        try (InputStream is = item.getBufferedInputStream()) {
-                            IOUtils.copy(is, arg0);
-                        }
+        ItemInfoCache.ItemInfo info = ItemInfoCache.get(sourceID, id);
+        final IItem item = info.item;
+        EntityTag etag = info.etag;
+        if (etag != null) {
+            // answers If-None-Match with 304
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+        }
+        Long length = item.getLength();
+        ByteRange byteRange = null;
+        if (length != null && (ifRange == null || (etag != null && ifRange.equals(etag.toString())))) {
+            byteRange = ByteRange.parse(range, length);
+        }
+        if (byteRange == ByteRange.NOT_SATISFIABLE) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(CONTENT_RANGE, byteRange.toContentRange(length)).build();
+        }
+
+        Response.ResponseBuilder builder;
+        if (byteRange == null) {
+            builder = Response.ok(new StreamingOutput() {
+                @Override
+                public void write(OutputStream arg0) throws IOException, WebApplicationException {
+                    try (InputStream is = item.getBufferedInputStream()) {
+                        IOUtils.copy(is, arg0);
+                    }
+                }
+            });
+            if (length != null) {
+                builder.header(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+            }
+        } else {
+            ByteRange r = byteRange;
+            builder = Response.status(Response.Status.PARTIAL_CONTENT).entity(new StreamingOutput() {
+                @Override
+                public void write(OutputStream arg0) throws IOException, WebApplicationException {
+                    try (SeekableInputStream is = item.getSeekableInputStream()) {
+                        is.seek(r.start);
+                        IOUtils.copyLarge(is, arg0, 0, r.length());
                     }
-                }).build();
+                }
+            }).header(CONTENT_RANGE, r.toContentRange(length))
+                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(r.length()));
+        }
+        if (length != null) {
+            builder.header(ACCEPT_RANGES, "bytes");
+        }
+        if (etag != null) {
+            builder.tag(etag);
+        }
+        return builder.header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\"").build();
     }
 }
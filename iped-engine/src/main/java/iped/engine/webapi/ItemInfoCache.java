@@ -0,0 +1,96 @@
+package iped.engine.webapi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.ws.rs.core.EntityTag;
+
+import iped.data.IIPEDSource;
+import iped.data.IItem;
+
+/**
+ * LRU cache of the items requested to the web API, shared by all requests, so
+ * viewers of the same items do not load them from the index again and again.
+ * Thumbnails are kept with the items, limited by a total size.
+ */
+class ItemInfoCache {
+
+    private static final int MAX_ITEMS = 10000;
+    private static final long MAX_THUMB_BYTES = 64 << 20;
+
+    private static final byte[] NO_THUMB = new byte[0];
+
+    static class ItemInfo {
+
+        final IItem item;
+        final EntityTag etag;
+        private final String key;
+        private volatile byte[] thumb;
+
+        private ItemInfo(String key, IItem item) {
+            this.key = key;
+            this.item = item;
+            // the hash identifies the content, so it is a strong validator
+            this.etag = item.getHash() != null && !item.getHash().isEmpty() ? new EntityTag(item.getHash()) : null;
+        }
+
+        EntityTag getThumbETag() {
+            return etag != null ? new EntityTag(etag.getValue() + "-thumb") : null;
+        }
+    }
+
+    private static final LinkedHashMap<String, ItemInfo> cache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private static long thumbBytes = 0;
+
+    static ItemInfo get(String sourceID, int id) {
+        String key = sourceID + "/" + id;
+        synchronized (cache) {
+            ItemInfo info = cache.get(key);
+            if (info != null) {
+                return info;
+            }
+        }
+        // loaded out of the lock, concurrent loads of the same item are harmless
+        IIPEDSource source = Sources.getSource(sourceID);
+        ItemInfo info = new ItemInfo(key, source.getItemByID(id));
+        synchronized (cache) {
+            ItemInfo previous = cache.putIfAbsent(key, info);
+            if (previous != null) {
+                return previous;
+            }
+            evict();
+        }
+        return info;
+    }
+
+    static byte[] getThumb(ItemInfo info) {
+        byte[] thumb = info.thumb;
+        if (thumb == null) {
+            thumb = info.item.getThumb() != null ? info.item.getThumb() : NO_THUMB;
+            synchronized (cache) {
+                if (info.thumb == null) {
+                    info.thumb = thumb;
+                    // items already evicted do not count
+                    if (cache.get(info.key) == info) {
+                        thumbBytes += thumb.length;
+                        evict();
+                    }
+                }
+            }
+        }
+        return thumb;
+    }
+
+    private static void evict() {
+        Iterator<ItemInfo> it = cache.values().iterator();
+        while ((cache.size() > MAX_ITEMS || thumbBytes > MAX_THUMB_BYTES) && it.hasNext()) {
+            ItemInfo eldest = it.next();
+            it.remove();
+            if (eldest.thumb != null) {
+                thumbBytes -= eldest.thumb.length;
+            }
+        }
+    }
+
+}
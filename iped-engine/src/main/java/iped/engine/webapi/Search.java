@@ -1,20 +1,44 @@
 package iped.engine.webapi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import iped.data.IBookmarks;
 import iped.data.IItemId;
 import iped.engine.data.IPEDSource;
 import iped.engine.search.IPEDSearcher;
+import iped.engine.search.MultiSearchResult;
+import iped.engine.task.index.IndexItem;
 import iped.engine.webapi.json.DocIDJSON;
 import iped.engine.webapi.json.SourceToIDsJSON;
 import iped.search.IIPEDSearcher;
@@ -25,6 +49,10 @@
 @Path("search")
 public class Search {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     @DefaultValue("")
     @QueryParam("q")
     String q;
@@ -55,4 +83,189 @@ public SourceToIDsJSON doSearch() throws Exception {
 
         return new SourceToIDsJSON(docs);
     }
+
+    /**
+     * Writes one document per line, like { "source": "A", "id": 0, "properties":
+     * {...} }, followed by a last line with the total hits, the cursor of the next
+     * page if there are more hits and the facets counts if requested. Documents
+     * are written as they are read, so large results are not held in memory.
+     */
+    @ApiOperation(value = "Search documents, one JSON document per line")
+    @GET
+    @Path("stream")
+    @Produces(APPLICATION_NDJSON)
+    public StreamingOutput streamSearch(
+            @ApiParam(value = "nextCursor returned by the previous page") @QueryParam("cursor") String cursor,
+            @ApiParam(value = "max documents per page, 0 for all") @DefaultValue("1000") @QueryParam("limit") int limit,
+            @ApiParam(value = "comma separated properties to return, * for all") @DefaultValue("") @QueryParam("fields") String fields,
+            @ApiParam(value = "count categories, media types and bookmarks of all hits") @DefaultValue("false") @QueryParam("facets") boolean facets)
+            throws Exception {
+
+        IPEDSource source = sourceID.equals("") ? Sources.multiSource : (IPEDSource) Sources.getSource(sourceID);
+        SearchHits hits = search(source, q.replaceAll("/", "\\\\/"));
+
+        int start = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                start = hits.indexAfter(Integer.parseInt(cursor));
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid cursor: " + cursor);
+            }
+        }
+        int end = hits.pageEnd(start, limit);
+        Set<String> fieldSet = SearchHits.parseFields(fields);
+        int pageStart = start;
+
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                JsonGenerator json = jsonFactory.createGenerator(out);
+                json.setRootValueSeparator(new SerializedString("\n"));
+                IndexReader reader = source.getReader();
+                for (int i = pageStart; i < end; i++) {
+                    json.writeStartObject();
+                    json.writeStringField("source", Sources.sourceIntToString.get(hits.sourceIds[i]));
+                    json.writeNumberField("id", hits.ids[i]);
+                    if (fieldSet != null) {
+                        Document doc = fieldSet.isEmpty() ? reader.document(hits.luceneIds[i])
+                                : reader.document(hits.luceneIds[i], fieldSet);
+                        writeProperties(json, doc);
+                    }
+                    json.writeEndObject();
+                }
+                json.writeStartObject();
+                json.writeNumberField("total", hits.size);
+                String nextCursor = hits.nextCursor(end);
+                if (nextCursor != null) {
+                    json.writeStringField("nextCursor", nextCursor);
+                }
+                if (facets) {
+                    writeFacets(json, source, hits);
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+                json.flush();
+            }
+        };
+    }
+
+    private static void writeProperties(JsonGenerator json, Document doc) throws IOException {
+        Set<String> names = new LinkedHashSet<>();
+        for (IndexableField field : doc.getFields()) {
+            names.add(field.name());
+        }
+        json.writeObjectFieldStart("properties");
+        for (String name : names) {
+            json.writeArrayFieldStart(name);
+            for (String value : doc.getValues(name)) {
+                json.writeString(value);
+            }
+            json.writeEndArray();
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeFacets(JsonGenerator json, IPEDSource source, SearchHits hits) throws IOException {
+        LeafReader reader = source.getAtomicReader();
+        json.writeObjectFieldStart("facets");
+        writeCounts(json, "category", countTerms(reader.getSortedSetDocValues(IndexItem.CATEGORY), hits));
+        writeCounts(json, "contentType", countTerms(reader.getSortedDocValues(IndexItem.CONTENTTYPE), hits));
+        writeCounts(json, "bookmark", countBookmarks(hits));
+        json.writeEndObject();
+    }
+
+    private static void writeCounts(JsonGenerator json, String name, Map<String, Integer> counts)
+            throws IOException {
+        json.writeObjectFieldStart(name);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            json.writeNumberField(entry.getKey(), entry.getValue());
+        }
+        json.writeEndObject();
+    }
+
+    private static Map<String, Integer> countTerms(SortedSetDocValues values, SearchHits hits) throws IOException {
+        Map<String, Integer> result = new TreeMap<>();
+        if (values == null) {
+            return result;
+        }
+        int[] counts = new int[(int) values.getValueCount()];
+        for (int i = 0; i < hits.size; i++) {
+            if (values.advanceExact(hits.luceneIds[i])) {
+                long ord;
+                while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    counts[(int) ord]++;
+                }
+            }
+        }
+        for (int ord = 0; ord < counts.length; ord++) {
+            if (counts[ord] > 0) {
+                result.put(values.lookupOrd(ord).utf8ToString(), counts[ord]);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> countTerms(SortedDocValues values, SearchHits hits) throws IOException {
+        Map<String, Integer> result = new TreeMap<>();
+        if (values == null) {
+            return result;
+        }
+        int[] counts = new int[values.getValueCount()];
+        for (int i = 0; i < hits.size; i++) {
+            if (values.advanceExact(hits.luceneIds[i])) {
+                counts[values.ordValue()]++;
+            }
+        }
+        for (int ord = 0; ord < counts.length; ord++) {
+            if (counts[ord] > 0) {
+                result.put(values.lookupOrd(ord).utf8ToString(), counts[ord]);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> countBookmarks(SearchHits hits) {
+        Map<String, Integer> result = new TreeMap<>();
+        IBookmarks bookmarks = null;
+        int bookmarksSourceId = -1;
+        for (int i = 0; i < hits.size; i++) {
+            if (hits.sourceIds[i] != bookmarksSourceId) {
+                bookmarksSourceId = hits.sourceIds[i];
+                bookmarks = Sources.multiSource.getAtomicSourceBySourceId(bookmarksSourceId).getBookmarks();
+            }
+            if (bookmarks.hasBookmark(hits.ids[i])) {
+                for (int bookmarkId : bookmarks.getBookmarkIds(hits.ids[i])) {
+                    result.merge(bookmarks.getBookmarkName(bookmarkId), 1, Integer::sum);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static SearchHits search(IPEDSource source, String query) throws Exception {
+        IPEDSearcher searcher = new IPEDSearcher(source, query);
+        searcher.setNoScoring(true);
+        SearchHits hits;
+        if (source == Sources.multiSource) {
+            MultiSearchResult result = searcher.multiSearch();
+            hits = new SearchHits(result.getLength());
+            for (int i = 0; i < hits.size; i++) {
+                IItemId item = result.getItem(i);
+                hits.sourceIds[i] = item.getSourceId();
+                hits.ids[i] = item.getId();
+                hits.luceneIds[i] = source.getLuceneId(item);
+            }
+        } else {
+            SearchResult result = searcher.search();
+            hits = new SearchHits(result.getLength());
+            for (int i = 0; i < hits.size; i++) {
+                hits.sourceIds[i] = source.getSourceId();
+                hits.ids[i] = result.getId(i);
+                hits.luceneIds[i] = source.getLuceneId(hits.ids[i]);
+            }
+        }
+        // needed by cursors and doc values
+        hits.sortByLuceneId();
+        return hits;
+    }
 }
@@ -0,0 +1,100 @@
+package iped.engine.webapi;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Search hits sorted by lucene id, kept in arrays instead of json objects.
+ * Cursors of paged searches are the lucene id of the last hit returned, so
+ * they are still valid if the hit was deleted meanwhile.
+ */
+class SearchHits {
+
+    private static final String ALL_FIELDS = "*";
+
+    final int size;
+    final int[] sourceIds;
+    final int[] ids;
+    final int[] luceneIds;
+
+    SearchHits(int size) {
+        this.size = size;
+        this.sourceIds = new int[size];
+        this.ids = new int[size];
+        this.luceneIds = new int[size];
+    }
+
+    /**
+     * Sorts hits by lucene id, needed by cursors and to advance doc values. Not
+     * scored results are usually already sorted, then nothing is done.
+     */
+    void sortByLuceneId() {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = luceneIds[i - 1] <= luceneIds[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // lucene ids are not negative, so they sort right as the high bits
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) luceneIds[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] oldSourceIds = sourceIds.clone();
+        int[] oldIds = ids.clone();
+        for (int i = 0; i < size; i++) {
+            int idx = (int) order[i];
+            sourceIds[i] = oldSourceIds[idx];
+            ids[i] = oldIds[idx];
+            luceneIds[i] = (int) (order[i] >>> 32);
+        }
+    }
+
+    /**
+     * @return index of the first hit after the lucene id, that may not be a hit
+     */
+    int indexAfter(int luceneId) {
+        int idx = Arrays.binarySearch(luceneIds, 0, size, luceneId);
+        return idx >= 0 ? idx + 1 : -idx - 1;
+    }
+
+    /**
+     * @param limit
+     *            max hits per page, 0 or less for all
+     * @return index after the last hit of the page
+     */
+    int pageEnd(int start, int limit) {
+        return limit <= 0 ? size : (int) Math.min((long) start + limit, size);
+    }
+
+    /**
+     * @return lucene id to be used as cursor of the page after end, or null if
+     *         there are no more hits
+     */
+    String nextCursor(int end) {
+        return end > 0 && end < size ? Integer.toString(luceneIds[end - 1]) : null;
+    }
+
+    /**
+     * @return null if no property should be returned, an empty set if all should
+     */
+    static Set<String> parseFields(String fields) {
+        if (fields.isBlank()) {
+            return null;
+        }
+        Set<String> fieldSet = new HashSet<>();
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (field.equals(ALL_FIELDS)) {
+                return new HashSet<>();
+            }
+            if (!field.isEmpty()) {
+                fieldSet.add(field);
+            }
+        }
+        return fieldSet;
+    }
+}
@@ -10,6 +10,10 @@
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.io.IOUtils;
@@ -17,8 +21,6 @@
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import iped.data.IIPEDSource;
-import iped.data.IItem;
 
 @Api(value = "Documents")
 @Path("sources/{sourceID}/docs/{id}/thumb")
@@ -27,17 +29,23 @@ public class Thumbnail {
     @ApiOperation(value = "Get document's thumbnail")
     @GET
     @Produces("image/jpg")
-    public StreamingOutput content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
-            throws TskCoreException, IOException, URISyntaxException {
+    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @Context Request request) throws TskCoreException, IOException, URISyntaxException {
 
-        IIPEDSource source = Sources.getSource(sourceID);
-        IItem item = source.getItemByID(id);
-        final byte[] thumb = item.getThumb() != null ? item.getThumb() : new byte[0];
-        return new StreamingOutput() {
+        ItemInfoCache.ItemInfo info = ItemInfoCache.get(sourceID, id);
+        EntityTag etag = info.getThumbETag();
+        if (etag != null) {
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+        }
+        final byte[] thumb = ItemInfoCache.getThumb(info);
+        return Response.ok(new StreamingOutput() {
             @Override
             public void write(OutputStream arg0) throws IOException, WebApplicationException {
                 IOUtils.copy(new ByteArrayInputStream(thumb), arg0);
             }
-        };
+        }).tag(etag).build();
     }
-}
\ No newline at end of file
+}
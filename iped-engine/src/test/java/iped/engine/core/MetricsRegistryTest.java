@@ -0,0 +1,76 @@
+package iped.engine.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testLatencyHistogram() {
+        TaskMetrics metrics = new TaskMetrics("task", "worker");
+        // 90 items of ~100 micros and 10 items of ~10 millis
+        for (int i = 0; i < 90; i++) {
+            metrics.record(100_000, 10);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(10_000_000, 1000);
+        }
+        assertEquals(100, metrics.getItems());
+        assertEquals(90 * 10 + 10 * 1000, metrics.getBytes());
+        assertEquals(1090, metrics.getMeanLatency());
+        assertEquals(128, metrics.getLatencyPercentile(0.5));
+        assertEquals(16384, metrics.getLatencyPercentile(0.99));
+        assertEquals(0, new TaskMetrics("task", "worker").getLatencyPercentile(0.5));
+        assertEquals(0, TaskMetrics.getLatencyBucket(0));
+        assertEquals(TaskMetrics.NUM_LATENCY_BUCKETS - 1, TaskMetrics.getLatencyBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentUpdatesAndTotals() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        Thread[] threads = new Thread[4];
+        for (int k = 0; k < threads.length; k++) {
+            String worker = "Worker-" + k;
+            (threads[k] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    registry.getTaskMetrics("TaskA", worker).record(1000, 1);
+                    registry.getTaskMetrics("TaskB", worker).record(2000, 2);
+                }
+            })).start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, registry.getAll().size());
+        assertSame(registry.getTaskMetrics("TaskA", "Worker-0"), registry.getTaskMetrics("TaskA", "Worker-0"));
+
+        Map<String, TaskMetrics> byTask = registry.getByTask();
+        assertEquals(40000, byTask.get("TaskA").getItems());
+        assertEquals(80000, byTask.get("TaskB").getBytes());
+        assertEquals(40000L * 1000, byTask.get("TaskA").getNanos());
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.getTaskMetrics("TaskA", "Worker-0").record(5000, 100);
+        registry.getTaskMetrics("TaskA", "Worker-1").record(7000, 200);
+        File file = File.createTempFile("metrics", ".json");
+        file.deleteOnExit();
+        registry.writeJson(file);
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"name\" : \"TaskA\""));
+        assertTrue(json.contains("\"bytes\" : 300"));
+        assertTrue(json.contains("\"name\" : \"Worker-1\""));
+    }
+
+}
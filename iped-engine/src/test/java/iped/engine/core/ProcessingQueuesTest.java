@@ -0,0 +1,230 @@
+package iped.engine.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import iped.data.IItem;
+import iped.engine.data.Item;
+
+public class ProcessingQueuesTest {
+
+    private static final int NUM_WORKERS = 4;
+
+    /**
+     * Work stealing engine where plain test threads can act as workers, so their
+     * local deques and stealing are exercised too.
+     */
+    private static class TestWorkStealingProcessingQueues extends WorkStealingProcessingQueues {
+
+        private final ThreadLocal<Integer> workerId = ThreadLocal.withInitial(() -> -1);
+
+        private TestWorkStealingProcessingQueues() {
+            super(null, NUM_WORKERS);
+        }
+
+        @Override
+        int getCurrentWorkerId() {
+            return workerId.get();
+        }
+    }
+
+    private static List<ProcessingQueues> createEngines() {
+        List<ProcessingQueues> engines = new ArrayList<>();
+        engines.add(new SynchronizedProcessingQueues(null));
+        engines.add(new TestWorkStealingProcessingQueues());
+        return engines;
+    }
+
+    private static void setWorkerId(ProcessingQueues queues, int id) {
+        if (queues instanceof TestWorkStealingProcessingQueues) {
+            ((TestWorkStealingProcessingQueues) queues).workerId.set(id);
+        }
+    }
+
+    private static Item newItem(int id) {
+        Item item = new Item();
+        item.setId(id);
+        return item;
+    }
+
+    private static Item newQueueEnd() {
+        Item queueEnd = new Item();
+        queueEnd.setQueueEnd(true);
+        return queueEnd;
+    }
+
+    @Test
+    public void testPriorityOrderingAcrossQueues() throws InterruptedException {
+        for (ProcessingQueues queues : createEngines()) {
+            String engine = queues.getClass().getSimpleName();
+            queues.enqueue(newItem(10), 1, false, false);
+            queues.enqueue(newItem(1), 0, false, true);
+            queues.enqueue(newItem(11), 1, false, false);
+            queues.enqueue(newItem(2), 0, false, true);
+            queues.enqueue(newItem(0), 0, true, true);
+            queues.enqueue(newQueueEnd(), 0, false, false);
+            queues.enqueue(newQueueEnd(), 1, false, false);
+
+            assertEquals(engine, Integer.valueOf(0), queues.getCurrentQueuePriority());
+            for (int id = 0; id <= 2; id++) {
+                assertEquals(engine, id, queues.takeItem().getId());
+                queues.decItemsBeingProcessed();
+            }
+            assertTrue(engine, queues.takeItem().isQueueEnd());
+            assertTrue(engine, queues.isNoItemInQueueOrBeingProcessed());
+
+            assertEquals(engine, Integer.valueOf(1), queues.changeToNextQueue());
+            assertFalse(engine, queues.isNoItemInQueueOrBeingProcessed());
+            assertEquals(engine, 10, queues.takeItem().getId());
+            assertEquals(engine, 11, queues.takeItem().getId());
+            assertEquals(engine, 2, queues.getItemsBeingProcessed());
+            queues.decItemsBeingProcessed();
+            queues.decItemsBeingProcessed();
+            assertTrue(engine, queues.takeItem().isQueueEnd());
+
+            // remaining queues were never used
+            while (queues.changeToNextQueue() != null) {
+                assertEquals(engine, 0, queues.getCurrentQueueSize());
+                assertNull(engine, queues.peekItemFromCurrentQueue());
+            }
+        }
+    }
+
+    @Test
+    public void testQueueEndAfterItems() throws InterruptedException {
+        for (ProcessingQueues queues : createEngines()) {
+            String engine = queues.getClass().getSimpleName();
+            Item queueEnd = newQueueEnd();
+            queues.enqueue(newItem(0), 0, false, true);
+            queues.enqueue(queueEnd, 0, false, false);
+
+            IItem item = queues.takeItem();
+            assertEquals(engine, 0, item.getId());
+            assertEquals(engine, 1, queues.getItemsBeingProcessed());
+            assertFalse(engine, queues.isNoItemInQueueOrBeingProcessed());
+
+            // subitem created while processing, must be taken before the queue end
+            queues.enqueue(newItem(1), 0, true, false);
+            assertEquals(engine, 1, queues.takeItem().getId());
+            queues.decItemsBeingProcessed();
+            queues.decItemsBeingProcessed();
+
+            IItem end = queues.takeItem();
+            assertSame(engine, queueEnd, end);
+            // queue ends are not accounted as being processed
+            assertEquals(engine, 0, queues.getItemsBeingProcessed());
+            assertTrue(engine, queues.isNoItemInQueueOrBeingProcessed());
+
+            // workers put it back and take it again while waiting for the queue change
+            queues.addLastToCurrentQueue(end);
+            assertSame(engine, queueEnd, queues.peekItemFromCurrentQueue());
+            assertSame(engine, queueEnd, queues.takeItem());
+        }
+    }
+
+    @Test
+    public void testQueueEndAddedBeforeItems() throws InterruptedException {
+        // producers may add the queue end while workers still add subitems
+        ProcessingQueues queues = new TestWorkStealingProcessingQueues();
+        Item queueEnd = newQueueEnd();
+        queues.enqueue(queueEnd, 0, false, false);
+        queues.enqueue(newItem(0), 0, false, true);
+        assertEquals(0, queues.takeItem().getId());
+        queues.decItemsBeingProcessed();
+        assertSame(queueEnd, queues.takeItem());
+    }
+
+    @Test
+    public void testConcurrentAddAndTake() throws Throwable {
+        final int numRoots = 2000;
+        final int subitemsPerRoot = 3;
+        for (ProcessingQueues queues : createEngines()) {
+            String engine = queues.getClass().getSimpleName();
+            if (queues instanceof WorkStealingProcessingQueues) {
+                // forces the producer to block, the synchronized engine would sleep for seconds
+                queues.maxQueueSize = 32;
+            }
+            ConcurrentHashMap<Integer, AtomicInteger> processed = new ConcurrentHashMap<>();
+            AtomicInteger nextSubitemId = new AtomicInteger(numRoots);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < numRoots; i++) {
+                        queues.enqueue(newItem(i), 0, false, true);
+                    }
+                    queues.enqueue(newQueueEnd(), 0, false, false);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+
+            Thread[] workers = new Thread[NUM_WORKERS];
+            for (int w = 0; w < workers.length; w++) {
+                final int workerId = w;
+                workers[w] = new Thread(() -> {
+                    setWorkerId(queues, workerId);
+                    try {
+                        // same protocol used by Worker
+                        while (true) {
+                            IItem item = queues.takeItem();
+                            if (item.isQueueEnd()) {
+                                boolean finished = queues.isNoItemInQueueOrBeingProcessed();
+                                queues.addLastToCurrentQueue(item);
+                                if (finished) {
+                                    return;
+                                }
+                                Thread.yield();
+                                continue;
+                            }
+                            processed.computeIfAbsent(item.getId(), k -> new AtomicInteger()).incrementAndGet();
+                            if (item.getId() < numRoots) {
+                                for (int i = 0; i < subitemsPerRoot; i++) {
+                                    queues.enqueue(newItem(nextSubitemId.getAndIncrement()), 0, true, false);
+                                }
+                            }
+                            queues.decItemsBeingProcessed();
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+            }
+
+            producer.start();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            producer.join(60000);
+            for (Thread worker : workers) {
+                worker.join(60000);
+                assertFalse(engine + " worker did not finish", worker.isAlive());
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+
+            int total = numRoots * (1 + subitemsPerRoot);
+            assertEquals(engine, total, nextSubitemId.get());
+            assertEquals(engine, total, processed.size());
+            for (int id = 0; id < total; id++) {
+                assertEquals(engine + " item " + id, 1, processed.get(id).get());
+            }
+            assertEquals(engine, 0, queues.getItemsBeingProcessed());
+            assertTrue(engine, queues.takeItem().isQueueEnd());
+            assertTrue(engine, queues.isNoItemInQueueOrBeingProcessed());
+        }
+    }
+
+}
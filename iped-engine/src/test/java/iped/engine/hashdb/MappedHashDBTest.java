@@ -0,0 +1,148 @@
+package iped.engine.hashdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedHashDBTest {
+
+    private static final String MD5_A = "0123456789abcdef0123456789abcdef";
+    private static final String MD5_B = "fedcba9876543210fedcba9876543210";
+    private static final String MD5_ABSENT = "00000000000000000000000000000001";
+    private static final String SHA1_A = "0123456789abcdef0123456789abcdef01234567";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int nextHashId = 1;
+
+    private void addHash(Connection conn, String md5, String sha1, String status, String set) throws Exception {
+        int hashId = nextHashId++;
+        try (PreparedStatement ps = conn.prepareStatement("insert into HASHES (HASH_ID, MD5, SHA1) values (?, ?, ?)")) {
+            ps.setInt(1, hashId);
+            ps.setBytes(2, md5 == null ? null : HashDB.hashStrToBytes(md5, 16));
+            ps.setBytes(3, sha1 == null ? null : HashDB.hashStrToBytes(sha1, 20));
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement("insert into HASHES_PROPERTIES values (?, ?, ?)")) {
+            ps.setInt(1, hashId);
+            ps.setInt(2, 1);
+            ps.setString(3, status);
+            ps.executeUpdate();
+            ps.setInt(2, 2);
+            ps.setString(3, set);
+            ps.executeUpdate();
+        }
+    }
+
+    private File createMappedDB() throws Exception {
+        File dbFile = folder.newFile("hashes.db");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath())) {
+            try (Statement stmt = conn.createStatement()) {
+                StringBuilder sb = new StringBuilder("create table HASHES (HASH_ID integer primary key");
+                for (String type : HashDB.hashTypes) {
+                    sb.append(", ").append(type).append(" blob");
+                }
+                stmt.executeUpdate(sb.append(")").toString());
+                stmt.executeUpdate(
+                        "create table HASHES_PROPERTIES (HASH_ID integer, PROPERTY_ID integer, VALUE text NOT NULL)");
+                stmt.executeUpdate("create table PROPERTIES (PROPERTY_ID integer, PROPERTY_NAME text NOT NULL)");
+                stmt.executeUpdate("insert into PROPERTIES values (1, 'status'), (2, 'set')");
+            }
+            addHash(conn, MD5_A, SHA1_A, "pedo", "setA");
+            addHash(conn, MD5_B, null, "known", "setB");
+            // same MD5 in another row, as in databases without unique hash indexes
+            addHash(conn, MD5_A, null, "pedo", "setC");
+            addHash(conn, MD5_B, null, "known", "setB");
+            MappedHashDB.export(conn, MappedHashDB.getMappedFile(dbFile));
+        }
+        assertTrue(dbFile.setLastModified(MappedHashDB.getMappedFile(dbFile).lastModified() - 10000));
+        return dbFile;
+    }
+
+    private static byte[][] hashes(String md5, String sha1) {
+        byte[][] hashes = new byte[HashDB.hashTypes.length][];
+        if (md5 != null) {
+            hashes[HashDB.hashType("MD5")] = HashDB.hashStrToBytes(md5, 16);
+        }
+        if (sha1 != null) {
+            hashes[HashDB.hashType("SHA1")] = HashDB.hashStrToBytes(sha1, 20);
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        MappedHashDB db = MappedHashDB.open(createMappedDB());
+        assertNotNull(db);
+        assertEquals(3, db.size(HashDB.hashType("MD5")));
+        assertEquals(1, db.size(HashDB.hashType("SHA1")));
+
+        Map<String, String> properties = new HashMap<>();
+        db.lookup(hashes(MD5_B, null), properties);
+        assertEquals("known", properties.get("status"));
+        assertEquals("setB", properties.get("set"));
+
+        properties.clear();
+        db.lookup(hashes(null, SHA1_A), properties);
+        assertEquals("setA", properties.get("set"));
+
+        properties.clear();
+        db.lookup(hashes(MD5_ABSENT, null), properties);
+        assertTrue(properties.isEmpty());
+    }
+
+    @Test
+    public void testDuplicatedHashRowsAreMerged() throws Exception {
+        MappedHashDB db = MappedHashDB.open(createMappedDB());
+        Map<String, String> properties = new HashMap<>();
+        db.lookup(hashes(MD5_A, SHA1_A), properties);
+        assertEquals("pedo", properties.get("status"));
+        String sets = properties.get("set");
+        assertTrue(sets, sets.contains("setA") && sets.contains("setC"));
+    }
+
+    @Test
+    public void testOutdatedMappedFile() throws Exception {
+        File dbFile = createMappedDB();
+        assertTrue(dbFile.setLastModified(MappedHashDB.getMappedFile(dbFile).lastModified() + 10000));
+        assertNull(MappedHashDB.open(dbFile));
+    }
+
+    @Test
+    public void testFailedExportLeavesNoPartialFile() throws Exception {
+        File mapFile = folder.newFile("hashes.map");
+        Files.write(mapFile.toPath(), new byte[] { 1, 2, 3 });
+        Connection failing = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    throw new SQLException("database is locked");
+                });
+        try {
+            MappedHashDB.export(failing, mapFile);
+            fail();
+        } catch (SQLException e) {
+            assertEquals("database is locked", e.getMessage());
+        }
+        assertFalse(new File(mapFile.getAbsolutePath() + ".tmp").exists());
+        assertEquals(3, mapFile.length());
+    }
+
+}
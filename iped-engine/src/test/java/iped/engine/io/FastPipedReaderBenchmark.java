@@ -0,0 +1,87 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of passing text from a writer thread to a reader thread, like
+ * ParsingReader does, through FastPipedReader and the JDK PipedReader. The
+ * writer uses chunk sizes similar to the ones written by Tika content handlers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FastPipedReaderBenchmark {
+
+    private static final int TEXT_CHARS = 16 * 1024 * 1024;
+
+    private static final int PIPE_SIZE = 128 * 1024;
+
+    @Param({ "64", "4096" })
+    private int writeChunk;
+
+    private final char[] chunk = new char[4096];
+    private final char[] readBuf = new char[8192];
+
+    private long transfer(Reader reader, Writer writer) throws Exception {
+        Thread thread = new Thread(() -> {
+            try {
+                for (int written = 0; written < TEXT_CHARS; written += writeChunk) {
+                    writer.write(chunk, 0, writeChunk);
+                }
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        long total = 0;
+        int i;
+        while ((i = reader.read(readBuf, 0, readBuf.length)) != -1) {
+            total += i;
+        }
+        thread.join();
+        return total;
+    }
+
+    @Benchmark
+    public void fastPipedReader(Blackhole bh) throws Exception {
+        FastPipedReader reader = new FastPipedReader(PIPE_SIZE, 60, 0);
+        bh.consume(transfer(reader, new FastPipedWriter(reader)));
+    }
+
+    @Benchmark
+    public void jdkPipedReader(Blackhole bh) throws Exception {
+        PipedReader reader = new PipedReader(PIPE_SIZE);
+        bh.consume(transfer(reader, new PipedWriter(reader)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(FastPipedReaderBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,135 @@
+package iped.engine.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class FastPipedReaderTest {
+
+    private static char[] createText(int length) {
+        Random random = new Random(length);
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) random.nextInt(Character.MIN_SURROGATE);
+        }
+        return text;
+    }
+
+    private static Thread startWriter(FastPipedWriter writer, char[] text, AtomicReference<Throwable> error) {
+        Thread thread = new Thread(() -> {
+            Random random = new Random(0);
+            try {
+                for (int off = 0; off < text.length;) {
+                    int len = Math.min(text.length - off, random.nextInt(3000));
+                    if (len == 1) {
+                        writer.write(text[off]);
+                    } else {
+                        writer.write(text, off, len);
+                    }
+                    off += len;
+                }
+                writer.close();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        char[] text = createText(5_000_000);
+        FastPipedReader reader = new FastPipedReader(1000, 60, 0);
+        FastPipedWriter writer = new FastPipedWriter(reader);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = startWriter(writer, text, error);
+
+        Random random = new Random(1);
+        char[] result = new char[text.length];
+        int pos = 0, i;
+        while (true) {
+            if (random.nextInt(10) == 0) {
+                if ((i = reader.read()) == -1) {
+                    break;
+                }
+                result[pos++] = (char) i;
+            } else {
+                if ((i = reader.read(result, pos, Math.min(result.length - pos, 1 + random.nextInt(2000)))) == -1) {
+                    break;
+                }
+                pos += i;
+            }
+            if (pos == result.length) {
+                assertEquals(-1, reader.read());
+                break;
+            }
+        }
+        thread.join();
+        assertEquals(null, error.get());
+        assertEquals(text.length, pos);
+        for (int k = 0; k < text.length; k++) {
+            assertEquals(text[k], result[k]);
+        }
+        assertFalse(reader.ready());
+        assertEquals(-1, reader.read(new char[10], 0, 10));
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        FastPipedReader reader = new FastPipedReader(100, 1, 0);
+        FastPipedWriter writer = new FastPipedWriter(reader);
+        writer.write("abc");
+        assertTrue(reader.ready());
+        assertEquals(3, reader.read(new char[10], 0, 10));
+        long start = System.currentTimeMillis();
+        try {
+            reader.read();
+            fail("should time out");
+        } catch (TimeoutException e) {
+            assertTrue(System.currentTimeMillis() - start >= 1000);
+        }
+        assertFalse(reader.setTimeoutPaused(false));
+    }
+
+    @Test
+    public void testTimeoutPaused() throws Exception {
+        FastPipedReader reader = new FastPipedReader(100, 1, 0);
+        FastPipedWriter writer = new FastPipedWriter(reader);
+        reader.setTimeoutPaused(true);
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(2500);
+                assertTrue(reader.setTimeoutPaused(false));
+                writer.write('x');
+                writer.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        assertEquals('x', reader.read());
+        assertEquals(-1, reader.read());
+        thread.join();
+    }
+
+    @Test
+    public void testWriterFailsAfterReaderClosed() throws Exception {
+        FastPipedReader reader = new FastPipedReader(10, 60, 0);
+        FastPipedWriter writer = new FastPipedWriter(reader);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = startWriter(writer, createText(100_000), error);
+        reader.read(new char[5], 0, 5);
+        reader.close();
+        thread.join();
+        assertTrue(error.get() instanceof IOException);
+    }
+
+}
@@ -0,0 +1,106 @@
+package iped.engine.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import iped.io.SeekableInputStream;
+import iped.utils.SeekableByteBufferInputStream;
+
+public class ItemContentCacheTest {
+
+    private static byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ItemContentCache.StreamOpener opener(byte[] bytes) {
+        return () -> new SeekableByteBufferInputStream(ByteBuffer.wrap(bytes));
+    }
+
+    @After
+    public void disable() {
+        ItemContentCache.disable();
+    }
+
+    @Test
+    public void testLoadAndRelease() throws IOException {
+        ItemContentCache.enable(1 << 20, 1 << 16, false);
+        byte[] bytes = randomBytes(25_000);
+        ItemContentCache.Content content = ItemContentCache.load(this, bytes.length, opener(bytes));
+        assertNotNull(content);
+        assertEquals(bytes.length, ItemContentCache.getUsedBytes());
+
+        // streams are independent
+        try (SeekableInputStream in1 = content.newStream(); SeekableInputStream in2 = content.newStream()) {
+            assertArrayEquals(bytes, IOUtils.toByteArray(in1));
+            in2.seek(10);
+            assertEquals(bytes[10] & 0xFF, in2.read());
+            assertEquals(bytes.length, in2.size());
+        }
+
+        content.release();
+        content.release();
+        assertEquals(0, ItemContentCache.getUsedBytes());
+    }
+
+    @Test
+    public void testOffHeap() throws IOException {
+        ItemContentCache.enable(1 << 20, 1 << 20, true);
+        byte[] bytes = randomBytes(200_000);
+        ItemContentCache.Content content = ItemContentCache.load(this, bytes.length, opener(bytes));
+        try (SeekableInputStream in = content.newStream()) {
+            assertArrayEquals(bytes, IOUtils.toByteArray(in));
+        }
+        content.release();
+        assertEquals(0, ItemContentCache.getUsedBytes());
+    }
+
+    @Test
+    public void testLimits() throws IOException {
+        ItemContentCache.enable(800, 600, false);
+        byte[] bytes = randomBytes(500);
+        // too big
+        assertNull(ItemContentCache.load(this, 700, opener(randomBytes(700))));
+        ItemContentCache.Content content = ItemContentCache.load(this, bytes.length, opener(bytes));
+        assertNotNull(content);
+        // over the global budget
+        assertNull(ItemContentCache.load(this, bytes.length, opener(bytes)));
+        content.release();
+        content = ItemContentCache.load(this, bytes.length, opener(bytes));
+        assertNotNull(content);
+        content.release();
+
+        ItemContentCache.disable();
+        assertNull(ItemContentCache.load(this, 10, opener(randomBytes(10))));
+    }
+
+    @Test
+    public void testWrongLengthAndErrors() throws IOException {
+        ItemContentCache.enable(1000, 1000, false);
+        byte[] bytes = randomBytes(300);
+        // stream longer than item length is not cached
+        assertNull(ItemContentCache.load(this, 200, opener(bytes)));
+        // shorter stream is cached as it is
+        ItemContentCache.Content content = ItemContentCache.load(this, 400, opener(bytes));
+        assertEquals(300, content.size());
+        assertEquals(400, ItemContentCache.getUsedBytes());
+
+        assertNull(ItemContentCache.load(this, 100, () -> {
+            throw new IOException("read error");
+        }));
+        assertEquals(400, ItemContentCache.getUsedBytes());
+        content.release();
+    }
+
+}
@@ -0,0 +1,336 @@
+package iped.engine.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import iped.io.SeekableInputStream;
+import iped.utils.HashValue;
+
+public class PackFileStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] compressibleBytes(int len) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) ('a' + (i / 100) % 26);
+        }
+        return bytes;
+    }
+
+    private static HashValue hash(int i) {
+        byte[] bytes = new byte[16];
+        Arrays.fill(bytes, (byte) i);
+        return new HashValue(bytes);
+    }
+
+    @After
+    public void resetMaxAppendedEntries() {
+        PackFileStore.maxAppendedEntries = 1 << 18;
+    }
+
+    private static byte[] read(PackFileStore store, HashValue hash) throws IOException {
+        try (SeekableInputStream is = store.openStream(hash)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    /**
+     * Closes the store but restores its index files to the state before closing,
+     * like after an abrupt shutdown without merging the journal.
+     */
+    private void crash(PackFileStore store) throws IOException {
+        store.commit();
+        File[] indexFiles = folder.getRoot()
+                .listFiles((dir, name) -> name.endsWith(PackFileStore.INDEX_EXT) || name.endsWith(".sidx"));
+        File backupDir = folder.newFolder();
+        for (File f : indexFiles) {
+            Files.copy(f.toPath(), new File(backupDir, f.getName()).toPath());
+        }
+        store.close();
+        for (File f : backupDir.listFiles()) {
+            Files.copy(f.toPath(), new File(folder.getRoot(), f.getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Test
+    public void testPutAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        byte[] random = randomBytes(3 * PackFileStore.CHUNK_SIZE + 123);
+        byte[] text = compressibleBytes(PackFileStore.CHUNK_SIZE + 1);
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            assertTrue(store.put(hash(1), random, 0, random.length));
+            assertTrue(store.put(hash(2), text, 0, text.length));
+            assertFalse(store.put(hash(1), random, 0, random.length));
+            assertEquals(2, store.size());
+            assertArrayEquals(random, read(store, hash(1)));
+            assertArrayEquals(text, read(store, hash(2)));
+            assertNull(store.openStream(hash(3)));
+        }
+        assertTrue(file.length() < random.length + text.length);
+
+        try (PackFileStore store = PackFileStore.get(file)) {
+            assertEquals(2, store.size());
+            assertArrayEquals(text, read(store, hash(2)));
+        }
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        byte[] bytes = compressibleBytes(5 * PackFileStore.CHUNK_SIZE);
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            store.put(hash(1), bytes, 0, bytes.length);
+            try (SeekableInputStream is = store.openStream(hash(1))) {
+                assertEquals(bytes.length, is.size());
+                long[] positions = { 4 * PackFileStore.CHUNK_SIZE + 7, 10, PackFileStore.CHUNK_SIZE - 1 };
+                for (long pos : positions) {
+                    is.seek(pos);
+                    byte[] buf = new byte[100];
+                    int read = IOUtils.read(is, buf);
+                    assertEquals(100, read);
+                    assertArrayEquals(Arrays.copyOfRange(bytes, (int) pos, (int) pos + 100), buf);
+                    assertEquals(pos + 100, is.position());
+                }
+                is.seek(bytes.length);
+                assertEquals(-1, is.read());
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordIsDiscarded() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        byte[] bytes = randomBytes(1000);
+        PackFileStore store = PackFileStore.openForWriting(file);
+        store.put(hash(1), bytes, 0, bytes.length);
+        store.put(hash(2), bytes, 0, bytes.length);
+        crash(store);
+        // simulates an interrupted write of the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        try (PackFileStore reopened = PackFileStore.openForWriting(file)) {
+            assertEquals(1, reopened.size());
+            assertArrayEquals(bytes, read(reopened, hash(1)));
+            assertTrue(reopened.put(hash(2), bytes, 0, bytes.length));
+            assertArrayEquals(bytes, read(reopened, hash(2)));
+        }
+    }
+
+    @Test
+    public void testRetain() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            for (int i = 0; i < 10; i++) {
+                byte[] bytes = randomBytes(1000 + i);
+                store.put(hash(i), bytes, 0, bytes.length);
+            }
+            long size = file.length();
+            assertEquals(5, store.retain(hash -> hash.getBytes()[0] % 2 == 0));
+            assertEquals(5, store.size());
+            assertTrue(file.length() < size);
+            for (int i = 0; i < 10; i++) {
+                if (i % 2 == 0) {
+                    assertArrayEquals(randomBytes(1000 + i), read(store, hash(i)));
+                } else {
+                    assertNull(store.openStream(hash(i)));
+                }
+            }
+        }
+        try (PackFileStore store = PackFileStore.get(file)) {
+            assertEquals(5, store.size());
+            assertArrayEquals(randomBytes(1008), read(store, hash(8)));
+        }
+    }
+
+    private void putTenContents(File file) throws IOException {
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            for (int i = 0; i < 10; i++) {
+                byte[] bytes = randomBytes(1000 + i);
+                store.put(hash(i), bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    private void assertRetained(PackFileStore store) throws IOException {
+        assertEquals(5, store.size());
+        for (int i = 0; i < 10; i++) {
+            if (i % 2 == 0) {
+                assertArrayEquals(randomBytes(1000 + i), read(store, hash(i)));
+            } else {
+                assertNull(store.openStream(hash(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testRetainInterruptedAfterGenerationSwitch() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        putTenContents(file);
+        File oldPack = new File(folder.newFolder(), file.getName());
+        Files.copy(file.toPath(), oldPack.toPath());
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            assertEquals(5, store.retain(hash -> hash.getBytes()[0] % 2 == 0));
+        }
+        // journal header and sorted index already switched to generation 2, but the
+        // compacted pack did not replace the old one yet
+        File pending = new File(folder.getRoot(), file.getName() + ".2" + PackFileStore.PENDING_PACK_EXT);
+        Files.move(file.toPath(), pending.toPath());
+        Files.copy(oldPack.toPath(), file.toPath());
+
+        try (PackFileStore store = PackFileStore.get(file)) {
+            assertRetained(store);
+        }
+        assertTrue(pending.exists());
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            assertRetained(store);
+        }
+        assertFalse(pending.exists());
+        assertTrue(file.length() < oldPack.length());
+    }
+
+    @Test
+    public void testRetainInterruptedBeforeGenerationSwitch() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        putTenContents(file);
+        File backupDir = folder.newFolder();
+        for (File f : folder.getRoot().listFiles(File::isFile)) {
+            Files.copy(f.toPath(), new File(backupDir, f.getName()).toPath());
+        }
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            assertEquals(5, store.retain(hash -> hash.getBytes()[0] % 2 == 0));
+        }
+        // compacted pack and its sorted index written, but the journal header still
+        // tells the old generation
+        File pending = new File(folder.getRoot(), file.getName() + ".2" + PackFileStore.PENDING_PACK_EXT);
+        File newSortedIndex = new File(folder.getRoot(), "pack-0.2" + PackFileStore.SORTED_INDEX_EXT);
+        assertTrue(newSortedIndex.exists());
+        Files.move(file.toPath(), pending.toPath());
+        for (File f : backupDir.listFiles()) {
+            Files.copy(f.toPath(), new File(folder.getRoot(), f.getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            assertEquals(10, store.size());
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(randomBytes(1000 + i), read(store, hash(i)));
+            }
+        }
+        assertFalse(pending.exists());
+        assertFalse(newSortedIndex.exists());
+    }
+
+    @Test
+    public void testStreamOpenedBeforeRetain() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        byte[] bytes = compressibleBytes(3 * PackFileStore.CHUNK_SIZE);
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            store.put(hash(1), randomBytes(1000), 0, 1000);
+            store.put(hash(2), bytes, 0, bytes.length);
+            try (SeekableInputStream is = store.openStream(hash(2))) {
+                byte[] buf = new byte[100];
+                assertEquals(100, IOUtils.read(is, buf));
+                assertEquals(1, store.retain(hash -> hash.getBytes()[0] == 2));
+                // the stream keeps reading the old pack
+                is.seek(2 * PackFileStore.CHUNK_SIZE);
+                buf = new byte[PackFileStore.CHUNK_SIZE];
+                assertEquals(buf.length, IOUtils.read(is, buf));
+                assertArrayEquals(Arrays.copyOfRange(bytes, 2 * PackFileStore.CHUNK_SIZE, bytes.length), buf);
+            }
+            assertArrayEquals(bytes, read(store, hash(2)));
+        }
+    }
+
+    @Test
+    public void testStreamOpenedBeforeClose() throws IOException {
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        byte[] bytes = randomBytes(2 * PackFileStore.CHUNK_SIZE);
+        PackFileStore store = PackFileStore.openForWriting(file);
+        store.put(hash(1), bytes, 0, bytes.length);
+        try (SeekableInputStream is = store.openStream(hash(1))) {
+            store.close();
+            assertArrayEquals(bytes, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testSortedIndexGenerations() throws IOException {
+        PackFileStore.maxAppendedEntries = 4;
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        try (PackFileStore store = PackFileStore.openForWriting(file)) {
+            // in reverse order, so merges interleave new and sorted entries
+            for (int i = 20; i > 0; i -= 2) {
+                store.put(hash(i), randomBytes(100 + i), 0, 100 + i);
+            }
+            for (int i = 1; i < 20; i += 2) {
+                store.put(hash(i), randomBytes(100 + i), 0, 100 + i);
+                assertFalse(store.put(hash(i), randomBytes(100 + i), 0, 100 + i));
+            }
+            assertEquals(20, store.size());
+            for (int i = 1; i <= 20; i++) {
+                assertTrue(store.contains(hash(i)));
+                assertArrayEquals(randomBytes(100 + i), read(store, hash(i)));
+            }
+            assertFalse(store.contains(hash(0)));
+            assertNull(store.openStream(hash(21)));
+        }
+        // entries appended since the last merge were sorted when closing
+        assertEquals(16, new File(folder.getRoot(), "pack-0.idx").length());
+        File[] sortedIndexes = folder.getRoot().listFiles((dir, name) -> name.endsWith(".sidx"));
+        assertEquals(1, sortedIndexes.length);
+
+        try (PackFileStore store = PackFileStore.get(file)) {
+            assertEquals(20, store.size());
+            for (int i = 1; i <= 20; i++) {
+                assertArrayEquals(randomBytes(100 + i), read(store, hash(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testJournalEntriesAfterCrash() throws IOException {
+        PackFileStore.maxAppendedEntries = 4;
+        File file = new File(folder.getRoot(), "pack-0.pack");
+        PackFileStore store = PackFileStore.openForWriting(file);
+        for (int i = 1; i <= 6; i++) {
+            store.put(hash(i), randomBytes(100 + i), 0, 100 + i);
+        }
+        // the last entries are only in the journal
+        crash(store);
+
+        try (PackFileStore reopened = PackFileStore.openForWriting(file)) {
+            assertEquals(6, reopened.size());
+            for (int i = 1; i <= 6; i++) {
+                assertArrayEquals(randomBytes(100 + i), read(reopened, hash(i)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package iped.engine.search;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import iped.engine.task.similarity.ImageSimilarity;
+
+/**
+ * Time per million comparisons of image features and face encodings, with the
+ * previous scalar loops as baseline. Cuts are never reached, so full vectors
+ * are compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class DistanceKernelsBenchmark {
+
+    private static final int COMPARISONS = 1_000_000;
+    private static final int NUM_VECTORS = 1024;
+    private static final int FACE_DIM = 128;
+
+    private byte[] refImage;
+    private byte[][] images;
+    private float[] refFace;
+    private float[][] faces;
+    private byte[][] faceBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        refImage = new byte[ImageSimilarity.numFeatures];
+        random.nextBytes(refImage);
+        images = new byte[NUM_VECTORS][ImageSimilarity.numFeatures];
+        refFace = new float[FACE_DIM];
+        faces = new float[NUM_VECTORS][FACE_DIM];
+        faceBytes = new byte[NUM_VECTORS][];
+        for (int i = 0; i < FACE_DIM; i++) {
+            refFace[i] = (float) random.nextGaussian() * 0.1f;
+        }
+        for (int v = 0; v < NUM_VECTORS; v++) {
+            random.nextBytes(images[v]);
+            ByteBuffer bb = ByteBuffer.allocate(FACE_DIM * 4);
+            for (int i = 0; i < FACE_DIM; i++) {
+                faces[v][i] = (float) random.nextGaussian() * 0.1f;
+                bb.putFloat(faces[v][i]);
+            }
+            faceBytes[v] = bb.array();
+        }
+    }
+
+    private static int scalarDistance(byte[] a, byte[] b, int cut) {
+        int distance = 0;
+        for (int i = 4; i < a.length && distance < cut;) {
+            int d = a[i] - b[i++];
+            distance += d * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d;
+        }
+        return distance;
+    }
+
+    private static float scalarDistance(float[] a, float[] b, float cut) {
+        float distance = 0;
+        for (int i = 0; i < a.length && distance <= cut;) {
+            float d = a[i] - b[i++];
+            distance += d * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d + (d = a[i] - b[i++]) * d;
+        }
+        return distance;
+    }
+
+    private static float[] decode(byte[] bytes) {
+        float[] result = new float[bytes.length / 4];
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bb.getFloat();
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public long imageScalar() {
+        long sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += scalarDistance(refImage, images[i & (NUM_VECTORS - 1)], Integer.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public long imageKernel() {
+        long sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += ImageSimilarity.distance(refImage, images[i & (NUM_VECTORS - 1)], Integer.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public float faceScalarDecoded() {
+        float sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += scalarDistance(refFace, decode(faceBytes[i & (NUM_VECTORS - 1)]), Float.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public float faceKernelFromBytes() {
+        float sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += DistanceKernels.squaredDistance(refFace, faceBytes[i & (NUM_VECTORS - 1)], 0, Float.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public float faceScalar() {
+        float sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += scalarDistance(refFace, faces[i & (NUM_VECTORS - 1)], Float.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMPARISONS)
+    public float faceKernel() {
+        float sum = 0;
+        for (int i = 0; i < COMPARISONS; i++) {
+            sum += DistanceKernels.squaredDistance(refFace, faces[i & (NUM_VECTORS - 1)], Float.MAX_VALUE);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(DistanceKernelsBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
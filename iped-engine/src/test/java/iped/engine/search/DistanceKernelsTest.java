@@ -0,0 +1,92 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DistanceKernelsTest {
+
+    private static int scalarDistance(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        int dist = 0;
+        for (int i = 0; i < len; i++) {
+            int d = a[aOff + i] - b[bOff + i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private static float scalarDistance(float[] a, float[] b) {
+        float dist = 0;
+        for (int i = 0; i < a.length; i++) {
+            float d = a[i] - b[i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private static float[] randomFloats(Random random, int len) {
+        float[] v = new float[len];
+        for (int i = 0; i < len; i++) {
+            v[i] = (float) random.nextGaussian() * 0.1f;
+        }
+        return v;
+    }
+
+    private static byte[] toBytes(float[] v, int offset) {
+        ByteBuffer bb = ByteBuffer.allocate(offset + v.length * 4);
+        bb.position(offset);
+        for (float f : v) {
+            bb.putFloat(f);
+        }
+        return bb.array();
+    }
+
+    @Test
+    public void testByteDistance() {
+        Random random = new Random(0);
+        for (int len : new int[] { 0, 5, 16, 33, 1040 }) {
+            byte[] a = new byte[len + 3];
+            byte[] b = new byte[len + 7];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            int expected = scalarDistance(a, 3, b, 7, len);
+            assertEquals(expected, DistanceKernels.squaredDistance(a, 3, b, 7, len, Integer.MAX_VALUE));
+            if (expected > 0) {
+                // stopped early, but still not lower than the cut
+                int cut = expected / 3;
+                int dist = DistanceKernels.squaredDistance(a, 3, b, 7, len, cut);
+                assertTrue(dist >= cut && dist <= expected);
+            }
+        }
+    }
+
+    @Test
+    public void testFloatDistance() {
+        Random random = new Random(1);
+        for (int len : new int[] { 3, 16, 128, 130 }) {
+            float[] a = randomFloats(random, len);
+            float[] b = randomFloats(random, len);
+            float expected = scalarDistance(a, b);
+            assertEquals(expected, DistanceKernels.squaredDistance(a, b, Float.MAX_VALUE), expected * 1e-5f);
+            assertEquals(expected, DistanceKernels.squaredDistance(a, toBytes(b, 5), 5, Float.MAX_VALUE),
+                    expected * 1e-5f);
+            float cut = expected / 4;
+            assertTrue(DistanceKernels.squaredDistance(a, b, cut) > cut);
+            assertTrue(DistanceKernels.squaredDistance(a, toBytes(b, 0), 0, cut) > cut);
+        }
+    }
+
+    @Test
+    public void testToFloatVector() {
+        float[] v = randomFloats(new Random(2), 128);
+        float[] decoded = new float[v.length];
+        DistanceKernels.toFloatVector(toBytes(v, 11), 11, decoded);
+        assertArrayEquals(v, decoded, 0);
+    }
+
+}
@@ -0,0 +1,143 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class IVFVectorIndexTest {
+
+    private static final int DIM = 16;
+
+    private static class ArrayVectorSource implements IVFVectorIndex.VectorSource {
+
+        private final float[][] vectors;
+
+        private ArrayVectorSource(float[][] vectors) {
+            this.vectors = vectors;
+        }
+
+        @Override
+        public int size() {
+            return vectors.length;
+        }
+
+        @Override
+        public int getId(int i) {
+            // two vectors per id, like items with more than one face
+            return i / 2;
+        }
+
+        @Override
+        public void getVector(int i, float[] dst) {
+            System.arraycopy(vectors[i], 0, dst, 0, DIM);
+        }
+    }
+
+    private static float[][] createVectors(int n, Random random) {
+        float[][] groups = new float[50][DIM];
+        for (float[] group : groups) {
+            for (int j = 0; j < DIM; j++) {
+                group[j] = (float) random.nextGaussian();
+            }
+        }
+        float[][] vectors = new float[n][DIM];
+        for (int i = 0; i < n; i++) {
+            float[] group = groups[random.nextInt(groups.length)];
+            for (int j = 0; j < DIM; j++) {
+                vectors[i][j] = group[j] + (float) random.nextGaussian() * 0.2f;
+            }
+        }
+        return vectors;
+    }
+
+    private static float squaredDistance(float[] a, float[] b) {
+        float dist = 0;
+        for (int i = 0; i < a.length; i++) {
+            float d = a[i] - b[i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    private static IVFVectorIndex createIndex(float[][] vectors, long stamp) throws IOException {
+        File file = File.createTempFile("ivfindex", ".dat");
+        file.deleteOnExit();
+        IVFVectorIndex.write(new ArrayVectorSource(vectors), DIM, stamp, file);
+        assertNull(IVFVectorIndex.load(file, stamp + 1));
+        return IVFVectorIndex.load(file, stamp);
+    }
+
+    @Test
+    public void testRadiusSearchSameAsBruteForce() throws IOException {
+        Random random = new Random(0);
+        float[][] vectors = createVectors(5000, random);
+        IVFVectorIndex index = createIndex(vectors, 1);
+        assertEquals(vectors.length, index.size());
+
+        for (int q = 0; q < 20; q++) {
+            float[] query = vectors[random.nextInt(vectors.length)];
+            float maxSquaredDist = 1.0f;
+            Map<Integer, Float> expected = new TreeMap<>();
+            for (int i = 0; i < vectors.length; i++) {
+                float dist = squaredDistance(query, vectors[i]);
+                if (dist <= maxSquaredDist) {
+                    expected.merge(i / 2, dist, Math::min);
+                }
+            }
+            Map<Integer, Float> result = new TreeMap<>();
+            index.search(query, maxSquaredDist, (id, dist) -> result.merge(id, dist, Math::min));
+            assertEquals(expected.keySet(), result.keySet());
+        }
+    }
+
+    @Test
+    public void testNearestNeighbors() throws IOException {
+        Random random = new Random(1);
+        float[][] vectors = createVectors(3000, random);
+        IVFVectorIndex index = createIndex(vectors, 2);
+
+        for (int q = 0; q < 20; q++) {
+            float[] query = createVectors(1, random)[0];
+            Integer[] order = new Integer[vectors.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> squaredDistance(query, vectors[i])));
+            List<Float> expected = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                expected.add(squaredDistance(query, vectors[order[i]]));
+            }
+            List<Float> result = new ArrayList<>();
+            index.search(query, 10, (id, dist) -> result.add(dist));
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void testNearestNeighborsNoHits() throws IOException {
+        Random random = new Random(3);
+        float[][] vectors = createVectors(500, random);
+        IVFVectorIndex index = createIndex(vectors, 3);
+
+        float[] query = createVectors(1, random)[0];
+        List<Float> result = new ArrayList<>();
+        index.search(query, 0, (id, dist) -> result.add(dist));
+        index.search(query, -1, (id, dist) -> result.add(dist));
+        assertEquals(0, result.size());
+
+        index.search(query, 1000, (id, dist) -> result.add(dist));
+        assertEquals(vectors.length, result.size());
+    }
+
+}
@@ -0,0 +1,149 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import iped.engine.task.similarity.ImageSimilarity;
+
+public class ImageSimilarityIndexTest {
+
+    private static final int NUM_GROUPS = 40;
+
+    private static class ArrayFeatureSource implements ImageSimilarityIndex.FeatureSource {
+
+        private final byte[][] features;
+        private int i = -1;
+
+        private ArrayFeatureSource(byte[][] features) {
+            this.features = features;
+        }
+
+        @Override
+        public boolean next() {
+            return ++i < features.length;
+        }
+
+        @Override
+        public int getId() {
+            return i;
+        }
+
+        @Override
+        public byte[] getFeatures() {
+            return features[i];
+        }
+    }
+
+    /**
+     * Creates features around some group centers, every 10th image is a near
+     * duplicate of the previous one.
+     */
+    private static byte[][] createFeatures(int n, Random random) {
+        byte[][] groups = new byte[NUM_GROUPS][ImageSimilarity.numFeatures];
+        for (byte[] group : groups) {
+            random.nextBytes(group);
+        }
+        byte[][] features = new byte[n][ImageSimilarity.numFeatures];
+        for (int i = 0; i < n; i++) {
+            byte[] base = i % 10 == 9 ? features[i - 1] : groups[random.nextInt(NUM_GROUPS)];
+            int noise = i % 10 == 9 ? 1 : 24;
+            for (int j = 0; j < ImageSimilarity.numFeatures; j++) {
+                int v = base[j] + random.nextInt(2 * noise + 1) - noise;
+                features[i][j] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, v));
+            }
+        }
+        return features;
+    }
+
+    private static ImageSimilarityIndex createIndex(byte[][] features, long stamp) throws IOException {
+        File file = File.createTempFile("imgindex", ".dat");
+        file.deleteOnExit();
+        assertEquals(features.length, ImageSimilarityIndex.write(new ArrayFeatureSource(features), stamp, file));
+        assertNull(ImageSimilarityIndex.load(file, stamp + 1));
+        return ImageSimilarityIndex.load(file, stamp);
+    }
+
+    @Test
+    public void testRadiusSearchSameAsBruteForce() throws IOException {
+        Random random = new Random(0);
+        byte[][] features = createFeatures(3000, random);
+        ImageSimilarityIndex index = createIndex(features, 1);
+        assertEquals(features.length, index.size());
+
+        for (int q = 0; q < 20; q++) {
+            byte[] query = features[random.nextInt(features.length)];
+            int maxDistance = 200000 + random.nextInt(300000);
+            Map<Integer, Integer> expected = new TreeMap<>();
+            for (int i = 0; i < features.length; i++) {
+                int dist = ImageSimilarity.distance(query, features[i]);
+                if (dist <= maxDistance) {
+                    expected.put(i, dist);
+                }
+            }
+            Map<Integer, Integer> result = new TreeMap<>();
+            index.search(query, maxDistance, result::put);
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void testNearestNeighbors() throws IOException {
+        Random random = new Random(1);
+        byte[][] features = createFeatures(3000, random);
+        ImageSimilarityIndex index = createIndex(features, 2);
+
+        for (int q = 0; q < 20; q++) {
+            byte[] query = createFeatures(1, random)[0];
+            Integer[] order = new Integer[features.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> ImageSimilarity.distance(query, features[i])));
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                expected.add(ImageSimilarity.distance(query, features[order[i]]));
+            }
+            List<Integer> result = new ArrayList<>();
+            index.searchNearest(query, 10, (id, dist) -> result.add(dist));
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void testNearDuplicateClusters() throws IOException {
+        Random random = new Random(2);
+        byte[][] features = createFeatures(2000, random);
+        ImageSimilarityIndex index = createIndex(features, 3);
+
+        // each near duplicate differs by at most 1 in each feature
+        int maxDistance = ImageSimilarity.numFeatures;
+        Set<Set<Integer>> expected = new HashSet<>();
+        for (int i = 9; i < features.length; i += 10) {
+            expected.add(new HashSet<>(Arrays.asList(i - 1, i)));
+        }
+        Set<Set<Integer>> result = new HashSet<>();
+        for (int[] cluster : index.findClusters(maxDistance)) {
+            Set<Integer> ids = new HashSet<>();
+            for (int id : cluster) {
+                ids.add(id);
+            }
+            result.add(ids);
+        }
+        assertEquals(expected, result);
+    }
+
+}
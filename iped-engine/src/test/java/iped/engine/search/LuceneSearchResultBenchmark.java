@@ -0,0 +1,104 @@
+package iped.engine.search;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Set operations over results of a 10M docs index, each result with about half
+ * of the docs, sorted by doc (not scored results) or in random order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class LuceneSearchResultBenchmark {
+
+    private static final int MAX_DOC = 10_000_000;
+
+    @Param({ "true", "false" })
+    private boolean sorted;
+
+    private LuceneSearchResult a, b;
+
+    private static LuceneSearchResult createResult(Random random, boolean sorted) {
+        int[] docs = random.ints(MAX_DOC / 2, 0, MAX_DOC).sorted().distinct().toArray();
+        if (!sorted) {
+            for (int i = docs.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = docs[i];
+                docs[i] = docs[j];
+                docs[j] = tmp;
+            }
+        }
+        float[] scores = new float[docs.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat();
+        }
+        return LuceneSearchResult.buildSearchResult(docs, scores);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        a = createResult(random, sorted);
+        b = createResult(random, sorted);
+    }
+
+    @Benchmark
+    public LuceneSearchResult intersect() {
+        return a.intersect(b);
+    }
+
+    @Benchmark
+    public LuceneSearchResult difference() {
+        return a.difference(b);
+    }
+
+    @Benchmark
+    public LuceneSearchResult union() {
+        return a.union(b);
+    }
+
+    /**
+     * Previous implementation: sort a copy of the other result and binary search
+     * each doc.
+     */
+    @Benchmark
+    public LuceneSearchResult binarySearchIntersect() {
+        LuceneSearchResult result = a.clone();
+        int[] docs2 = b.getLuceneIds().clone();
+        Arrays.sort(docs2);
+        int[] docs = result.getLuceneIds();
+        for (int i = 0; i < docs.length; i++)
+            if (Arrays.binarySearch(docs2, docs[i]) < 0)
+                docs[i] = -1;
+        result.clearResults();
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(LuceneSearchResultBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,92 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LuceneSearchResultTest {
+
+    private static LuceneSearchResult createResult(int... docs) {
+        float[] scores = new float[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            scores[i] = docs[i] / 10f;
+        }
+        return LuceneSearchResult.buildSearchResult(docs, scores);
+    }
+
+    @Test
+    public void testSortedResults() {
+        LuceneSearchResult a = createResult(1, 3, 5, 7, 9);
+        LuceneSearchResult b = createResult(2, 3, 4, 5, 10);
+        assertTrue(a.isSortedByDoc());
+
+        assertArrayEquals(new int[] { 3, 5 }, a.intersect(b).getLuceneIds());
+        assertArrayEquals(new float[] { 0.3f, 0.5f }, a.intersect(b).getScores(), 0);
+        assertArrayEquals(new int[] { 1, 7, 9 }, a.difference(b).getLuceneIds());
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 7, 9, 10 }, a.union(b).getLuceneIds());
+        assertEquals(8, a.add(b).getLength());
+        assertEquals(0, a.intersect(createResult()).getLength());
+        assertEquals(5, a.difference(createResult()).getLength());
+    }
+
+    @Test
+    public void testScoredResults() {
+        LuceneSearchResult a = LuceneSearchResult.buildSearchResult(new int[] { 9, 1, 5, 3 },
+                new float[] { 4, 3, 2, 1 });
+        LuceneSearchResult b = LuceneSearchResult.buildSearchResult(new int[] { 3, 9, 8 },
+                new float[] { 5, 1, 1 });
+        assertFalse(a.isSortedByDoc());
+
+        // keeps order and scores of the first result
+        LuceneSearchResult intersection = a.intersect(b);
+        assertArrayEquals(new int[] { 9, 3 }, intersection.getLuceneIds());
+        assertArrayEquals(new float[] { 4, 1 }, intersection.getScores(), 0);
+        assertArrayEquals(new int[] { 1, 5 }, a.difference(b).getLuceneIds());
+
+        LuceneSearchResult union = a.union(b);
+        assertArrayEquals(new int[] { 1, 3, 5, 8, 9 }, union.getLuceneIds());
+        assertArrayEquals(new float[] { 3, 5, 2, 1, 4 }, union.getScores(), 0);
+
+        LuceneSearchResult maxIntersection = a.intersectMaxScore(b);
+        assertArrayEquals(new int[] { 3, 9 }, maxIntersection.getLuceneIds());
+        assertArrayEquals(new float[] { 5, 4 }, maxIntersection.getScores(), 0);
+    }
+
+    @Test
+    public void testAgainstBitSets() {
+        Random random = new Random(0);
+        for (int n = 0; n < 20; n++) {
+            BitSet bitsA = new BitSet(), bitsB = new BitSet();
+            int[] docsA = random.ints(1000, 0, 3000).distinct().toArray();
+            int[] docsB = random.ints(1000, 0, 3000).distinct().toArray();
+            for (int doc : docsA)
+                bitsA.set(doc);
+            for (int doc : docsB)
+                bitsB.set(doc);
+            LuceneSearchResult a = createResult(docsA);
+            LuceneSearchResult b = createResult(docsB);
+            // unsorted and sorted paths must agree
+            for (LuceneSearchResult x : new LuceneSearchResult[] { a, a.sortByDoc() }) {
+                for (LuceneSearchResult y : new LuceneSearchResult[] { b, b.sortByDoc() }) {
+                    BitSet and = (BitSet) bitsA.clone();
+                    and.and(bitsB);
+                    assertEquals(and, x.intersect(y).getDocsBitSet());
+                    BitSet andNot = (BitSet) bitsA.clone();
+                    andNot.andNot(bitsB);
+                    assertEquals(andNot, x.difference(y).getDocsBitSet());
+                    BitSet or = (BitSet) bitsA.clone();
+                    or.or(bitsB);
+                    assertEquals(or, x.union(y).getDocsBitSet());
+                    assertEquals(or.cardinality(), x.union(y).getLength());
+                }
+            }
+        }
+    }
+
+}
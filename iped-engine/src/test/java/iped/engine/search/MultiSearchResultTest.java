@@ -0,0 +1,77 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import iped.data.IItemId;
+import iped.engine.data.ItemId;
+
+public class MultiSearchResultTest {
+
+    private static class EventItemId extends ItemId {
+
+        private EventItemId(int sourceId, int id) {
+            super(sourceId, id);
+        }
+    }
+
+    private static MultiSearchResult createResult(int len) {
+        IItemId[] ids = new IItemId[len];
+        float[] scores = new float[len];
+        for (int i = 0; i < len; i++) {
+            ids[i] = new ItemId(i % 2, i);
+            scores[i] = i / 10f;
+        }
+        return new MultiSearchResult(ids, scores);
+    }
+
+    @Test
+    public void testColumns() {
+        MultiSearchResult result = createResult(5);
+        assertEquals(5, result.getLength());
+        assertEquals(new ItemId(1, 3), result.getItem(3));
+        assertEquals(1, result.getSourceId(3));
+        assertEquals(3, result.getId(3));
+        int i = 0;
+        for (IItemId item : result.getIterator()) {
+            assertEquals(i++, item.getId());
+        }
+        MultiSearchResult clone = result.clone();
+        clone.setItem(0, new ItemId(1, 10));
+        assertEquals(0, result.getId(0));
+        assertSame(result, MultiSearchResult.of(result));
+    }
+
+    @Test
+    public void testFilter() {
+        MultiSearchResult result = createResult(100);
+        MultiSearchResult filtered = result.filter((sourceId, id) -> sourceId == 1 && id < 50);
+        assertEquals(25, filtered.getLength());
+        for (int i = 0; i < filtered.getLength(); i++) {
+            assertEquals(2 * i + 1, filtered.getId(i));
+            assertEquals((2 * i + 1) / 10f, filtered.getScore(i), 0);
+        }
+
+        BitSet rows = new BitSet();
+        rows.set(10, 20);
+        MultiSearchResult selected = result.select(rows);
+        assertEquals(10, selected.getLength());
+        assertEquals(new ItemId(1, 19), selected.getItem(9));
+    }
+
+    @Test
+    public void testItemSubclassesKept() {
+        IItemId event = new EventItemId(0, 7);
+        MultiSearchResult result = new MultiSearchResult(new IItemId[] { new ItemId(0, 1), event, new ItemId(0, 9) },
+                new float[3]);
+        assertSame(event, result.getItem(1));
+        assertSame(event, result.filter((sourceId, id) -> id > 5).getItem(0));
+        assertSame(event, result.clone().getItem(1));
+        assertEquals(ItemId.class, result.filter((sourceId, id) -> id == 9).getItem(0).getClass());
+    }
+
+}
@@ -0,0 +1,116 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import iped.engine.lucene.SlowCompositeReaderWrapper;
+import iped.properties.BasicProps;
+import iped.properties.ExtraProperties;
+import iped.utils.DateUtil;
+
+public class TimelineIndexTest {
+
+    private static final String T1 = "2019-03-01T08:00:00Z";
+    private static final String T2 = "2020-01-02T00:00:00Z";
+    private static final String T3 = "2021-05-05T10:30:00Z";
+
+    /**
+     * Adds timestamps like IndexItem does, timestamps must be in ascending order.
+     */
+    private static void addDoc(IndexWriter writer, String[] timeStamps, String[] groups, String eventOrds,
+            boolean epochs) throws Exception {
+        Document doc = new Document();
+        for (String timeStamp : timeStamps) {
+            doc.add(new SortedSetDocValuesField(BasicProps.TIMESTAMP, new BytesRef(timeStamp)));
+            if (epochs) {
+                doc.add(new SortedNumericDocValuesField(ExtraProperties.TIME_EVENT_EPOCHS,
+                        DateUtil.stringToDate(timeStamp).getTime()));
+            }
+        }
+        for (String group : groups) {
+            doc.add(new SortedSetDocValuesField(ExtraProperties.TIME_EVENT_GROUPS, new BytesRef(group)));
+        }
+        doc.add(new BinaryDocValuesField(ExtraProperties.TIME_EVENT_ORDS, new BytesRef(eventOrds)));
+        writer.addDocument(doc);
+    }
+
+    private static long epoch(String timeStamp) throws Exception {
+        return DateUtil.stringToDate(timeStamp).getTime();
+    }
+
+    private static int[] docs(TimelineIndex.EventColumn column) {
+        int[] docs = new int[column.size()];
+        column.getDocs(0, docs, 0, docs.length);
+        return docs;
+    }
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        File file = Files.createTempFile("timelineIndex", ".dat").toFile();
+        try (Directory dir = new ByteBuffersDirectory();
+                IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()))) {
+            // T2 is created and modified, T3 is accessed
+            addDoc(writer, new String[] { T2, T3 }, new String[] { "created | modified", "accessed" }, "1;0", true);
+            addDoc(writer, new String[] { T1 }, new String[] { "created" }, "0", true);
+            // old index without epochs, timestamps are parsed
+            addDoc(writer, new String[] { T1, T3 }, new String[] { "modified" }, "0,1", false);
+            addDoc(writer, new String[0], new String[0], "", false);
+            writer.commit();
+
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                assertEquals(6, TimelineIndex.write(SlowCompositeReaderWrapper.wrap(reader), reader.getVersion(), file));
+
+                assertNull(TimelineIndex.load(file, reader.getVersion() + 1));
+                TimelineIndex index = TimelineIndex.load(file, reader.getVersion());
+                assertEquals(new HashSet<>(Arrays.asList("accessed", "created", "modified")), index.getEvents());
+
+                TimelineIndex.EventColumn created = index.getEvent("created");
+                assertEquals(2, created.size());
+                assertEquals(epoch(T1), created.getTime(0));
+                assertEquals(epoch(T2), created.getTime(1));
+                assertEquals(Arrays.toString(new int[] { 1, 0 }), Arrays.toString(docs(created)));
+
+                TimelineIndex.EventColumn modified = index.getEvent("modified");
+                assertEquals(3, modified.size());
+                assertEquals(epoch(T1), modified.getTime(0));
+                assertEquals(epoch(T2), modified.getTime(1));
+                assertEquals(epoch(T3), modified.getTime(2));
+                assertEquals(Arrays.toString(new int[] { 2, 0, 2 }), Arrays.toString(docs(modified)));
+
+                TimelineIndex.EventColumn accessed = index.getEvent("accessed");
+                assertEquals(1, accessed.size());
+                assertEquals(epoch(T3), accessed.getTime(0));
+                assertEquals(0, accessed.getDoc(0));
+
+                assertNull(index.getEvent("deleted"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        assertNull(TimelineIndex.load(new File("missing/timelineIndex.dat"), 0));
+    }
+
+}
@@ -0,0 +1,114 @@
+package iped.engine.task.carver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.HitQueue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import iped.carvers.api.CarverType;
+import iped.carvers.api.Signature;
+import iped.io.SeekableInputStream;
+import iped.utils.SeekableByteBufferInputStream;
+
+public class CarverTaskTest {
+
+    private static final String[] SIGNATURES = { "\\FF\\D8\\FF", "\\FF\\D9", "RIFF????WAVE", "PK\\03\\04" };
+
+    private static final int SEGMENT_SIZE = 1000;
+
+    /**
+     * Records hits instead of carving, reading the content from an array.
+     */
+    private static class RecordingCarverTask extends CarverTask {
+
+        private final byte[] data;
+        private final List<String> found = new ArrayList<>();
+
+        private RecordingCarverTask(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        void notifyHit(Signature sig, long offset) {
+            found.add(offset + ":" + sig.getSigString());
+        }
+
+        @Override
+        void notifyEnd() {
+        }
+
+        @Override
+        SeekableInputStream openSegmentStream() {
+            return new SeekableByteBufferInputStream(ByteBuffer.wrap(data));
+        }
+    }
+
+    @BeforeClass
+    public static void compileSignatures() throws Exception {
+        CarverType[] types = new CarverType[SIGNATURES.length];
+        AhoCorasick tree = new AhoCorasick();
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new CarverType();
+            types[i].setName("type" + i);
+            types[i].addHeader(SIGNATURES[i]);
+            for (Signature sig : types[i].getSignatures()) {
+                for (int k = 0; k < sig.seqs.length; k++) {
+                    tree.add(sig.seqs[k], new Object[] { sig, k });
+                }
+            }
+        }
+        tree.prepare();
+        CarverTask.compileTree(types, tree, 3);
+    }
+
+    /**
+     * Creates random data with signatures straddling segment boundaries.
+     */
+    private static byte[] createData(Random random) {
+        byte[] data = new byte[50 * SEGMENT_SIZE + 123];
+        byte[] alphabet = "RIFWAVEPKÿØÙ\u0003\u0004".getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        String[] planted = { "ÿØÿ", "ÿÙ", "RIFF1234WAVE", "PK\u0003\u0004" };
+        for (int seg = 1; seg < 50; seg++) {
+            byte[] sig = planted[seg % planted.length].getBytes(StandardCharsets.ISO_8859_1);
+            int pos = seg * SEGMENT_SIZE - 1 - random.nextInt(sig.length - 1);
+            System.arraycopy(sig, 0, data, pos, sig.length);
+        }
+        return data;
+    }
+
+    @Test
+    public void testParallelScanSameAsSequential() throws Exception {
+        Random random = new Random(0);
+        byte[] data = createData(random);
+        for (int start = 0; start < 2; start++) {
+            RecordingCarverTask sequential = new RecordingCarverTask(data);
+            // buffer boundaries different from segment boundaries
+            sequential.buf = new byte[777];
+            sequential.hits = new HitQueue();
+            InputStream in = new ByteArrayInputStream(data);
+            sequential.prevLen = in.skip(start);
+            sequential.findSig(in);
+
+            RecordingCarverTask parallel = new RecordingCarverTask(data);
+            parallel.findSigParallel(start, data.length, SEGMENT_SIZE);
+
+            assertTrue(sequential.found.size() > 50);
+            assertEquals(sequential.found, parallel.found);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package iped.engine.task.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BulkIndexPipelineTest {
+
+    @Test
+    public void testAllDocsSent() throws Exception {
+        List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(3).setBulkBytes(100, 1000)
+                .setMinBulkItems(10);
+        try (BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+            assertTrue(docs.size() <= 100);
+            sent.addAll(docs);
+        })) {
+            for (int i = 0; i < 1000; i++) {
+                pipeline.add(i, 10);
+            }
+            pipeline.flush();
+            assertEquals(1000, sent.size());
+            assertEquals(1000, pipeline.getSentDocs());
+            assertEquals(10000, pipeline.getSentBytes());
+            assertEquals(0, pipeline.getQueuedBytes());
+        }
+        Collections.sort(sent);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) sent.get(i));
+        }
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(1).setRetries(1);
+        try (BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IOException("overloaded");
+            }
+        })) {
+            pipeline.add(1, 10);
+            pipeline.flush();
+            assertEquals(2, calls.get());
+            assertEquals(1, pipeline.getSentDocs());
+            assertEquals(1, pipeline.getRetriedBulks());
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(1).setRetries(0);
+        BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+            throw new IOException("rejected");
+        });
+        pipeline.add(1, 10);
+        try {
+            pipeline.flush();
+            fail();
+        } catch (IOException e) {
+            assertEquals("rejected", e.getMessage());
+        }
+        try {
+            pipeline.add(2, 10);
+            fail();
+        } catch (IOException e) {
+            assertEquals("rejected", e.getMessage());
+        }
+        try {
+            pipeline.close();
+            fail();
+        } catch (IOException e) {
+            assertEquals("rejected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUncheckedFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(1).setRetries(-1);
+        BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("bug");
+        });
+        pipeline.add(1, 10);
+        try {
+            pipeline.flush();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // not retried even with infinite retries
+        assertEquals(1, calls.get());
+        try {
+            pipeline.close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testErrorFailure() throws Exception {
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(1).setRetries(-1);
+        BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+            throw new AssertionError("bug");
+        });
+        pipeline.add(1, 10);
+        try {
+            pipeline.flush();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        try {
+            pipeline.add(2, 10);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        try {
+            pipeline.close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test
+    public void testBulkSizeAdaptsToLatency() throws Exception {
+        BulkIndexPipeline.Config config = new BulkIndexPipeline.Config().setSenderThreads(1).setBulkBytes(100, 10000)
+                .setMinBulkItems(10).setTargetLatencyMillis(50);
+        try (BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config, docs -> {
+        })) {
+            for (int i = 0; i < 2000; i++) {
+                pipeline.add(i, 10);
+            }
+            pipeline.flush();
+            assertTrue(pipeline.getBulkBytes() > 100);
+        }
+
+        try (BulkIndexPipeline<Integer> pipeline = new BulkIndexPipeline<>("test", config.setBulkBytes(1000, 10000),
+                docs -> {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                })) {
+            for (int i = 0; i < 200; i++) {
+                pipeline.add(i, 10);
+            }
+            pipeline.flush();
+            assertEquals(1000, pipeline.getBulkBytes());
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package iped.engine.task.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.DatatypesAutomatonProvider;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * Compares finding which regexes match a 1MB text chunk using the union
+ * automaton and running every regex again on each hit, like RegexTask used to
+ * do, against the tagged MultiPatternAutomaton.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiPatternAutomatonBenchmark {
+
+    static final String[] REGEXES = { "[0-9a-z][0-9a-z\\+\\.\\_\\%\\-]{1,64}\\@[0-9a-z\\-]{2,64}(\\.[0-9a-z\\-]{2,25}){1,3}",
+            "((https?|ftp|file):/{2,3}|www)[-a-z0-9\\+\\&\\@\\#\\\\/\\%\\?\\=\\~_\\|!:,\\.;]+",
+            "([0-9A-F][0-9A-F]:){5}([0-9A-F][0-9A-F])", "([0-9]{4} ){3}[0-9]{4}", "0x[a-fA-F0-9]{40}",
+            "[0-9]{3}\\.[0-9]{3}\\.[0-9]{3}\\-[0-9]{2}", "[0-9]{2}\\.[0-9]{3}\\.[0-9]{3}/[0-9]{4}\\-[0-9]{2}",
+            "[A-Z]{3}\\-?[0-9][0-9A-Z][0-9]{2}", "[0-9]{1,3}(\\.[0-9]{1,3}){3}", "bc1[ac-hj-np-z02-9]{11,71}" };
+
+    private static final String ALPHABET = "abcdefxyz0123456789ABCDEF .-@:/_\n";
+
+    private final List<RunAutomaton> patterns = new ArrayList<>();
+    private RunAutomaton fullPattern;
+    private MultiPatternAutomaton multiPatternAutomaton;
+    private char[] text = new char[1 << 20];
+
+    static List<Automaton> createAutomata() {
+        List<Automaton> automata = new ArrayList<>();
+        for (String regex : REGEXES) {
+            automata.add(new RegExp(regex).toAutomaton(new DatatypesAutomatonProvider()));
+        }
+        return automata;
+    }
+
+    static void fillText(char[] text, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Automaton> automata = createAutomata();
+        for (Automaton automaton : automata) {
+            patterns.add(new RunAutomaton(automaton));
+        }
+        fullPattern = new RunAutomaton(BasicOperations.union(automata));
+        multiPatternAutomaton = new MultiPatternAutomaton(automata);
+        fillText(text, 0);
+    }
+
+    @Benchmark
+    public void unionAndRerun(Blackhole bh) {
+        String str = new String(text);
+        AutomatonMatcher matcher = fullPattern.newMatcher(str);
+        while (matcher.find()) {
+            String hit = str.substring(matcher.start(), matcher.end());
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).run(hit)) {
+                    bh.consume(i);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void multiPattern(Blackhole bh) {
+        multiPatternAutomaton.find(text, 0, text.length, (start, end, matched) -> {
+            for (int i : matched) {
+                bh.consume(i);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(MultiPatternAutomatonBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
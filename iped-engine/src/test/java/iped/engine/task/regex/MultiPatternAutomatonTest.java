@@ -0,0 +1,75 @@
+package iped.engine.task.regex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+public class MultiPatternAutomatonTest {
+
+    @Test
+    public void testTaggedHits() {
+        List<Automaton> automata = Arrays.asList(new RegExp("[0-9]+").toAutomaton(),
+                new RegExp("[0-9]{3}").toAutomaton(), new RegExp("ab[a-z]*").toAutomaton());
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(automata);
+        char[] text = "x123 4567 abc ab-".toCharArray();
+        List<String> hits = new ArrayList<>();
+        automaton.find(text, 0, text.length,
+                (start, end, patterns) -> hits.add(new String(text, start, end - start) + Arrays.toString(patterns)));
+        assertEquals(Arrays.asList("123[0, 1]", "4567[0]", "abc[2]", "ab[2]"), hits);
+    }
+
+    @Test
+    public void testOffsetAndLength() {
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(Arrays.asList(new RegExp("[a-c]+").toAutomaton()));
+        char[] text = "zzabcabczz".toCharArray();
+        List<int[]> hits = new ArrayList<>();
+        automaton.find(text, 3, 4, (start, end, patterns) -> hits.add(new int[] { start, end }));
+        assertEquals(1, hits.size());
+        assertArrayEquals(new int[] { 3, 7 }, hits.get(0));
+    }
+
+    @Test
+    public void testSameHitsAsUnionAutomaton() {
+        List<Automaton> automata = MultiPatternAutomatonBenchmark.createAutomata();
+        List<RunAutomaton> patterns = new ArrayList<>();
+        for (Automaton a : automata) {
+            patterns.add(new RunAutomaton(a));
+        }
+        RunAutomaton full = new RunAutomaton(BasicOperations.union(automata));
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(automata);
+
+        char[] text = new char[1 << 18];
+        MultiPatternAutomatonBenchmark.fillText(text, 1);
+        String str = new String(text);
+
+        List<String> expected = new ArrayList<>();
+        AutomatonMatcher matcher = full.newMatcher(str);
+        while (matcher.find()) {
+            String hit = str.substring(matcher.start(), matcher.end());
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).run(hit)) {
+                    expected.add(matcher.start() + ":" + hit + ":" + i);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>();
+        automaton.find(text, 0, text.length, (start, end, matched) -> {
+            for (int i : matched) {
+                result.add(start + ":" + new String(text, start, end - start) + ":" + i);
+            }
+        });
+        assertEquals(expected, result);
+    }
+
+}
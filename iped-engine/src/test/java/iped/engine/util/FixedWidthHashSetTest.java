@@ -0,0 +1,76 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import iped.utils.HashValue;
+
+public class FixedWidthHashSetTest {
+
+    private static List<byte[]> randomHashes(int count, int width) {
+        Random random = new Random(0);
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[width];
+            random.nextBytes(hash);
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testAddAndContains() {
+        FixedWidthHashSet set = new FixedWidthHashSet();
+        List<byte[]> hashes = randomHashes(200000, 20);
+        for (byte[] hash : hashes) {
+            assertTrue(set.add(hash));
+        }
+        for (byte[] hash : hashes) {
+            assertFalse(set.add(hash.clone()));
+            assertTrue(set.contains(new HashValue(hash.clone())));
+        }
+        assertFalse(set.contains(new byte[20]));
+        assertEquals(hashes.size(), set.size());
+    }
+
+    @Test
+    public void testOtherWidth() {
+        FixedWidthHashSet set = new FixedWidthHashSet();
+        assertTrue(set.add(new HashValue("D41D8CD98F00B204E9800998ECF8427E")));
+        assertTrue(set.add(new HashValue("DA39A3EE5E6B4B0D3255BFEF95601890AFD80709")));
+        assertFalse(set.add(new HashValue("DA39A3EE5E6B4B0D3255BFEF95601890AFD80709")));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        FixedWidthHashSet set = new FixedWidthHashSet();
+        List<byte[]> hashes = randomHashes(10000, 16);
+        for (byte[] hash : hashes) {
+            set.add(hash);
+        }
+        File file = File.createTempFile("hashset", ".dat");
+        try {
+            set.save(file, 123);
+            assertNull(FixedWidthHashSet.load(file, 124));
+
+            FixedWidthHashSet loaded = FixedWidthHashSet.load(file, 123);
+            assertEquals(set.size(), loaded.size());
+            for (byte[] hash : hashes) {
+                assertTrue(loaded.contains(hash));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+}
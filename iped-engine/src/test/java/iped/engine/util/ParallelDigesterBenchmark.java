@@ -0,0 +1,88 @@
+package iped.engine.util;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import iped.engine.util.ParallelDigester.DigestUpdater;
+
+/**
+ * Compares hashing an item with MD5, SHA-1, SHA-256 and MD4 (used by edonkey)
+ * sequentially, like HashTask does by default, against ParallelDigester.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelDigesterBenchmark {
+
+    @Param({ "16", "256" })
+    private int sizeMB;
+
+    private byte[] data;
+    private byte[] buf = new byte[ParallelDigester.DEFAULT_BUFFER_SIZE];
+    private List<MessageDigest> digests = new ArrayList<>();
+    private List<DigestUpdater> updaters = new ArrayList<>();
+    private ParallelDigester parallelDigester = new ParallelDigester(ParallelDigester.newExecutor(4));
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        data = new byte[sizeMB * 1024 * 1024];
+        new Random(0).nextBytes(data);
+        digests.add(MessageDigest.getInstance("MD5"));
+        digests.add(MessageDigest.getInstance("SHA-1"));
+        digests.add(MessageDigest.getInstance("SHA-256"));
+        digests.add(MessageDigest.getInstance("MD4", new BouncyCastleProvider()));
+        for (MessageDigest digest : digests) {
+            updaters.add(digest::update);
+        }
+    }
+
+    private void consumeDigests(Blackhole bh) {
+        for (MessageDigest digest : digests) {
+            bh.consume(digest.digest());
+        }
+    }
+
+    @Benchmark
+    public void sequential(Blackhole bh) throws Exception {
+        ParallelDigester.digestSequentially(new ByteArrayInputStream(data), buf, updaters);
+        consumeDigests(bh);
+    }
+
+    @Benchmark
+    public void parallel(Blackhole bh) throws Exception {
+        parallelDigester.digest(new ByteArrayInputStream(data), updaters);
+        consumeDigests(bh);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(ParallelDigesterBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,66 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+import iped.engine.util.ParallelDigester.DigestUpdater;
+
+public class ParallelDigesterTest {
+
+    private static final String[] ALGORITHMS = { "MD5", "SHA-1", "SHA-256" };
+
+    private static final ExecutorService executor = ParallelDigester.newExecutor(ALGORITHMS.length + 1);
+
+    private List<DigestUpdater> getUpdaters(List<MessageDigest> digests) throws Exception {
+        List<DigestUpdater> updaters = new ArrayList<>();
+        for (String algorithm : ALGORITHMS) {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            digests.add(digest);
+            updaters.add(digest::update);
+        }
+        return updaters;
+    }
+
+    @Test
+    public void testParallelEqualsSequential() throws Exception {
+        byte[] data = new byte[5 * 1024 * 1024 + 123];
+        new Random(1).nextBytes(data);
+
+        List<MessageDigest> seqDigests = new ArrayList<>();
+        ParallelDigester.digestSequentially(new ByteArrayInputStream(data), new byte[1024 * 1024],
+                getUpdaters(seqDigests));
+
+        List<MessageDigest> parDigests = new ArrayList<>();
+        List<DigestUpdater> updaters = getUpdaters(parDigests);
+        ParallelDigester digester = new ParallelDigester(executor, 3, 64 * 1024);
+        // digester instances are reused between items
+        for (int i = 0; i < 2; i++) {
+            digester.digest(new ByteArrayInputStream(data), updaters);
+            for (int j = 0; j < ALGORITHMS.length; j++) {
+                assertArrayEquals(seqDigests.get(j).digest(), parDigests.get(j).digest());
+            }
+            seqDigests.clear();
+            ParallelDigester.digestSequentially(new ByteArrayInputStream(data), new byte[1024 * 1024],
+                    getUpdaters(seqDigests));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUpdaterErrorIsThrown() throws Exception {
+        List<DigestUpdater> updaters = getUpdaters(new ArrayList<>());
+        updaters.add((buf, off, len) -> {
+            throw new IOException("test");
+        });
+        new ParallelDigester(executor, 2, 1024).digest(new ByteArrayInputStream(new byte[100 * 1024]), updaters);
+    }
+
+}
@@ -0,0 +1,170 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TextCacheTest {
+
+    private static String createText(int length, long seed) {
+        Random random = new Random(seed);
+        String[] words = { "iped ", "forensic ", "text ", "cache ", "ação ", "数据 ", "\n" };
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(words[random.nextInt(words.length)]);
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    private static TextCache createCache(String text, boolean diskCache) throws IOException {
+        TextCache cache = new TextCache();
+        cache.setEnableDiskCache(diskCache);
+        // writes in chunks of different sizes, like parsers do
+        char[] chars = text.toCharArray();
+        Random random = new Random(text.length());
+        for (int off = 0; off < chars.length;) {
+            int len = Math.min(chars.length - off, 1 + random.nextInt(10000));
+            cache.write(chars, off, len);
+            off += len;
+        }
+        return cache;
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8192];
+        int i;
+        while ((i = reader.read(buf)) != -1) {
+            sb.append(buf, 0, i);
+        }
+        reader.close();
+        return sb.toString();
+    }
+
+    @After
+    public void resetBudget() {
+        TextCache.setMemoryBudget(256L << 20);
+    }
+
+    @Test
+    public void testSmallText() throws IOException {
+        TextCache cache = createCache("small text", true);
+        assertEquals(10, cache.getSize());
+        Reader reader = cache.getTextReader();
+        assertEquals(10, ((TextCache.KnownSizeReader) reader).getSize());
+        assertEquals("small text", read(reader));
+        cache.close();
+    }
+
+    @Test
+    public void testCompressedSegments() throws IOException {
+        long offHeap = TextCache.getOffHeapBytes();
+        String text = createText(1_000_000, 1);
+        TextCache cache = createCache(text, true);
+        assertEquals(text.length(), cache.getSize());
+        assertEquals(text, read(cache.getTextReader()));
+        // the text was read twice
+        assertEquals(text, read(cache.getTextReader()));
+        cache.close();
+        assertEquals(offHeap, TextCache.getOffHeapBytes());
+    }
+
+    @Test
+    public void testSpillToDisk() throws IOException {
+        TextCache.setMemoryBudget(0);
+        String text = createText(700_000, 2);
+        TextCache cache = createCache(text, true);
+        assertEquals(text, read(cache.getTextReader()));
+        cache.close();
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        TextCache.setMemoryBudget(300_000);
+        String text = createText(2_000_000, 3);
+        TextCache cache = createCache(text, true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                TextCache clone = cache.clone();
+                results.add(executor.submit(() -> {
+                    try {
+                        return read(clone.getTextReader());
+                    } finally {
+                        clone.close();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(text, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        cache.close();
+    }
+
+    @Test
+    public void testTextBounds() throws IOException {
+        String text = createText(900_000, 4);
+        TextCache cache = createCache(text, true);
+        int[][] bounds = { { 0, 100 }, { 262_100, 200 }, { 500_000, 300_000 }, { 899_990, 10 } };
+        for (int[] bound : bounds) {
+            TextCache clone = cache.clone();
+            clone.setTextBounds(bound[0], bound[1]);
+            assertEquals(bound[1], clone.getSize());
+            assertEquals(text.substring(bound[0], bound[0] + bound[1]), read(clone.getTextReader()));
+            clone.close();
+        }
+        // nested bounds
+        TextCache clone = cache.clone();
+        clone.setTextBounds(300_000, 100_000);
+        clone.setTextBounds(1000, 50);
+        assertEquals(text.substring(301_000, 301_050), read(clone.getTextReader()));
+        clone.close();
+        // original still readable after closing clones
+        assertEquals(text, read(cache.getTextReader()));
+        cache.close();
+    }
+
+    @Test
+    public void testTruncatedWithoutDiskCache() throws IOException {
+        TextCache.setMemoryBudget(0);
+        String text = createText(10_500_000, 5);
+        TextCache cache = createCache(text, false);
+        assertEquals(10_000_000, cache.getSize());
+        assertEquals(text.substring(0, 10_000_000), read(cache.getTextReader()));
+        cache.close();
+    }
+
+    @Test
+    public void testReadAfterRelease() throws IOException {
+        String text = createText(300_000, 6);
+        TextCache cache = createCache(text, true);
+        Reader reader = cache.getTextReader();
+        char[] buf = new char[100];
+        assertEquals(100, reader.read(buf));
+        cache.close();
+        try {
+            // remaining text was in the released tail and segments
+            read(reader);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Text cache already closed or truncated.", e.getMessage());
+        }
+    }
+
+}
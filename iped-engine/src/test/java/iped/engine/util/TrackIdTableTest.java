@@ -0,0 +1,120 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import iped.utils.HashValue;
+
+public class TrackIdTableTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("trackIdTable").toFile();
+        file = new File(dir, "data/trackIdTable.dat");
+    }
+
+    @After
+    public void deleteDir() {
+        file.delete();
+        file.getParentFile().delete();
+        dir.delete();
+    }
+
+    private static String[] createTrackIDs(int num) {
+        Random random = new Random(num);
+        String[] trackIDs = new String[num];
+        for (int i = 0; i < num; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            trackIDs[i] = new HashValue(bytes).toString().toLowerCase();
+        }
+        Arrays.sort(trackIDs);
+        return trackIDs;
+    }
+
+    private static void add(TrackIdTable.Builder builder, String trackID, int id, boolean committed, boolean lost)
+            throws IOException {
+        byte[] bytes = trackID.getBytes(StandardCharsets.US_ASCII);
+        builder.add(bytes, 0, bytes.length, id, committed, lost);
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        String[] trackIDs = createTrackIDs(10000);
+        try (TrackIdTable.Builder builder = new TrackIdTable.Builder(file)) {
+            for (int i = 0; i < trackIDs.length; i++) {
+                add(builder, trackIDs[i], i % 3 == 0 ? i : TrackIdTable.NO_ID, i % 5 != 0, i % 1000 == 1);
+            }
+            builder.finish(7, 12000, 11000);
+        }
+        TrackIdTable table = TrackIdTable.open(file, 7, 12000, 11000);
+        assertEquals(trackIDs.length, table.size());
+        for (int i = 0; i < trackIDs.length; i++) {
+            assertEquals(i % 5 != 0, table.isCommitted(trackIDs[i]));
+            assertEquals(i % 3 == 0 ? i : TrackIdTable.NO_ID, table.getId(trackIDs[i].toUpperCase()));
+        }
+        assertEquals(10, table.getParentsWithLostSubitems().size());
+        assertEquals(new HashValue(trackIDs[1001]), table.getParentsWithLostSubitems().get(1));
+
+        assertFalse(table.isCommitted("00000000000000000000000000000000"));
+        assertEquals(TrackIdTable.NO_ID, table.getId("ffffffffffffffffffffffffffffffff"));
+        assertFalse(table.isCommitted("not a trackID"));
+        assertFalse(table.isCommitted(null));
+        table.close();
+    }
+
+    @Test
+    public void testOutdatedTable() throws IOException {
+        try (TrackIdTable.Builder builder = new TrackIdTable.Builder(file)) {
+            add(builder, createTrackIDs(1)[0], 1, true, false);
+            builder.finish(3, 10, 10);
+        }
+        assertNull(TrackIdTable.open(file, 4, 10, 10));
+        assertNull(TrackIdTable.open(file, 3, 11, 10));
+        assertNull(TrackIdTable.open(new File(dir, "missing.dat"), 3, 10, 10));
+
+        TrackIdTable table = TrackIdTable.open(file, 3, 10, 10);
+        assertEquals(1, table.size());
+        table.close();
+    }
+
+    @Test
+    public void testEmptyTable() throws IOException {
+        try (TrackIdTable.Builder builder = new TrackIdTable.Builder(file)) {
+            builder.finish(1, 0, 0);
+        }
+        TrackIdTable table = TrackIdTable.open(file, 1, 0, 0);
+        assertEquals(0, table.size());
+        assertFalse(table.isCommitted(createTrackIDs(1)[0]));
+        table.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedTrackIDs() throws IOException {
+        String[] trackIDs = createTrackIDs(2);
+        try (TrackIdTable.Builder builder = new TrackIdTable.Builder(file)) {
+            add(builder, trackIDs[1], 1, true, false);
+            add(builder, trackIDs[0], 2, true, false);
+        } finally {
+            assertFalse(file.exists());
+            assertTrue(file.getParentFile().list().length == 0);
+        }
+    }
+
+}
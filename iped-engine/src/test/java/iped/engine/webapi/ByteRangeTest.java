@@ -0,0 +1,48 @@
+package iped.engine.webapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testRanges() {
+        ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+        assertEquals(0, range.start);
+        assertEquals(99, range.end);
+        assertEquals(100, range.length());
+        assertEquals("bytes 0-99/1000", range.toContentRange(1000));
+
+        range = ByteRange.parse("bytes=900-", 1000);
+        assertEquals(900, range.start);
+        assertEquals(999, range.end);
+
+        range = ByteRange.parse("bytes=-100", 1000);
+        assertEquals(900, range.start);
+        assertEquals(999, range.end);
+
+        range = ByteRange.parse("bytes=500-5000", 1000);
+        assertEquals(500, range.start);
+        assertEquals(999, range.end);
+    }
+
+    @Test
+    public void testUnsupportedRanges() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-10", 1000));
+        assertNull(ByteRange.parse("bytes=0-10,20-30", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+    }
+
+    @Test
+    public void testNotSatisfiableRanges() {
+        assertSame(ByteRange.NOT_SATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+        assertSame(ByteRange.NOT_SATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+        assertEquals("bytes */1000", ByteRange.NOT_SATISFIABLE.toContentRange(1000));
+    }
+
+}
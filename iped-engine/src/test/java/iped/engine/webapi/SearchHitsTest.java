@@ -0,0 +1,100 @@
+package iped.engine.webapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SearchHitsTest {
+
+    private static SearchHits hits(int... luceneIds) {
+        SearchHits hits = new SearchHits(luceneIds.length);
+        for (int i = 0; i < luceneIds.length; i++) {
+            hits.sourceIds[i] = luceneIds[i] % 2;
+            hits.ids[i] = luceneIds[i] * 10;
+            hits.luceneIds[i] = luceneIds[i];
+        }
+        return hits;
+    }
+
+    private static List<Integer> readAllPages(SearchHits hits, int limit) {
+        List<Integer> read = new ArrayList<>();
+        String cursor = null;
+        do {
+            int start = cursor == null ? 0 : hits.indexAfter(Integer.parseInt(cursor));
+            int end = hits.pageEnd(start, limit);
+            assertTrue(end - start <= limit);
+            for (int i = start; i < end; i++) {
+                read.add(hits.luceneIds[i]);
+            }
+            cursor = hits.nextCursor(end);
+        } while (cursor != null);
+        return read;
+    }
+
+    @Test
+    public void testPaging() {
+        SearchHits hits = hits(1, 3, 4, 8, 9, 12, 20);
+        for (int limit = 1; limit <= 8; limit++) {
+            List<Integer> read = readAllPages(hits, limit);
+            assertEquals(7, read.size());
+            for (int i = 0; i < read.size(); i++) {
+                assertEquals(hits.luceneIds[i], (int) read.get(i));
+            }
+        }
+        assertNull(hits.nextCursor(7));
+        assertEquals("9", hits.nextCursor(5));
+    }
+
+    @Test
+    public void testCursorAtNotHit() {
+        SearchHits hits = hits(1, 3, 4, 8, 9);
+        // cursor of a hit deleted or not returned anymore by the search
+        assertEquals(3, hits.indexAfter(5));
+        assertEquals(0, hits.indexAfter(0));
+        assertEquals(5, hits.indexAfter(100));
+        assertEquals(4, hits.indexAfter(8));
+    }
+
+    @Test
+    public void testNoLimit() {
+        SearchHits hits = hits(1, 3, 4, 8, 9);
+        assertEquals(5, hits.pageEnd(0, 0));
+        assertEquals(5, hits.pageEnd(2, 0));
+        assertEquals(5, hits.pageEnd(2, Integer.MAX_VALUE));
+        assertNull(hits.nextCursor(hits.pageEnd(0, 0)));
+
+        SearchHits empty = hits();
+        assertEquals(0, empty.pageEnd(0, 10));
+        assertEquals(0, empty.indexAfter(5));
+        assertNull(empty.nextCursor(0));
+    }
+
+    @Test
+    public void testSortByLuceneId() {
+        SearchHits hits = hits(8, 1, 20, 4, 3);
+        hits.sortByLuceneId();
+        assertArrayEquals(new int[] { 1, 3, 4, 8, 20 }, hits.luceneIds);
+        assertArrayEquals(new int[] { 10, 30, 40, 80, 200 }, hits.ids);
+        assertArrayEquals(new int[] { 1, 1, 0, 0, 0 }, hits.sourceIds);
+    }
+
+    @Test
+    public void testParseFields() {
+        assertNull(SearchHits.parseFields(""));
+        assertNull(SearchHits.parseFields("  "));
+        assertTrue(SearchHits.parseFields("*").isEmpty());
+        assertTrue(SearchHits.parseFields("name, *").isEmpty());
+        Set<String> fields = SearchHits.parseFields(" name,,type ");
+        assertEquals(2, fields.size());
+        assertTrue(fields.contains("name"));
+        assertTrue(fields.contains("type"));
+    }
+
+}
@@ -0,0 +1,88 @@
+package iped.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import iped.io.SeekableInputStream;
+
+/**
+ * Seekable stream over the content of a buffer, which is not copied. Each
+ * stream has its own position, so many streams can read the same buffer.
+ */
+public class SeekableByteBufferInputStream extends SeekableInputStream {
+
+    private ByteBuffer buffer;
+
+    public SeekableByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.buffer.position(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkIfClosed();
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        checkIfClosed();
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkIfClosed();
+        return buffer.remaining();
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkIfClosed();
+        int pos = buffer.position();
+        long newPos = Math.max(0, Math.min(pos + n, buffer.limit()));
+        buffer.position((int) newPos);
+        return newPos - pos;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        checkIfClosed();
+        buffer.position((int) Math.min(pos, buffer.limit()));
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkIfClosed();
+        return buffer.position();
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkIfClosed();
+        return buffer.limit();
+    }
+
+    private void checkIfClosed() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream already closed.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+    }
+
+}